@@ -15,10 +15,17 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import java.util.Scanner;
 
+import logging.Level;
+import logging.Logger;
+import logging.PacketFormatter;
+import logging.TftpEvents;
+import protocol.BufferPool;
+import protocol.PacketDecoder;
+import protocol.PacketEncoder;
+import protocol.Tftp;
+
 /**
  * This class represents the client for the server-client-error simulator system. It
  * has the capability to send read and write requests to a server at a specified IP address,
@@ -29,36 +36,28 @@ public class Client {
 	/**START: object constants*/
 	//port number of intermediate host (ErrorSimulator)
 	private static final int INTERMEDIATE_HOST_PORT_NUMBER = 23;
-	//max size for data in a DatagramPacket
-	private static final int MAX_PACKET_SIZE = 516;
-	//max block size as an int
-	private static final int MAX_BLOCK_SIZE = 512;
+	//block size used unless another is agreed with the server (RFC 1350)
+	private static final int DEFAULT_BLOCK_SIZE = 512;
+	//smallest and largest block size that can be asked for (RFC 2348)
+	private static final int MIN_BLOCK_SIZE = 8;
+	private static final int MAX_BLOCK_SIZE = 65464;
+	//room left in a request for its options (every option this client asks for, with the largest values)
+	private static final int MAX_OPTIONS_LENGTH = 128;
+	//number of DATA blocks sent before waiting for an ACK unless another is agreed (RFC 7440)
+	private static final int DEFAULT_WINDOW_SIZE = 1;
+	//largest window size allowed by RFC 7440
+	private static final int MAX_WINDOW_SIZE = 65535;
+	//largest timeout in seconds that may be asked for (RFC 2349)
+	private static final int MAX_TIMEOUT = 255;
 	//mode to send to server (not used in this example, but a part of TFTP)
 	private static final String MODE = "octet";
 	//boolean indicating if client can timeout while waiting for packet
 	private static final boolean TIMEOUTS_ON = true;
-	//number of milliseconds until client times out while waiting for packet
-	private static final int TIMEOUT_MILLISECONDS = 5000;
-	
-	/**START: TFTP operation codes*/
-	//read request
-	private static final byte OP_RRQ = 1;
-	//write request
-	private static final byte OP_WRQ = 2;
-	//data packet
-	private static final byte OP_DATA = 3;
-	//acknowledge packet
-	private static final byte OP_ACK = 4;
-	//error packet
-	private static final byte OP_ERROR = 5;
-	/**END: TFTP operation codes*/
-
-	/**START: TFTP error codes*/
-	//TFTP error code 4 - unrecognized operation
-	private static final byte ILLEGAL_TFTP_OPERATION = 4;
-	//TFTP error code 5 - unrecognized operation
-	private static final byte UNRECOGNIZED_TID = 5;
-	/**END: TFTP error codes*/
+	//largest number of seconds a transfer may be given to finish
+	private static final int MAX_DEADLINE = 86400;
+
+	//log for the client's messages ('quiet' shows only warnings and errors, 'verbose' every packet)
+	private static final Logger log = Logger.getLogger("client");
 	/**END: object constants*/
 	
 	/**START: instance variables*/
@@ -70,10 +69,40 @@ public class Client {
 	private DatagramSocket sendReceiveSocket;
 	//the most recent packet received
 	private DatagramPacket receivePacket;
+	//buffer the packets received are held in, for reading their fields (taken from the pool for each transfer)
+	private ByteBuffer receivedData;
+	//buffer DATA packets are built in and the packet sending them, both reused for every block of a transfer
+	private ByteBuffer dataBuffer;
+	private DatagramPacket dataPacket;
+	//buffer ACK packets are built in and the packet sending them, both reused for every ACK of a transfer
+	private ByteBuffer ackBuffer;
+	private DatagramPacket ackPacket;
 	//the most recent (non-ERROR-code-5) packet sent out
 	private DatagramPacket lastPacketSent;
-	//boolean indicating if details of packets sent and received should be printed to console
-	private boolean quietMode;
+	//block size to ask the server for in requests (no option is sent for the default size)
+	private int requestedBlockSize;
+	//number of bytes in a full DATA block for the transfer in progress
+	private int blockSize;
+	//window size to ask the server for in requests (no option is sent for a window of 1)
+	private int requestedWindowSize;
+	//number of DATA blocks sent before waiting for an ACK for the transfer in progress
+	private int windowSize;
+	//boolean indicating if requests should give (WRQ) or ask for (RRQ) the size of the file
+	private boolean transferSizeRequested;
+	//size of the file being read as given by the server, or -1 if not known
+	private long transferSize;
+	//seconds the server should wait before retransmitting asked for in requests (0 sends no option)
+	private int requestedTimeout;
+	//seconds a transfer may take before it is abandoned (0 for no limit)
+	private int deadlineSeconds;
+	//decides how long to wait for the server before retransmitting in the transfer in progress
+	private RetransmissionTimer timer;
+	//name of the file being transferred, for the flight recorder events
+	private String transferFile;
+	//bytes of file data moved so far in the transfer in progress
+	private long bytesTransferred;
+	//set once the whole file has been moved in the transfer in progress
+	private boolean completed;
 	/**END: instance variables*/
 	
 	/**Constructor
@@ -82,20 +111,22 @@ public class Client {
 	 * */
 	public Client() throws SocketException {
 		try {
-			receivePacket = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
 			serverAddress = InetAddress.getLocalHost();
 		} catch (UnknownHostException e) {
-			System.out.println("Failed to initialize TFTP Server IP");
-			e.printStackTrace();
+			log.error("Failed to initialize TFTP Server IP", e);
 			System.exit(1);
 		}
 		serverPort = INTERMEDIATE_HOST_PORT_NUMBER;
-		quietMode = false;
+		requestedBlockSize = DEFAULT_BLOCK_SIZE;
+		blockSize = DEFAULT_BLOCK_SIZE;
+		requestedWindowSize = DEFAULT_WINDOW_SIZE;
+		windowSize = DEFAULT_WINDOW_SIZE;
+		transferSizeRequested = false;
+		transferSize = -1;
+		requestedTimeout = 0;
+		deadlineSeconds = 0;
 		//attempt to create socket for send and receive
 		sendReceiveSocket = new DatagramSocket();
-		//turn on timeout if required
-		if(TIMEOUTS_ON)
-			sendReceiveSocket.setSoTimeout(TIMEOUT_MILLISECONDS);
 	}
 
 	/**
@@ -108,31 +139,32 @@ public class Client {
 	private void writeFile(String fileName, byte[] fileContents) {
 		try {
 			FileOutputStream fileWriter = new FileOutputStream(fileName);
+			Object event = TftpEvents.DISK_WRITE.begin();
 			fileWriter.write(fileContents);
+			TftpEvents.DISK_WRITE.commit(event, "client", fileName, 0L, fileContents.length);
 			fileWriter.close();
 		} catch (IOException e) {
-			System.out.println("Failed to write the file.");
-			e.printStackTrace();
+			log.error("Failed to write the file.", e);
 		} catch (SecurityException se) {
-			System.out.println("Access violation while trying to write file from server.");
-			se.printStackTrace();
+			log.error("Access violation while trying to write file from server.", se);
 		}
 	}
 
 	/**
 	 * Acknowledges reception of server packet.
 	 *
-	 * @param blockID byte array containing the block ID whose reception is acknowledged.
+	 * @param blockNumber number of the block whose reception is acknowledged
 	 * @author Joe Frederick Samuel
 	 */
-	private void acknowledge(byte[] blockID) {
-		byte[] ack = {0, OP_ACK, blockID[2], blockID[3]};
-
-		DatagramPacket ACKDatagram = new DatagramPacket(ack, ack.length, serverAddress, serverPort);
-
-		sendMessage(ACKDatagram);
-		if(!quietMode)
-			System.out.println("sent acknowledgement to server");
+	private void acknowledge(int blockNumber) {
+		ackBuffer.clear();
+		PacketEncoder.putAcknowledgement(ackBuffer, blockNumber);
+		ackPacket.setAddress(serverAddress);
+		ackPacket.setPort(serverPort);
+
+		sendMessage(ackPacket);
+		timer.sent();
+		log.trace("sent acknowledgement to server");
 	}
 
 
@@ -144,7 +176,116 @@ public class Client {
 	 * @author Joe Frederick Samuel
 	 */
 	private boolean isLastPacket(DatagramPacket receivedPacket) {
-		return receivedPacket.getLength() < MAX_PACKET_SIZE;
+		return receivedPacket.getLength() < blockSize + Tftp.HEADER_LENGTH;
+	}
+
+	/**
+	 * @return true if requests ask the server for any options, in which case it may answer with an OACK
+	 */
+	private boolean optionsRequested() {
+		return requestedBlockSize != DEFAULT_BLOCK_SIZE || requestedWindowSize != DEFAULT_WINDOW_SIZE
+				|| transferSizeRequested || requestedTimeout != 0;
+	}
+
+	/**
+	 * reads the options agreed by the server from an OACK, setting the block size, window
+	 * size, file size and timeout of the transfer in progress
+	 *
+	 * @param OACK the OACK received from the server
+	 * @return true if the OACK is valid, false if the server did not agree to the options requested
+	 */
+	private boolean readOptionAcknowledgement(ByteBuffer OACK) {
+		int agreedBlockSize = DEFAULT_BLOCK_SIZE;
+		int agreedWindowSize = DEFAULT_WINDOW_SIZE;
+		long agreedTransferSize = -1;
+		int agreedTimeout = 0;
+		int index = 2;
+		while (index < OACK.remaining()) {
+			//each option is a name followed by a value, both 0 terminated
+			int nameEnd = PacketDecoder.findTextEnd(OACK, index);
+			if (nameEnd < 0)
+				return false;
+			int valueEnd = PacketDecoder.findTextEnd(OACK, nameEnd + 1);
+			if (valueEnd < 0)
+				return false;
+			long value = PacketDecoder.parseNumber(OACK, nameEnd + 1, valueEnd);
+			if (value < 0)
+				return false;
+			//values too large to fit are caught by the checks below
+			int intValue = (int) Math.min(value, Integer.MAX_VALUE);
+
+			if (PacketDecoder.textEquals(OACK, index, nameEnd, Tftp.BLOCK_SIZE_OPTION))
+				agreedBlockSize = intValue;
+			else if (PacketDecoder.textEquals(OACK, index, nameEnd, Tftp.WINDOW_SIZE_OPTION))
+				agreedWindowSize = intValue;
+			else if (PacketDecoder.textEquals(OACK, index, nameEnd, Tftp.TRANSFER_SIZE_OPTION) && transferSizeRequested)
+				agreedTransferSize = value;
+			else if (PacketDecoder.textEquals(OACK, index, nameEnd, Tftp.TIMEOUT_OPTION) && requestedTimeout != 0)
+				agreedTimeout = intValue;
+			else //the server may only acknowledge options we sent
+				return false;
+			index = valueEnd + 1;
+		}
+		//the server may agree to smaller sizes, but never larger ones
+		if (agreedBlockSize < MIN_BLOCK_SIZE || agreedBlockSize > requestedBlockSize)
+			return false;
+		if (agreedWindowSize < 1 || agreedWindowSize > requestedWindowSize)
+			return false;
+		//the server may not offer a timeout other than the one asked for
+		if (agreedTimeout != 0 && agreedTimeout != requestedTimeout)
+			return false;
+		blockSize = agreedBlockSize;
+		windowSize = agreedWindowSize;
+		transferSize = agreedTransferSize;
+		if (agreedTimeout != 0)
+			timer.setFixedTimeout(agreedTimeout * 1000);
+		if (TftpEvents.OPTION_NEGOTIATION.isEnabled())
+			TftpEvents.OPTION_NEGOTIATION.record("client", timer.getServer(), transferFile, blockSize, windowSize,
+					agreedTimeout * 1000, transferSize);
+		return true;
+	}
+
+	/**
+	 * waits for a packet from the server, no longer than the retransmission timeout
+	 *
+	 * @throws IOException indicates an I/O error occurred, including the timeout passing
+	 */
+	private void receiveFromServer() throws IOException {
+		if (TIMEOUTS_ON)
+			sendReceiveSocket.setSoTimeout(timer.getTimeoutMillis());
+		sendReceiveSocket.receive(receivePacket);
+		receivedData.limit(receivePacket.getLength());
+	}
+
+	/**
+	 * reports why a transfer is being abandoned, informing the server if it took longer
+	 * than the deadline set
+	 */
+	private void abandonTransfer() {
+		if (!timer.isPastDeadline()) {
+			log.warn("Timed out indefinitely. Total time waited: " + timer.getMillisWaited()/1000 + " seconds");
+			return;
+		}
+		log.warn("Transfer took longer than " + deadlineSeconds + " seconds, abandoning it");
+		try {
+			createAndSendErrorPacket(Tftp.NOT_DEFINED, "Transfer took too long.", serverPort);
+		} catch (IOException e) {
+			log.error("IO error while sending ERROR packet", e);
+		}
+	}
+
+	/**
+	 * ensure the socket's receive buffer can hold a whole window of DATA blocks, since
+	 * blocks arriving while it is full are dropped
+	 */
+	private void reserveReceiveBuffer() {
+		int windowBytes = (int) Math.min(Integer.MAX_VALUE, (long) windowSize * (blockSize + Tftp.HEADER_LENGTH));
+		try {
+			if (sendReceiveSocket.getReceiveBufferSize() < windowBytes)
+				sendReceiveSocket.setReceiveBufferSize(windowBytes);
+		} catch (SocketException e) {
+			log.error("Failed to enlarge the receive buffer to hold a window of blocks");
+		}
 	}
 
 	//End of Trivial File Transfer Protocol Methods
@@ -165,20 +306,25 @@ public class Client {
 	 * @param filename filename to send with the read request
 	 * @param mode the mode to send with the read request
 	 * @param OP_Code type a OP_Code for the type of request to send
-	 * @return the message converted into a byte array with proper format
+	 * @param fileSize size of the file to give in the tsize option (0 for a RRQ), or -1 to send no tsize option
+	 * @return the request, from the start of the buffer to its limit
 	 */
-	private static byte[] createPacketData(String filename, String mode, byte OP_Code) {
-		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-
-		byteStream.write(0);
-		if(OP_Code == OP_RRQ || OP_Code == OP_WRQ)
-			byteStream.write(OP_Code);
-		byteStream.write(filename.getBytes(), 0, filename.getBytes().length);
-		byteStream.write(0);
-		byteStream.write(mode.getBytes(), 0, mode.getBytes().length);
-		byteStream.write(0);
-
-		return byteStream.toByteArray();
+	private ByteBuffer createPacketData(String filename, String mode, byte OP_Code, long fileSize) {
+		ByteBuffer request = ByteBuffer.allocate(4 + filename.length() + mode.length() + MAX_OPTIONS_LENGTH);
+
+		PacketEncoder.putRequest(request, OP_Code, filename, mode);
+		//options that are not asked for are left out
+		if(requestedBlockSize != DEFAULT_BLOCK_SIZE)
+			PacketEncoder.putOption(request, Tftp.BLOCK_SIZE_OPTION, requestedBlockSize);
+		if(requestedWindowSize != DEFAULT_WINDOW_SIZE)
+			PacketEncoder.putOption(request, Tftp.WINDOW_SIZE_OPTION, requestedWindowSize);
+		if(fileSize >= 0)
+			PacketEncoder.putOption(request, Tftp.TRANSFER_SIZE_OPTION, fileSize);
+		if(requestedTimeout != 0)
+			PacketEncoder.putOption(request, Tftp.TIMEOUT_OPTION, requestedTimeout);
+
+		request.flip();
+		return request;
 	}
 
 	/**
@@ -191,15 +337,11 @@ public class Client {
 		try {
 			sendReceiveSocket.send(message);
 		} catch (IOException e) {
-			System.out.println("IOException: I/O error occurred while client sending message");
-			e.printStackTrace();
+			log.error("IOException: I/O error occurred while client sending message", e);
 			System.exit(1);
 		}
-		if(!quietMode){
-			System.out.print("Sending packet \nTo: ");
-			printPacketInfo(message);
-		}
-		if(receivePacket.getPort() == serverPort && receivePacket.getAddress() == serverAddress)
+		PacketFormatter.trace(log, "Sending packet to:", message);
+		if(receivePacket.getPort() == serverPort && serverAddress.equals(receivePacket.getAddress()))
 			lastPacketSent = message;
 	}
 
@@ -216,8 +358,7 @@ public class Client {
 			client = new Client();
 		} catch (SocketException e) {
 			//failed to create client due to failure to create DatagramSocket
-			System.err.println("SocketException: failed to create socket for client program.");
-			e.printStackTrace();
+			log.error("SocketException: failed to create socket for client program.", e);
 			System.exit(1);
 		}
 
@@ -230,6 +371,7 @@ public class Client {
 		boolean filenameGiven;
 		while(true){
 			client.serverPort = INTERMEDIATE_HOST_PORT_NUMBER;
+			Logger.flush();
 			System.out.print("Command: ");
 
 			/*receive user input*/
@@ -250,6 +392,7 @@ public class Client {
 
 				if(file != null){
 					//get filename to save retreived file as
+					Logger.flush();
 					System.out.print("Enter name to save file as: ");
 					String newFilename = scanner.nextLine();
 
@@ -260,11 +403,62 @@ public class Client {
 			}else if(command.equalsIgnoreCase("write") && filenameGiven)
 				client.sendData(filename);
 			else if(command.equalsIgnoreCase("quiet")){
-				client.quietMode = true;
+				log.setLevel(Level.WARN);
 				System.out.println("quiet mode activated");
 			}else if(command.equalsIgnoreCase("verbose")){
-				client.quietMode = false;
+				log.setLevel(Level.TRACE);
 				System.out.println("verbose mode activated");
+			}else if(command.equalsIgnoreCase("blksize") && filenameGiven){
+				//further requests will ask the server for the specified block size
+				try {
+					int size = Integer.parseInt(input[1]);
+					if(size < MIN_BLOCK_SIZE || size > MAX_BLOCK_SIZE)
+						throw new NumberFormatException();
+					client.requestedBlockSize = size;
+					System.out.println("requesting block size " + size);
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid block size given:" + input[1] + " (must be " + MIN_BLOCK_SIZE + " to " + MAX_BLOCK_SIZE + ")");
+				}
+			}else if(command.equalsIgnoreCase("windowsize") && filenameGiven){
+				//further requests will ask the server for the specified window size
+				try {
+					int size = Integer.parseInt(input[1]);
+					if(size < 1 || size > MAX_WINDOW_SIZE)
+						throw new NumberFormatException();
+					client.requestedWindowSize = size;
+					System.out.println("requesting window size " + size);
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid window size given:" + input[1] + " (must be 1 to " + MAX_WINDOW_SIZE + ")");
+				}
+			}else if(command.equalsIgnoreCase("tsize") && filenameGiven){
+				//further requests will give or ask for the size of the file
+				if(input[1].equalsIgnoreCase("on") || input[1].equalsIgnoreCase("off")){
+					client.transferSizeRequested = input[1].equalsIgnoreCase("on");
+					System.out.println("transfer size option " + (client.transferSizeRequested ? "on" : "off"));
+				}else
+					System.out.println("Invalid setting given:" + input[1] + " (must be on or off)");
+			}else if(command.equalsIgnoreCase("timeout") && filenameGiven){
+				//further requests will ask the server for the specified timeout
+				try {
+					int seconds = Integer.parseInt(input[1]);
+					if(seconds < 0 || seconds > MAX_TIMEOUT)
+						throw new NumberFormatException();
+					client.requestedTimeout = seconds;
+					System.out.println(seconds == 0 ? "not requesting a timeout" : "requesting timeout of " + seconds + " seconds");
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid timeout given:" + input[1] + " (must be 0 to " + MAX_TIMEOUT + ")");
+				}
+			}else if(command.equalsIgnoreCase("deadline") && filenameGiven){
+				//further transfers will be abandoned if they take longer than the specified time
+				try {
+					int seconds = Integer.parseInt(input[1]);
+					if(seconds < 0 || seconds > MAX_DEADLINE)
+						throw new NumberFormatException();
+					client.deadlineSeconds = seconds;
+					System.out.println(seconds == 0 ? "transfers have no deadline" : "transfers must finish within " + seconds + " seconds");
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid deadline given:" + input[1] + " (must be 0 to " + MAX_DEADLINE + ")");
+				}
 			}else if(command.equalsIgnoreCase("connect")){
 				//further requests will be sent to the specified address (default is local address)
 				if(input[1].equalsIgnoreCase("local") && input[2].equalsIgnoreCase("host")){
@@ -310,7 +504,32 @@ public class Client {
 							+ "In quiet mode, only errors will be displayed if they occur.\n");
 				}else if(input[1].equalsIgnoreCase("verbose")){
 					System.out.println("\nFormat: verbose\n"
-							+ "The command 'verbose' will cause the client to display information on each packet sent and recieved.\n");
+							+ "The command 'verbose' will cause the client to display information on each packet sent and recieved.\n"
+							+ "Packets can also be displayed from the start by running the client with -Dlog.level.client=TRACE.\n");
+				}else if(input[1].equalsIgnoreCase("blksize")){
+					System.out.println("\nFormat: blksize <bytes>\n"
+							+ "The command 'blksize' sets the block size to ask the server for in further requests (RFC 2348).\n"
+							+ "The size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE + " bytes, and the server may agree to a smaller size.\n"
+							+ "A size of " + DEFAULT_BLOCK_SIZE + " sends requests without the option.\n");
+				}else if(input[1].equalsIgnoreCase("windowsize")){
+					System.out.println("\nFormat: windowsize <blocks>\n"
+							+ "The command 'windowsize' sets the number of DATA blocks to ask the server to send before each ACK in further requests (RFC 7440).\n"
+							+ "The size must be between 1 and " + MAX_WINDOW_SIZE + " blocks, and the server may agree to a smaller size.\n"
+							+ "A size of " + DEFAULT_WINDOW_SIZE + " sends requests without the option, acknowledging every block.\n");
+				}else if(input[1].equalsIgnoreCase("tsize")){
+					System.out.println("\nFormat: tsize <on|off>\n"
+							+ "The command 'tsize' sets whether further requests include the size of the file (RFC 2349).\n"
+							+ "A write request gives the server the size of the file, so it can refuse a file too large for its disk before it is sent.\n"
+							+ "A read request asks the server for the size of the file, so space for it can be made before it is received.\n");
+				}else if(input[1].equalsIgnoreCase("timeout")){
+					System.out.println("\nFormat: timeout <seconds>\n"
+							+ "The command 'timeout' sets the number of seconds to ask the server to wait before retransmitting in further requests (RFC 2349).\n"
+							+ "The timeout must be between 1 and " + MAX_TIMEOUT + " seconds, and the client waits the same time once the server agrees.\n"
+							+ "A timeout of 0 sends requests without the option, and both sides wait a little longer than the round trip times they measure.\n");
+				}else if(input[1].equalsIgnoreCase("deadline")){
+					System.out.println("\nFormat: deadline <seconds>\n"
+							+ "The command 'deadline' sets the number of seconds further transfers may take before they are abandoned.\n"
+							+ "The deadline must be between 0 and " + MAX_DEADLINE + " seconds. A deadline of 0 lets transfers take as long as they need.\n");
 				}else if(input[1].equalsIgnoreCase("connect")){
 					System.out.println("\nGeneral format: connect <IP address>\n"
 							+ "Special Case: connect local host\n"
@@ -338,176 +557,295 @@ public class Client {
 	 * @return the file data read from the server
 	 */
 	private byte[] readRequest(String filename){
-		//create RRQ data
-		byte[] RRQData = createPacketData(filename, MODE, OP_RRQ);
+		acquireBuffers();
+		Object event = startTransfer(filename);
+		try {
+			return requestFile(filename);
+		} finally {
+			endTransfer(event, "read");
+			releaseBuffers();
+		}
+	}
+
+	/**
+	 * reset what is recorded of the transfer about to start
+	 *
+	 * @param filename name of the file to transfer
+	 * @return the flight recorder event timing the transfer, or null if no recording records it
+	 */
+	private Object startTransfer(String filename) {
+		transferFile = filename;
+		timer = null;
+		bytesTransferred = 0;
+		completed = false;
+		return TftpEvents.TRANSFER.begin();
+	}
+
+	/**
+	 * record the end of a transfer
+	 *
+	 * @param event the event returned by startTransfer()
+	 * @param direction "read" or "write"
+	 */
+	private void endTransfer(Object event, String direction) {
+		//the request may have failed before the timer was made, when the file could not be read
+		if (event != null && timer != null)
+			TftpEvents.TRANSFER.commit(event, "client", timer.getServer(), transferFile, direction, bytesTransferred, completed);
+	}
+
+	/**
+	 * sends a RRQ and receives the file from the server, in the buffers taken for the transfer
+	 *
+	 * @param filename the name of the file to read from the server
+	 * @return the file data read from the server
+	 */
+	private byte[] requestFile(String filename){
+		//create RRQ data, asking for the size of the file with a tsize of 0
+		ByteBuffer RRQData = createPacketData(filename, MODE, Tftp.OP_RRQ, transferSizeRequested ? 0 : -1);
 		//create RRQ
-		DatagramPacket RRQDatagram = new DatagramPacket(RRQData, RRQData.length,
+		DatagramPacket RRQDatagram = new DatagramPacket(RRQData.array(), RRQData.limit(),
 				serverAddress, INTERMEDIATE_HOST_PORT_NUMBER);
 
-		//send RRQ
+		//send RRQ (not timed, since the answer also takes the time the server needs to start the transfer)
+		timer = new RetransmissionTimer(deadlineSeconds, serverAddress, INTERMEDIATE_HOST_PORT_NUMBER, filename);
 		sendMessage(RRQDatagram);
+		lastPacketSent = RRQDatagram;
 
 		//get server response
 		return receiveFile();
 	}
 
+	/**
+	 * take the buffers a transfer's packets are sent and received in from the pool,
+	 * sized for the largest block size the server may agree to
+	 */
+	private void acquireBuffers() {
+		//the server may ignore the options, so blocks may be as large as the default size
+		int packetSize = Math.max(requestedBlockSize, DEFAULT_BLOCK_SIZE) + Tftp.HEADER_LENGTH;
+		receivedData = BufferPool.heap().acquire(packetSize);
+		receivePacket = new DatagramPacket(receivedData.array(), packetSize);
+		dataBuffer = BufferPool.heap().acquire(packetSize);
+		dataPacket = new DatagramPacket(dataBuffer.array(), packetSize);
+		ackBuffer = BufferPool.heap().acquire(Tftp.HEADER_LENGTH);
+		ackPacket = new DatagramPacket(ackBuffer.array(), Tftp.HEADER_LENGTH);
+	}
+
+	/**
+	 * give the buffers taken for a transfer back to the pool
+	 */
+	private void releaseBuffers() {
+		BufferPool.heap().release(receivedData);
+		BufferPool.heap().release(dataBuffer);
+		BufferPool.heap().release(ackBuffer);
+		receivedData = dataBuffer = ackBuffer = null;
+		receivePacket = dataPacket = ackPacket = null;
+	}
+
 	/**
 	 * Sends the contents of a file to the server during a write request.
 	 *
 	 * @param filename the text to send in the file
-	 * @author Joe Frederick Samuel, Ryan Ribeiro, Luke Newton, CRushton
 	 */
 	private void sendData(String filename){
+		acquireBuffers();
+		Object event = startTransfer(filename);
+		try {
+			sendFile(filename);
+		} finally {
+			endTransfer(event, "write");
+			releaseBuffers();
+		}
+	}
 
-		//create WRQ data
-		byte[] WRQData = createPacketData(filename, MODE, OP_WRQ);
+	/**
+	 * Sends the contents of a file to the server during a write request, in the
+	 * buffers taken for the transfer.
+	 *
+	 * @param filename the text to send in the file
+	 * @author Joe Frederick Samuel, Ryan Ribeiro, Luke Newton, CRushton
+	 */
+	private void sendFile(String filename){
+
+		//read in the specified file
+		byte[] fileData = readFile(filename);
+		if(fileData == null){
+			log.info("File write failed.");
+			return;
+		}
+
+		//create WRQ data, giving the server the size of the file if asked to
+		ByteBuffer WRQData = createPacketData(filename, MODE, Tftp.OP_WRQ, transferSizeRequested ? fileData.length : -1);
 		//create WRQ
-		DatagramPacket WRQDatagram = new DatagramPacket(WRQData, WRQData.length,
+		DatagramPacket WRQDatagram = new DatagramPacket(WRQData.array(), WRQData.limit(),
 				serverAddress, serverPort);
 
-		//read in the specified file
-		byte[][] fileData = splitByteArray(readFile(filename));
+		//the server may agree to another block size and window size in an OACK
+		blockSize = DEFAULT_BLOCK_SIZE;
+		windowSize = DEFAULT_WINDOW_SIZE;
+		timer = new RetransmissionTimer(deadlineSeconds, serverAddress, serverPort, filename);
 
 		/*transfer file to server*/
-		DatagramPacket response = null;
-		int blockNumberInt = 0;
-		int blockNumber = 0;
-		byte[] serverResponseData, ACKData;
+		//last block acknowledged by the server (the WRQ counts as block 0, so -1 until it is acknowledged)
+		int acknowledged = -1;
+		//next block to send
+		int nextBlock = 1;
 		boolean keepReceiving;
 		boolean firstTraversal = true;
-		int numTimeouts = 0;
-		//get ACK packet
 
-		response = WRQDatagram;
+		//the WRQ is not timed, since the answer also takes the time the server needs to start the transfer
+		sendMessage(WRQDatagram);
+		lastPacketSent = WRQDatagram;
 		do {
-			//send datagram
-			sendMessage(response);
-
-			if (response.getData()[1] == OP_DATA && response.getLength() < MAX_PACKET_SIZE) //Sent last DATA. Dont look for ACK
-				break;
-
+			if (timer.isPastDeadline()) {
+				abandonTransfer();
+				return;
+			}
+			//number of blocks the ACK received acknowledges
+			int advance = 0;
 			keepReceiving = true;
 			do { //received a packet, but packet was found not valid
-				do { //did not receive a packet, resend previous packet
+				do { //did not receive a packet, resend what has not been acknowledged
 					try {
-						if(!quietMode)
-							System.out.println("Client: waiting for acknowledge");
-						sendReceiveSocket.receive(receivePacket);
+						log.trace("Client: waiting for acknowledge");
+						receiveFromServer();
 						if(firstTraversal){
 							serverAddress = receivePacket.getAddress();
 							serverPort = receivePacket.getPort();
+							timer.setServer(serverAddress, serverPort);
 							firstTraversal = false;
 						}
 						keepReceiving = false;
-					} catch (SocketTimeoutException er) { //Timed out, resend previous packet
-						if(!quietMode)
-							System.err.println("Timed out, resending last packet.");
-						numTimeouts++;
-						sendMessage(lastPacketSent);
+					} catch (SocketTimeoutException er) { //Timed out, resend unacknowledged packets, waiting twice as long for them
+						if (!timer.timedOut())
+							break;
+						log.warn("Timed out, resending unacknowledged packets.");
+						timer.resent();
+						if (acknowledged < 0)
+							sendMessage(lastPacketSent);
+						else
+							nextBlock = sendWindow(fileData, acknowledged);
 					} catch (IOException e) {
-						System.err.println("client error while waiting for acknowledge");
-						e.printStackTrace();
+						log.error("client error while waiting for acknowledge", e);
 						System.exit(1);
 					}
-				} while (keepReceiving && numTimeouts < 3);
+				} while (keepReceiving);
 
-				if (numTimeouts >= 3) {
-					if(!quietMode)
-						System.err.println("Timed out indefinitely. Time waited: " + (TIMEOUT_MILLISECONDS * 3)/1000 + " seconds");
-					break;
+				if (keepReceiving) {
+					abandonTransfer();
+					return;
 				}
 
 				//extract ACK data
-				ACKData = receivePacket.getData();
-				int receivedBlockNumber = extractBlockNumber(ACKData);
+				int receivedBlockNumber = PacketDecoder.getBlockNumber(receivedData);
 
 				//print information in message received
-				if(!quietMode){
-					System.out.println("Client: received packet");
-					printPacketInfo(receivePacket);
-				}
+				PacketFormatter.trace(log, "Client: received packet", receivePacket);
 
-				if(ACKData[1] == OP_ERROR){
-					if(!quietMode){
-						System.err.println("Error during file write:");
-						printPacketInfo(receivePacket);
-						System.err.println("File write failed");
-					}
+				//check for illegal operation
+				byte opcode = PacketDecoder.getOpcode(receivedData);
+				if(opcode == Tftp.OP_ERROR){
+					log.error("Error during file write: error code " + PacketDecoder.getErrorCode(receivedData)
+							+ ": " + PacketDecoder.getErrorMessage(receivedData));
+					PacketFormatter.trace(log, null, receivePacket);
+					log.error("File write failed");
 					return;
 				}
 
-				//check for illegal operation
-				byte opcode = ACKData[1];
-				if(!(opcode == OP_RRQ || opcode == OP_WRQ || opcode == OP_ACK 
-						|| opcode == OP_DATA || opcode == OP_ERROR)){
+				if(!Tftp.isValidOpcode(opcode)){
 					try {
-						System.err.println("Error: Illegal TFTP Operation (op code not recognized)");
-						createAndSendErrorPacket(ILLEGAL_TFTP_OPERATION, "Op code not recognized", serverPort);
-						System.err.println("File write failed");
+						log.error("Error: Illegal TFTP Operation (op code not recognized)");
+						createAndSendErrorPacket(Tftp.ILLEGAL_TFTP_OPERATION, "Op code not recognized", serverPort);
+						log.error("File write failed");
 						return;
 					} catch (IOException e) {
-						System.err.println("IO error while sending ERROR packet");
-						e.printStackTrace();
+						log.error("IO error while sending ERROR packet", e);
 						System.exit(1);
 					}
 				}
 
-				if (checkACK(receivePacket) < 0) {
+				//an OACK in response to the WRQ takes the place of the ACK for block 0
+				if (opcode == Tftp.OP_OACK && acknowledged < 0 && optionsRequested()) {
+					if (!readOptionAcknowledgement(receivedData)) {
+						try {
+							log.error("Error: server did not agree to the options requested");
+							createAndSendErrorPacket(Tftp.OPTION_NEGOTIATION_FAILED, "Invalid option acknowledgement", serverPort);
+						} catch (IOException e) {
+							log.error("IO error while sending ERROR packet", e);
+						}
+						log.error("File write failed");
+						return;
+					}
+					advance = 1;
+					continue;
+				}
+
+				if (checkACK(receivedData) < 0) {
 					keepReceiving = true;
+					continue;
 				}
 
-				//ensure we got an ACK matching the block number sent
-				if (receivedBlockNumber != blockNumber) {
-					if(!quietMode)
-						System.err.println("Error: ACK block number does not match sent block number.");
+				//ensure we got an ACK for a block sent but not yet acknowledged (block numbers wrap around after 65535)
+				advance = (receivedBlockNumber - acknowledged) & 0xFFFF;
+				if (advance == 0 || advance >= nextBlock - acknowledged) {
+					log.error("Error: ACK block number does not match sent block number.");
 					keepReceiving = true;
 				}
 			}while (keepReceiving);
 
-			/*create response data*/
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
 			//ensure packet comes from same TID
-			if(receivePacket.getPort() != serverPort || receivePacket.getAddress() != serverAddress){
-				System.err.println("unrecognized TID: " + receivePacket.getPort());
+			if(receivePacket.getPort() != serverPort || !receivePacket.getAddress().equals(serverAddress)){
+				log.error("unrecognized TID: " + receivePacket.getPort());
 				//unexpected TID
-				outputStream.write(0);
-				outputStream.write(OP_ERROR);
-				outputStream.write(0);
-				outputStream.write(UNRECOGNIZED_TID);
-				try {
-					outputStream.write("unrecognized TID".getBytes());
-				} catch (IOException e) {
-					System.err.println("IO exception while sending unexpected TID ERROR");
-					e.printStackTrace();
-					System.exit(1);
-				}
-				outputStream.write(0);
+				sendMessage(createErrorPacket(Tftp.UNRECOGNIZED_TID, "unrecognized TID",
+						receivePacket.getAddress(), receivePacket.getPort()));
+				continue;
+			}
 
-				serverResponseData = outputStream.toByteArray();
-				response = new DatagramPacket(serverResponseData, serverResponseData.length, 
-						receivePacket.getAddress(), receivePacket.getPort());
-			} else{
-				//update block number
-				blockNumber++;
-				byte[] blockNumberArray = intToByteArray(blockNumber);
-
-
-				outputStream.write(0);
-				outputStream.write(OP_DATA);
-				outputStream.write(blockNumberArray[2]);
-				outputStream.write(blockNumberArray[3]);
-				for(int i = 0; i < fileData[blockNumberInt].length; i++){
-					outputStream.write(fileData[blockNumberInt][i]);
-				}
-				blockNumberInt++;
-				serverResponseData = outputStream.toByteArray();
+			//Exit when the final block has been acknowledged
+			acknowledged += advance;
+			timer.acknowledged();
+			bytesTransferred = Math.min((long) acknowledged * blockSize, fileData.length);
+			if (acknowledged == fileData.length / blockSize + 1)
+				break;
+			//the server only acknowledges a block before the end of a window when the blocks following it were lost
+			if (acknowledged + 1 < nextBlock)
+				timer.resent();
+			nextBlock = sendWindow(fileData, acknowledged);
 
-				//create data datagram
-				response = new DatagramPacket(serverResponseData, serverResponseData.length,
-						serverAddress, serverPort);
-			}
+			//a lock-step transfer ends once the last DATA is sent, without waiting for its ACK
+			if (windowSize == 1 && nextBlock > fileData.length / blockSize + 1)
+				break;
 		}while(true);
+		bytesTransferred = fileData.length;
+		completed = true;
+	}
+
+	/**
+	 * sends the blocks following the last one acknowledged by the server, until a
+	 * window of blocks is unacknowledged or the final block has been sent
+	 *
+	 * @param fileData contents of the file being sent
+	 * @param acknowledged number of the last block acknowledged by the server
+	 * @return number of the next block to send
+	 */
+	private int sendWindow(byte[] fileData, int acknowledged) {
+		//every block is full except the last, which is empty if the file is a multiple of the block size
+		int finalBlock = fileData.length / blockSize + 1;
+		int blockNumber = acknowledged + 1;
+		while (blockNumber - acknowledged <= windowSize && blockNumber <= finalBlock) {
+			int blockStart = (int) Math.min((long) (blockNumber - 1) * blockSize, fileData.length);
+			dataBuffer.clear();
+			PacketEncoder.putData(dataBuffer, blockNumber, fileData, blockStart, Math.min(blockSize, fileData.length - blockStart));
+
+			//create data datagram
+			dataPacket.setData(dataBuffer.array(), 0, dataBuffer.position());
+			dataPacket.setAddress(serverAddress);
+			dataPacket.setPort(serverPort);
+			sendMessage(dataPacket);
+			timer.sent();
+			blockNumber++;
+		}
+		return blockNumber;
 	}
 
 	/**
@@ -521,60 +859,56 @@ public class Client {
 		/*
 		 * Check for input errors
 		 */
-		if (errorCode < 0 || errorCode > 7) {
-			System.err.println("Unexpected error code given. Error packet not sent.");
+		if (errorCode < 0 || errorCode > Tftp.OPTION_NEGOTIATION_FAILED) {
+			log.error("Unexpected error code given. Error packet not sent.");
 
 		} else if (msg == null) {
-			System.err.println("Error message is null. Error packet not sent.");
+			log.error("Error message is null. Error packet not sent.");
 
 		} else {
 			/*
 			 * Construct error message & send
 			 */
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-
-			byteStream.write(0);
-			byteStream.write(OP_ERROR);
-			byteStream.write(0);
-			byteStream.write(errorCode);
-			byteStream.write(msg.getBytes()); //<- IOException source
-			byteStream.write(0);
-
-			byte[] responseData = byteStream.toByteArray();
-
-			DatagramPacket errorPacket = new DatagramPacket(responseData, responseData.length,
-					serverAddress, serverPort); //<- IOException source
+			DatagramPacket errorPacket = createErrorPacket(errorCode, msg, serverAddress, serverPort);
 
 			sendMessage(errorPacket);
 		}
 
 	}	
 
+	/**
+	 * creates an ERROR packet
+	 * 
+	 * @param errorCode A number indicating the TFTP error code number
+	 * @param msg The message that is displayed to the user
+	 * @param address address to send the packet to
+	 * @param port port to send the packet to
+	 * @return the ERROR packet, ready to send
+	 */
+	private static DatagramPacket createErrorPacket(byte errorCode, String msg, InetAddress address, int port) {
+		ByteBuffer errorData = ByteBuffer.allocate(PacketEncoder.errorLength(msg));
+		PacketEncoder.putError(errorData, errorCode, msg);
+		return new DatagramPacket(errorData.array(), errorData.position(), address, port);
+	}
+
 	/**
 	 * looks for errors in ACK packet
 	 * @author Luke Newton, CRushton
-	 * @param ACKDatagram An ACK datagram packet
+	 * @param ACK An ACK packet
 	 * @return int A negative number if there is an error and 1 if everything is expected
 	 */
-	private int checkACK(DatagramPacket ACKDatagram) {
+	private int checkACK(ByteBuffer ACK) {
 		//ensure we got an ACK response
-		if(ACKDatagram.getData()[1] != OP_ACK) {
+		byte opcode = PacketDecoder.getOpcode(ACK);
+		if(opcode != Tftp.OP_ACK) {
 			//Checks if it was an error packet
-			if (ACKDatagram.getData()[1] == OP_ERROR) {
-
-				ByteArrayOutputStream textStream = new ByteArrayOutputStream();
+			if (opcode == Tftp.OP_ERROR) {
 				//Retrieves the error message sent in the packet
-				for (int i = 4; ACKDatagram.getData()[i] != 0; i++) {
-					textStream.write(ACKDatagram.getData()[i]);
-				}
-				if(!quietMode){
-					String errorMessage = textStream.toString();
-					System.err.println("\n" + errorMessage + "\n");
-				}
+				String errorMessage = PacketDecoder.getErrorMessage(ACK);
+				log.error("\n" + errorMessage + "\n");
 				return -1;
 			} else {
-				if(!quietMode)
-					System.err.println("Error: expected ACK, received unknown message.");
+				log.error("Error: expected ACK, received unknown message.");
 				return -2;
 			}
 		}
@@ -582,63 +916,9 @@ public class Client {
 	}
 
 	/**
-	 * segments data into proper sized chunks to send in packets
-	 *
-	 * @author Luke Newton
-	 * @param data the data to segment
-	 * @return an array containing byte arrays of a max length 512
-	 */
-	private byte[][] splitByteArray(byte[] data){
-		//the length of the data to segment
-		int dataLength = data.length;
-		//array to hold the segmented data
-		byte[][] result = new byte[(dataLength + MAX_BLOCK_SIZE - 1)/MAX_BLOCK_SIZE + 1][];
-		int resultIndex = 0;
-		int stopIndex = 0;
-
-		for (int i = 0; i + MAX_BLOCK_SIZE <= dataLength; i += MAX_BLOCK_SIZE){
-			stopIndex += MAX_BLOCK_SIZE;
-			result[resultIndex] = Arrays.copyOfRange(data, i, stopIndex);
-			resultIndex++;
-		}
-
-		//add the last segment
-		if (stopIndex < dataLength)
-			result[resultIndex] = Arrays.copyOfRange(data, stopIndex, dataLength);
-
-		resultIndex++;
-		//ensure that we always have a not full segment to send at the end (to stop data transfer)
-		result[resultIndex] = new byte[]{0};
-
-		return result;
-	}
-
-	/**
-	 * extract a block number from an ACK packet
-	 *
-	 * @author Luke Newton
-	 * @param ACKData the data the ACK packet contains
-	 * @return the block number of the ACK packet
-	 */
-	private int extractBlockNumber(byte[] ACKData) {
-		return ByteBuffer.wrap(new byte[]{0, 0, ACKData[2], ACKData[3]}).getInt();
-	}
-
-	/**
-	 * converts and integer into a byte array
-	 *
-	 * @author Luke Newton
-	 * @param blockNumber the integer to convert to a byte array
-	 * @return the passed integer as a byte array
-	 */
-	private byte[] intToByteArray(int blockNumber) {
-		return ByteBuffer.allocate(Integer.BYTES).putInt(blockNumber).array();
-	}
-
-	/**
-	 * retrieve a file from the server in multple chunks and put blocks together
-	 *
-	 * currently assumes that chunks of message appear in correct order!
+	 * retrieve a file from the server in multple chunks and put blocks together. blocks
+	 * are only accepted in order, and are acknowledged once a window of them has been
+	 * received
 	 *
 	 * @author Joe Frederick Samuel, Luke Newton, CRushton
 	 * @return the file retrieved from the server as a byte array
@@ -648,56 +928,74 @@ public class Client {
 		//DatagramPacket response;
 		//the size of the message received from the server
 		int messageSize = 0;
-		//current block number of DATA
+		//block number of the DATA received
 		int blockNumber = 0;
+		//number of blocks received in order (not wrapped around like block numbers)
+		int receivedBlocks = 0;
+		//number of blocks received when the last ACK was sent
+		int lastAcknowledged = 0;
+		//number of blocks received when a lost block was last reported to the server, -1 if never
+		int gapReported = -1;
+		//set once the final block of the file has been received
+		boolean lastBlockReceived = false;
 		//the data contained in the response datagram
 		byte[] serverResponseData = new byte[0];
 		//buffer to store what has been received so far
-		List<Byte> responseBuffer = new ArrayList<>();
+		ArrayList<Byte> responseBuffer = new ArrayList<>();
 
 		boolean keepReceiving;
-		int numTimeouts = 0;
+		//set if the transfer is abandoned before the final block is received
+		boolean abandoned = false;
 		boolean firstTraversal = true;
+		//the server may agree to another block size and window size in an OACK
+		blockSize = DEFAULT_BLOCK_SIZE;
+		windowSize = DEFAULT_WINDOW_SIZE;
+		transferSize = -1;
 
 		do {
+			if (timer.isPastDeadline()) {
+				abandonTransfer();
+				abandoned = true;
+				break;
+			}
 			keepReceiving = true; //new packet to receive, reset to true
 			do { //Received packet, but was incorrect format. Dont send ACK & Try to receive again
 				do { //if timed out, send last packet sent and try receiving again
 
 					try {
-						sendReceiveSocket.receive(receivePacket);
+						receiveFromServer();
 						if(firstTraversal){
 							serverAddress = receivePacket.getAddress();
 							serverPort = receivePacket.getPort();
+							timer.setServer(serverAddress, serverPort);
 							firstTraversal = false;
 						}
 						keepReceiving = false;
 					} catch (SocketTimeoutException er) {
-						if(!quietMode)
-							System.err.println("Timed out, waiting on another packet.");
-						numTimeouts += 1;
-						if (blockNumber == 0) { //if we need to send another RRQ
+						if (!timer.timedOut())
+							break;
+						log.warn("Timed out, waiting on another packet.");
+						//the DATA that follows may answer this packet or the one before it, so it is not timed
+						timer.resent();
+						if (receivedBlocks == 0) { //if we need to send another RRQ (or ACK of the OACK)
 							sendMessage(lastPacketSent);
-						} else { //send last ACK
-							acknowledge(intToByteArray(blockNumber));
+						} else { //acknowledge the last block received in order
+							acknowledge(receivedBlocks);
+							lastAcknowledged = receivedBlocks;
 						}
 					} catch (IOException e) {
-						System.out.println("IOException: I/O error occurred while client waiting for message");
-						e.printStackTrace();
+						log.error("IOException: I/O error occurred while client waiting for message", e);
 						System.exit(1);
 					}
-				} while (keepReceiving && numTimeouts < 3);
+				} while (keepReceiving);
 
-				if (numTimeouts >= 3) {
-					if(!quietMode)
-						System.err.println("Timed out indefinitely. Total time waited: " + (TIMEOUT_MILLISECONDS * 3)/1000 + " seconds");
+				if (keepReceiving) {
+					abandonTransfer();
+					abandoned = true;
 					break;
 				}
 				//print information in message received
-				if(!quietMode){
-					System.out.println("Client: received packet");
-					printPacketInfo(receivePacket);
-				}
+				PacketFormatter.trace(log, "Client: received packet", receivePacket);
 
 				//get size of the message
 				messageSize = receivePacket.getLength();
@@ -705,82 +1003,108 @@ public class Client {
 				serverResponseData = receivePacket.getData();
 
 				//check for illegal operation
-				byte opcode = serverResponseData[1];
-				if(!(opcode == OP_RRQ || opcode == OP_WRQ || opcode == OP_ACK 
-						|| opcode == OP_DATA || opcode == OP_ERROR)){
+				byte opcode = PacketDecoder.getOpcode(receivedData);
+				if(!Tftp.isValidOpcode(opcode)){
 					try {
-						System.err.println("Error: Illegal TFTP Operation (op code not recognized)");
-						createAndSendErrorPacket(ILLEGAL_TFTP_OPERATION, "Op code not recognized", receivePacket.getPort());
-						System.err.println("File write failed");
+						log.error("Error: Illegal TFTP Operation (op code not recognized)");
+						createAndSendErrorPacket(Tftp.ILLEGAL_TFTP_OPERATION, "Op code not recognized", receivePacket.getPort());
+						log.error("File write failed");
 						return null;
 					} catch (IOException e) {
-						System.err.println("IO error while sending ERROR packet");
-						e.printStackTrace();
+						log.error("IO error while sending ERROR packet", e);
 						System.exit(1);
 					}
 				}
 
-				if(serverResponseData[1] == OP_ERROR){
-					if(!quietMode){
-						System.err.println("Error during file read:");
-						printPacketInfo(receivePacket);
-					}
+				if(opcode == Tftp.OP_ERROR){
+					log.error("Error during file read: error code " + PacketDecoder.getErrorCode(receivedData)
+							+ ": " + PacketDecoder.getErrorMessage(receivedData));
+					PacketFormatter.trace(log, null, receivePacket);
 					return null;
 				}
 
+				//an OACK in response to the RRQ is acknowledged as block 0 before the server sends DATA
+				if (opcode == Tftp.OP_OACK && receivedBlocks == 0 && optionsRequested()) {
+					if (!readOptionAcknowledgement(receivedData)) {
+						try {
+							log.error("Error: server did not agree to the options requested");
+							createAndSendErrorPacket(Tftp.OPTION_NEGOTIATION_FAILED, "Invalid option acknowledgement", serverPort);
+						} catch (IOException e) {
+							log.error("IO error while sending ERROR packet", e);
+						}
+						return null;
+					}
+					timer.acknowledged();
+					reserveReceiveBuffer();
+					//with the size of the file known, make room for all of it up front
+					if (transferSize > 0)
+						responseBuffer.ensureCapacity((int) Math.min(transferSize, Integer.MAX_VALUE - 8));
+					acknowledge(0);
+					keepReceiving = true;
+					continue;
+				}
+
 				//if we did not get a DATA packet, keep receiving
-				if (serverResponseData[1] != OP_DATA) {
-					if(!quietMode)
-						System.err.println("Error during file read: unexpected packet format.");
+				if (opcode != Tftp.OP_DATA) {
+					log.error("Error during file read: unexpected packet format.");
 					keepReceiving = true;
 				}
 			} while (keepReceiving);
+			if (abandoned)
+				break;
 			//get block number
-			blockNumber = extractBlockNumber(serverResponseData);
+			blockNumber = PacketDecoder.getBlockNumber(receivedData);
 
 			//ensure packet comes from same TID
-			if(receivePacket.getPort() != serverPort || receivePacket.getAddress() != serverAddress){
-				System.err.println("unrecognized TID: " + receivePacket.getPort());
+			if(receivePacket.getPort() != serverPort || !receivePacket.getAddress().equals(serverAddress)){
+				log.error("unrecognized TID: " + receivePacket.getPort());
 				//unexpected TID
-				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-				outputStream.write(0);
-				outputStream.write(OP_ERROR);
-				outputStream.write(0);
-				outputStream.write(UNRECOGNIZED_TID);
-				try {
-					outputStream.write("unrecognized TID".getBytes());
-				} catch (IOException e) {
-					System.err.println("IO exception while sending unexpected TID ERROR");
-					e.printStackTrace();
-					System.exit(1);
-				}
-				outputStream.write(0);
-
-				DatagramPacket responseToUnexpectedTID = new DatagramPacket(outputStream.toByteArray(), 
-						outputStream.toByteArray().length, receivePacket.getAddress(), receivePacket.getPort());
+				DatagramPacket responseToUnexpectedTID = createErrorPacket(Tftp.UNRECOGNIZED_TID, "unrecognized TID",
+						receivePacket.getAddress(), receivePacket.getPort());
 
 				try {
 					sendReceiveSocket.send(responseToUnexpectedTID);
-					System.out.println("Sent message to:");
-					printPacketInfo(responseToUnexpectedTID);
+					PacketFormatter.trace(log, "Sent message to:", responseToUnexpectedTID);
 				} catch (IOException e) {
-					System.err.println("Server error while sending unknown TID ERROR");
-					e.printStackTrace();
+					log.error("Server error while sending unknown TID ERROR", e);
 					System.exit(1);
 				}
-			}else{
-				//add response data to buffer (index 4 is the start of data in TFTP DATA packets)
-				for(int i = 4; i < messageSize; i++)
+			}else if(blockNumber == ((receivedBlocks + 1) & 0xFFFF)){
+				//add response data to buffer (the data starts after the header in TFTP DATA packets)
+				for(int i = Tftp.HEADER_LENGTH; i < messageSize; i++)
 					responseBuffer.add(serverResponseData[i]);
-
-				//send acknowledgement to server (parameter passed is a conversion of int to byte[])
-				acknowledge(intToByteArray(blockNumber));
+				bytesTransferred = responseBuffer.size();
+				receivedBlocks++;
+				timer.acknowledged();
+				lastBlockReceived = isLastPacket(receivePacket);
+
+				//send acknowledgement to server once a window has been received (parameter passed is a conversion of int to byte[])
+				if(receivedBlocks - lastAcknowledged >= windowSize || lastBlockReceived){
+					acknowledge(receivedBlocks);
+					lastAcknowledged = receivedBlocks;
+				}
+			}else if(((blockNumber - receivedBlocks - 1) & 0xFFFF) < windowSize){
+				//a block was lost, acknowledge the last block received in order once so the server resends from there
+				if(gapReported != receivedBlocks){
+					log.warn("Block " + ((receivedBlocks + 1) & 0xFFFF) + " was lost, received block " + blockNumber);
+					timer.resent();
+					acknowledge(receivedBlocks);
+					lastAcknowledged = receivedBlocks;
+					gapReported = receivedBlocks;
+				}
+			}else if(windowSize == 1){
+				//a duplicate of a block already received, our ACK may have been lost
+				timer.resent();
+				acknowledge(blockNumber);
 			}
 
-		} while(!isLastPacket(receivePacket) && numTimeouts < 3);
+		} while(!lastBlockReceived);
 
-		if (numTimeouts >= 3 && !quietMode)
-			System.err.println("Client timed out");
+		completed = !abandoned;
+		if (abandoned)
+			log.warn("Client timed out");
+		else if (transferSize >= 0 && transferSize != responseBuffer.size())
+			log.warn("Warning: received " + responseBuffer.size() + " bytes, but the server gave the file size as " + transferSize);
 
 		/*get final byte array from response buffer*/
 		ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
@@ -800,43 +1124,19 @@ public class Client {
 	private byte[] readFile(String filename) {
 		Path path = Paths.get(filename);
 		try {
-			return Files.readAllBytes(path);
+			Object event = TftpEvents.DISK_READ.begin();
+			byte[] contents = Files.readAllBytes(path);
+			TftpEvents.DISK_READ.commit(event, "client", filename, 0L, contents.length);
+			return contents;
 		} catch (IOException e) {
-			System.out.println("failed to read file at specified path");
+			log.info("failed to read file at specified path");
 			return null;
 		} catch (SecurityException se) {
-			System.out.println("Access violation while trying to read file from server.");
+			log.info("Access violation while trying to read file from server.");
 			return null;
 		}
 	}
 
-	/**
-	 * prints packet information
-	 *
-	 * @author Luke Newton, Cameron Rushton
-	 * @param packet DatagramPacket
-	 */
-	private void printPacketInfo(DatagramPacket packet) {
-		if(quietMode)
-			return;
-
-		//get meaningful portion of message
-		byte[] dataAsByteArray = Arrays.copyOf(packet.getData(), packet.getLength());
-
-		System.out.println("host: " + packet.getAddress() + ":" + packet.getPort());
-		System.out.println("Message length: " + packet.getLength());
-		System.out.print("Type: ");
-		switch(dataAsByteArray[1]) {
-		case OP_RRQ: System.out.println("RRQ"); break;
-		case OP_WRQ: System.out.println("WRQ"); break;
-		case OP_DATA: System.out.println("DATA"); break;
-		case OP_ACK: System.out.println("ACK"); break;
-		case OP_ERROR: System.out.println("ERROR"); break;
-		}
-		System.out.println("Containing: " + new String(dataAsByteArray));
-		System.out.println("Contents as raw data: " + Arrays.toString(dataAsByteArray) + "\n");
-	}
-
 	/**
 	 * prints a menu containing all valid client commands
 	 *
@@ -847,6 +1147,11 @@ public class Client {
 		System.out.println("type 'write' followed by a file name to begin a write request.");
 		System.out.println("type 'quiet' to set the client to quiet file transfer mode");
 		System.out.println("type 'verbose' to set the client to verbose file transfer mode");
+		System.out.println("type 'blksize' followed by a number of bytes to set the block size asked for");
+		System.out.println("type 'windowsize' followed by a number of blocks to set the window size asked for");
+		System.out.println("type 'tsize' followed by on or off to set whether requests include the file size");
+		System.out.println("type 'timeout' followed by a number of seconds to set the retransmission timeout asked for");
+		System.out.println("type 'deadline' followed by a number of seconds to set how long transfers may take");
 		System.out.println("type 'connect' to specify the address to send requests to");
 		System.out.println("type 'quit' to shutdown the client.");
 		System.out.println("type 'help' to display this message again, or 'help' followed by any of the above command words for further decription.\n");
@@ -0,0 +1,73 @@
+package client;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import logging.TftpEvents;
+
+/**
+ * the retransmission timer of a transfer from the client's side. the timeout is
+ * measured as protocol.RetransmissionTimer does, starting long enough for the server
+ * to start the transfer, until the server agrees to the timeout asked for (RFC 2349),
+ * which is then used as is for the rest of the transfer.
+ *
+ * every retransmission and timeout is also recorded as a flight recorder event
+ *
+ * @author Luke Newton
+ */
+class RetransmissionTimer extends protocol.RetransmissionTimer {
+	//milliseconds to wait until a round trip has been measured, long enough for the server to start the transfer
+	private static final long INITIAL_TIMEOUT_MILLISECONDS = 3000;
+
+	//address and port of the server, for the events recorded
+	private InetAddress serverAddress;
+	private int serverPort;
+	//name of the file being transferred, for the events recorded
+	private String file;
+
+	/**
+	 * Constructor
+	 *
+	 * @param deadlineSeconds seconds the transfer may take before it is abandoned (0 for no limit)
+	 * @param serverAddress address the request is sent to
+	 * @param serverPort port the request is sent to
+	 * @param file name of the file being transferred
+	 */
+	RetransmissionTimer(int deadlineSeconds, InetAddress serverAddress, int serverPort, String file){
+		super(INITIAL_TIMEOUT_MILLISECONDS, deadlineSeconds);
+		this.serverAddress = serverAddress;
+		this.serverPort = serverPort;
+		this.file = file;
+	}
+
+	/**
+	 * record the port the server answered from (its TID), which the rest of the
+	 * transfer is with
+	 *
+	 * @param serverAddress address of the server
+	 * @param serverPort port of the server for the transfer
+	 */
+	void setServer(InetAddress serverAddress, int serverPort){
+		this.serverAddress = serverAddress;
+		this.serverPort = serverPort;
+	}
+
+	/**
+	 * @return the server's address and port as recorded in events
+	 */
+	String getServer(){
+		return TftpEvents.describe(new InetSocketAddress(serverAddress, serverPort));
+	}
+
+	@Override
+	protected void onRetransmission(){
+		if (TftpEvents.RETRANSMISSION.isEnabled())
+			TftpEvents.RETRANSMISSION.record("client", getServer(), file, getTimeoutMillis());
+	}
+
+	@Override
+	protected void onTimeout(int consecutiveTimeouts){
+		if (TftpEvents.TIMEOUT.isEnabled())
+			TftpEvents.TIMEOUT.record("client", getServer(), file, getTimeoutMillis(), consecutiveTimeouts);
+	}
+}
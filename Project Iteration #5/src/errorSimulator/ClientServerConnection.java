@@ -6,15 +6,22 @@
  */
 package errorSimulator;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import logging.Logger;
+import logging.PacketFormatter;
+import protocol.BufferPool;
+import protocol.PacketDecoder;
+import protocol.PacketEncoder;
+import protocol.Tftp;
+
 /**
  * a connection between the client and server to transfer files
  *
@@ -22,13 +29,23 @@ import java.util.Arrays;
 public class ClientServerConnection implements Runnable {
 	//the port the server is located on
 	private static final int SERVER_PORT_NUMBER = 69;
-	//max size for data in a DatagramPacket
-	private static final int MAX_PACKET_SIZE = 516;
+	//max size for data in a DatagramPacket (a DATA packet with the largest block size allowed by RFC 2348)
+	private static final int MAX_PACKET_SIZE = 65468;
+	//block size used unless another is agreed in an OACK
+	private static final int DEFAULT_BLOCK_SIZE = 512;
+	//window size used unless another is agreed in an OACK (a window of 1 is lock-step)
+	private static final int DEFAULT_WINDOW_SIZE = 1;
+	//log for the error simulator's messages
+	private static final Logger log = Logger.getLogger("errorSimulator");
 
 	//socket for error simulator to send and receive packets
 	private DatagramSocket sendRecieveSocket;
 	//buffer to contain data to send to server/client
 	private DatagramPacket recievePacket;
+	/*buffers packets are received in, taken in turn so the packet received before the
+	 *latest one is still held (taken from the pool for the connection)*/
+	private ByteBuffer[] receiveBuffers;
+	private DatagramPacket[] receivePackets;
 	//port number of client to send response to
 	private int clientPort;
 	//port number of server to send response to
@@ -39,6 +56,10 @@ public class ClientServerConnection implements Runnable {
 	private DatagramPacket request;
 	//specifies whether this connection is for a RRQ or WRQ
 	private int connectionOpCode;
+	//number of bytes in a full DATA block, as agreed by the server
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	//number of DATA blocks sent before each ACK, as agreed by the server
+	private int windowSize = DEFAULT_WINDOW_SIZE;
 
 	//specifies the op code of packet to create error on
 	private int errorOpCode;
@@ -53,14 +74,6 @@ public class ClientServerConnection implements Runnable {
 	private boolean createInvalidFilename;
 	private boolean createInvalidTID;
 	private InetAddress clientAddress;
-
-	//TFTP OP code
-	private static final byte OP_RRQ = 1;
-	private static final byte OP_WRQ = 2;
-	private static final byte OP_DATA = 3;
-	private static final byte OP_ACK = 4;
-	private static final byte OP_ERROR = 5;
-
 	/**
 	 * Constructor
 	 * 
@@ -74,7 +87,7 @@ public class ClientServerConnection implements Runnable {
 		try {
 			sendRecieveSocket = new DatagramSocket();
 		} catch (SocketException e) {
-			e.printStackTrace();
+			log.error("failed to create socket for client server connection", e);
 		}
 
 		this.errorSim = errorSim;
@@ -108,32 +121,6 @@ public class ClientServerConnection implements Runnable {
 		this.createInvalidTID = createInvalidTID;
 	}
 
-	/**
-	 * prints packet information
-	 * 
-	 * @author Luke Newton, Cameron Rushton
-	 * @param packet : DatagramPacket
-	 */
-	private void printPacketInfo(DatagramPacket packet) {
-
-		//get meaningful portion of message
-		byte[] dataAsByteArray = Arrays.copyOf(packet.getData(), packet.getLength());		
-
-		System.out.println("host: " + packet.getAddress() + ":" + packet.getPort());
-		System.out.println("Message length: " + packet.getLength());
-		System.out.print("Type: ");
-		switch(dataAsByteArray[1]) {
-		case 1: System.out.println("RRQ"); break;
-		case 2: System.out.println("WRQ"); break;
-		case 3: System.out.println("DATA"); break;
-		case 4: System.out.println("ACK"); break;
-		case 5: System.out.println("ERROR"); break;
-		}
-		System.out.println("Number " + (int)dataAsByteArray[3]);
-		System.out.println("Containing: " + new String(dataAsByteArray));
-		System.out.println("Contents as raw data: " + Arrays.toString(dataAsByteArray) + "\n");
-	}
-
 	/**
 	 * error simulator waits until it receives a message, which is stored in receivePacket and returned
 	 * 
@@ -141,12 +128,12 @@ public class ClientServerConnection implements Runnable {
 	 * @return returns the receive datagram packet
 	 */
 	private DatagramPacket waitReceiveMessage() {
-		recievePacket = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
+		recievePacket = recievePacket == receivePackets[0] ? receivePackets[1] : receivePackets[0];
+		recievePacket.setLength(MAX_PACKET_SIZE);
 		try {
 			sendRecieveSocket.receive(recievePacket);
 		} catch (IOException e) {
-			System.err.println("IOException: I/O error occured while error simulator waiting for response");
-			e.printStackTrace();
+			log.error("IOException: I/O error occured while error simulator waiting for response", e);
 			System.exit(1);
 		}
 		return recievePacket;
@@ -162,8 +149,7 @@ public class ClientServerConnection implements Runnable {
 		try {
 			sendRecieveSocket.send(message);
 		} catch (IOException e) {
-			System.err.println("IOException: I/O error occured while error simulator sending message");
-			e.printStackTrace();
+			log.error("IOException: I/O error occured while error simulator sending message", e);
 			System.exit(1);
 		}	
 	}
@@ -173,264 +159,337 @@ public class ClientServerConnection implements Runnable {
 	 */
 	@Override
 	public void run() {
-		/*perform one transfer between client and server to get port numbers, then
-		 * wait for any message and send to the other port number*/
 		synchronized(errorSim){
-			System.out.println("client server connection thread start.");
-			//datagram packets to hold messages to send and messages received
-			DatagramPacket sendPacket = null, response = null, previousResponse = null;
-			//byte array to store data from recieved datagram packet
-			byte[] messageData;
+			log.debug("client server connection thread start.");
+			//take the buffers packets are received in, giving them back once the connection ends
+			receiveBuffers = new ByteBuffer[2];
+			receivePackets = new DatagramPacket[2];
+			for (int i = 0; i < receiveBuffers.length; i++) {
+				receiveBuffers[i] = BufferPool.heap().acquire(MAX_PACKET_SIZE);
+				receivePackets[i] = new DatagramPacket(receiveBuffers[i].array(), MAX_PACKET_SIZE);
+			}
+			try {
+				forwardPackets();
+			} finally {
+				for (ByteBuffer buffer : receiveBuffers)
+					BufferPool.heap().release(buffer);
+				receiveBuffers = null;
+				receivePackets = null;
+			}
+			log.debug("Client server connection thread finished.");
+		}
+	}
+
+	/**
+	 * perform one transfer between client and server to get port numbers, then wait for
+	 * any message and send it to the other port number, creating any errors asked for
+	 */
+	private void forwardPackets() {
+		//datagram packets to hold messages to send and messages received
+		DatagramPacket sendPacket = null, response = null, previousResponse = null;
+		//byte array to store data from recieved datagram packet
+		byte[] messageData;
+
+		//get meaningful portion of initial client request
+		messageData = Arrays.copyOf(request.getData(), request.getLength());		
+		clientPort = request.getPort();
+		clientAddress = request.getAddress();
+
+		//print data received from client. Got this packet from parent ErrorSimulator.
+		printMessageRecieved(request);
+
+		//create packet to send request to server on specified port
+		try {
+			//alter opcode
+			if(createInvalidOpcode && ((errorOpCode == Tftp.OP_WRQ && connectionOpCode == Tftp.OP_WRQ)
+					|| (errorOpCode == Tftp.OP_RRQ && connectionOpCode == Tftp.OP_RRQ))){
+				messageData = invalidateOpCode(messageData);
+			}
+			//alter filename
+			else if(createInvalidFilename && ((errorOpCode == Tftp.OP_WRQ && connectionOpCode == Tftp.OP_WRQ)
+					|| (errorOpCode == Tftp.OP_RRQ && connectionOpCode == Tftp.OP_RRQ))){
+				messageData = invalidateFilename(messageData);
+			}//alter mode
+			else if(createInvalidMode && ((errorOpCode == Tftp.OP_WRQ && connectionOpCode == Tftp.OP_WRQ)
+					|| (errorOpCode == Tftp.OP_RRQ && connectionOpCode == Tftp.OP_RRQ))){
+				messageData = invalidateMode(messageData);
+			}
+
+			sendPacket = new DatagramPacket(messageData, messageData.length,
+					InetAddress.getLocalHost(), SERVER_PORT_NUMBER);
+		} catch (UnknownHostException e) {
+			//failed to determine the host IP address
+			log.error("UnknownHostException: could not determine IP address of host while creating packet.", e);
+			System.exit(1);
+		}
+
+		//print data to send to server
+		printMessageToSend(sendPacket);
+
+		//delay RRQ/WRQ
+		if(createPacketDelay && ((errorOpCode == Tftp.OP_WRQ && connectionOpCode == Tftp.OP_WRQ)
+				|| (errorOpCode == Tftp.OP_RRQ && connectionOpCode == Tftp.OP_RRQ))){
+			(new Thread(new PacketDelayRunnable(sendPacket, sendRecieveSocket, packetDelayTime))).start();
+			createPacketDelay = false;
+		} else {
+			//send datagram to server
+			sendMessage(sendPacket);
+			log.trace("Error simulator sent message to server");
+		}
 
-			//get meaningful portion of initial client request
-			messageData = Arrays.copyOf(request.getData(), request.getLength());		
-			clientPort = request.getPort();
-			clientAddress = request.getAddress();
+		//wait to receive response from server
+		log.trace("Error simulator waiting on response from server...");
+		previousResponse = sendPacket;
+		response = waitReceiveMessage();
 
-			//print data received from client. Got this packet from parent ErrorSimulator.
-			printMessageRecieved(request);
+		//get meaningful portion of message
+		messageData = Arrays.copyOf(response.getData(), response.getLength());
+		serverPort = response.getPort();
+
+		//print request received by server
+		printMessageRecieved(response);
 
+		//create duplicate WRQ and RRQ if necessary
+		if(createDuplicateError && ((errorOpCode == Tftp.OP_WRQ && previousResponse.getData()[1] == Tftp.OP_WRQ) 
+				|| (errorOpCode == Tftp.OP_RRQ && previousResponse.getData()[1] == Tftp.OP_RRQ))){
+			//send another request to server
 			//create packet to send request to server on specified port
 			try {
-				//alter opcode
-				if(createInvalidOpcode && ((errorOpCode == OP_WRQ && connectionOpCode == OP_WRQ)
-						|| (errorOpCode == OP_RRQ && connectionOpCode == OP_RRQ))){
-					messageData = invalidateOpCode(messageData);
-				}
-				//alter filename
-				else if(createInvalidFilename && ((errorOpCode == OP_WRQ && connectionOpCode == OP_WRQ)
-						|| (errorOpCode == OP_RRQ && connectionOpCode == OP_RRQ))){
-					messageData = invalidateFilename(messageData);
-				}//alter mode
-				else if(createInvalidMode && ((errorOpCode == OP_WRQ && connectionOpCode == OP_WRQ)
-						|| (errorOpCode == OP_RRQ && connectionOpCode == OP_RRQ))){
-					messageData = invalidateMode(messageData);
-				}
-
-				sendPacket = new DatagramPacket(messageData, messageData.length,
-						InetAddress.getLocalHost(), SERVER_PORT_NUMBER);
+				sendPacket = new DatagramPacket(previousResponse.getData(), previousResponse.getData().length,
+						InetAddress.getLocalHost(), serverPort);
 			} catch (UnknownHostException e) {
 				//failed to determine the host IP address
-				System.err.println("UnknownHostException: could not determine IP address of host while creating packet.");
-				e.printStackTrace();
+				log.error("UnknownHostException: could not determine IP address of host while creating packet.", e);
 				System.exit(1);
 			}
-
+			(new Thread(new PacketDelayRunnable(sendPacket, sendRecieveSocket, packetDelayTime))).start();
 			//print data to send to server
 			printMessageToSend(sendPacket);
 
-			//delay RRQ/WRQ
-			if(createPacketDelay && ((errorOpCode == OP_WRQ && connectionOpCode == OP_WRQ)
-					|| (errorOpCode == OP_RRQ && connectionOpCode == OP_RRQ))){
-				(new Thread(new PacketDelayRunnable(sendPacket, sendRecieveSocket, packetDelayTime))).start();
-				createPacketDelay = false;
-			} else {
-				//send datagram to server
-				sendMessage(sendPacket);
-				System.out.println("Error simulator sent message to server");
-			}
+			//wait for server reponse
+			response = waitReceiveMessage();
+
+			createLostError = false;
+		}
+		//lose DATA or lose ACK
+		if(createLostError &&
+				((errorOpCode == Tftp.OP_DATA && messageData[1] == Tftp.OP_DATA && 1 == errorBlockNumber) ||
+						(errorOpCode == Tftp.OP_ACK && messageData[1] == Tftp.OP_ACK && 1 == errorBlockNumber))){
+			createLostError = false;
+			log.info("Destroyed packet");
+
+		} else {
+			//create packet to send resposne to client
+			sendPacket = new DatagramPacket(messageData, messageData.length,
+					clientAddress, clientPort);
+
+			//send datagram to client
+			sendMessage(sendPacket);
+			log.trace("Error simulator sent message to client");
+		}
+		//the server agreed to options, which may change the block size and window size
+		if(messageData[1] == Tftp.OP_OACK){
+			blockSize = extractOption(messageData, Tftp.BLOCK_SIZE_OPTION, DEFAULT_BLOCK_SIZE);
+			windowSize = extractOption(messageData, Tftp.WINDOW_SIZE_OPTION, DEFAULT_WINDOW_SIZE);
+		}
 
-			//wait to receive response from server
-			System.out.println("Error simulator waiting on response from server...");
-			previousResponse = sendPacket;
+		//a DATA/ACK pair represents on  complete packet transfer
+		int filetransfers = 1;
+		//an OACK answering a RRQ is acknowledged as block 0 before DATA 1 is sent
+		if(connectionOpCode == Tftp.OP_RRQ && messageData[1] == Tftp.OP_OACK)
+			filetransfers = 0;
+		else if(connectionOpCode == Tftp.OP_RRQ)
+			filetransfers += 1;
+
+		boolean tamperedOneOfLastTwoPackets = false; //Indicates that it destroyed the last packet received so it should keep running.
+		//block number of the final DATA of a windowed transfer, -1 until it is seen
+		int finalBlockNumber = -1;
+		final int COOLDOWN_PACKETS = 2;
+		int tamperPacketCooldown = COOLDOWN_PACKETS;
+
+		while(true) {
+			if(messageData[1] == Tftp.OP_ERROR)
+				break;
+			//copy previous message
+			previousResponse = response;
+			//get next message
+			log.trace("Error simulator waiting for response...");
 			response = waitReceiveMessage();
 
 			//get meaningful portion of message
 			messageData = Arrays.copyOf(response.getData(), response.getLength());
-			serverPort = response.getPort();
 
-			//print request received by server
+			tamperPacketCooldown--;
+			if (tamperPacketCooldown == 0)
+				tamperedOneOfLastTwoPackets = false;
+
+			//print response received
 			printMessageRecieved(response);
 
-			//create duplicate WRQ and RRQ if necessary
-			if(createDuplicateError && ((errorOpCode == OP_WRQ && previousResponse.getData()[1] == OP_WRQ) 
-					|| (errorOpCode == OP_RRQ && previousResponse.getData()[1] == OP_RRQ))){
-				//send another request to server
-				//create packet to send request to server on specified port
+			//lose DATA and ACK
+			if(createLostError &&
+					((errorOpCode == Tftp.OP_DATA && messageData[1] == Tftp.OP_DATA && (filetransfers/2 + 1) == errorBlockNumber) || 
+							(errorOpCode == Tftp.OP_ACK && messageData[1] == Tftp.OP_ACK && (filetransfers/2) == errorBlockNumber))){
+				createLostError = false;
+				log.info("Destroyed packet");
+				tamperedOneOfLastTwoPackets = true;
+				tamperPacketCooldown = COOLDOWN_PACKETS;
+				continue;
+			}
+
+			int portToSendPacket = 0;
+			InetAddress addressToSendPacket = null;
+			String recipient = "";
+			//normal operations to determine who to send packet to
+			if(response.getPort() == clientPort){
+				//send to server
+				portToSendPacket = serverPort;
 				try {
-					sendPacket = new DatagramPacket(previousResponse.getData(), previousResponse.getData().length,
-							InetAddress.getLocalHost(), serverPort);
+					addressToSendPacket = InetAddress.getLocalHost();
 				} catch (UnknownHostException e) {
-					//failed to determine the host IP address
-					System.err.println("UnknownHostException: could not determine IP address of host while creating packet.");
-					e.printStackTrace();
+					log.error("Could not determine local address while sending packet to server.", e);
 					System.exit(1);
 				}
-				(new Thread(new PacketDelayRunnable(sendPacket, sendRecieveSocket, packetDelayTime))).start();
-				//print data to send to server
-				printMessageToSend(sendPacket);
-
-				//wait for server reponse
-				response = waitReceiveMessage();
-
-				createLostError = false;
-			}
-			//lose DATA or lose ACK
-			if(createLostError &&
-					((errorOpCode == OP_DATA && messageData[1] == OP_DATA && 1 == errorBlockNumber) ||
-							(errorOpCode == OP_ACK && messageData[1] == OP_ACK && 1 == errorBlockNumber))){
-				createLostError = false;
-				System.err.println("Destroyed packet");
-
+				recipient = "server";
 			} else {
-				//create packet to send resposne to client
-				sendPacket = new DatagramPacket(messageData, messageData.length,
-						clientAddress, clientPort);
-
-				//send datagram to client
-				sendMessage(sendPacket);
-				System.out.println("Error simulator sent message to client");
+				//send to client
+				serverPort = response.getPort();
+				portToSendPacket = clientPort;
+				addressToSendPacket = clientAddress;
+				recipient = "client";
 			}
-			//a DATA/ACK pair represents on  complete packet transfer
-			int filetransfers = 1;
-			if(connectionOpCode == OP_RRQ)
-				filetransfers += 1;
-
-			boolean tamperedOneOfLastTwoPackets = false; //Indicates that it destroyed the last packet received so it should keep running.
-			final int COOLDOWN_PACKETS = 2;
-			int tamperPacketCooldown = COOLDOWN_PACKETS;
 
-			while(true) {
-				if(messageData[1] == OP_ERROR)
-					break;
-				//copy previous message
-				previousResponse = response;
-				//get next message
-				System.out.println("Error simulator waiting for response...");
-				response = waitReceiveMessage();
-
-				//get meaningful portion of message
-				messageData = Arrays.copyOf(response.getData(), response.getLength());
-
-				tamperPacketCooldown--;
-				if (tamperPacketCooldown == 0)
-					tamperedOneOfLastTwoPackets = false;
-
-				//print response received
-				printMessageRecieved(response);
-
-				//lose DATA and ACK
-				if(createLostError &&
-						((errorOpCode == OP_DATA && messageData[1] == OP_DATA && (filetransfers/2 + 1) == errorBlockNumber) || 
-								(errorOpCode == OP_ACK && messageData[1] == OP_ACK && (filetransfers/2) == errorBlockNumber))){
-					createLostError = false;
-					System.err.println("Destroyed packet");
-					tamperedOneOfLastTwoPackets = true;
-					tamperPacketCooldown = COOLDOWN_PACKETS;
-					continue;
-				}
-
-				int portToSendPacket = 0;
-				InetAddress addressToSendPacket = null;
-				String recipient = "";
-				//normal operations to determine who to send packet to
-				if(response.getPort() == clientPort){
-					//send to server
-					portToSendPacket = serverPort;
-					try {
-						addressToSendPacket = InetAddress.getLocalHost();
-					} catch (UnknownHostException e) {
-						System.err.println("Could not determine local address while sending packet to server.");
-						e.printStackTrace();
-						System.exit(1);
-					}
-					recipient = "server";
-				} else {
-					//send to client
-					serverPort = response.getPort();
-					portToSendPacket = clientPort;
-					addressToSendPacket = clientAddress;
-					recipient = "client";
-				}
+			//duplicate DATA and ACK packets
+			if(createDuplicateError &&
+					((errorOpCode == Tftp.OP_DATA && messageData[1] == Tftp.OP_ACK && (filetransfers/2) == errorBlockNumber) ||
+							(errorOpCode == Tftp.OP_ACK && messageData[1] == Tftp.OP_DATA && ((filetransfers)/2) == errorBlockNumber))){
+				//resend previous message
+				messageData = Arrays.copyOf(previousResponse.getData(), previousResponse.getLength());
 
-				//duplicate DATA and ACK packets
-				if(createDuplicateError &&
-						((errorOpCode == OP_DATA && messageData[1] == OP_ACK && (filetransfers/2) == errorBlockNumber) ||
-								(errorOpCode == OP_ACK && messageData[1] == OP_DATA && ((filetransfers)/2) == errorBlockNumber))){
-					//resend previous message
-					messageData = Arrays.copyOf(previousResponse.getData(), previousResponse.getLength());
-
-					(new Thread(new PacketDelayRunnable(sendPacket, sendRecieveSocket, packetDelayTime))).start();
-					createDuplicateError = false;
-					tamperedOneOfLastTwoPackets = true;
-					tamperPacketCooldown = COOLDOWN_PACKETS;
-				}
+				(new Thread(new PacketDelayRunnable(sendPacket, sendRecieveSocket, packetDelayTime))).start();
+				createDuplicateError = false;
+				tamperedOneOfLastTwoPackets = true;
+				tamperPacketCooldown = COOLDOWN_PACKETS;
+			}
 
-				//invalid opcode for DATA and ACK
-				if(createInvalidOpcode &&
-						((errorOpCode == OP_ACK && messageData[1] == OP_ACK && (filetransfers/2) == errorBlockNumber) ||
-								(errorOpCode == OP_DATA && messageData[1] == OP_DATA && ((filetransfers)/2 + 1) == errorBlockNumber))){
-					messageData[1] = 0; 
-					createInvalidOpcode = false;
-				}
+			//invalid opcode for DATA and ACK
+			if(createInvalidOpcode &&
+					((errorOpCode == Tftp.OP_ACK && messageData[1] == Tftp.OP_ACK && (filetransfers/2) == errorBlockNumber) ||
+							(errorOpCode == Tftp.OP_DATA && messageData[1] == Tftp.OP_DATA && ((filetransfers)/2 + 1) == errorBlockNumber))){
+				messageData[1] = 0; 
+				createInvalidOpcode = false;
+			}
 
-				//create packet to send to recipient
-				sendPacket = new DatagramPacket(messageData, messageData.length,
-						addressToSendPacket, portToSendPacket);
-
-				//delay DATA and ACK
-				if(createPacketDelay &&
-						((errorOpCode == OP_DATA && messageData[1] == OP_DATA && (filetransfers/2 + 1) == errorBlockNumber) || 
-								(errorOpCode == OP_ACK && messageData[1] == OP_ACK && (filetransfers/2) == errorBlockNumber))){
-					(new Thread(new PacketDelayRunnable(sendPacket ,sendRecieveSocket, packetDelayTime))).start();
-					createPacketDelay = false;
-					tamperedOneOfLastTwoPackets = true;
-					tamperPacketCooldown = COOLDOWN_PACKETS;
-					continue;
-				}
+			//create packet to send to recipient
+			sendPacket = new DatagramPacket(messageData, messageData.length,
+					addressToSendPacket, portToSendPacket);
 
-				//invalid TID for ACK or DATA
-				if(createInvalidTID &&
-						((errorOpCode == OP_DATA && messageData[1] == OP_DATA && (filetransfers/2 + 1) == errorBlockNumber) || 
-								(errorOpCode == OP_ACK && messageData[1] == OP_ACK && (filetransfers/2) == errorBlockNumber))){
-					(new Thread(new InvalidTIDRunnable(sendPacket))).start();
-					createInvalidTID = false;
-					tamperedOneOfLastTwoPackets = true;
-					tamperPacketCooldown = COOLDOWN_PACKETS;
-					continue;
-				}
+			//delay DATA and ACK
+			if(createPacketDelay &&
+					((errorOpCode == Tftp.OP_DATA && messageData[1] == Tftp.OP_DATA && (filetransfers/2 + 1) == errorBlockNumber) || 
+							(errorOpCode == Tftp.OP_ACK && messageData[1] == Tftp.OP_ACK && (filetransfers/2) == errorBlockNumber))){
+				(new Thread(new PacketDelayRunnable(sendPacket ,sendRecieveSocket, packetDelayTime))).start();
+				createPacketDelay = false;
+				tamperedOneOfLastTwoPackets = true;
+				tamperPacketCooldown = COOLDOWN_PACKETS;
+				continue;
+			}
 
-				//send mesage to recipient
-				sendMessage(sendPacket);
-				System.out.println("Error simulator sent message to " + recipient);
+			//invalid TID for ACK or DATA
+			if(createInvalidTID &&
+					((errorOpCode == Tftp.OP_DATA && messageData[1] == Tftp.OP_DATA && (filetransfers/2 + 1) == errorBlockNumber) || 
+							(errorOpCode == Tftp.OP_ACK && messageData[1] == Tftp.OP_ACK && (filetransfers/2) == errorBlockNumber))){
+				(new Thread(new InvalidTIDRunnable(sendPacket))).start();
+				createInvalidTID = false;
+				tamperedOneOfLastTwoPackets = true;
+				tamperPacketCooldown = COOLDOWN_PACKETS;
+				continue;
+			}
 
-				//exit when the final packet is sent from the server
-				if (connectionOpCode == OP_RRQ && previousResponse.getData()[1] == OP_DATA && previousResponse.getLength() < MAX_PACKET_SIZE
-						&& !tamperedOneOfLastTwoPackets && response.getData()[1] == OP_ACK) {
-					break;
-				}
-				if (connectionOpCode == OP_WRQ && previousResponse.getData()[1] == OP_ACK && response.getData()[1] == OP_DATA
-						&& response.getLength() < MAX_PACKET_SIZE && !tamperedOneOfLastTwoPackets) {
+			//send mesage to recipient
+			sendMessage(sendPacket);
+			log.trace("Error simulator sent message to " + recipient);
+
+			/*a windowed transfer ends with the ACK of the final DATA, which may not
+			 * directly follow it if blocks before it were lost*/
+			if (windowSize > 1) {
+				if (response.getData()[1] == Tftp.OP_DATA && response.getLength() < blockSize + 4)
+					finalBlockNumber = getBlockNumber(response.getData());
+				if (response.getData()[1] == Tftp.OP_ACK && getBlockNumber(response.getData()) == finalBlockNumber
+						&& !tamperedOneOfLastTwoPackets)
 					break;
-				}
-
 				filetransfers++;
+				continue;
 			}
-			System.out.println("Client server connection thread finished.");
+
+			//exit when the final packet is sent from the server
+			if (connectionOpCode == Tftp.OP_RRQ && previousResponse.getData()[1] == Tftp.OP_DATA && previousResponse.getLength() < blockSize + 4
+					&& !tamperedOneOfLastTwoPackets && response.getData()[1] == Tftp.OP_ACK) {
+				break;
+			}
+			if (connectionOpCode == Tftp.OP_WRQ && previousResponse.getData()[1] == Tftp.OP_ACK && response.getData()[1] == Tftp.OP_DATA
+					&& response.getLength() < blockSize + 4 && !tamperedOneOfLastTwoPackets) {
+				break;
+			}
+
+			filetransfers++;
 		}
 	}
 
 	/**
-	 * formats a message passed to contain the predefined format for a request
+	 * rebuilds a request with another filename or mode, keeping the opcode and the
+	 * options the client asked for
 	 *
 	 * @author Luke Newton, Joe Frederick Samuel
+	 * @param messageData request data to rebuild
 	 * @param filename filename to send with the request
 	 * @param mode the mode to send with the request
-	 * @param OP_Code type a OP_Code for the type of request to send (RRQ or WRQ)
-	 * @return the message converted into a byte array with proper format
+	 * @return the rebuilt request data
+	 */
+	private static byte[] rewriteRequest(byte[] messageData, String filename, String mode) {
+		ByteBuffer original = ByteBuffer.wrap(messageData);
+		//options follow the 0 byte ending the mode, if the filename and mode are ended at all
+		int filenameEnd = PacketDecoder.findTextEnd(original, 2);
+		int modeEnd = filenameEnd < 0 ? -1 : PacketDecoder.findTextEnd(original, filenameEnd + 1);
+		int optionsStart = modeEnd < 0 ? messageData.length : modeEnd + 1;
+		int optionsLength = messageData.length - optionsStart;
+
+		ByteBuffer request = ByteBuffer.allocate(PacketEncoder.requestLength(filename, mode) + optionsLength);
+		PacketEncoder.putRequest(request, messageData[1], filename, mode);
+		request.put(messageData, optionsStart, optionsLength);
+		return request.array();
+	}
+
+	/**
+	 * extracts the value of an option from the data of an OACK packet
+	 * 
+	 * @param messageData OACK data to extract the option from
+	 * @param name name of the option, in lower case
+	 * @param defaultValue value used if the server did not agree to the option
+	 * @return the value agreed by the server, or the default value if it was not changed
+	 */
+	private int extractOption(byte[] messageData, String name, int defaultValue) {
+		ByteBuffer OACK = ByteBuffer.wrap(messageData);
+		int valueStart = PacketDecoder.findOption(OACK, 2, name);
+		if (valueStart < 0)
+			return defaultValue;
+		int valueEnd = PacketDecoder.findTextEnd(OACK, valueStart);
+		long value = PacketDecoder.parseNumber(OACK, valueStart, valueEnd);
+		if (value < 0 || value > Integer.MAX_VALUE) {
+			log.error("Invalid " + name + " in OACK: " + PacketDecoder.getText(OACK, valueStart, valueEnd));
+			return defaultValue;
+		}
+		return (int) value;
+	}
+
+	/**
+	 * extracts the block number from the data of a DATA or ACK packet
+	 * 
+	 * @param messageData packet data to extract the block number from
+	 * @return the block number (0 to 65535)
 	 */
-	private static byte[] createPacketData(String filename, String mode, byte OP_Code) {
-		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-
-		byteStream.write(0);
-		if(OP_Code == OP_RRQ || OP_Code == OP_WRQ)
-			byteStream.write(OP_Code);
-		byteStream.write(filename.getBytes(), 0, filename.getBytes().length);
-		byteStream.write(0);
-		byteStream.write(mode.getBytes(), 0, mode.getBytes().length);
-		byteStream.write(0);
-
-		return byteStream.toByteArray();
+	private int getBlockNumber(byte[] messageData) {
+		return PacketDecoder.getBlockNumber(ByteBuffer.wrap(messageData));
 	}
 
 	/**
@@ -442,7 +501,7 @@ public class ClientServerConnection implements Runnable {
 	private byte[] invalidateMode(byte[] messageData) {
 		String filename = extractFileName(messageData);
 		createInvalidMode = false;
-		return createPacketData(filename, "invalidMode", messageData[1]);
+		return rewriteRequest(messageData, filename, "invalidMode");
 	}
 
 	/**
@@ -452,13 +511,9 @@ public class ClientServerConnection implements Runnable {
 	 * @return the file name in the passed messageData
 	 */
 	private String extractFileName(byte[] messageData) {
-		ByteArrayOutputStream textStream = new ByteArrayOutputStream();
-
+		ByteBuffer request = ByteBuffer.wrap(messageData);
 		//skip over opcode in first 2 bytes and collect filename
-		for (int i = 2; messageData[i] != 0; i++) {
-			textStream.write(messageData[i]);
-		}
-		return textStream.toString();
+		return PacketDecoder.getText(request, 2, PacketDecoder.findTextEnd(request, 2));
 	}
 
 	/**
@@ -470,7 +525,7 @@ public class ClientServerConnection implements Runnable {
 	private byte[] invalidateFilename(byte[] messageData) {
 		String mode = extractMode(messageData);
 		createInvalidFilename = false;
-		return createPacketData("notAFilename", mode, messageData[1]);
+		return rewriteRequest(messageData, "notAFilename", mode);
 	}
 
 
@@ -481,19 +536,11 @@ public class ClientServerConnection implements Runnable {
 	 * @return the mode in the passed messageData
 	 */
 	private String extractMode(byte[] messageData) {
-		ByteArrayOutputStream textStream = new ByteArrayOutputStream();
-
-		//skip over opcode
-		int i = 2;
-		//skip over filename
-		for (; messageData[i] != 0; i++) {}
-		//skip over 0 byte between filename and mode
-		i++;
+		ByteBuffer request = ByteBuffer.wrap(messageData);
+		//skip over opcode, filename and the 0 byte between filename and mode
+		int modeStart = PacketDecoder.findTextEnd(request, 2) + 1;
 		//collect mode from messageData
-		for (; messageData[i] != 0; i++) {
-			textStream.write(messageData[i]);
-		}
-		return textStream.toString();
+		return PacketDecoder.getText(request, modeStart, PacketDecoder.findTextEnd(request, modeStart));
 	}
 
 	/**
@@ -509,12 +556,10 @@ public class ClientServerConnection implements Runnable {
 	}
 
 	private void printMessageToSend(DatagramPacket sendPacket) {
-		System.out.print("Error simulator to send message to server: \nTo ");
-		printPacketInfo(sendPacket);
+		PacketFormatter.trace(log, "Error simulator to send message to:", sendPacket);
 	}
 
 	private void printMessageRecieved(DatagramPacket response) {
-		System.out.print("Response recieved by error simulator: \nFrom ");
-		printPacketInfo(response);
+		PacketFormatter.trace(log, "Response recieved by error simulator from:", response);
 	}
 }
@@ -2,6 +2,8 @@ package errorSimulator;
 
 import java.util.Scanner;
 
+import protocol.Tftp;
+
 /**
  * user menu and functionality to introduce network errors (packet loss/duplication)
  * 
@@ -11,13 +13,6 @@ import java.util.Scanner;
 public class ErrorSimMenuRunnable implements Runnable{
 	//the error simulator this menu is for
 	private ErrorSimulator errorSim;
-
-	//TFTP op codes
-	private static final byte OP_RRQ = 1;
-	private static final byte OP_WRQ = 2;
-	private static final byte OP_DATA = 3;
-	private static final byte OP_ACK = 4;
-
 	/**Constructor
 	 * 
 	 * @param errorSim the error simulator that this menu is for
@@ -57,13 +52,13 @@ public class ErrorSimMenuRunnable implements Runnable{
 						|| input[0].equalsIgnoreCase("delay")){
 					//check if the specified packet type is valid (RRQ, WRQ, DATA, or ACK)
 					if(input[1].equalsIgnoreCase("WRQ"))
-						errorOpCode = OP_WRQ;
+						errorOpCode = Tftp.OP_WRQ;
 					else if(input[1].equalsIgnoreCase("RRQ"))
-						errorOpCode = OP_RRQ;
+						errorOpCode = Tftp.OP_RRQ;
 					else if(input[1].equalsIgnoreCase("DATA"))
-						errorOpCode = OP_DATA;
+						errorOpCode = Tftp.OP_DATA;
 					else if(input[1].equalsIgnoreCase("ACK"))
-						errorOpCode = OP_ACK;
+						errorOpCode = Tftp.OP_ACK;
 					else
 						throw new InvalidCommandException();
 
@@ -71,12 +66,12 @@ public class ErrorSimMenuRunnable implements Runnable{
 					errorSim.setErrorPacketType(errorOpCode);
 
 					//check if the specified block number (DATA only) is valid
-					if(errorOpCode == OP_DATA || errorOpCode == OP_ACK){
+					if(errorOpCode == Tftp.OP_DATA || errorOpCode == Tftp.OP_ACK){
 						if(Integer.parseInt(input[2]) > 0){
 							errorBlockNumber = Integer.parseInt(input[2]);
 						} else
 							throw new InvalidCommandException();
-					} else if(errorOpCode == OP_RRQ)
+					} else if(errorOpCode == Tftp.OP_RRQ)
 						errorBlockNumber = 1;
 					//send error simulator the block number for the error
 					errorSim.setErrorPacketBlockNumber(errorBlockNumber);
@@ -84,7 +79,7 @@ public class ErrorSimMenuRunnable implements Runnable{
 					//activate artificial error creation in error simulator
 					if(input[0].equalsIgnoreCase("duplicate")){
 
-						if(errorOpCode == OP_WRQ || errorOpCode == OP_RRQ)
+						if(errorOpCode == Tftp.OP_WRQ || errorOpCode == Tftp.OP_RRQ)
 							errorSim.setPacketDuplicate(true, Integer.parseInt(input[2]));
 						else
 							errorSim.setPacketDuplicate(true, Integer.parseInt(input[3]));
@@ -93,7 +88,7 @@ public class ErrorSimMenuRunnable implements Runnable{
 						errorSim.setPacketLose(true);
 						System.out.println("System set to insert artificial lost packet error");	
 					} else if(input[0].equalsIgnoreCase("delay")){
-						if(errorOpCode == OP_WRQ || errorOpCode == OP_RRQ)
+						if(errorOpCode == Tftp.OP_WRQ || errorOpCode == Tftp.OP_RRQ)
 							errorSim.setPacketDelay(true, Integer.parseInt(input[2]));
 						else
 							errorSim.setPacketDelay(true, Integer.parseInt(input[3]));
@@ -105,9 +100,9 @@ public class ErrorSimMenuRunnable implements Runnable{
 					if(input[1].equalsIgnoreCase("filename") || input[1].equalsIgnoreCase("mode")){
 						//invalid filename or mode can only be for RRQ or WRQ
 						if(input[2].equalsIgnoreCase("WRQ"))
-							errorOpCode = OP_WRQ;
+							errorOpCode = Tftp.OP_WRQ;
 						else if(input[2].equalsIgnoreCase("RRQ"))
-							errorOpCode = OP_RRQ;
+							errorOpCode = Tftp.OP_RRQ;
 						else
 							throw new InvalidCommandException();
 
@@ -121,13 +116,13 @@ public class ErrorSimMenuRunnable implements Runnable{
 						}
 					} else if(input[1].equalsIgnoreCase("opcode")){
 						if(input[2].equalsIgnoreCase("WRQ"))
-							errorOpCode = OP_WRQ;
+							errorOpCode = Tftp.OP_WRQ;
 						else if(input[2].equalsIgnoreCase("RRQ"))
-							errorOpCode = OP_RRQ;
+							errorOpCode = Tftp.OP_RRQ;
 						else if(input[2].equalsIgnoreCase("DATA"))
-							errorOpCode = OP_DATA;
+							errorOpCode = Tftp.OP_DATA;
 						else if(input[2].equalsIgnoreCase("ACK"))
-							errorOpCode = OP_ACK;
+							errorOpCode = Tftp.OP_ACK;
 						else
 							throw new InvalidCommandException();
 
@@ -136,9 +131,9 @@ public class ErrorSimMenuRunnable implements Runnable{
 						System.out.println("System set to invalidate opcode");
 					}else if(input[1].equalsIgnoreCase("TID")){
 						if(input[2].equalsIgnoreCase("DATA"))
-							errorOpCode = OP_DATA;
+							errorOpCode = Tftp.OP_DATA;
 						else if(input[2].equalsIgnoreCase("ACK"))
-							errorOpCode = OP_ACK;
+							errorOpCode = Tftp.OP_ACK;
 						else
 							throw new InvalidCommandException();
 						
@@ -148,12 +143,12 @@ public class ErrorSimMenuRunnable implements Runnable{
 						throw new InvalidCommandException();
 
 					//check if the specified block number (for DATA or ACK only) is valid
-					if(errorOpCode == OP_DATA || errorOpCode == OP_ACK){
+					if(errorOpCode == Tftp.OP_DATA || errorOpCode == Tftp.OP_ACK){
 						if(Integer.parseInt(input[3]) > 0){
 							errorBlockNumber = Integer.parseInt(input[3]);
 						} else
 							throw new InvalidCommandException();
-					} else if(errorOpCode == OP_RRQ)
+					} else if(errorOpCode == Tftp.OP_RRQ)
 						errorBlockNumber = 1;
 					//send error simulator the block number for the error
 					errorSim.setErrorPacketType(errorOpCode);
@@ -5,6 +5,9 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.SocketException;
 
+import logging.Logger;
+import protocol.Tftp;
+
 /**
  * A class representing the error simulator for the server-client-error simulator system. 
  * Has capability to receive/send messages from/to both client and server.
@@ -18,14 +21,8 @@ public class ErrorSimulator {
 	private static final boolean TIMEOUTS_ON = false;
 	//miliseconds until error simulator times out while waiting for response
 	private static final int TIMEOUT_MILLISECONDS = 5000;
-
-	//TFTP OP code
-	private static final byte OP_RRQ = 1;
-	private static final byte OP_WRQ = 2;
-	private static final byte OP_DATA = 3;
-	private static final byte OP_ACK = 4;
-	private static final byte OP_ERROR = 5;
-
+	//log for the error simulator's messages
+	private static final Logger log = Logger.getLogger("errorSimulator");
 	//socket for error simulator to send and receive packets
 	private DatagramSocket recieveSocket, sendRecieveSocket;
 	//buffer to contain data to send to server/client
@@ -231,8 +228,7 @@ public class ErrorSimulator {
 		try {
 			errorSim = new ErrorSimulator(ERROR_SIM_PORT_NUMBER);
 		} catch (SocketException e) {
-			System.err.println("SocketException: failed to create socket for error simulator");
-			e.printStackTrace();
+			log.error("SocketException: failed to create socket for error simulator", e);
 			System.exit(1);
 		}
 
@@ -244,21 +240,20 @@ public class ErrorSimulator {
 			DatagramPacket request = null;
 			
 			try {
-				System.out.println("Error simulator waiting on request...");
+				log.trace("Error simulator waiting on request...");
 				
 				request = errorSim.waitRecieveClientMessage();
 				
 				int requestType = request.getData()[1];
 				
 				//create a packet loss for WRQ and RRQ
-				if(errorSim.packetLostError && ((errorSim.errorOpCode == OP_WRQ && requestType == OP_WRQ) 
-						|| (errorSim.errorOpCode == OP_RRQ && requestType == OP_RRQ))){
+				if(errorSim.packetLostError && ((errorSim.errorOpCode == Tftp.OP_WRQ && requestType == Tftp.OP_WRQ) 
+						|| (errorSim.errorOpCode == Tftp.OP_RRQ && requestType == Tftp.OP_RRQ))){
 					//dont send the first WRQ/RRQ recieved
 					request = errorSim.waitRecieveClientMessage();
 				} 
 			} catch (IOException e) {
-				System.err.println("IOException: I/O error occured while error simulator waiting to recieve message");
-				e.printStackTrace();
+				log.error("IOException: I/O error occured while error simulator waiting to recieve message", e);
 				System.exit(1);
 			}
 
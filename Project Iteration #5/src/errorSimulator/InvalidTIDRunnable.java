@@ -7,7 +7,9 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
-import java.util.Arrays;
+
+import logging.Logger;
+import logging.PacketFormatter;
 
 /**
  * used to artificailly created a unknown TID error (ERROR code 5) by sending message through a new socket
@@ -19,6 +21,8 @@ public class InvalidTIDRunnable implements Runnable {
 	DatagramPacket message;
 	private DatagramSocket sendSocket;
 	private static final int MAX_PACKET_SIZE = 516;
+	//log for the error simulator's messages
+	private static final Logger log = Logger.getLogger("errorSimulator");
 	
 	/**
 	 * Construcor
@@ -29,8 +33,7 @@ public class InvalidTIDRunnable implements Runnable {
 		try {
 			sendSocket = new DatagramSocket();
 		} catch (SocketException e) {
-			System.err.print("failed to create new socket for invalid TID");
-			e.printStackTrace();
+			log.error("failed to create new socket for invalid TID", e);
 			System.exit(1);
 		}
 	}
@@ -44,12 +47,11 @@ public class InvalidTIDRunnable implements Runnable {
 		try {
 			sendSocket.send(message);
 		} catch (IOException e) {
-			System.out.println("I/O exception occured while sending delayed packet");
-			e.printStackTrace();
+			log.error("I/O exception occured while sending delayed packet", e);
 			System.exit(1);
 		}
 		//wait to receive response and print information
-		printPacketInfo(waitReceiveMessage());
+		log.info(PacketFormatter.describe("Response to the invalid TID:", waitReceiveMessage()));
 		//close new created socket
 		sendSocket.close();
 	}
@@ -65,35 +67,10 @@ public class InvalidTIDRunnable implements Runnable {
 		try {
 			sendSocket.receive(message);
 		} catch (IOException e) {
-			System.err.println("IOException: I/O error occured while error simulator waiting for response");
-			e.printStackTrace();
+			log.error("IOException: I/O error occured while error simulator waiting for response", e);
 			System.exit(1);
 		}
 		return message;
 	}
-	
-	/**
-	 * prints packet information
-	 * 
-	 * @author Luke Newton, Cameron Rushton
-	 * @param packet : DatagramPacket
-	 */
-	private void printPacketInfo(DatagramPacket packet) {
-		//get meaningful portion of message
-		byte[] dataAsByteArray = Arrays.copyOf(packet.getData(), packet.getLength());		
 
-		//System.out.println("host: " + packet.getAddress() + ":" + packet.getPort());
-		//System.out.println("Message length: " + packet.getLength());
-		System.out.print("Type: ");
-		switch(dataAsByteArray[1]) {
-			case 1: System.out.println("RRQ"); break;
-			case 2: System.out.println("WRQ"); break;
-			case 3: System.out.println("DATA"); break;
-			case 4: System.out.println("ACK"); break;
-			case 5: System.out.println("ERROR"); break;
-		}
-		System.out.println("Number " + (int)dataAsByteArray[3]);
-		//System.out.println("Containing: " + new String(dataAsByteArray));
-		//System.out.println("Contents as raw data: " + Arrays.toString(dataAsByteArray) + "\n");
-	}
 }
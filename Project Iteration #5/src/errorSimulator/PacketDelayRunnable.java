@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 
+import logging.Logger;
+
 /**
  * used to artificailly send a message after a specified time
  * 
@@ -14,6 +16,8 @@ import java.net.DatagramSocket;
  *
  */
 public class PacketDelayRunnable implements Runnable {
+	//log for the error simulator's messages
+	private static final Logger log = Logger.getLogger("errorSimulator");
 	DatagramPacket message;
 	int delayTime;
 	private DatagramSocket sendSocket;
@@ -32,15 +36,13 @@ public class PacketDelayRunnable implements Runnable {
 		try {
 			Thread.sleep(delayTime);
 		} catch (InterruptedException e) {
-			System.out.println("packet delay interrupted");
-			e.printStackTrace();
+			log.error("packet delay interrupted", e);
 		}
 		
 		try {
 			sendSocket.send(message);
 		} catch (IOException e) {
-			System.out.println("I/O exception occured while sending delayed packet");
-			e.printStackTrace();
+			log.error("I/O exception occured while sending delayed packet", e);
 			System.exit(1);
 		}
 	}
@@ -0,0 +1,263 @@
+package logging;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * writes log messages to the console on a thread of its own. threads logging a
+ * message claim a slot in a fixed ring of entries with a compare-and-set and fill it
+ * in, so they never lock or wait on console output, and the ring's entries are reused
+ * rather than allocated for every message. each slot has a sequence number telling
+ * the writer when it has been filled in and the loggers when it is free again (the
+ * bounded queue described by Dmitry Vyukov).
+ *
+ * the writer parks once the ring is empty, and the logger that next fills in a slot
+ * unparks it, so an idle writer uses no processor time and a message is written as
+ * soon as it is logged.
+ *
+ * if the ring is full, WARN and ERROR messages are written directly by the thread
+ * logging them, and lower levels are dropped and counted
+ *
+ * @author Luke Newton
+ */
+final class AsyncAppender implements Runnable {
+	//number of messages the ring holds, rounded up to a power of 2 (-Dlog.bufferSize)
+	private static final int BUFFER_SIZE = Integer.highestOneBit(Math.max(2, Integer.getInteger("log.bufferSize", 8192) - 1) << 1);
+
+	//the appender every logger writes through, started when first used
+	private static final AsyncAppender instance = new AsyncAppender();
+
+	/**
+	 * a message waiting in the ring to be written
+	 */
+	private static final class Entry {
+		//level of the message
+		Level level;
+		//the message, or null if it is built by the supplier
+		String message;
+		//builds the message, or null
+		Supplier<String> supplier;
+		//exception whose stack trace follows the message, or null
+		Throwable cause;
+	}
+
+	//the ring of messages
+	private final Entry[] entries;
+	//sequence number of each slot: its position once free to fill, its position + 1 once filled in
+	private final AtomicLongArray sequences;
+	//position of the next slot for a logger to claim
+	private final AtomicLong tail;
+	//position of the next slot for the writer to write (only changed by the writer)
+	private volatile long head;
+	//number of messages written to the console, every one before this position
+	private volatile long written;
+	//set while the writer is parked, or about to park, on an empty ring
+	private final AtomicBoolean idle;
+	//threads waiting in flush() wait on this lock for messages to be written
+	private final Object flushLock;
+	//number of threads waiting in flush()
+	private volatile int flushWaiters;
+	//number of messages dropped since the ring was full
+	private final AtomicLong dropped;
+	//the thread writing messages to the console
+	private final Thread writer;
+
+	/**
+	 * Constructor
+	 */
+	private AsyncAppender(){
+		entries = new Entry[BUFFER_SIZE];
+		sequences = new AtomicLongArray(BUFFER_SIZE);
+		for (int i = 0; i < BUFFER_SIZE; i++) {
+			entries[i] = new Entry();
+			sequences.set(i, i);
+		}
+		tail = new AtomicLong();
+		idle = new AtomicBoolean();
+		flushLock = new Object();
+		dropped = new AtomicLong();
+		writer = new Thread(this, "log writer");
+		writer.setDaemon(true);
+		writer.start();
+		//write whatever is left when the program exits
+		Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log flush"));
+	}
+
+	/**
+	 * @return the appender every logger writes through
+	 */
+	static AsyncAppender getInstance(){
+		return instance;
+	}
+
+	/**
+	 * add a message to the ring to be written by the writer thread
+	 *
+	 * @param level level of the message
+	 * @param message the message, or null if it is built by the supplier
+	 * @param supplier builds the message, or null
+	 * @param cause exception whose stack trace follows the message, or null
+	 */
+	void append(Level level, String message, Supplier<String> supplier, Throwable cause){
+		int mask = BUFFER_SIZE - 1;
+		long position;
+		while (true) {
+			position = tail.get();
+			long difference = sequences.get((int) position & mask) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1))
+					break;
+			} else if (difference < 0) {
+				//the writer has not caught up with the slot a whole ring ago
+				if (level.compareTo(Level.WARN) >= 0)
+					write(level, message != null ? message : supplier.get(), cause);
+				else
+					dropped.incrementAndGet();
+				return;
+			}
+			//otherwise another logger claimed the slot first, try the next one
+		}
+
+		int slot = (int) position & mask;
+		Entry entry = entries[slot];
+		entry.level = level;
+		entry.message = message;
+		entry.supplier = supplier;
+		entry.cause = cause;
+		//publish the entry to the writer, before checking whether it is parked
+		sequences.set(slot, position + 1);
+		//the first logger to fill in a slot once the writer found the ring empty wakes it
+		if (idle.get() && idle.compareAndSet(true, false))
+			LockSupport.unpark(writer);
+	}
+
+	/**
+	 * function to execute when thread created.
+	 * writes the messages in the ring in order, parking whenever it is empty until a
+	 * logger fills in the next slot.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			if (!writeNext()) {
+				reportDropped();
+				System.out.flush();
+				idle.set(true);
+				//a logger that filled in the slot before seeing idle set would not wake the writer
+				if (!isFilled(head))
+					LockSupport.park(this);
+				idle.set(false);
+			}
+		}
+	}
+
+	/**
+	 * @param position position of a slot
+	 * @return true if a logger has filled in the slot at the position
+	 */
+	private boolean isFilled(long position){
+		return sequences.get((int) position & (BUFFER_SIZE - 1)) == position + 1;
+	}
+
+	/**
+	 * write the next message in the ring, if it has been filled in
+	 *
+	 * @return true if a message was written, false if the ring is empty
+	 */
+	private synchronized boolean writeNext(){
+		if (!isFilled(head))
+			return false;
+		int slot = (int) head & (BUFFER_SIZE - 1);
+
+		Entry entry = entries[slot];
+		Level level = entry.level;
+		String message = entry.message;
+		Supplier<String> supplier = entry.supplier;
+		Throwable cause = entry.cause;
+		entry.message = null;
+		entry.supplier = null;
+		entry.cause = null;
+		//free the slot for a logger a whole ring later
+		sequences.lazySet(slot, head + BUFFER_SIZE);
+		head++;
+
+		try {
+			write(level, message != null ? message : supplier.get(), cause);
+		} catch (RuntimeException e) {
+			//a message that fails to build must not stop the writer
+			System.err.println("Failed to build log message");
+			e.printStackTrace();
+		}
+		written = head;
+		//checked after written is set, so a thread starting to wait in flush() either sees it or is woken
+		if (flushWaiters > 0) {
+			synchronized (flushLock) {
+				flushLock.notifyAll();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * write a message to the console: WARN and ERROR to standard error, the rest to
+	 * standard output
+	 *
+	 * @param level level of the message
+	 * @param message the message
+	 * @param cause exception whose stack trace follows the message, or null
+	 */
+	private static void write(Level level, String message, Throwable cause){
+		PrintStream stream = level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+		stream.println(message);
+		if (cause != null)
+			cause.printStackTrace(stream);
+	}
+
+	/**
+	 * report how many messages have been dropped since the last report
+	 */
+	private void reportDropped(){
+		long count = dropped.getAndSet(0);
+		if (count > 0)
+			System.err.println(count + " log messages dropped, the log buffer was full");
+	}
+
+	/**
+	 * wait until every message logged before the call has been written
+	 */
+	void flush(){
+		long target = tail.get();
+		boolean interrupted = false;
+		synchronized (flushLock) {
+			flushWaiters++;
+			try {
+				while (written < target && writer.isAlive()) {
+					try {
+						flushLock.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} finally {
+				flushWaiters--;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		System.out.flush();
+	}
+
+	/**
+	 * write every message left in the ring from the calling thread, as the program exits
+	 */
+	private void drain(){
+		while (writeNext())
+			;
+		reportDropped();
+		System.out.flush();
+	}
+}
@@ -0,0 +1,207 @@
+package logging;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * a Java Flight Recorder event type, defined while the program runs through JFR's
+ * EventFactory. JFR is looked up at runtime so the program still builds and runs on
+ * JVMs without it, where every event is simply never enabled.
+ *
+ * an event costs a single check while no recording enables it, and nothing is
+ * allocated. while one does, the event is timed from begin() to commit(), and events
+ * shorter than the type's threshold are dropped by JFR
+ *
+ * @author Luke Newton
+ */
+public final class FlightEvent {
+	//handles on the methods of jdk.jfr.Event, all null if the JVM has no JFR
+	private static final MethodHandle BEGIN, END, SHOULD_COMMIT, SET, COMMIT;
+	static {
+		MethodHandle begin = null, end = null, shouldCommit = null, set = null, commit = null;
+		try {
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class)).asType(MethodType.methodType(void.class, Object.class));
+			end = lookup.findVirtual(event, "end", MethodType.methodType(void.class)).asType(MethodType.methodType(void.class, Object.class));
+			shouldCommit = lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class)).asType(MethodType.methodType(boolean.class, Object.class));
+			set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class)).asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+			commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class)).asType(MethodType.methodType(void.class, Object.class));
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+			begin = end = shouldCommit = set = commit = null;
+		}
+		BEGIN = begin;
+		END = end;
+		SHOULD_COMMIT = shouldCommit;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	//creates a new event of this type, null if the JVM has no JFR
+	private final MethodHandle newEvent;
+	//tells whether a recording enables this type, null if the JVM has no JFR
+	private final MethodHandle isEnabled;
+
+	/**
+	 * Constructor
+	 *
+	 * @param newEvent creates a new event of this type
+	 * @param isEnabled tells whether a recording enables this type
+	 */
+	private FlightEvent(MethodHandle newEvent, MethodHandle isEnabled){
+		this.newEvent = newEvent;
+		this.isEnabled = isEnabled;
+	}
+
+	/**
+	 * defines and registers an event type with JFR
+	 *
+	 * @param name name of the event type, such as tftp.Transfer
+	 * @param label name of the event type shown to people
+	 * @param description what an event of the type records
+	 * @param thresholdMillis events shorter than this are dropped, 0 to keep every event
+	 * @param fields the fields of an event, each a type (String, int, long or boolean)
+	 * and a name separated by a space, such as "long bytes"
+	 * @return the event type, never enabled if the JVM has no JFR
+	 */
+	public static FlightEvent define(String name, String label, String description, long thresholdMillis, String... fields){
+		if (BEGIN == null)
+			return new FlightEvent(null, null);
+		try {
+			Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+			Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+			List<Object> annotations = new ArrayList<>();
+			annotations.add(newAnnotation.newInstance(annotation("Name"), name));
+			annotations.add(newAnnotation.newInstance(annotation("Label"), label));
+			annotations.add(newAnnotation.newInstance(annotation("Description"), description));
+			annotations.add(newAnnotation.newInstance(annotation("Category"), new String[] {"TFTP"}));
+			annotations.add(newAnnotation.newInstance(annotation("Threshold"), thresholdMillis + " ms"));
+			//the thread is recorded with every event, a stack trace would add to its cost without saying more
+			annotations.add(newAnnotation.newInstance(annotation("StackTrace"), false));
+
+			Constructor<?> newValue = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+			List<Object> values = new ArrayList<>();
+			for (String field : fields) {
+				String[] typeAndName = field.split(" ");
+				values.add(newValue.newInstance(fieldType(typeAndName[0]), typeAndName[1]));
+			}
+
+			Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+			Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, values);
+			Object eventType = eventFactory.getMethod("getEventType").invoke(factory);
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodHandle newEvent = lookup.findVirtual(eventFactory, "newEvent", MethodType.methodType(Class.forName("jdk.jfr.Event")))
+					.bindTo(factory).asType(MethodType.methodType(Object.class));
+			MethodHandle isEnabled = lookup.findVirtual(Class.forName("jdk.jfr.EventType"), "isEnabled", MethodType.methodType(boolean.class))
+					.bindTo(eventType);
+			return new FlightEvent(newEvent, isEnabled);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to define flight recorder event " + name, e);
+		}
+	}
+
+	/**
+	 * @param name simple name of an annotation of the jdk.jfr package
+	 * @return the annotation's class
+	 * @throws ClassNotFoundException indicates the JVM has no such annotation
+	 */
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+		return (Class<? extends Annotation>) Class.forName("jdk.jfr." + name);
+	}
+
+	/**
+	 * @param name name of a field type
+	 * @return the type
+	 */
+	private static Class<?> fieldType(String name){
+		switch (name) {
+		case "String": return String.class;
+		case "int": return int.class;
+		case "long": return long.class;
+		case "boolean": return boolean.class;
+		default: throw new IllegalArgumentException("Unsupported flight recorder event field type " + name);
+		}
+	}
+
+	/**
+	 * @return true if a recording is running that records events of this type
+	 */
+	public boolean isEnabled(){
+		if (isEnabled == null)
+			return false;
+		try {
+			return (boolean) isEnabled.invokeExact();
+		} catch (Throwable e) {
+			throw unchecked(e);
+		}
+	}
+
+	/**
+	 * start timing an event of this type
+	 *
+	 * @return the event, to be given to commit(), or null if no recording records this
+	 * type (nothing needs to be committed then)
+	 */
+	public Object begin(){
+		if (!isEnabled())
+			return null;
+		try {
+			Object event = (Object) newEvent.invokeExact();
+			BEGIN.invokeExact(event);
+			return event;
+		} catch (Throwable e) {
+			throw unchecked(e);
+		}
+	}
+
+	/**
+	 * end an event and record it, unless it took less than the type's threshold
+	 *
+	 * @param event the event returned by begin(), or null to record nothing
+	 * @param values the value of each field of the event, in the order they were
+	 * defined, boxed as the exact type of the field
+	 */
+	public void commit(Object event, Object... values){
+		if (event == null)
+			return;
+		try {
+			END.invokeExact(event);
+			if (!(boolean) SHOULD_COMMIT.invokeExact(event))
+				return;
+			for (int i = 0; i < values.length; i++)
+				SET.invokeExact(event, i, values[i]);
+			COMMIT.invokeExact(event);
+		} catch (Throwable e) {
+			throw unchecked(e);
+		}
+	}
+
+	/**
+	 * record an event of this type that takes no time, if a recording records this type.
+	 * the values are boxed even if it does not, so frequent events check isEnabled() first
+	 *
+	 * @param values the value of each field of the event, as for commit()
+	 */
+	public void record(Object... values){
+		commit(begin(), values);
+	}
+
+	/**
+	 * @param e an exception thrown through a method handle
+	 * @return the exception to throw in its place, since none of JFR's methods used
+	 * here throw checked exceptions
+	 */
+	private static RuntimeException unchecked(Throwable e){
+		if (e instanceof RuntimeException)
+			return (RuntimeException) e;
+		if (e instanceof Error)
+			throw (Error) e;
+		return new IllegalStateException(e);
+	}
+}
@@ -0,0 +1,39 @@
+package logging;
+
+/**
+ * how important a log message is. a logger writes the messages at its level and above
+ *
+ * @author Luke Newton
+ */
+public enum Level {
+	//every packet sent and received
+	TRACE,
+	//details of how a transfer is progressing
+	DEBUG,
+	//transfers and requests starting and ending
+	INFO,
+	//something unexpected the program recovered from
+	WARN,
+	//something that ended a transfer or the program
+	ERROR,
+	//writes nothing
+	OFF;
+
+	/**
+	 * reads a level from its name, ignoring case
+	 *
+	 * @param name name of the level
+	 * @param defaultLevel level to use if the name is not a level
+	 * @return the level named, or the default level
+	 */
+	public static Level parse(String name, Level defaultLevel){
+		if (name == null)
+			return defaultLevel;
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown log level " + name + ", using " + defaultLevel);
+			return defaultLevel;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package logging;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * writes messages at or above its level to the console through the AsyncAppender, so
+ * the thread logging never waits on console output. a message given as a Supplier is
+ * only built if its level is enabled, and then on the appender's thread, so a disabled
+ * level costs a single comparison on the thread logging.
+ *
+ * the level of every logger is INFO unless set with -Dlog.level, or for a single
+ * logger with -Dlog.level.name (for example -Dlog.level.server=TRACE)
+ *
+ * @author Luke Newton
+ */
+public final class Logger {
+	//level of every logger not given one of its own (-Dlog.level)
+	private static final Level DEFAULT_LEVEL = Level.parse(System.getProperty("log.level"), Level.INFO);
+	//every logger created, by name
+	private static final ConcurrentHashMap<String, Logger> loggers = new ConcurrentHashMap<>();
+
+	//name of the logger, usually the part of the system logging (server, client or errorSimulator)
+	private final String name;
+	//lowest level of message written
+	private volatile Level level;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name name of the logger
+	 */
+	private Logger(String name){
+		this.name = name;
+		level = Level.parse(System.getProperty("log.level." + name), DEFAULT_LEVEL);
+	}
+
+	/**
+	 * @param name name of the logger
+	 * @return the logger with the name given, created the first time it is asked for
+	 */
+	public static Logger getLogger(String name){
+		return loggers.computeIfAbsent(name, Logger::new);
+	}
+
+	/**
+	 * waits until every message logged so far has been written to the console, so
+	 * output written directly (such as a prompt for the user) follows them
+	 */
+	public static void flush(){
+		AsyncAppender.getInstance().flush();
+	}
+
+	/**
+	 * @return name of the logger
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * @return lowest level of message written
+	 */
+	public Level getLevel(){
+		return level;
+	}
+
+	/**
+	 * @param level lowest level of message to write from now on
+	 */
+	public void setLevel(Level level){
+		this.level = level;
+	}
+
+	/**
+	 * @param messageLevel level of a message
+	 * @return true if a message at the level given would be written
+	 */
+	public boolean isEnabled(Level messageLevel){
+		return messageLevel.compareTo(level) >= 0 && messageLevel != Level.OFF;
+	}
+
+	/**
+	 * @return true if TRACE messages are written
+	 */
+	public boolean isTraceEnabled(){
+		return isEnabled(Level.TRACE);
+	}
+
+	/**
+	 * @return true if DEBUG messages are written
+	 */
+	public boolean isDebugEnabled(){
+		return isEnabled(Level.DEBUG);
+	}
+
+	/**
+	 * @param message message to write at TRACE
+	 */
+	public void trace(String message){
+		log(Level.TRACE, message, null, null);
+	}
+
+	/**
+	 * @param message builds the message to write at TRACE, only called if it is written
+	 */
+	public void trace(Supplier<String> message){
+		log(Level.TRACE, null, message, null);
+	}
+
+	/**
+	 * @param message message to write at DEBUG
+	 */
+	public void debug(String message){
+		log(Level.DEBUG, message, null, null);
+	}
+
+	/**
+	 * @param message builds the message to write at DEBUG, only called if it is written
+	 */
+	public void debug(Supplier<String> message){
+		log(Level.DEBUG, null, message, null);
+	}
+
+	/**
+	 * @param message message to write at INFO
+	 */
+	public void info(String message){
+		log(Level.INFO, message, null, null);
+	}
+
+	/**
+	 * @param message builds the message to write at INFO, only called if it is written
+	 */
+	public void info(Supplier<String> message){
+		log(Level.INFO, null, message, null);
+	}
+
+	/**
+	 * @param message message to write at WARN
+	 */
+	public void warn(String message){
+		log(Level.WARN, message, null, null);
+	}
+
+	/**
+	 * @param message message to write at WARN
+	 * @param cause exception whose stack trace is written after the message
+	 */
+	public void warn(String message, Throwable cause){
+		log(Level.WARN, message, null, cause);
+	}
+
+	/**
+	 * @param message message to write at ERROR
+	 */
+	public void error(String message){
+		log(Level.ERROR, message, null, null);
+	}
+
+	/**
+	 * @param message message to write at ERROR
+	 * @param cause exception whose stack trace is written after the message
+	 */
+	public void error(String message, Throwable cause){
+		log(Level.ERROR, message, null, cause);
+	}
+
+	/**
+	 * hands a message to the appender if its level is enabled
+	 *
+	 * @param messageLevel level of the message
+	 * @param message the message, or null if it is built by the supplier
+	 * @param supplier builds the message if it is written, or null
+	 * @param cause exception whose stack trace follows the message, or null
+	 */
+	private void log(Level messageLevel, String message, Supplier<String> supplier, Throwable cause){
+		if (isEnabled(messageLevel))
+			AsyncAppender.getInstance().append(messageLevel, message, supplier, cause);
+	}
+}
@@ -0,0 +1,72 @@
+package logging;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * describes a TFTP packet for the log. the packet's contents are copied when it is
+ * logged, since its buffer may be reused as soon as the call returns, but the
+ * description is only built when the log writer gets to it
+ *
+ * @author Luke Newton
+ */
+public final class PacketFormatter {
+	//names of the TFTP packet types, by op code
+	private static final String[] PACKET_TYPES = {"UNKNOWN", "RRQ", "WRQ", "DATA", "ACK", "ERROR", "OACK"};
+
+	/**
+	 * not instantiated
+	 */
+	private PacketFormatter(){
+	}
+
+	/**
+	 * log a packet at TRACE, preceded by a heading
+	 *
+	 * @param log the logger to write to
+	 * @param heading line written before the packet (such as who sent it), or null for none
+	 * @param packet the packet to describe
+	 */
+	public static void trace(Logger log, String heading, DatagramPacket packet){
+		if (!log.isTraceEnabled())
+			return;
+		log.trace(describe(heading, packet));
+	}
+
+	/**
+	 * @param heading line written before the packet, or null for none
+	 * @param packet the packet to describe
+	 * @return builds the description of the packet as it is now
+	 */
+	public static Supplier<String> describe(String heading, DatagramPacket packet){
+		//get meaningful portion of message
+		byte[] data = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+		InetAddress address = packet.getAddress();
+		int port = packet.getPort();
+		return () -> format(heading, address, port, data);
+	}
+
+	/**
+	 * @param heading line written before the packet, or null for none
+	 * @param address address the packet came from or was sent to
+	 * @param port port the packet came from or was sent to
+	 * @param data the contents of the packet
+	 * @return the description of the packet
+	 */
+	private static String format(String heading, InetAddress address, int port, byte[] data){
+		StringBuilder description = new StringBuilder();
+		if (heading != null)
+			description.append(heading).append('\n');
+		description.append("host: ").append(address).append(':').append(port).append('\n');
+		description.append("Message length: ").append(data.length).append('\n');
+		int opcode = data.length < 2 || data[1] < 0 || data[1] >= PACKET_TYPES.length ? 0 : data[1];
+		description.append("Type: ").append(PACKET_TYPES[opcode]).append('\n');
+		if (data.length >= 4 && (opcode == 3 || opcode == 4))
+			description.append("Number ").append(((data[2] & 0xFF) << 8) | (data[3] & 0xFF)).append('\n');
+		description.append("Containing: ").append(new String(data)).append('\n');
+		description.append("Contents as raw data: ").append(Arrays.toString(data)).append('\n');
+		return description.toString();
+	}
+}
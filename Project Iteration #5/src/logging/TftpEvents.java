@@ -0,0 +1,58 @@
+package logging;
+
+import java.net.InetSocketAddress;
+
+/**
+ * the Java Flight Recorder events of a TFTP transfer, recorded by both the server and
+ * the client, so a recording taken under load shows which transfers a GC pause or a
+ * slow disk held up. every event says which side recorded it, "server" or "client".
+ *
+ * reads and writes of the disk happen for every block, so only those slower than
+ * -Djfr.diskThresholdMillis (10 by default) are recorded. a recording can lower or
+ * raise the threshold of any event in its settings
+ *
+ * @author Luke Newton
+ */
+public final class TftpEvents {
+	//milliseconds a disk read or write must take to be recorded (-Djfr.diskThresholdMillis)
+	private static final long DISK_THRESHOLD_MILLIS = Long.getLong("jfr.diskThresholdMillis", 10);
+
+	//a whole transfer, from the request to its end
+	public static final FlightEvent TRANSFER = FlightEvent.define("tftp.Transfer", "TFTP Transfer",
+			"A file transfer, from the request to its end", 0,
+			"String side", "String peer", "String file", "String direction", "long bytes", "boolean completed");
+	//a packet sent again because the other side did not answer, or asked for it again
+	public static final FlightEvent RETRANSMISSION = FlightEvent.define("tftp.Retransmission", "TFTP Retransmission",
+			"A packet sent again", 0,
+			"String side", "String peer", "String file", "int timeoutMillis");
+	//the other side not answering in time
+	public static final FlightEvent TIMEOUT = FlightEvent.define("tftp.Timeout", "TFTP Timeout",
+			"The other side did not answer in time", 0,
+			"String side", "String peer", "String file", "int timeoutMillis", "int consecutiveTimeouts");
+	//options agreed in an OACK
+	public static final FlightEvent OPTION_NEGOTIATION = FlightEvent.define("tftp.OptionNegotiation", "TFTP Option Negotiation",
+			"Options agreed in an OACK", 0,
+			"String side", "String peer", "String file", "int blockSize", "int windowSize", "int timeoutMillis", "long transferSize");
+	//bytes read from a file being sent
+	public static final FlightEvent DISK_READ = FlightEvent.define("tftp.DiskRead", "TFTP Disk Read",
+			"A read of a file being sent", DISK_THRESHOLD_MILLIS,
+			"String side", "String file", "long position", "int bytes");
+	//bytes written to a file being received
+	public static final FlightEvent DISK_WRITE = FlightEvent.define("tftp.DiskWrite", "TFTP Disk Write",
+			"A write of a file being received", DISK_THRESHOLD_MILLIS,
+			"String side", "String file", "long position", "int bytes");
+
+	/**
+	 * Constructor, not used: the events are only reached statically
+	 */
+	private TftpEvents(){
+	}
+
+	/**
+	 * @param peer address and port of the other side of a transfer
+	 * @return the address and port as recorded in events, such as 127.0.0.1:5000
+	 */
+	public static String describe(InetSocketAddress peer){
+		return peer.getAddress().getHostAddress() + ":" + peer.getPort();
+	}
+}
@@ -0,0 +1,243 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import logging.Logger;
+
+/**
+ * a bounded pool of buffers packets are sent and received in, so a transfer takes the
+ * buffers it needs when it starts and gives them back when it ends instead of
+ * allocating new ones. buffers are kept in size classes of powers of two, so a buffer
+ * sized for one block size can be reused by a later transfer with a similar one. at
+ * most a fixed number of free buffers are kept in each class; a buffer given back to a
+ * full class is left for the garbage collector.
+ *
+ * the heap pool is used with DatagramSockets, which need a buffer's backing array. the
+ * direct pool is used with DatagramChannels, which copy a heap buffer into a direct one
+ * on every send and receive.
+ *
+ * with -Dbuffer.pool.debug=true every buffer taken is remembered with where it was
+ * taken from, so buffers never given back (leaks) can be reported, and a buffer given
+ * back twice or to the wrong pool is refused rather than handed out to two owners
+ *
+ * @author Luke Newton
+ */
+public final class BufferPool {
+	//smallest size class, so ACKs and short ERROR packets share one class (a power of two)
+	private static final int MIN_BUFFER_SIZE = 64;
+	//largest size class, which holds a DATA packet with the largest block size (a power of two)
+	private static final int MAX_BUFFER_SIZE = 65536;
+	//free buffers kept in each size class (-Dbuffer.pool.maxPerSize)
+	private static final int MAX_FREE_PER_SIZE = Integer.getInteger("buffer.pool.maxPerSize", 64);
+	//remember where each buffer was taken from to report leaks (-Dbuffer.pool.debug)
+	private static final boolean LEAK_DETECTION = Boolean.getBoolean("buffer.pool.debug");
+	//log for leaks and misuse of the pool
+	private static final Logger log = Logger.getLogger("bufferPool");
+
+	//pool of heap buffers, for DatagramSockets
+	private static final BufferPool HEAP = new BufferPool("heap", false);
+	//pool of direct buffers, for DatagramChannels
+	private static final BufferPool DIRECT = new BufferPool("direct", true);
+
+	//name of the pool, shown with its statistics
+	private final String name;
+	//true if the pool holds direct buffers
+	private final boolean direct;
+	//free buffers, by size class (index 0 holds MIN_BUFFER_SIZE)
+	private final ArrayBlockingQueue<ByteBuffer>[] free;
+	//number of buffers taken that were found free in the pool
+	private final AtomicLong hits;
+	//number of buffers taken that had to be allocated
+	private final AtomicLong misses;
+	//number of buffers taken and not yet given back
+	private final AtomicLong outstanding;
+	//number of buffers given back to a full size class, or too large to pool
+	private final AtomicLong discarded;
+	//buffers taken and not yet given back, with where they were taken (debug only, guarded by itself)
+	private final Map<ByteBuffer, Throwable> owners;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name name of the pool, shown with its statistics
+	 * @param direct true if the pool holds direct buffers
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private BufferPool(String name, boolean direct){
+		this.name = name;
+		this.direct = direct;
+		free = new ArrayBlockingQueue[sizeClass(MAX_BUFFER_SIZE) + 1];
+		for (int i = 0; i < free.length; i++)
+			free[i] = new ArrayBlockingQueue<>(Math.max(1, MAX_FREE_PER_SIZE));
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		outstanding = new AtomicLong();
+		discarded = new AtomicLong();
+		owners = LEAK_DETECTION ? new IdentityHashMap<>() : null;
+	}
+
+	/**
+	 * @return the pool of heap buffers, for use with DatagramSockets
+	 */
+	public static BufferPool heap(){
+		return HEAP;
+	}
+
+	/**
+	 * @return the pool of direct buffers, for use with DatagramChannels
+	 */
+	public static BufferPool direct(){
+		return DIRECT;
+	}
+
+	/**
+	 * take a buffer from the pool, allocating one if none of the right size is free.
+	 * the buffer must be given back with release once it is no longer used
+	 *
+	 * @param size number of bytes needed
+	 * @return a buffer with at least size bytes, positioned at 0 with its limit at size.
+	 * a heap buffer's backing array starts at index 0
+	 */
+	public ByteBuffer acquire(int size){
+		ByteBuffer buffer = null;
+		if (size <= MAX_BUFFER_SIZE)
+			buffer = free[sizeClass(size)].poll();
+		if (buffer != null)
+			hits.incrementAndGet();
+		else {
+			misses.incrementAndGet();
+			int capacity = size <= MAX_BUFFER_SIZE ? MIN_BUFFER_SIZE << sizeClass(size) : size;
+			buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+		outstanding.incrementAndGet();
+		if (owners != null) {
+			synchronized (owners) {
+				owners.put(buffer, new Throwable("buffer of " + size + " bytes taken from the " + name + " pool"));
+			}
+		}
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * give a buffer back to the pool. the buffer must not be used afterwards
+	 *
+	 * @param buffer a buffer taken from this pool, or null to do nothing
+	 */
+	public void release(ByteBuffer buffer){
+		if (buffer == null)
+			return;
+		if (owners != null) {
+			synchronized (owners) {
+				if (owners.remove(buffer) == null) {
+					log.error("Buffer given back to the " + name + " pool twice or not taken from it",
+							new IllegalStateException("buffer of " + buffer.capacity() + " bytes"));
+					return;
+				}
+			}
+		}
+		outstanding.decrementAndGet();
+		//only buffers with the exact capacity of a size class are pooled
+		int capacity = buffer.capacity();
+		if (buffer.isDirect() != direct || capacity > MAX_BUFFER_SIZE || capacity != MIN_BUFFER_SIZE << sizeClass(capacity)
+				|| !free[sizeClass(capacity)].offer(buffer))
+			discarded.incrementAndGet();
+	}
+
+	/**
+	 * log where every buffer not yet given back was taken from. only possible with
+	 * -Dbuffer.pool.debug=true, otherwise just the number of them is logged
+	 *
+	 * @return number of buffers taken and not given back
+	 */
+	public long reportLeaks(){
+		long count = getOutstanding();
+		if (count == 0)
+			return 0;
+		if (owners == null) {
+			log.warn(count + " buffers not given back to the " + name + " pool (run with -Dbuffer.pool.debug=true to see where they were taken)");
+			return count;
+		}
+		synchronized (owners) {
+			for (Throwable owner : owners.values())
+				log.warn("Buffer not given back to the " + name + " pool", owner);
+		}
+		return count;
+	}
+
+	/**
+	 * @param size number of bytes needed, at most MAX_BUFFER_SIZE
+	 * @return index of the smallest size class holding buffers of at least size bytes
+	 */
+	private static int sizeClass(int size){
+		if (size <= MIN_BUFFER_SIZE)
+			return 0;
+		//number of bits needed for size - 1, less those of MIN_BUFFER_SIZE - 1
+		return Integer.numberOfLeadingZeros(MIN_BUFFER_SIZE - 1) - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	/**
+	 * @return number of buffers taken that were found free in the pool
+	 */
+	public long getHits(){
+		return hits.get();
+	}
+
+	/**
+	 * @return number of buffers taken that had to be allocated
+	 */
+	public long getMisses(){
+		return misses.get();
+	}
+
+	/**
+	 * @return fraction of the buffers taken that were found free in the pool, 0 if none were taken
+	 */
+	public double getHitRate(){
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return number of buffers taken and not yet given back
+	 */
+	public long getOutstanding(){
+		return outstanding.get();
+	}
+
+	/**
+	 * @return number of buffers given back that the pool had no room for
+	 */
+	public long getDiscarded(){
+		return discarded.get();
+	}
+
+	/**
+	 * @return number of free buffers held by the pool
+	 */
+	public int getFree(){
+		int count = 0;
+		for (ArrayBlockingQueue<ByteBuffer> sizeClass : free)
+			count += sizeClass.size();
+		return count;
+	}
+
+	/**
+	 * @return a one line summary of the pool state for display on the console
+	 */
+	@Override
+	public String toString(){
+		return name + " free: " + getFree()
+				+ ", in use: " + getOutstanding()
+				+ ", hits: " + getHits()
+				+ ", misses: " + getMisses()
+				+ String.format(" (hit rate %.1f%%)", getHitRate() * 100)
+				+ ", discarded: " + getDiscarded();
+	}
+}
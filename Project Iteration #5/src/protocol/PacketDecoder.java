@@ -0,0 +1,155 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * reads the fields of a TFTP packet held in a buffer, from the buffer's position to its
+ * limit. the buffer is never moved, so a buffer the packets are received into can be
+ * read as is. indexes given to and returned by these methods count from the start of
+ * the packet (the buffer's position).
+ *
+ * text is found with findTextEnd and only turned into a String when asked for, so
+ * checking a packet's type, block number or options allocates nothing
+ *
+ * @author Luke Newton
+ */
+public final class PacketDecoder {
+	/**
+	 * not instantiated
+	 */
+	private PacketDecoder(){
+	}
+
+	/**
+	 * @param packet the packet
+	 * @return the op code of the packet, or 0 if it is too short to have one
+	 */
+	public static byte getOpcode(ByteBuffer packet){
+		return packet.remaining() < 2 ? 0 : packet.get(packet.position() + 1);
+	}
+
+	/**
+	 * @param packet a DATA or ACK packet
+	 * @return the block number (0 to 65535), or -1 if the packet is too short to have one
+	 */
+	public static int getBlockNumber(ByteBuffer packet){
+		return packet.remaining() < Tftp.HEADER_LENGTH ? -1 : packet.getShort(packet.position() + 2) & 0xFFFF;
+	}
+
+	/**
+	 * @param packet a DATA packet
+	 * @return number of bytes of data in the block
+	 */
+	public static int getDataLength(ByteBuffer packet){
+		return Math.max(0, packet.remaining() - Tftp.HEADER_LENGTH);
+	}
+
+	/**
+	 * @param packet an ERROR packet
+	 * @return the error code, or -1 if the packet is too short to have one
+	 */
+	public static int getErrorCode(ByteBuffer packet){
+		return packet.remaining() < Tftp.HEADER_LENGTH ? -1 : packet.getShort(packet.position() + 2) & 0xFFFF;
+	}
+
+	/**
+	 * @param packet an ERROR packet
+	 * @return the error message, up to the end of the packet if it is not 0 terminated
+	 */
+	public static String getErrorMessage(ByteBuffer packet){
+		if (packet.remaining() < Tftp.HEADER_LENGTH)
+			return "";
+		int end = findTextEnd(packet, Tftp.HEADER_LENGTH);
+		return getText(packet, Tftp.HEADER_LENGTH, end < 0 ? packet.remaining() : end);
+	}
+
+	/**
+	 * finds the 0 byte ending text in a packet (a file name, mode, option name or value)
+	 *
+	 * @param packet the packet
+	 * @param start index the text starts at
+	 * @return index of the 0 byte ending the text, or -1 if the packet ends first
+	 */
+	public static int findTextEnd(ByteBuffer packet, int start){
+		for (int i = start; i < packet.remaining(); i++) {
+			if (packet.get(packet.position() + i) == 0)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param packet the packet
+	 * @param start index the text starts at
+	 * @param end index after the last character of the text
+	 * @return the text, a character per byte
+	 */
+	public static String getText(ByteBuffer packet, int start, int end){
+		char[] text = new char[end - start];
+		for (int i = 0; i < text.length; i++)
+			text[i] = (char) (packet.get(packet.position() + start + i) & 0xFF);
+		return new String(text);
+	}
+
+	/**
+	 * @param packet the packet
+	 * @param start index the text starts at
+	 * @param end index after the last character of the text
+	 * @param text text to compare with, in lower case
+	 * @return true if the text in the packet is the same, ignoring case
+	 */
+	public static boolean textEquals(ByteBuffer packet, int start, int end, String text){
+		if (end - start != text.length())
+			return false;
+		for (int i = 0; i < text.length(); i++) {
+			if (Character.toLowerCase((char) (packet.get(packet.position() + start + i) & 0xFF)) != text.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * reads an option value, which is a decimal number for every option this TFTP supports
+	 *
+	 * @param packet the packet
+	 * @param start index the number starts at
+	 * @param end index after the last digit
+	 * @return the number, or -1 if the text is not a number that fits in a long
+	 */
+	public static long parseNumber(ByteBuffer packet, int start, int end){
+		if (end <= start || end - start > 18)
+			return -1;
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			byte digit = packet.get(packet.position() + i);
+			if (digit < '0' || digit > '9')
+				return -1;
+			value = value * 10 + (digit - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * finds the value of an option in a request or OACK
+	 *
+	 * @param packet the request or OACK
+	 * @param optionsStart index the options start at (2 for an OACK, after the mode for a request)
+	 * @param name name of the option, in lower case
+	 * @return index the option's value starts at, or -1 if the packet does not have the option
+	 */
+	public static int findOption(ByteBuffer packet, int optionsStart, String name){
+		int index = optionsStart;
+		while (index < packet.remaining()) {
+			int nameEnd = findTextEnd(packet, index);
+			if (nameEnd < 0)
+				return -1;
+			int valueEnd = findTextEnd(packet, nameEnd + 1);
+			if (valueEnd < 0)
+				return -1;
+			if (textEquals(packet, index, nameEnd, name))
+				return nameEnd + 1;
+			index = valueEnd + 1;
+		}
+		return -1;
+	}
+}
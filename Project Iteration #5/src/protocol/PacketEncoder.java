@@ -0,0 +1,177 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * writes TFTP packets into a buffer supplied by the caller, so a buffer kept for the
+ * whole transfer can be reused for every packet instead of building each one in a new
+ * stream or array. each method writes at the buffer's position, so a packet with
+ * options is built by following putRequest or putOptionAcknowledgement with putOption
+ * for each option. the caller flips the buffer once the packet is complete.
+ *
+ * text is written a byte per character (RFC 1350 allows only ASCII), and numbers are
+ * written digit by digit, so nothing is allocated to encode a packet
+ *
+ * @author Luke Newton
+ */
+public final class PacketEncoder {
+	/**
+	 * not instantiated
+	 */
+	private PacketEncoder(){
+	}
+
+	/**
+	 * write a RRQ or WRQ
+	 *
+	 * @param buffer buffer to write the packet to
+	 * @param opcode OP_RRQ or OP_WRQ
+	 * @param fileName name of the file to read or write
+	 * @param mode the transfer mode (netascii or octet)
+	 * @return the buffer, positioned after the request
+	 */
+	public static ByteBuffer putRequest(ByteBuffer buffer, byte opcode, String fileName, String mode){
+		buffer.put((byte) 0).put(opcode);
+		putText(buffer, fileName);
+		putText(buffer, mode);
+		return buffer;
+	}
+
+	/**
+	 * @param fileName name of the file of a RRQ or WRQ
+	 * @param mode the transfer mode of the request
+	 * @return number of bytes the request takes, before any options
+	 */
+	public static int requestLength(String fileName, String mode){
+		return 2 + fileName.length() + 1 + mode.length() + 1;
+	}
+
+	/**
+	 * write the op code of an OACK, to be followed by the options accepted
+	 *
+	 * @param buffer buffer to write the packet to
+	 * @return the buffer, positioned after the op code
+	 */
+	public static ByteBuffer putOptionAcknowledgement(ByteBuffer buffer){
+		return buffer.put((byte) 0).put(Tftp.OP_OACK);
+	}
+
+	/**
+	 * write an option after a request or OACK
+	 *
+	 * @param buffer buffer to write the option to
+	 * @param name name of the option
+	 * @param value value of the option
+	 * @return the buffer, positioned after the option
+	 */
+	public static ByteBuffer putOption(ByteBuffer buffer, String name, long value){
+		putText(buffer, name);
+		putNumber(buffer, value);
+		return buffer;
+	}
+
+	/**
+	 * write an option after a request or OACK
+	 *
+	 * @param buffer buffer to write the option to
+	 * @param name name of the option
+	 * @param value value of the option
+	 * @return the buffer, positioned after the option
+	 */
+	public static ByteBuffer putOption(ByteBuffer buffer, String name, String value){
+		putText(buffer, name);
+		putText(buffer, value);
+		return buffer;
+	}
+
+	/**
+	 * write the op code and block number of a DATA packet, for the caller to write the
+	 * block after (such as by reading a file straight into the buffer's array)
+	 *
+	 * @param buffer buffer to write the packet to
+	 * @param blockNumber number of the block, kept to its low 16 bits
+	 * @return the buffer, positioned where the block's data starts
+	 */
+	public static ByteBuffer putDataHeader(ByteBuffer buffer, int blockNumber){
+		return buffer.put((byte) 0).put(Tftp.OP_DATA).putShort((short) blockNumber);
+	}
+
+	/**
+	 * write a DATA packet
+	 *
+	 * @param buffer buffer to write the packet to
+	 * @param blockNumber number of the block, kept to its low 16 bits
+	 * @param data array holding the block
+	 * @param offset index in the array the block starts at
+	 * @param length number of bytes in the block
+	 * @return the buffer, positioned after the packet
+	 */
+	public static ByteBuffer putData(ByteBuffer buffer, int blockNumber, byte[] data, int offset, int length){
+		return putDataHeader(buffer, blockNumber).put(data, offset, length);
+	}
+
+	/**
+	 * write an ACK
+	 *
+	 * @param buffer buffer to write the packet to
+	 * @param blockNumber number of the block acknowledged, kept to its low 16 bits
+	 * @return the buffer, positioned after the packet
+	 */
+	public static ByteBuffer putAcknowledgement(ByteBuffer buffer, int blockNumber){
+		return buffer.put((byte) 0).put(Tftp.OP_ACK).putShort((short) blockNumber);
+	}
+
+	/**
+	 * write an ERROR packet
+	 *
+	 * @param buffer buffer to write the packet to
+	 * @param errorCode the TFTP error code
+	 * @param message the message that is displayed to the user
+	 * @return the buffer, positioned after the packet
+	 */
+	public static ByteBuffer putError(ByteBuffer buffer, byte errorCode, String message){
+		buffer.put((byte) 0).put(Tftp.OP_ERROR).put((byte) 0).put(errorCode);
+		putText(buffer, message);
+		return buffer;
+	}
+
+	/**
+	 * @param message the message of an ERROR packet
+	 * @return number of bytes the ERROR packet takes
+	 */
+	public static int errorLength(String message){
+		return Tftp.HEADER_LENGTH + message.length() + 1;
+	}
+
+	/**
+	 * write text followed by a 0 byte
+	 *
+	 * @param buffer buffer to write the text to
+	 * @param text the text to write
+	 */
+	private static void putText(ByteBuffer buffer, String text){
+		for (int i = 0; i < text.length(); i++)
+			buffer.put((byte) text.charAt(i));
+		buffer.put((byte) 0);
+	}
+
+	/**
+	 * write a number as decimal text followed by a 0 byte
+	 *
+	 * @param buffer buffer to write the number to
+	 * @param value the number to write, 0 or more
+	 */
+	private static void putNumber(ByteBuffer buffer, long value){
+		//count the digits, then write them from the last
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10)
+			digits++;
+		int end = buffer.position() + digits;
+		for (int i = end - 1; i >= buffer.position(); i--) {
+			buffer.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(end);
+		buffer.put((byte) 0);
+	}
+}
@@ -0,0 +1,202 @@
+package protocol;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * decides how long to wait for the other side of a transfer before retransmitting. the
+ * round trip time is measured during the transfer and smoothed as in TCP
+ * (Jacobson/Karels, RFC 6298), so a lost packet on a fast network is resent after a
+ * fraction of a second, while a slow network is given the time it needs. only packets
+ * sent once are timed, since an answer to a packet sent twice could be for either copy
+ * (Karn's algorithm), and every timeout in a row doubles the wait until a new round
+ * trip is measured. the transfer is abandoned once the other side has acknowledged
+ * nothing new for 20 seconds.
+ *
+ * if a timeout was agreed (RFC 2349) it is used as is for the rest of the transfer.
+ *
+ * the client and the server each extend this to record retransmissions, timeouts and
+ * round trips where they keep them
+ *
+ * @author Luke Newton
+ */
+public class RetransmissionTimer {
+	//bounds on the milliseconds to wait, however short or long the round trips measured
+	private static final long MIN_TIMEOUT_MILLISECONDS = 200;
+	private static final long MAX_TIMEOUT_MILLISECONDS = 60000;
+	//milliseconds without the other side acknowledging anything new before the transfer is abandoned
+	private static final long MAX_WAIT_MILLISECONDS = 20000;
+	//number of timeouts in a row before the transfer is abandoned when the timeout was agreed
+	private static final int MAX_FIXED_TIMEOUTS = 3;
+
+	//set if the timeout was agreed rather than measured
+	private boolean fixed;
+	//smoothed round trip time in nanoseconds, or -1 before the first is measured
+	private long smoothedRoundTrip;
+	//smoothed variation of the round trip time in nanoseconds
+	private long roundTripVariation;
+	//nanoseconds to wait before retransmitting, doubled for every timeout in a row
+	private long timeout;
+	//System.nanoTime() when the packet being timed was sent, or -1 if none is
+	private long sampleStart;
+	//set once a packet is retransmitted, until the other side acknowledges something new
+	private boolean retransmitted;
+	//number of timeouts in a row
+	private int numTimeouts;
+	//System.nanoTime() when the other side last acknowledged something new
+	private long lastProgress;
+	//set if the transfer has a deadline
+	private boolean deadlineSet;
+	//System.nanoTime() by which the transfer must end, if a deadline is set
+	private long transferDeadline;
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialTimeoutMillis milliseconds to wait until a round trip has been measured
+	 * @param deadlineSeconds seconds the transfer may take before it is abandoned (0 for no limit)
+	 */
+	public RetransmissionTimer(long initialTimeoutMillis, long deadlineSeconds){
+		timeout = TimeUnit.MILLISECONDS.toNanos(initialTimeoutMillis);
+		smoothedRoundTrip = -1;
+		sampleStart = -1;
+		lastProgress = System.nanoTime();
+		deadlineSet = deadlineSeconds > 0;
+		transferDeadline = lastProgress + TimeUnit.SECONDS.toNanos(deadlineSeconds);
+	}
+
+	/**
+	 * wait the timeout agreed with the other side for the rest of the transfer instead
+	 * of measuring it
+	 *
+	 * @param millis milliseconds to wait before retransmitting
+	 */
+	public void setFixedTimeout(int millis){
+		fixed = true;
+		timeout = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * record that a packet has been sent for the first time, timing it if no other
+	 * packet is being timed
+	 */
+	public void sent(){
+		if (sampleStart < 0 && !retransmitted)
+			sampleStart = System.nanoTime();
+	}
+
+	/**
+	 * record that a packet has been sent again. no round trip is measured until the
+	 * other side acknowledges something new, since the answer may be to either copy
+	 */
+	public void resent(){
+		onRetransmission();
+		retransmitted = true;
+		sampleStart = -1;
+	}
+
+	/**
+	 * record that the other side acknowledged something new (an ACK for a block in
+	 * flight, an OACK, or the next DATA block), measuring the round trip if a packet was
+	 * being timed. a round trip measured while the timeout is agreed is still reported
+	 * to onRoundTrip(), but does not change the timeout
+	 */
+	public void acknowledged(){
+		long now = System.nanoTime();
+		if (sampleStart >= 0) {
+			onRoundTrip(now - sampleStart);
+			if (!fixed)
+				measured(now - sampleStart);
+		}
+		sampleStart = -1;
+		retransmitted = false;
+		numTimeouts = 0;
+		lastProgress = now;
+	}
+
+	/**
+	 * update the smoothed round trip time and its variation with a new measurement,
+	 * then the timeout from them
+	 *
+	 * @param roundTrip nanoseconds between sending a packet and the other side acknowledging it
+	 */
+	private void measured(long roundTrip){
+		if (smoothedRoundTrip < 0) {
+			smoothedRoundTrip = roundTrip;
+			roundTripVariation = roundTrip / 2;
+		} else {
+			//gains of 1/4 and 1/8, with the variation updated from the previous smoothed time
+			roundTripVariation += (Math.abs(smoothedRoundTrip - roundTrip) - roundTripVariation) / 4;
+			smoothedRoundTrip += (roundTrip - smoothedRoundTrip) / 8;
+		}
+		timeout = Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_TIMEOUT_MILLISECONDS),
+				Math.min(TimeUnit.MILLISECONDS.toNanos(MAX_TIMEOUT_MILLISECONDS), smoothedRoundTrip + 4 * roundTripVariation));
+	}
+
+	/**
+	 * record that the other side did not respond in time, doubling the time to wait
+	 *
+	 * @return true if the packets not acknowledged should be resent, false if the transfer should be abandoned
+	 */
+	public boolean timedOut(){
+		numTimeouts++;
+		//reported before doubling, so with the timeout that expired
+		onTimeout(numTimeouts);
+		if (!fixed)
+			timeout = Math.min(timeout * 2, TimeUnit.MILLISECONDS.toNanos(MAX_TIMEOUT_MILLISECONDS));
+		if (isPastDeadline())
+			return false;
+		return fixed ? numTimeouts < MAX_FIXED_TIMEOUTS : getMillisWaited() < MAX_WAIT_MILLISECONDS;
+	}
+
+	/**
+	 * @return milliseconds to wait before retransmitting, never past the time the other side is given up on
+	 */
+	public int getTimeoutMillis(){
+		long wait = timeout;
+		if (!fixed)
+			wait = Math.min(wait, lastProgress + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLISECONDS) - System.nanoTime());
+		if (deadlineSet)
+			wait = Math.min(wait, transferDeadline - System.nanoTime());
+		//a socket timeout of 0 would wait forever
+		return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+	}
+
+	/**
+	 * @return true if the transfer has taken longer than it is allowed to
+	 */
+	public boolean isPastDeadline(){
+		return deadlineSet && System.nanoTime() - transferDeadline >= 0;
+	}
+
+	/**
+	 * @return milliseconds since the other side last acknowledged something new
+	 */
+	public long getMillisWaited(){
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastProgress);
+	}
+
+	/**
+	 * called as a packet is about to be sent again, with getTimeoutMillis() still the
+	 * wait that expired. does nothing unless overridden
+	 */
+	protected void onRetransmission(){
+	}
+
+	/**
+	 * called for every round trip measured, whether or not the timeout is agreed. does
+	 * nothing unless overridden
+	 *
+	 * @param roundTrip nanoseconds between sending a packet and the other side acknowledging it
+	 */
+	protected void onRoundTrip(long roundTrip){
+	}
+
+	/**
+	 * called for every timeout, before the wait is doubled, so getTimeoutMillis() is
+	 * still the wait that expired. does nothing unless overridden
+	 *
+	 * @param consecutiveTimeouts number of timeouts in a row, including this one
+	 */
+	protected void onTimeout(int consecutiveTimeouts){
+	}
+}
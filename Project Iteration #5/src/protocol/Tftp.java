@@ -0,0 +1,63 @@
+package protocol;
+
+/**
+ * the op codes, error codes and option names TFTP packets are made of (RFC 1350, with
+ * the options of RFC 2347, 2348, 2349 and 7440), shared by the client, server and
+ * error simulator
+ *
+ * @author Luke Newton
+ */
+public final class Tftp {
+	//TFTP OP codes
+	public static final byte OP_RRQ = 1;
+	public static final byte OP_WRQ = 2;
+	public static final byte OP_DATA = 3;
+	public static final byte OP_ACK = 4;
+	public static final byte OP_ERROR = 5;
+	public static final byte OP_OACK = 6;
+
+	//TFTP error codes
+	public static final byte NOT_DEFINED = 0;
+	public static final byte FILE_NOT_FOUND = 1;
+	public static final byte ACCESS_VIOLATION = 2;
+	public static final byte DISK_FULL = 3;
+	public static final byte ILLEGAL_TFTP_OPERATION = 4;
+	public static final byte UNRECOGNIZED_TID = 5;
+	public static final byte FILE_ALREADY_EXISTS = 6;
+	public static final byte NO_SUCH_USER = 7;
+	public static final byte OPTION_NEGOTIATION_FAILED = 8;
+
+	//bytes before the data of a DATA packet (op code and block number), also the length of an ACK
+	public static final int HEADER_LENGTH = 4;
+
+	//names of the options a request may carry
+	public static final String BLOCK_SIZE_OPTION = "blksize";
+	public static final String WINDOW_SIZE_OPTION = "windowsize";
+	public static final String TRANSFER_SIZE_OPTION = "tsize";
+	public static final String TIMEOUT_OPTION = "timeout";
+
+	//names of the packet types, by op code
+	private static final String[] PACKET_TYPES = {"UNKNOWN", "RRQ", "WRQ", "DATA", "ACK", "ERROR", "OACK"};
+
+	/**
+	 * not instantiated
+	 */
+	private Tftp(){
+	}
+
+	/**
+	 * @param opcode op code of a packet
+	 * @return true if the op code is one of the TFTP packet types
+	 */
+	public static boolean isValidOpcode(byte opcode){
+		return opcode >= OP_RRQ && opcode <= OP_OACK;
+	}
+
+	/**
+	 * @param opcode op code of a packet
+	 * @return name of the packet type, or UNKNOWN if the op code is not a TFTP packet type
+	 */
+	public static String typeName(byte opcode){
+		return PACKET_TYPES[isValidOpcode(opcode) ? opcode : 0];
+	}
+}
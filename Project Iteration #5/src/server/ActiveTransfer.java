@@ -0,0 +1,62 @@
+package server;
+
+import java.net.InetSocketAddress;
+
+/**
+ * a transfer in progress, as listed in the server's transfer table. implemented by the
+ * transfers of both engines. the values are read by other threads while the transfer
+ * runs without stopping it, so they may lag slightly behind
+ *
+ * @author Luke Newton
+ */
+interface ActiveTransfer {
+	/**
+	 * @return address and port of the client
+	 */
+	InetSocketAddress getClientAddress();
+
+	/**
+	 * @return port the server talks to the client on (the server's TID), or -1 if the
+	 * transfer has not opened it yet
+	 */
+	int getServerPort();
+
+	/**
+	 * @return path of the file being transferred
+	 */
+	String getFilePath();
+
+	/**
+	 * @return true if the file is sent to the client, false if it is received from it
+	 */
+	boolean isReadRequest();
+
+	/**
+	 * @return number of DATA blocks acknowledged by the client (read) or received from
+	 * it (write) so far, counting past 65535 where block numbers wrap around
+	 */
+	int getBlockNumber();
+
+	/**
+	 * @return bytes of file data moved so far
+	 */
+	long getBytesTransferred();
+
+	/**
+	 * @return nanoseconds since the transfer started
+	 */
+	long getElapsedNanos();
+
+	/**
+	 * @return milliseconds the transfer currently waits for the client before resending
+	 */
+	int getTimeoutMillis();
+
+	/**
+	 * end the transfer, informing the client why. safe to call from any thread, the
+	 * transfer ending shortly afterwards
+	 *
+	 * @param reason the message sent to the client
+	 */
+	void cancel(String reason);
+}
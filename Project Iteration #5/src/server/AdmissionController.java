@@ -0,0 +1,223 @@
+package server;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import protocol.Tftp;
+
+/**
+ * decides whether the server takes on each request it receives, before the request is
+ * handed to a worker or an event loop. the requests admitted are limited in number, in
+ * number of write requests (each holds a file open for writing and disk space), and in
+ * the bytes they may have in flight at once (a window of full blocks each, as the
+ * request's options would be agreed). a request over any limit is shed at once with an
+ * ERROR packet, so the client can try again later instead of waiting on a transfer the
+ * server cannot keep up with.
+ *
+ * admitting takes no lock: the counts are raised first and lowered again if a limit is
+ * passed, so requests arriving together may be shed slightly early but never admitted
+ * over a limit. the limits can be changed while the server runs through
+ * AdmissionControllerMXBean
+ *
+ * @author Luke Newton
+ */
+public class AdmissionController implements AdmissionControllerMXBean {
+	//what a request that is not a RRQ or WRQ holds, nothing, since it is only answered with an ERROR
+	static final Permit UNCOUNTED = new Permit(false, 0);
+
+	//number of requests admitted that have not yet ended
+	private AtomicInteger transfers;
+	//number of write requests admitted that have not yet ended
+	private AtomicInteger writeTransfers;
+	//bytes the requests admitted may have in flight at once
+	private AtomicLong inFlightBytes;
+	//maximum number of requests admitted at once
+	private volatile int maxTransfers;
+	//maximum number of write requests admitted at once
+	private volatile int maxWriteTransfers;
+	//maximum bytes the requests admitted may have in flight at once
+	private volatile long maxInFlightBytes;
+	//requests shed, by the limit they would have passed
+	private LongAdder shedForTransfers;
+	private LongAdder shedForWriteTransfers;
+	private LongAdder shedForInFlightBytes;
+
+	/**
+	 * what an admitted request holds until its transfer ends, given back to the
+	 * controller exactly once
+	 */
+	static final class Permit {
+		//set if the request is a WRQ
+		private final boolean writeRequest;
+		//bytes the transfer may have in flight at once
+		private final long bytes;
+
+		/**
+		 * Constructor
+		 *
+		 * @param writeRequest set if the request is a WRQ
+		 * @param bytes bytes the transfer may have in flight at once
+		 */
+		private Permit(boolean writeRequest, long bytes){
+			this.writeRequest = writeRequest;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxTransfers maximum number of requests admitted at once
+	 * @param maxWriteTransfers maximum number of write requests admitted at once
+	 * @param maxInFlightBytes maximum bytes the requests admitted may have in flight at once
+	 */
+	public AdmissionController(int maxTransfers, int maxWriteTransfers, long maxInFlightBytes){
+		transfers = new AtomicInteger();
+		writeTransfers = new AtomicInteger();
+		inFlightBytes = new AtomicLong();
+		shedForTransfers = new LongAdder();
+		shedForWriteTransfers = new LongAdder();
+		shedForInFlightBytes = new LongAdder();
+		setMaxTransfers(maxTransfers);
+		setMaxWriteTransfers(maxWriteTransfers);
+		setMaxInFlightBytes(maxInFlightBytes);
+	}
+
+	/**
+	 * decide whether to take on a request
+	 *
+	 * @param request the request received
+	 * @return what the request holds until its transfer ends, to be given to release(),
+	 * or null if the request is shed and should be refused. packets that are not a RRQ
+	 * or WRQ are always let through, holding nothing
+	 */
+	Permit admit(DatagramPacket request){
+		byte opcode = request.getLength() < 2 ? 0 : request.getData()[1];
+		if (opcode != Tftp.OP_RRQ && opcode != Tftp.OP_WRQ)
+			return UNCOUNTED;
+		boolean writeRequest = opcode == Tftp.OP_WRQ;
+		long bytes = TransferRequest.windowBytes(request.getData(), request.getLength());
+
+		if (transfers.incrementAndGet() > maxTransfers) {
+			transfers.decrementAndGet();
+			shedForTransfers.increment();
+			return null;
+		}
+		if (writeRequest && writeTransfers.incrementAndGet() > maxWriteTransfers) {
+			writeTransfers.decrementAndGet();
+			transfers.decrementAndGet();
+			shedForWriteTransfers.increment();
+			return null;
+		}
+		//a single request larger than the limit is still admitted when nothing else is in flight
+		long total = inFlightBytes.addAndGet(bytes);
+		if (total > maxInFlightBytes && total != bytes) {
+			inFlightBytes.addAndGet(-bytes);
+			if (writeRequest)
+				writeTransfers.decrementAndGet();
+			transfers.decrementAndGet();
+			shedForInFlightBytes.increment();
+			return null;
+		}
+		return new Permit(writeRequest, bytes);
+	}
+
+	/**
+	 * give back what an admitted request held, once its transfer has ended or it was
+	 * refused after all
+	 *
+	 * @param permit what admit() returned for the request
+	 */
+	void release(Permit permit){
+		if (permit == null || permit == UNCOUNTED)
+			return;
+		inFlightBytes.addAndGet(-permit.bytes);
+		if (permit.writeRequest)
+			writeTransfers.decrementAndGet();
+		transfers.decrementAndGet();
+	}
+
+	@Override
+	public int getTransfers(){
+		return transfers.get();
+	}
+
+	@Override
+	public int getWriteTransfers(){
+		return writeTransfers.get();
+	}
+
+	@Override
+	public long getInFlightBytes(){
+		return inFlightBytes.get();
+	}
+
+	@Override
+	public int getMaxTransfers(){
+		return maxTransfers;
+	}
+
+	@Override
+	public void setMaxTransfers(int maxTransfers){
+		if (maxTransfers < 1)
+			throw new IllegalArgumentException("maximum transfers must be at least 1: " + maxTransfers);
+		this.maxTransfers = maxTransfers;
+	}
+
+	@Override
+	public int getMaxWriteTransfers(){
+		return maxWriteTransfers;
+	}
+
+	@Override
+	public void setMaxWriteTransfers(int maxWriteTransfers){
+		if (maxWriteTransfers < 0)
+			throw new IllegalArgumentException("maximum write transfers must not be negative: " + maxWriteTransfers);
+		this.maxWriteTransfers = maxWriteTransfers;
+	}
+
+	@Override
+	public long getMaxInFlightBytes(){
+		return maxInFlightBytes;
+	}
+
+	@Override
+	public void setMaxInFlightBytes(long maxInFlightBytes){
+		if (maxInFlightBytes < 1)
+			throw new IllegalArgumentException("maximum bytes in flight must be at least 1: " + maxInFlightBytes);
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	@Override
+	public long getRequestsShed(){
+		return getShedForTransfers() + getShedForWriteTransfers() + getShedForInFlightBytes();
+	}
+
+	@Override
+	public long getShedForTransfers(){
+		return shedForTransfers.sum();
+	}
+
+	@Override
+	public long getShedForWriteTransfers(){
+		return shedForWriteTransfers.sum();
+	}
+
+	@Override
+	public long getShedForInFlightBytes(){
+		return shedForInFlightBytes.sum();
+	}
+
+	/**
+	 * @return a one line summary of the requests admitted for display on the console
+	 */
+	@Override
+	public String toString(){
+		return "transfers: " + getTransfers() + " (limit " + maxTransfers + ")"
+				+ ", writes: " + getWriteTransfers() + " (limit " + maxWriteTransfers + ")"
+				+ ", bytes in flight: " + getInFlightBytes() + " (limit " + maxInFlightBytes + ")"
+				+ ", shed: " + getRequestsShed();
+	}
+}
@@ -0,0 +1,76 @@
+package server;
+
+/**
+ * management interface of the limits requests are admitted under, registered with JMX
+ * as tftp.server:type=Admission. the limits can be changed while the server runs
+ *
+ * @author Luke Newton
+ */
+public interface AdmissionControllerMXBean {
+	/**
+	 * @return number of requests admitted that have not yet ended
+	 */
+	int getTransfers();
+
+	/**
+	 * @return number of write requests admitted that have not yet ended
+	 */
+	int getWriteTransfers();
+
+	/**
+	 * @return bytes the requests admitted may have in flight at once, a window of
+	 * full blocks for each
+	 */
+	long getInFlightBytes();
+
+	/**
+	 * @return maximum number of requests admitted at once
+	 */
+	int getMaxTransfers();
+
+	/**
+	 * @param maxTransfers maximum number of requests to admit at once. transfers already
+	 * in progress above a lowered limit are left to finish
+	 */
+	void setMaxTransfers(int maxTransfers);
+
+	/**
+	 * @return maximum number of write requests admitted at once
+	 */
+	int getMaxWriteTransfers();
+
+	/**
+	 * @param maxWriteTransfers maximum number of write requests to admit at once
+	 */
+	void setMaxWriteTransfers(int maxWriteTransfers);
+
+	/**
+	 * @return maximum bytes the requests admitted may have in flight at once
+	 */
+	long getMaxInFlightBytes();
+
+	/**
+	 * @param maxInFlightBytes maximum bytes the requests admitted may have in flight at once
+	 */
+	void setMaxInFlightBytes(long maxInFlightBytes);
+
+	/**
+	 * @return number of requests refused because the server was busy
+	 */
+	long getRequestsShed();
+
+	/**
+	 * @return number of requests refused because too many transfers were in progress
+	 */
+	long getShedForTransfers();
+
+	/**
+	 * @return number of write requests refused because too many were in progress
+	 */
+	long getShedForWriteTransfers();
+
+	/**
+	 * @return number of requests refused because too many bytes were in flight
+	 */
+	long getShedForInFlightBytes();
+}
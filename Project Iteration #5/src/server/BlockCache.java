@@ -0,0 +1,225 @@
+package server;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * blocks of files recently sent by the server, shared by every transfer. when many
+ * clients read the same file at once (or one after another), each block is read from
+ * disk once and every other reader is given a copy from memory. blocks are identified
+ * by the file's path, its last modified time and the block's number, so a file that
+ * has been replaced is never served from stale blocks.
+ *
+ * the cache holds at most a fixed number of bytes, discarding the least recently used
+ * blocks to make room for new ones
+ *
+ * @author Luke Newton
+ */
+public class BlockCache {
+	//blocks in the cache, ordered from least to most recently used (guarded by this)
+	private LinkedHashMap<Key, Block> blocks;
+	//maximum number of bytes of file data held in the cache
+	private long capacity;
+	//number of bytes of file data currently held in the cache (guarded by this)
+	private long size;
+	//number of blocks found in the cache
+	private AtomicLong hits;
+	//number of blocks that had to be read from disk
+	private AtomicLong misses;
+	//number of blocks discarded to make room for others
+	private AtomicLong evictions;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity maximum number of bytes of file data held in the cache
+	 */
+	public BlockCache(long capacity){
+		this.capacity = capacity;
+		//access ordered, so iteration starts at the least recently used block
+		blocks = new LinkedHashMap<>(16, 0.75f, true);
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+	}
+
+	/**
+	 * copies a block of a file into a buffer, reading it from disk only if it is not
+	 * already in the cache. if several transfers ask for the same missing block at once,
+	 * only one of them reads it
+	 *
+	 * @param path absolute path of the file
+	 * @param lastModified the file's last modified time when it was opened
+	 * @param blockSize number of bytes in a full block
+	 * @param blockNumber number of the block to read, starting at 1
+	 * @param destination array to copy the block into
+	 * @param offset index in the array to copy the block to
+	 * @param loader reads the block from disk if it is not in the cache
+	 * @return number of bytes in the block
+	 * @throws IOException indicates an I/O error occurred while reading the file
+	 */
+	public int readBlock(String path, long lastModified, int blockSize, long blockNumber,
+			byte[] destination, int offset, BlockLoader loader) throws IOException {
+		Key key = new Key(path, lastModified, blockSize, blockNumber);
+		Block block;
+		synchronized (this) {
+			block = blocks.get(key);
+			if (block == null) {
+				block = new Block();
+				blocks.put(key, block);
+			}
+		}
+
+		byte[] data;
+		synchronized (block) {
+			data = block.data;
+			if (data == null) {
+				misses.incrementAndGet();
+				byte[] buffer = new byte[blockSize];
+				int length;
+				try {
+					length = loader.load(blockNumber, buffer, 0);
+				} catch (IOException e) {
+					//let the next reader try again
+					synchronized (this) {
+						blocks.remove(key, block);
+					}
+					throw e;
+				}
+				data = length == blockSize ? buffer : Arrays.copyOf(buffer, length);
+				block.data = data;
+				added(block);
+			} else
+				hits.incrementAndGet();
+		}
+		System.arraycopy(data, 0, destination, offset, data.length);
+		return data.length;
+	}
+
+	/**
+	 * account for a block read into the cache, discarding the least recently used blocks
+	 * until the cache is back within its capacity
+	 *
+	 * @param block the block read
+	 */
+	private synchronized void added(Block block) {
+		block.size = block.data.length;
+		size += block.size;
+		Iterator<Block> iterator = blocks.values().iterator();
+		while (size > capacity && iterator.hasNext()) {
+			Block eldest = iterator.next();
+			//blocks still being read have no size yet, the reader accounts for them when done
+			if (eldest.size == 0)
+				continue;
+			iterator.remove();
+			size -= eldest.size;
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return maximum number of bytes of file data held in the cache
+	 */
+	public long getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * @return number of bytes of file data currently held in the cache
+	 */
+	public synchronized long getSize(){
+		return size;
+	}
+
+	/**
+	 * @return number of blocks found in the cache
+	 */
+	public long getHits(){
+		return hits.get();
+	}
+
+	/**
+	 * @return number of blocks that had to be read from disk
+	 */
+	public long getMisses(){
+		return misses.get();
+	}
+
+	/**
+	 * @return number of blocks discarded to make room for others
+	 */
+	public long getEvictions(){
+		return evictions.get();
+	}
+
+	/**
+	 * @return a one line summary of the cache state for display on the console
+	 */
+	@Override
+	public String toString(){
+		return "size: " + getSize() / 1024 + "KB (capacity " + capacity / 1024 + "KB)"
+				+ ", hits: " + getHits()
+				+ ", misses: " + getMisses()
+				+ ", evictions: " + getEvictions();
+	}
+
+	/**
+	 * reads a block of a file that is not in the cache
+	 */
+	public interface BlockLoader {
+		/**
+		 * copies a block of the file into a buffer
+		 *
+		 * @param blockNumber number of the block to read, starting at 1
+		 * @param destination array to copy the block into
+		 * @param offset index in the array to copy the block to
+		 * @return number of bytes in the block
+		 * @throws IOException indicates an I/O error occurred while reading the file
+		 */
+		int load(long blockNumber, byte[] destination, int offset) throws IOException;
+	}
+
+	/**
+	 * a block of a file in the cache
+	 */
+	private static class Block {
+		//contents of the block, null until it has been read (guarded by this)
+		private byte[] data;
+		//number of bytes the block counts towards the cache's size (guarded by the cache)
+		private int size;
+	}
+
+	/**
+	 * identifies a block of a particular version of a file
+	 */
+	private static class Key {
+		private String path;
+		private long lastModified;
+		private int blockSize;
+		private long blockNumber;
+
+		private Key(String path, long lastModified, int blockSize, long blockNumber){
+			this.path = path;
+			this.lastModified = lastModified;
+			this.blockSize = blockSize;
+			this.blockNumber = blockNumber;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return blockNumber == other.blockNumber && lastModified == other.lastModified
+					&& blockSize == other.blockSize && path.equals(other.path);
+		}
+
+		@Override
+		public int hashCode(){
+			return (path.hashCode() * 31 + Long.hashCode(lastModified)) * 31 + Long.hashCode(blockNumber) * 17 + blockSize;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package server;
+
+/**
+ * keeps track of the DATA blocks a read request has sent but the client has not yet
+ * acknowledged. up to a window of blocks may be sent before waiting for an ACK
+ * (RFC 7440, a window of 1 is the lock-step transfer of RFC 1350). the client
+ * acknowledges the last block it received in order, and sending always resumes from
+ * the block after the last one acknowledged.
+ *
+ * block numbers are counted from 1 without limit here, while the block numbers in
+ * packets wrap around after 65535
+ *
+ * @author Luke Newton
+ */
+class BlockWindow {
+	//registry duplicate ACKs are recorded in
+	private static final ServerMetrics metrics = ServerMetrics.get();
+
+	//number of the last block acknowledged by the client (0 before any)
+	private int acknowledged;
+	//number of the next block to send
+	private int nextToSend;
+	//number of the final block of the file, or -1 until it has been sent
+	private int finalBlock;
+	//number of repeated ACKs of the last block acknowledged still expected for blocks sent before they were resent
+	private int staleDuplicates;
+	//number of the last block sent so far, including blocks sent before being resent
+	private int lastSent;
+	//number of DATA packets sent, including blocks sent again
+	private int blocksSent;
+	//number of DATA packets sent for blocks that had already been sent
+	private int blocksResent;
+	//number of ACKs received for the block last acknowledged, which acknowledge nothing new
+	private int duplicateAcknowledgements;
+
+	/**
+	 * Constructor
+	 */
+	BlockWindow(){
+		acknowledged = 0;
+		nextToSend = 1;
+		finalBlock = -1;
+	}
+
+	/**
+	 * @param windowSize number of blocks that may be unacknowledged at once
+	 * @return true if another block may be sent before waiting for an ACK
+	 */
+	boolean canSend(int windowSize){
+		return nextToSend - acknowledged <= windowSize && (finalBlock < 0 || nextToSend <= finalBlock);
+	}
+
+	/**
+	 * @return number of the next block to send
+	 */
+	int nextBlock(){
+		return nextToSend;
+	}
+
+	/**
+	 * record that the next block has been sent
+	 *
+	 * @param last true if the block was the final block of the file (shorter than the block size)
+	 */
+	void sent(boolean last){
+		if (last)
+			finalBlock = nextToSend;
+		blocksSent++;
+		if (nextToSend <= lastSent)
+			blocksResent++;
+		lastSent = Math.max(lastSent, nextToSend);
+		nextToSend++;
+	}
+
+	/**
+	 * @return true if the next block to send has been sent before
+	 */
+	boolean isResending(){
+		return nextToSend <= lastSent;
+	}
+
+	/**
+	 * record an ACK received from the client. sending resumes from the block after the
+	 * one acknowledged, since the client only acknowledges a block before the end of a
+	 * window when the blocks following it were lost
+	 *
+	 * @param blockNumber the block number in the ACK (0 to 65535)
+	 * @return true if the ACK is for a block sent but not yet acknowledged
+	 */
+	boolean acknowledge(int blockNumber){
+		//distance from the last block acknowledged, allowing for the block number wrapping around
+		int advance = (blockNumber - acknowledged) & 0xFFFF;
+		if (advance == 0) {
+			duplicateAcknowledgements++;
+			metrics.duplicateReceived();
+		}
+		if (advance == 0 || advance >= nextToSend - acknowledged)
+			return false;
+		acknowledged += advance;
+		//an ACK before the end of what was sent means the next block was lost, and may be repeated for the blocks after it
+		staleDuplicates = Math.max(nextToSend - acknowledged - 2, 0);
+		nextToSend = acknowledged + 1;
+		return true;
+	}
+
+	/**
+	 * checks if an ACK that does not acknowledge a new block asks for the blocks after
+	 * the last one acknowledged to be resent. the client acknowledges the last block
+	 * again when the block following it was lost, and may do so for every later block
+	 * of the window that arrives out of order. once the blocks have been resent, that
+	 * many repeated ACKs are ignored, since resending on every one of them would double
+	 * the traffic each time (the Sorcerer's Apprentice problem of RFC 1123). a lock-step
+	 * transfer never resends on a repeated ACK, leaving that to the timeout
+	 *
+	 * @param blockNumber the block number in the ACK (0 to 65535)
+	 * @param windowSize number of blocks that may be unacknowledged at once
+	 * @return true if the blocks after the last one acknowledged should be resent
+	 */
+	boolean isResendRequest(int blockNumber, int windowSize){
+		if (windowSize == 1 || blockNumber != (acknowledged & 0xFFFF) || nextToSend == acknowledged + 1)
+			return false;
+		if (staleDuplicates > 0) {
+			staleDuplicates--;
+			return false;
+		}
+		rewind();
+		return true;
+	}
+
+	/**
+	 * go back to resending every block not yet acknowledged
+	 */
+	void rewind(){
+		//every block after the first that was in flight may still be acknowledged again
+		staleDuplicates = Math.max(nextToSend - acknowledged - 2, 0);
+		nextToSend = acknowledged + 1;
+	}
+
+	/**
+	 * @return number of the last block acknowledged by the client
+	 */
+	int getAcknowledged(){
+		return acknowledged;
+	}
+
+	/**
+	 * @return number of DATA packets sent, including blocks sent again
+	 */
+	int getBlocksSent(){
+		return blocksSent;
+	}
+
+	/**
+	 * @return number of DATA packets sent for blocks that had already been sent
+	 */
+	int getBlocksResent(){
+		return blocksResent;
+	}
+
+	/**
+	 * @return number of ACKs received that acknowledged nothing new
+	 */
+	int getDuplicateAcknowledgements(){
+		return duplicateAcknowledgements;
+	}
+
+	/**
+	 * @return true if the final block of the file has been acknowledged
+	 */
+	boolean isComplete(){
+		return finalBlock >= 0 && acknowledged == finalBlock;
+	}
+}
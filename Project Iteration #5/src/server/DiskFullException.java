@@ -0,0 +1,33 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * A subclass of IOException to be thrown when a file cannot be written because the
+ * disk it is on does not have enough free space (reported to the client as error code 3)
+ *
+ * @author Luke Newton
+ *
+ */
+public class DiskFullException extends IOException{
+	private static final long serialVersionUID = -2318402960751329465L;
+
+	/**
+	 * Constructor
+	 *
+	 * @param message a string to display when the error is thrown
+	 */
+	public DiskFullException(String message){
+		super(message);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param message a string to display when the error is thrown
+	 * @param cause the I/O error the full disk caused
+	 */
+	public DiskFullException(String message, Throwable cause){
+		super(message, cause);
+	}
+}
@@ -0,0 +1,229 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import logging.TftpEvents;
+
+/**
+ * reads a file one block at a time for a read request. rather than loading the
+ * whole file, each block is read from the file's channel as it is needed, with a
+ * few following blocks read ahead so sending a file sequentially does not need a
+ * disk read per block. the memory used is the same no matter how large the file is
+ * 
+ * files larger than a threshold are instead mapped into memory, and blocks are copied
+ * straight out of the mapping. every reader of a mapped file shares the operating
+ * system's page cache, so serving a large file to many clients neither reads it from
+ * disk repeatedly nor uses any of the heap
+ * 
+ * blocks of smaller files can be shared with other readers through a BlockCache
+ *
+ * @author Luke Newton
+ */
+public class FileBlockReader implements Closeable {
+	//number of blocks read from the file at once
+	private static final int READ_AHEAD_BLOCKS = 8;
+	//files at least this many MB in size are mapped into memory (negative to never map files)
+	private static final long MMAP_THRESHOLD_MB = Long.getLong("server.mmapThresholdMB", 64);
+	//largest number of bytes in a single mapping of a file (a mapping is limited to 2GB)
+	private static final int MAX_MAPPING_SIZE = 1 << 30;
+
+	//channel the file is read through
+	private FileChannel channel;
+	//size of the file in bytes
+	private long fileSize;
+	//path of the file, for the events recorded
+	private String path;
+	//number of bytes in a full block
+	private int blockSize;
+	//blocks read from the file ahead of being sent
+	private ByteBuffer readAhead;
+	//position in the file of the first byte in the read ahead buffer
+	private long readAheadPosition;
+	//consecutive sections of the file mapped into memory (mapped files only)
+	private MappedByteBuffer[] mappings;
+	//number of blocks in each mapping, so no block is split between two mappings
+	private int blocksPerMapping;
+	//cache of blocks shared with other readers, or null if blocks are not cached
+	private BlockCache cache;
+	//absolute path of the file, identifying its blocks in the cache
+	private String cachePath;
+	//last modified time of the file when opened, identifying its blocks in the cache
+	private long lastModified;
+	//reads blocks missing from the cache
+	private BlockCache.BlockLoader loader;
+
+	/**
+	 * Constructor
+	 *
+	 * @param path path of the file to read
+	 * @param blockSize number of bytes in a full block
+	 * @throws IOException indicates the file could not be opened
+	 */
+	public FileBlockReader(Path path, int blockSize) throws IOException {
+		this(path, blockSize, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param path path of the file to read
+	 * @param blockSize number of bytes in a full block
+	 * @param cache cache of blocks shared with other readers, or null to not cache blocks
+	 * @throws IOException indicates the file could not be opened
+	 */
+	public FileBlockReader(Path path, int blockSize, BlockCache cache) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.path = path.toString();
+		fileSize = channel.size();
+		this.blockSize = blockSize;
+		if (MMAP_THRESHOLD_MB >= 0 && fileSize > 0 && fileSize >= MMAP_THRESHOLD_MB * 1024 * 1024) {
+			map();
+			return;
+		}
+		readAhead = ByteBuffer.allocate(blockSize * READ_AHEAD_BLOCKS);
+		//nothing has been read yet
+		readAhead.limit(0);
+		readAheadPosition = 0;
+
+		//mapped files are already shared through the page cache, so only other files are cached
+		if (cache != null) {
+			this.cache = cache;
+			cachePath = path.toAbsolutePath().normalize().toString();
+			lastModified = Files.getLastModifiedTime(path).toMillis();
+			loader = this::readUncachedBlock;
+		}
+	}
+
+	/**
+	 * maps the whole file into memory, in as many sections as needed
+	 *
+	 * @throws IOException indicates the file could not be mapped
+	 */
+	private void map() throws IOException {
+		blocksPerMapping = MAX_MAPPING_SIZE / blockSize;
+		long mappingSize = (long) blocksPerMapping * blockSize;
+		mappings = new MappedByteBuffer[(int) ((fileSize + mappingSize - 1) / mappingSize)];
+		for (int i = 0; i < mappings.length; i++) {
+			long position = i * mappingSize;
+			mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mappingSize, fileSize - position));
+		}
+	}
+
+	/**
+	 * @return true if the file is mapped into memory rather than read through its channel
+	 */
+	public boolean isMapped(){
+		return mappings != null;
+	}
+
+	/**
+	 * @return size of the file in bytes
+	 */
+	public long size(){
+		return fileSize;
+	}
+
+	/**
+	 * copies a block of the file into a buffer. every block is full except the last,
+	 * which is shorter than the block size (and empty if the file size is a multiple
+	 * of the block size). reads slower than the flight recorder's threshold are recorded
+	 *
+	 * @param blockNumber number of the block to read, starting at 1
+	 * @param destination array to copy the block into
+	 * @param offset index in the array to copy the block to
+	 * @return number of bytes in the block
+	 * @throws IOException indicates an I/O error occurred while reading the file
+	 */
+	public int readBlock(long blockNumber, byte[] destination, int offset) throws IOException {
+		Object event = TftpEvents.DISK_READ.begin();
+		int length = copyBlock(blockNumber, destination, offset);
+		if (event != null)
+			TftpEvents.DISK_READ.commit(event, "server", path, (blockNumber - 1) * blockSize, length);
+		return length;
+	}
+
+	/**
+	 * copies a block of the file into a buffer, from its mapping, the cache or the file
+	 *
+	 * @param blockNumber number of the block to read, starting at 1
+	 * @param destination array to copy the block into
+	 * @param offset index in the array to copy the block to
+	 * @return number of bytes in the block
+	 * @throws IOException indicates an I/O error occurred while reading the file
+	 */
+	private int copyBlock(long blockNumber, byte[] destination, int offset) throws IOException {
+		long position = (blockNumber - 1) * blockSize;
+		int length = (int) Math.max(0, Math.min(blockSize, fileSize - position));
+		if (length == 0)
+			return 0;
+
+		if (mappings != null) {
+			//the server never rewrites a file that already exists, so the mapped file cannot shrink while it is sent
+			MappedByteBuffer mapping = mappings[(int) ((blockNumber - 1) / blocksPerMapping)];
+			mapping.position((int) ((blockNumber - 1) % blocksPerMapping) * blockSize);
+			mapping.get(destination, offset, length);
+			return length;
+		}
+
+		if (cache != null)
+			return cache.readBlock(cachePath, lastModified, blockSize, blockNumber, destination, offset, loader);
+		return readUncachedBlock(blockNumber, destination, offset);
+	}
+
+	/**
+	 * copies a block of the file into a buffer, reading it from the read ahead buffer
+	 *
+	 * @param blockNumber number of the block to read, starting at 1
+	 * @param destination array to copy the block into
+	 * @param offset index in the array to copy the block to
+	 * @return number of bytes in the block
+	 * @throws IOException indicates an I/O error occurred while reading the file
+	 */
+	private int readUncachedBlock(long blockNumber, byte[] destination, int offset) throws IOException {
+		long position = (blockNumber - 1) * blockSize;
+		int length = (int) Math.max(0, Math.min(blockSize, fileSize - position));
+
+		//refill the read ahead buffer if the block is not already in it
+		if (position < readAheadPosition || position + length > readAheadPosition + readAhead.limit())
+			fill(position);
+
+		int index = (int) (position - readAheadPosition);
+		//the file may have been shortened since it was opened
+		length = Math.max(0, Math.min(length, readAhead.limit() - index));
+		System.arraycopy(readAhead.array(), readAhead.arrayOffset() + index, destination, offset, length);
+		return length;
+	}
+
+	/**
+	 * reads the blocks starting at a position of the file into the read ahead buffer
+	 *
+	 * @param position position in the file to start reading from
+	 * @throws IOException indicates an I/O error occurred while reading the file
+	 */
+	private void fill(long position) throws IOException {
+		readAhead.clear();
+		readAheadPosition = position;
+		while (readAhead.hasRemaining()) {
+			if (channel.read(readAhead, position + readAhead.position()) < 0)
+				break;
+		}
+		readAhead.flip();
+	}
+
+	/**
+	 * close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		//the mappings remain valid until they are garbage collected, closing the channel does not affect them
+		mappings = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,239 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import logging.TftpEvents;
+
+/**
+ * writes a file one block at a time for a write request. blocks are written to a
+ * temporary file beside the target as they arrive, and the temporary file is only
+ * renamed to the target once the whole file has been received, so a failed transfer
+ * never leaves a partial file behind.
+ *
+ * a file whose size the client gave is checked against the free space left once every
+ * other file being received has been given the rest of its size, so two transfers that
+ * each fit on the disk alone cannot both be accepted when together they do not. the
+ * files the server receives all go to one directory, so one count is kept for them all
+ *
+ * @author Luke Newton
+ */
+public class FileBlockWriter implements Closeable {
+	//bytes still to be received of the sizes given for all files being received
+	private static final AtomicLong reservedBytes = new AtomicLong();
+
+	//path the file is given once it has been fully received
+	private Path target;
+	//file the blocks are written to while the transfer is in progress
+	private Path tempFile;
+	//channel the temporary file is written through
+	private FileChannel channel;
+	//number of bytes written so far
+	private long size;
+	//set once the temporary file has been renamed to the target
+	private boolean committed;
+	//bytes of reservedBytes held for this file, lowered as its blocks are written
+	private long reserved;
+
+	/**
+	 * Constructor
+	 *
+	 * @param target path the file is given once it has been fully received
+	 * @throws IOException indicates the temporary file could not be created
+	 */
+	public FileBlockWriter(Path target) throws IOException {
+		this.target = target.toAbsolutePath();
+		//created in the same directory as the target so it can be renamed atomically
+		tempFile = createTempFile(this.target);
+		channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * creates an empty temporary file beside the target. unlike Files.createTempFile
+	 * (which makes files only the owner can read) the file gets the same permissions as
+	 * any other file the server creates
+	 *
+	 * @param target path the file is given once it has been fully received
+	 * @return path of the temporary file
+	 * @throws IOException indicates the file could not be created
+	 */
+	private static Path createTempFile(Path target) throws IOException {
+		while (true) {
+			Path path = target.resolveSibling("." + target.getFileName() + "."
+					+ Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+			try {
+				return Files.createFile(path);
+			} catch (FileAlreadyExistsException e) {
+				//name already taken by another transfer, try another
+			}
+		}
+	}
+
+	/**
+	 * sets aside room for the whole file before any of it is received, when the client
+	 * has given its size (RFC 2349). the room is held until it is written or the file is
+	 * closed, and is not counted as free for any other file meanwhile. nothing is
+	 * allocated on the disk, so space used by anything other than the server can still
+	 * fill it
+	 *
+	 * @param expectedSize number of bytes the client will send
+	 * @throws DiskFullException indicates the disk does not have room for the file
+	 * @throws IOException indicates an I/O error occurred while checking the free space
+	 */
+	public void reserve(long expectedSize) throws IOException {
+		if (expectedSize <= 0 || reserved > 0)
+			return;
+		long usable = Files.getFileStore(tempFile).getUsableSpace();
+		//counted first and given back if it does not fit, so files reserved together cannot both take the same space
+		long total = reservedBytes.addAndGet(expectedSize);
+		if (usable < total) {
+			reservedBytes.addAndGet(-expectedSize);
+			throw new DiskFullException("Not enough space for " + expectedSize + " bytes at " + target
+					+ " (" + (total - expectedSize) + " bytes reserved for other files)");
+		}
+		reserved = expectedSize;
+	}
+
+	/**
+	 * give back part of the room set aside for this file
+	 *
+	 * @param bytes number of bytes to give back, no more than are held
+	 */
+	private void release(long bytes) {
+		bytes = Math.min(bytes, reserved);
+		if (bytes > 0) {
+			reserved -= bytes;
+			reservedBytes.addAndGet(-bytes);
+		}
+	}
+
+	/**
+	 * @return bytes set aside for the files being received that have not yet been written
+	 */
+	public static long getReservedBytes() {
+		return reservedBytes.get();
+	}
+
+	/**
+	 * append a block of data to the file
+	 *
+	 * @param data array containing the block
+	 * @param offset index in the array the block starts at
+	 * @param length number of bytes in the block
+	 * @throws DiskFullException indicates the disk is full
+	 * @throws IOException indicates an I/O error occurred while writing
+	 */
+	public void write(byte[] data, int offset, int length) throws IOException {
+		write(ByteBuffer.wrap(data, offset, length));
+	}
+
+	/**
+	 * append a block of data to the file. writes slower than the flight recorder's
+	 * threshold are recorded
+	 *
+	 * @param block buffer containing the block, from its position to its limit (the
+	 * buffer is left positioned at its limit)
+	 * @throws DiskFullException indicates the disk is full
+	 * @throws IOException indicates an I/O error occurred while writing
+	 */
+	public void write(ByteBuffer block) throws IOException {
+		Object event = TftpEvents.DISK_WRITE.begin();
+		long position = size;
+		try {
+			while (block.hasRemaining())
+				size += channel.write(block);
+		} catch (IOException e) {
+			throw checkDiskFull(e, block.remaining());
+		} finally {
+			//what was written now takes up the space it was reserved
+			release(size - position);
+		}
+		if (event != null)
+			TftpEvents.DISK_WRITE.commit(event, "server", target.toString(), position, (int) (size - position));
+	}
+
+	/**
+	 * Java reports a full disk as an ordinary IOException, so when writing fails the free
+	 * space left on the disk is checked to tell whether it was the cause
+	 *
+	 * @param e the exception thrown while writing
+	 * @param needed number of bytes that could not be written
+	 * @return a DiskFullException if the disk is out of space, otherwise the exception given
+	 */
+	private IOException checkDiskFull(IOException e, long needed) {
+		try {
+			if (Files.getFileStore(tempFile).getUsableSpace() < Math.max(needed, 1))
+				return new DiskFullException("Disk full while writing " + target, e);
+		} catch (IOException er) {
+			//report the original failure
+		}
+		return e;
+	}
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	public long size(){
+		return size;
+	}
+
+	/**
+	 * finish the file, giving it its target path. the file is linked to the target path
+	 * rather than renamed, since creating a link fails if a file already exists at the
+	 * target, whereas a rename replaces it; checking for the file first would leave a
+	 * moment for another program to create it. only where the file system has no hard
+	 * links is the file renamed, which the server's own transfers cannot race, as the
+	 * transfer writing a file holds its lock in the FileLockTable
+	 *
+	 * @throws FileAlreadyExistsException indicates a file already exists at the target path
+	 * @throws DiskFullException indicates the disk filled up before the file was saved
+	 * @throws IOException indicates an I/O error occurred while finishing the file
+	 */
+	public void commit() throws IOException {
+		//the client may have sent less than it said it would
+		release(reserved);
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			throw checkDiskFull(e, 1);
+		}
+		channel.close();
+		try {
+			Files.createLink(target, tempFile);
+		} catch (FileAlreadyExistsException e) {
+			throw new FileAlreadyExistsException(target.toString());
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			//no hard links here, a move without REPLACE_EXISTING still refuses an existing target
+			Files.move(tempFile, target);
+			committed = true;
+			return;
+		}
+		committed = true;
+		try {
+			Files.delete(tempFile);
+		} catch (IOException e) {
+			//the file is saved under its target path, the temporary name left behind is only untidy
+		}
+	}
+
+	/**
+	 * close the file, deleting it if it was never finished
+	 */
+	@Override
+	public void close() throws IOException {
+		release(reserved);
+		if (committed)
+			return;
+		channel.close();
+		Files.deleteIfExists(tempFile);
+	}
+}
@@ -0,0 +1,80 @@
+package server;
+
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * keeps track of which files on the server are being read or written by a transfer,
+ * so that concurrent transfers can share a file for reading but a file being written
+ * is only touched by the one transfer writing it
+ *
+ * @author Luke Newton
+ */
+public class FileLockTable {
+	//value stored for a file while it is being written
+	private static final int WRITER = -1;
+
+	//number of transfers reading each locked file, or WRITER if it is being written
+	private ConcurrentHashMap<String, Integer> lockedFiles;
+
+	/**
+	 * Constructor
+	 */
+	public FileLockTable(){
+		lockedFiles = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * attempt to lock a file for reading. any number of transfers may read a file
+	 * at once, as long as it is not being written
+	 *
+	 * @param fileName path of the file to read
+	 * @return true if the file was locked for reading, false if it is being written
+	 */
+	public boolean tryLockRead(String fileName){
+		Integer holders = lockedFiles.compute(key(fileName),
+				(file, readers) -> readers == null ? 1 : readers == WRITER ? WRITER : readers + 1);
+		return holders != WRITER;
+	}
+
+	/**
+	 * release a read lock obtained with tryLockRead
+	 *
+	 * @param fileName path of the file that was read
+	 */
+	public void unlockRead(String fileName){
+		lockedFiles.computeIfPresent(key(fileName),
+				(file, readers) -> readers <= 1 ? null : readers - 1);
+	}
+
+	/**
+	 * attempt to lock a file for writing. only one transfer may write a file, and
+	 * only while no other transfer is reading it
+	 *
+	 * @param fileName path of the file to write
+	 * @return true if the file was locked for writing, false if it is in use
+	 */
+	public boolean tryLockWrite(String fileName){
+		return lockedFiles.putIfAbsent(key(fileName), WRITER) == null;
+	}
+
+	/**
+	 * release a write lock obtained with tryLockWrite
+	 *
+	 * @param fileName path of the file that was written
+	 */
+	public void unlockWrite(String fileName){
+		lockedFiles.remove(key(fileName), WRITER);
+	}
+
+	/**
+	 * converts a file name into the form used to identify it in the table, so
+	 * different names for the same file share a lock
+	 *
+	 * @param fileName the file name to convert
+	 * @return the absolute, normalized path of the file
+	 */
+	private String key(String fileName){
+		return Paths.get(fileName).toAbsolutePath().normalize().toString();
+	}
+}
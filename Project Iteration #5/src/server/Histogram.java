@@ -0,0 +1,247 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counts how often values fall in each of a fixed set of buckets, in the style of an
+ * HDR histogram: values below 64 get a bucket each, and every power of two above that
+ * is split into 32 buckets, so a value is known to within about 3% whatever its size.
+ * recording a value is a single atomic increment of its bucket, with no lock and no
+ * allocation, so transfers can record every round trip without slowing down.
+ *
+ * the buckets are read without stopping the threads recording into them, so a summary
+ * taken while values are recorded may miss the latest few
+ *
+ * @author Luke Newton
+ */
+public final class Histogram {
+	//bits of a value kept below its highest bit, which sets the number of buckets per power of two
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	//largest value told apart from larger ones, which are counted as this (about 19 hours in microseconds)
+	private static final long MAX_VALUE = (1L << 36) - 1;
+
+	//number of values recorded in each bucket
+	private final AtomicLongArray counts;
+	//total of the values recorded
+	private final LongAdder sum;
+	//largest value recorded
+	private final LongAccumulator max;
+
+	/**
+	 * Constructor
+	 */
+	public Histogram(){
+		counts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+		sum = new LongAdder();
+		max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * count a value. safe to call from any thread
+	 *
+	 * @param value the value, 0 or more
+	 */
+	public void record(long value){
+		value = Math.max(0, value);
+		counts.incrementAndGet(bucketIndex(Math.min(value, MAX_VALUE)));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @param value a value from 0 to MAX_VALUE
+	 * @return index of the bucket counting the value
+	 */
+	private static int bucketIndex(long value){
+		if (value < 2 * SUB_BUCKET_COUNT)
+			return (int) value;
+		//values from 2^(shift + SUB_BUCKET_BITS) up share buckets of 2^shift values
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >> shift) - SUB_BUCKET_COUNT;
+	}
+
+	/**
+	 * @param index index of a bucket
+	 * @return largest value counted by the bucket
+	 */
+	private static long bucketLimit(int index){
+		if (index < 2 * SUB_BUCKET_COUNT)
+			return index;
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return number of values recorded
+	 */
+	public long getCount(){
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * @return total of the values recorded
+	 */
+	public long getSum(){
+		return sum.sum();
+	}
+
+	/**
+	 * @return largest value recorded, 0 if none were
+	 */
+	public long getMax(){
+		return max.get();
+	}
+
+	/**
+	 * @return average of the values recorded, 0 if none were
+	 */
+	public double getMean(){
+		long count = getCount();
+		return count == 0 ? 0 : (double) getSum() / count;
+	}
+
+	/**
+	 * @param value a value
+	 * @return number of values recorded no larger than the value, counting every value
+	 * in the value's bucket
+	 */
+	public long getCountAtOrBelow(long value){
+		if (value < 0)
+			return 0;
+		int last = bucketIndex(Math.min(value, MAX_VALUE));
+		long count = 0;
+		for (int i = 0; i <= last; i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * counts the values at or below each of a set of limits, reading every bucket once
+	 * so the counts agree with each other, as a Prometheus histogram requires
+	 *
+	 * @param limits values to count up to, 0 or more and in increasing order
+	 * @return number of values recorded no larger than each limit (counting every value
+	 * in the limit's bucket), followed by the number of values recorded
+	 */
+	public long[] getCumulativeCounts(long[] limits){
+		long[] cumulative = new long[limits.length + 1];
+		int limit = 0;
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+			//every limit falling in this bucket counts the values up to its end
+			while (limit < limits.length && bucketIndex(Math.min(limits[limit], MAX_VALUE)) == i)
+				cumulative[limit++] = count;
+		}
+		cumulative[limits.length] = count;
+		return cumulative;
+	}
+
+	/**
+	 * @param percentile percentage of the values wanted below the result (0 to 100)
+	 * @return the smallest value at least that percentage of the values recorded are no
+	 * larger than (to within the size of its bucket), 0 if none were recorded
+	 */
+	public long getPercentile(double percentile){
+		long[] snapshot = new long[counts.length()];
+		long count = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(bucketLimit(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return a summary of the values recorded, taken now
+	 */
+	public Summary getSummary(){
+		return new Summary(getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+	}
+
+	/**
+	 * the count, mean, median, 90th and 99th percentiles and largest of the values
+	 * recorded in a histogram at one time, shown as a single attribute by JMX
+	 */
+	public static final class Summary {
+		//number of values recorded
+		private final long count;
+		//average of the values
+		private final double mean;
+		//percentiles of the values
+		private final long p50, p90, p99;
+		//largest value
+		private final long max;
+
+		/**
+		 * Constructor
+		 *
+		 * @param count number of values recorded
+		 * @param mean average of the values
+		 * @param p50 median of the values
+		 * @param p90 90th percentile of the values
+		 * @param p99 99th percentile of the values
+		 * @param max largest value
+		 */
+		private Summary(long count, double mean, long p50, long p90, long p99, long max){
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		public long getCount(){
+			return count;
+		}
+
+		public double getMean(){
+			return mean;
+		}
+
+		public long getP50(){
+			return p50;
+		}
+
+		public long getP90(){
+			return p90;
+		}
+
+		public long getP99(){
+			return p99;
+		}
+
+		public long getMax(){
+			return max;
+		}
+	}
+
+	/**
+	 * @return a one line summary of the values recorded for display on the console
+	 */
+	@Override
+	public String toString(){
+		return "count: " + getCount()
+				+ String.format(", mean: %.1f", getMean())
+				+ ", p50: " + getPercentile(50)
+				+ ", p99: " + getPercentile(99)
+				+ ", max: " + getMax();
+	}
+}
@@ -9,6 +9,9 @@ package server;
 public class InvalidMessageFormatException extends Exception{
 	private static final long serialVersionUID = 3996163082984878538L;
 
+	//TFTP error code to report to the sender, or -1 if no ERROR packet should be sent
+	private int errorCode = -1;
+
 	/**
 	 * Constructor
 	 * 
@@ -18,10 +21,35 @@ public class InvalidMessageFormatException extends Exception{
 		super(message);
 	}
 
+	/**
+	 * Constructor
+	 * 
+	 * @param message a string to display when the error is thrown, also sent in the ERROR packet
+	 * @param errorCode TFTP error code to report to the sender of the message
+	 */
+	public InvalidMessageFormatException(String message, byte errorCode){
+		super(message);
+		this.errorCode = errorCode;
+	}
+
 	/**
 	 * Constructor
 	 */
 	public InvalidMessageFormatException(){
 		super();
 	}
+
+	/**
+	 * @return true if the sender of the message should be sent an ERROR packet
+	 */
+	public boolean isErrorPacketRequired(){
+		return errorCode >= 0;
+	}
+
+	/**
+	 * @return TFTP error code to report to the sender, or -1 if no ERROR packet should be sent
+	 */
+	public byte getErrorCode(){
+		return (byte) errorCode;
+	}
 }
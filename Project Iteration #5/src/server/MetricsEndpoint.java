@@ -0,0 +1,241 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import logging.Logger;
+import protocol.Tftp;
+
+/**
+ * serves the server's metrics over HTTP at /metrics in the Prometheus text format, so
+ * dashboards can scrape them. each scrape reads the counters and histograms of the
+ * metrics registry as they are, without stopping the transfers, on the HTTP server's
+ * own thread
+ *
+ * @author Luke Newton
+ */
+public class MetricsEndpoint implements HttpHandler {
+	//log for the server's messages
+	private static final Logger log = Logger.getLogger("server");
+	//path the metrics are served at
+	private static final String PATH = "/metrics";
+	//content type of the Prometheus text format
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	//prefix of the name of every metric
+	private static final String PREFIX = "tftp_server_";
+	//names of the op codes requests are counted by, indexed by op code
+	private static final String[] OPCODE_NAMES = {"other", "rrq", "wrq", "data", "ack", "error", "oack"};
+	//upper limits of the round trip buckets, in microseconds
+	private static final long[] ROUND_TRIP_LIMITS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000,
+			50000, 100000, 250000, 500000, 1000000, 2500000, 5000000};
+	//upper limits of the transfer duration buckets, in microseconds
+	private static final long[] TRANSFER_LATENCY_LIMITS = {1000, 5000, 10000, 50000, 100000, 500000,
+			1000000, 5000000, 10000000, 30000000, 60000000, 300000000};
+	//upper limits of the transfer throughput buckets, in bytes per second
+	private static final long[] TRANSFER_THROUGHPUT_LIMITS = {1L << 10, 1L << 13, 1L << 16, 1L << 19,
+			1L << 20, 1L << 22, 1L << 24, 1L << 26, 1L << 28, 1L << 30};
+
+	//the metrics served
+	private ServerMetrics metrics;
+	//limits requests are admitted under, served with the metrics
+	private AdmissionController admission;
+	//HTTP server the metrics are served by
+	private HttpServer httpServer;
+
+	/**
+	 * Constructor
+	 *
+	 * @param metrics the metrics served
+	 * @param admission limits requests are admitted under, served with the metrics
+	 * @param address address and port to serve the metrics on
+	 * @throws IOException indicates the HTTP server could not be bound to the address
+	 */
+	public MetricsEndpoint(ServerMetrics metrics, AdmissionController admission, InetSocketAddress address) throws IOException {
+		this.metrics = metrics;
+		this.admission = admission;
+		httpServer = HttpServer.create(address, 0);
+		httpServer.createContext(PATH, this);
+	}
+
+	/**
+	 * start serving the metrics, on a thread of the HTTP server's own
+	 */
+	public void start(){
+		httpServer.start();
+		log.info("Serving metrics at http://" + httpServer.getAddress().getHostString() + ":"
+				+ httpServer.getAddress().getPort() + PATH);
+	}
+
+	/**
+	 * stop serving the metrics, closing the port
+	 */
+	public void stop(){
+		httpServer.stop(0);
+	}
+
+	/**
+	 * @return the address and port the metrics are served on
+	 */
+	public InetSocketAddress getAddress(){
+		return httpServer.getAddress();
+	}
+
+	/**
+	 * answer a scrape with the metrics as they are now
+	 *
+	 * @param exchange the HTTP request and its response
+	 * @throws IOException indicates an I/O error occurred while responding
+	 */
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!exchange.getRequestURI().getPath().equals(PATH)) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			if (!method.equals("GET") && !method.equals("HEAD")) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = render().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if (method.equals("HEAD")) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return the metrics in the Prometheus text format
+	 */
+	String render(){
+		StringBuilder out = new StringBuilder(4096);
+		header(out, "uptime_seconds", "gauge", "Seconds since the server started.");
+		sample(out, "uptime_seconds", "", metrics.getUptimeSeconds());
+
+		header(out, "requests_total", "counter", "Packets received on the server's port, by op code.");
+		for (byte opcode = 0; opcode < OPCODE_NAMES.length; opcode++)
+			sample(out, "requests_total", "opcode=\"" + OPCODE_NAMES[opcode] + "\"", metrics.getRequests(opcode));
+
+		header(out, "active_transfers", "gauge", "Transfers in progress.");
+		sample(out, "active_transfers", "", metrics.getActiveTransfers());
+
+		header(out, "admission_in_use", "gauge", "Resources held by the requests admitted, by limit.");
+		sample(out, "admission_in_use", "limit=\"transfers\"", admission.getTransfers());
+		sample(out, "admission_in_use", "limit=\"write_transfers\"", admission.getWriteTransfers());
+		sample(out, "admission_in_use", "limit=\"in_flight_bytes\"", admission.getInFlightBytes());
+		header(out, "admission_limit", "gauge", "Limits requests are admitted under.");
+		sample(out, "admission_limit", "limit=\"transfers\"", admission.getMaxTransfers());
+		sample(out, "admission_limit", "limit=\"write_transfers\"", admission.getMaxWriteTransfers());
+		sample(out, "admission_limit", "limit=\"in_flight_bytes\"", admission.getMaxInFlightBytes());
+		header(out, "requests_shed_total", "counter", "Requests refused because the server was busy, by the limit they would have passed.");
+		sample(out, "requests_shed_total", "limit=\"transfers\"", admission.getShedForTransfers());
+		sample(out, "requests_shed_total", "limit=\"write_transfers\"", admission.getShedForWriteTransfers());
+		sample(out, "requests_shed_total", "limit=\"in_flight_bytes\"", admission.getShedForInFlightBytes());
+
+		header(out, "transfers_total", "counter", "Transfers ended, by whether the whole file was moved.");
+		sample(out, "transfers_total", "result=\"completed\"", metrics.getTransfersCompleted());
+		sample(out, "transfers_total", "result=\"failed\"", metrics.getTransfersFailed());
+
+		header(out, "data_bytes_total", "counter", "Bytes of file data moved in DATA packets, not counting packets sent again.");
+		sample(out, "data_bytes_total", "direction=\"sent\"", metrics.getDataBytesSent());
+		sample(out, "data_bytes_total", "direction=\"received\"", metrics.getDataBytesReceived());
+
+		header(out, "retransmissions_total", "counter", "Packets sent again.");
+		sample(out, "retransmissions_total", "", metrics.getRetransmissions());
+		header(out, "timeouts_total", "counter", "Times a client did not answer in time.");
+		sample(out, "timeouts_total", "", metrics.getTimeouts());
+		header(out, "duplicates_total", "counter", "Duplicate ACK and DATA packets received.");
+		sample(out, "duplicates_total", "", metrics.getDuplicates());
+
+		header(out, "errors_total", "counter", "ERROR packets, by direction and error code.");
+		errors(out, "sent", metrics.getErrorsSentByCode());
+		errors(out, "received", metrics.getErrorsReceivedByCode());
+
+		histogram(out, "round_trip_seconds", "Time from sending a packet to the client answering it.",
+				metrics.getRoundTrips(), ROUND_TRIP_LIMITS, 1e-6);
+		histogram(out, "transfer_duration_seconds", "Time taken by each completed transfer.",
+				metrics.getTransferLatencies(), TRANSFER_LATENCY_LIMITS, 1e-6);
+		histogram(out, "transfer_throughput_bytes_per_second", "Throughput of each completed transfer.",
+				metrics.getTransferThroughputs(), TRANSFER_THROUGHPUT_LIMITS, 1);
+		return out.toString();
+	}
+
+	/**
+	 * @param out the text the HELP and TYPE lines of a metric are added to
+	 * @param name name of the metric, without the prefix
+	 * @param type type of the metric
+	 * @param help description of the metric
+	 */
+	private static void header(StringBuilder out, String name, String type, String help){
+		out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * @param out the text a sample is added to
+	 * @param name name of the metric, without the prefix
+	 * @param labels labels of the sample, such as code="1", or "" for none
+	 * @param value value of the sample
+	 */
+	private static void sample(StringBuilder out, String name, String labels, double value){
+		out.append(PREFIX).append(name);
+		if (!labels.isEmpty())
+			out.append('{').append(labels).append('}');
+		out.append(' ');
+		//whole numbers are written without a fraction, as counters usually are
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			out.append((long) value);
+		else
+			out.append(value);
+		out.append('\n');
+	}
+
+	/**
+	 * @param out the text the samples are added to
+	 * @param direction "sent" or "received"
+	 * @param counts ERROR packets by error code, the last counting any other code
+	 */
+	private static void errors(StringBuilder out, String direction, long[] counts){
+		for (int code = 0; code < counts.length; code++) {
+			String label = code > Tftp.OPTION_NEGOTIATION_FAILED ? "other" : Integer.toString(code);
+			sample(out, "errors_total", "direction=\"" + direction + "\",code=\"" + label + "\"", counts[code]);
+		}
+	}
+
+	/**
+	 * @param out the text the histogram's samples are added to
+	 * @param name name of the metric, without the prefix
+	 * @param help description of the metric
+	 * @param histogram the values recorded
+	 * @param limits upper limits of the buckets, in the histogram's unit
+	 * @param scale factor converting the histogram's unit into the metric's
+	 */
+	private static void histogram(StringBuilder out, String name, String help, Histogram histogram, long[] limits, double scale){
+		header(out, name, "histogram", help);
+		long[] cumulative = histogram.getCumulativeCounts(limits);
+		for (int i = 0; i < limits.length; i++)
+			//written exactly, so every scrape gives a bucket the same label
+			sample(out, name + "_bucket", "le=\"" + BigDecimal.valueOf(limits[i]).multiply(BigDecimal.valueOf(scale))
+					.stripTrailingZeros().toPlainString() + "\"", cumulative[i]);
+		sample(out, name + "_bucket", "le=\"+Inf\"", cumulative[limits.length]);
+		sample(out, name + "_sum", "", histogram.getSum() * scale);
+		sample(out, name + "_count", "", cumulative[limits.length]);
+	}
+}
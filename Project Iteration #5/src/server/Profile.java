@@ -0,0 +1,69 @@
+package server;
+
+import logging.Level;
+import logging.Logger;
+
+/**
+ * how the server behaves as it processes requests (-Dserver.profile). the demo profile
+ * is for a classroom: each request is held briefly and every packet is shown, so the
+ * output can be followed as it is written. the production profile, the default, adds
+ * no delays and shows only transfers starting and ending, warnings and errors
+ *
+ * @author Luke Newton
+ */
+enum Profile {
+	DEMO(1000, Level.TRACE),
+	PRODUCTION(0, Level.INFO);
+
+	/*number of milliseconds each request is held before it is processed
+	*(note that setting this too high may time out the client before the
+	*request is processed)*/
+	private final int pauseMilliseconds;
+	//level of the server's log, unless one is given with -Dlog.level or -Dlog.level.server
+	private final Level logLevel;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pauseMilliseconds number of milliseconds each request is held before it is processed
+	 * @param logLevel level of the server's log unless one is given
+	 */
+	Profile(int pauseMilliseconds, Level logLevel){
+		this.pauseMilliseconds = pauseMilliseconds;
+		this.logLevel = logLevel;
+	}
+
+	/**
+	 * reads a profile from its name, ignoring case
+	 *
+	 * @param name name of the profile, or null for the default
+	 * @return the profile named, or PRODUCTION if the name is not a profile
+	 */
+	static Profile parse(String name){
+		if (name == null)
+			return PRODUCTION;
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown server profile " + name + ", using " + PRODUCTION);
+			return PRODUCTION;
+		}
+	}
+
+	/**
+	 * @return number of milliseconds each request is held before it is processed, 0 for none
+	 */
+	int getPauseMilliseconds(){
+		return pauseMilliseconds;
+	}
+
+	/**
+	 * set the level of a log to the profile's, unless a level was given for it
+	 *
+	 * @param log the log to set the level of
+	 */
+	void applyTo(Logger log){
+		if (System.getProperty("log.level") == null && System.getProperty("log.level." + log.getName()) == null)
+			log.setLevel(logLevel);
+	}
+}
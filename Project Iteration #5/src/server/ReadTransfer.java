@@ -0,0 +1,179 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Paths;
+
+import protocol.BufferPool;
+import protocol.PacketDecoder;
+import protocol.PacketEncoder;
+import protocol.Tftp;
+
+/**
+ * the state of a read request processed by a TransferEventLoop: the server sends
+ * the file a window of DATA blocks at a time, waiting for each window to be acknowledged
+ *
+ * @author Luke Newton
+ */
+class ReadTransfer extends Transfer {
+	//the file being sent, read a block at a time
+	private FileBlockReader file;
+	//the blocks sent but not yet acknowledged
+	private BlockWindow window;
+	//set until the client acknowledges the OACK (as block 0)
+	private boolean awaitingOptionAcknowledgement;
+	//buffer the DATA packets are built in
+	private ByteBuffer dataPacket;
+	//set once a read lock is held on the file
+	private boolean fileLocked;
+
+	/**
+	 * Constructor
+	 *
+	 * @param server the server that received the request
+	 * @param channel channel used to talk to the client
+	 * @param clientAddress address and port of the client
+	 * @param filePath path of the file to send
+	 * @param request the request that began the transfer
+	 * @param permit what the request holds from the admission controller until the transfer ends
+	 */
+	ReadTransfer(Server server, DatagramChannel channel, InetSocketAddress clientAddress, String filePath, TransferRequest request,
+			AdmissionController.Permit permit){
+		super(server, channel, clientAddress, filePath, request, permit);
+		//a heap buffer, since blocks are copied into it from the file's cache or mapping
+		dataPacket = BufferPool.heap().acquire(blockSize + Tftp.HEADER_LENGTH);
+		window = new BlockWindow();
+	}
+
+	@Override
+	void start() throws IOException {
+		if (!server.getFileLocks().tryLockRead(filePath)) {
+			log.error("Error: File is being written by another transfer.");
+			sendError(Tftp.ACCESS_VIOLATION, "File is being written, try again later.");
+			return;
+		}
+		fileLocked = true;
+
+		try {
+			file = new FileBlockReader(Paths.get(filePath), blockSize, server.getBlockCache());
+		} catch (IOException e) {
+			log.error("Failed to read file at specified path");
+			sendError(Tftp.FILE_NOT_FOUND, "Failed to read file - File not found.");
+			return;
+		} catch (SecurityException se) {
+			log.error("Access violation while trying to read file from server.");
+			sendError(Tftp.ACCESS_VIOLATION, "Failed access file - Access Violation.");
+			return;
+		}
+		reserveSendBuffer();
+		request.setTransferSize(file.size());
+		//with options accepted, DATA starts once the client acknowledges the OACK as block 0
+		awaitingOptionAcknowledgement = sendOptionAcknowledgement();
+		if (!awaitingOptionAcknowledgement)
+			sendWindow();
+	}
+
+	@Override
+	void handlePacket(byte opcode, ByteBuffer packet) throws IOException {
+		int receivedBlockNumber = PacketDecoder.getBlockNumber(packet);
+		if (opcode == Tftp.OP_ACK && awaitingOptionAcknowledgement && receivedBlockNumber == 0) {
+			awaitingOptionAcknowledgement = false;
+			timer.acknowledged();
+			sendWindow();
+			return;
+		}
+
+		//anything other than the ACK for a block in flight is unexpected
+		if (opcode != Tftp.OP_ACK || awaitingOptionAcknowledgement || !window.acknowledge(receivedBlockNumber)) {
+			if (opcode == Tftp.OP_ACK && !awaitingOptionAcknowledgement && window.isResendRequest(receivedBlockNumber, windowSize)) {
+				log.warn("Client is missing blocks. Resending unacknowledged packets.");
+				sendWindow();
+			} else
+				log.warn("Error: packet not expected. Ignoring it.");
+			return;
+		}
+		timer.acknowledged();
+
+		//Exit when the final ACK is received
+		if (window.isComplete()) {
+			log.info("Sent " + filePath + " to " + clientAddress + " in " + window.getBlocksSent() + " DATA packets ("
+					+ window.getBlocksResent() + " resent), " + window.getDuplicateAcknowledgements() + " duplicate ACKs received");
+			completed = true;
+			finish();
+		} else
+			sendWindow();
+	}
+
+	@Override
+	protected void resend() throws IOException {
+		if (awaitingOptionAcknowledgement) {
+			super.resend();
+			return;
+		}
+		window.rewind();
+		sendWindow();
+	}
+
+	/**
+	 * sends the blocks following the last one sent, until a window of blocks is
+	 * unacknowledged or the final block has been sent
+	 *
+	 * @throws IOException indicates an I/O error occurred while sending
+	 */
+	private void sendWindow() throws IOException {
+		while (window.canSend(windowSize) && !isFinished()) {
+			boolean resending = window.isResending();
+			if (resending)
+				timer.resent();
+			int number = window.nextBlock();
+			int length;
+			try {
+				length = file.readBlock(number, dataPacket.array(), Tftp.HEADER_LENGTH);
+			} catch (IOException e) {
+				log.error("Failed to read file at specified path", e);
+				sendError(Tftp.ACCESS_VIOLATION, "Failed to read file.");
+				return;
+			}
+
+			//a block shorter than the max block size (possibly empty) ends the transfer
+			window.sent(length < blockSize);
+			if (!resending) {
+				metrics.dataSent(length);
+				bytesTransferred += length;
+			}
+
+			dataPacket.clear();
+			PacketEncoder.putDataHeader(dataPacket, number);
+			dataPacket.limit(length + Tftp.HEADER_LENGTH).position(0);
+			send(dataPacket);
+		}
+	}
+
+	@Override
+	public int getBlockNumber() {
+		return window.getAcknowledged();
+	}
+
+	@Override
+	void releaseBuffers() {
+		BufferPool.heap().release(dataPacket);
+		dataPacket = null;
+	}
+
+	@Override
+	void releaseFile() {
+		if (fileLocked)
+			server.getFileLocks().unlockRead(filePath);
+		fileLocked = false;
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				log.error("Failed to close file", e);
+			}
+			file = null;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+import logging.Logger;
+
+/**
+ * a thread receiving requests on the server's port into its own request ring and
+ * handing each to the server to be processed. the server can run several listeners
+ * on the same port (-Dserver.listeners), each with its own socket opened with
+ * SO_REUSEPORT so the kernel spreads the requests over them, and taking in requests
+ * is no longer limited to a single thread. each listener hands its requests to its own
+ * shard of the event loops (nio engine), or to the transfer pool
+ *
+ * @author Luke Newton
+ */
+public class RequestListener implements Runnable {
+	//log for the server's messages
+	private static final Logger log = Logger.getLogger("server");
+
+	//the server processing the requests
+	private Server server;
+	//socket the requests arrive on
+	private DatagramSocket socket;
+	//slots requests are received into, each held until the request has been read
+	private RequestRing requestRing;
+	//event loops this listener hands requests to (nio engine only, null otherwise)
+	private TransferEventLoop[] eventLoops;
+	//index of the event loop to hand the next request to (only used by the listener thread)
+	private int nextEventLoop;
+	//the thread running the listener
+	private Thread thread;
+
+	/**
+	 * Constructor
+	 *
+	 * @param server the server processing the requests
+	 * @param name name to give the listener's thread
+	 * @param socket socket the requests arrive on, closed to stop the listener
+	 * @param requestRingSize number of requests the listener's request ring holds
+	 * @param eventLoops event loops to hand requests to, or null to use the transfer pool
+	 */
+	public RequestListener(Server server, String name, DatagramSocket socket, int requestRingSize, TransferEventLoop[] eventLoops){
+		this.server = server;
+		this.socket = socket;
+		this.eventLoops = eventLoops;
+		requestRing = new RequestRing(requestRingSize);
+		thread = new Thread(this, name);
+	}
+
+	/**
+	 * opens a socket on a port shared with other sockets (SO_REUSEPORT), the kernel
+	 * handing each request to one of them
+	 *
+	 * @param port the port to bind the socket to
+	 * @return the socket
+	 * @throws IOException indicates the socket could not be opened or bound
+	 * @throws UnsupportedOperationException indicates the JVM (Java 9+) or platform does not support SO_REUSEPORT
+	 */
+	@SuppressWarnings("unchecked")
+	public static DatagramSocket openSharedSocket(int port) throws IOException {
+		SocketOption<Boolean> reusePort;
+		try {
+			//looked up at runtime so the server still builds and runs on older JVMs
+			reusePort = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (NoSuchFieldException | IllegalAccessException e) {
+			throw new UnsupportedOperationException("SO_REUSEPORT requires Java 9 or later", e);
+		}
+
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			if (!channel.supportedOptions().contains(reusePort))
+				throw new UnsupportedOperationException("SO_REUSEPORT is not supported on this platform");
+			channel.setOption(reusePort, true);
+			channel.bind(new InetSocketAddress(port));
+		} catch (IOException | UnsupportedOperationException e) {
+			channel.close();
+			throw e;
+		}
+		//the channel stays in blocking mode, so its socket receives like any DatagramSocket
+		return channel.socket();
+	}
+
+	/**
+	 * start the listener's thread
+	 */
+	public void start(){
+		thread.start();
+	}
+
+	/**
+	 * wait for the listener to stop, once its socket is closed
+	 *
+	 * @throws InterruptedException indicates the waiting thread was interrupted
+	 */
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+
+	/**
+	 * stop the listener by closing its socket
+	 */
+	public void close(){
+		socket.close();
+	}
+
+	/**
+	 * @return socket the requests arrive on
+	 */
+	public DatagramSocket getSocket(){
+		return socket;
+	}
+
+	/**
+	 * @return slots requests are received into
+	 */
+	public RequestRing getRequestRing(){
+		return requestRing;
+	}
+
+	/**
+	 * @return the event loop to hand the next request to, spreading requests evenly over
+	 * the listener's event loops, or null if requests go to the transfer pool
+	 */
+	TransferEventLoop nextEventLoop(){
+		if (eventLoops == null)
+			return null;
+		TransferEventLoop eventLoop = eventLoops[nextEventLoop];
+		nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+		return eventLoop;
+	}
+
+	/**
+	 * function to execute when thread created.
+	 * receives requests and hands each to the server, until the socket is closed
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			RequestRing.Slot request = null;
+			try {
+				request = requestRing.receive(socket);
+			} catch (SocketException e) {
+				log.info("\nSocketException: server receive socket closed");
+				break;
+			} catch (IOException e) {
+				log.error("IOException: I/O error occured while server waiting to receive message", e);
+				System.exit(1);
+			}
+
+			if (request != null) {
+				DatagramPacket packet = request.getPacket();
+				ServerMetrics.get().requestReceived(packet.getLength() < 2 ? 0 : packet.getData()[1]);
+				server.newMessageToProcess(this, request);
+			} else
+				log.debug("Request ring full, dropped a request");
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a fixed ring of slots a RequestListener receives requests straight into. the
+ * listener fills a free slot and hands it to the worker (or event loop)
+ * that will process the request, which gives the slot back once it has read the
+ * request. every slot keeps its buffer and packet for the life of the server, so
+ * taking in a request copies and allocates nothing, and a request is never
+ * overwritten by the next one before its worker has read it.
+ *
+ * the listener claims the first free slot from the one after the last it filled, so a
+ * request held for a long time only takes its own slot, and the requests after it
+ * carry on into the others. only when every slot is in use is the ring full: the
+ * request is received into a spare packet and dropped (the client resends it when it
+ * times out), and the drop is counted
+ * 
+ * each slot has room for one byte more than the largest request accepted, so a request
+ * that fills its slot is known to be too large (and cut short) rather than mistaken for
+ * a shorter one
+ *
+ * @author Luke Newton
+ */
+public class RequestRing {
+	//largest payload of a UDP datagram over IPv4
+	private static final int MAX_DATAGRAM_SIZE = 65507;
+	//largest request accepted (-Dserver.maxRequestSize), room for a long path and every option by default
+	static final int MAX_REQUEST_SIZE = Math.min(MAX_DATAGRAM_SIZE,
+			Math.max(516, Integer.getInteger("server.maxRequestSize", 4096)));
+	//bytes in a slot's buffer
+	private static final int SLOT_SIZE = MAX_REQUEST_SIZE + 1;
+
+	//the slots, each filled when free
+	private final Slot[] slots;
+	//packet requests are received into while the ring is full, then dropped
+	private final DatagramPacket overflow;
+	//position of the first slot to try for the next request (only used by the listener)
+	private long tail;
+	//number of requests received
+	private final AtomicLong received;
+	//number of requests dropped because the ring was full
+	private final AtomicLong dropped;
+
+	/**
+	 * a request received by the listener, held until the worker processing it gives it back
+	 */
+	public static final class Slot {
+		//the request, in a buffer owned by the slot
+		private final DatagramPacket packet;
+		//set while the slot holds a request that has not been given back
+		private final AtomicBoolean inUse;
+		//what the request holds from the admission controller, handed on to its transfer
+		private AdmissionController.Permit permit;
+
+		/**
+		 * Constructor
+		 */
+		private Slot(){
+			packet = new DatagramPacket(new byte[SLOT_SIZE], SLOT_SIZE);
+			inUse = new AtomicBoolean();
+		}
+
+		/**
+		 * @return the request. it must not be used once the slot is given back
+		 */
+		public DatagramPacket getPacket(){
+			return packet;
+		}
+
+		/**
+		 * @return true if the request was larger than the largest accepted, and so was cut short
+		 */
+		public boolean isTooLarge(){
+			return packet.getLength() > MAX_REQUEST_SIZE;
+		}
+
+		/**
+		 * @return what the request holds from the admission controller until its transfer ends
+		 */
+		AdmissionController.Permit getPermit(){
+			return permit;
+		}
+
+		/**
+		 * @param permit what the request holds from the admission controller until its transfer ends
+		 */
+		void setPermit(AdmissionController.Permit permit){
+			this.permit = permit;
+		}
+
+		/**
+		 * give the slot back so the listener can receive another request into it
+		 */
+		public void release(){
+			inUse.set(false);
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param size number of requests the ring holds
+	 */
+	public RequestRing(int size){
+		slots = new Slot[Math.max(1, size)];
+		for (int i = 0; i < slots.length; i++)
+			slots[i] = new Slot();
+		overflow = new DatagramPacket(new byte[SLOT_SIZE], SLOT_SIZE);
+		received = new AtomicLong();
+		dropped = new AtomicLong();
+	}
+
+	/**
+	 * wait for the next request on a socket and receive it into a free slot. only
+	 * called from the listener thread
+	 *
+	 * @param socket socket the requests arrive on
+	 * @return the slot holding the request, to be given back by whoever processes it,
+	 * or null if the ring was full and the request was dropped
+	 * @throws IOException indicates an I/O error occurred while receiving
+	 */
+	public Slot receive(DatagramSocket socket) throws IOException {
+		Slot slot = claim();
+		if (slot == null) {
+			overflow.setLength(SLOT_SIZE);
+			socket.receive(overflow);
+			received.incrementAndGet();
+			//a slot may have been given back while waiting, so the request can still be kept
+			slot = claim();
+			if (slot == null) {
+				dropped.incrementAndGet();
+				return null;
+			}
+			System.arraycopy(overflow.getData(), 0, slot.packet.getData(), 0, overflow.getLength());
+			slot.packet.setLength(overflow.getLength());
+			slot.packet.setSocketAddress(overflow.getSocketAddress());
+		} else {
+			//a shorter packet received into the slot last time shrank its length
+			slot.packet.setLength(SLOT_SIZE);
+			try {
+				socket.receive(slot.packet);
+			} catch (IOException | RuntimeException e) {
+				slot.release();
+				throw e;
+			}
+			received.incrementAndGet();
+		}
+		return slot;
+	}
+
+	/**
+	 * claim the first free slot, starting from the one after the slot last filled
+	 *
+	 * @return the slot claimed, or null if every slot is in use
+	 */
+	private Slot claim(){
+		for (int i = 0; i < slots.length; i++) {
+			Slot slot = slots[(int) ((tail + i) % slots.length)];
+			if (slot.inUse.compareAndSet(false, true)) {
+				tail += i + 1;
+				return slot;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of requests the ring holds
+	 */
+	public int getCapacity(){
+		return slots.length;
+	}
+
+	/**
+	 * @return number of slots holding a request not yet given back
+	 */
+	public int getInUse(){
+		int count = 0;
+		for (Slot slot : slots) {
+			if (slot.inUse.get())
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of requests received
+	 */
+	public long getReceived(){
+		return received.get();
+	}
+
+	/**
+	 * @return number of requests dropped because the ring was full
+	 */
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	/**
+	 * @return a one line summary of the ring state for display on the console
+	 */
+	@Override
+	public String toString(){
+		return "in use: " + getInUse() + " (capacity " + getCapacity() + ")"
+				+ ", received: " + getReceived()
+				+ ", dropped: " + getDropped();
+	}
+}
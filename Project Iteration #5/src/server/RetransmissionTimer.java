@@ -0,0 +1,63 @@
+package server;
+
+import java.net.InetSocketAddress;
+
+import logging.TftpEvents;
+
+/**
+ * the retransmission timer of a transfer from the server's side. the timeout is
+ * measured as protocol.RetransmissionTimer does, unless the client asked for one
+ * (RFC 2349), which is then used as is for the whole transfer.
+ *
+ * every round trip, retransmission and timeout is counted in ServerMetrics, and every
+ * retransmission and timeout is also recorded as a flight recorder event
+ *
+ * @author Luke Newton
+ */
+class RetransmissionTimer extends protocol.RetransmissionTimer {
+	//milliseconds to wait until a round trip has been measured
+	private static final long INITIAL_TIMEOUT_MILLISECONDS = 1000;
+	//seconds a whole transfer may take before it is abandoned (0 for no limit)
+	private static final long TRANSFER_DEADLINE_SECONDS = Long.getLong("server.transferDeadlineSeconds", 0);
+	//registry the round trips, retransmissions and timeouts are recorded in
+	private static final ServerMetrics metrics = ServerMetrics.get();
+
+	//address and port of the client, for the events recorded
+	private InetSocketAddress client;
+	//path of the file being transferred, for the events recorded
+	private String file;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fixedTimeoutMillis milliseconds agreed with the client to wait before retransmitting, 0 to measure them
+	 * @param client address and port of the client
+	 * @param file path of the file being transferred
+	 */
+	RetransmissionTimer(int fixedTimeoutMillis, InetSocketAddress client, String file){
+		super(INITIAL_TIMEOUT_MILLISECONDS, TRANSFER_DEADLINE_SECONDS);
+		this.client = client;
+		this.file = file;
+		if (fixedTimeoutMillis > 0)
+			setFixedTimeout(fixedTimeoutMillis);
+	}
+
+	@Override
+	protected void onRetransmission(){
+		metrics.retransmitted();
+		if (TftpEvents.RETRANSMISSION.isEnabled())
+			TftpEvents.RETRANSMISSION.record("server", TftpEvents.describe(client), file, getTimeoutMillis());
+	}
+
+	@Override
+	protected void onRoundTrip(long roundTrip){
+		metrics.roundTripMeasured(roundTrip);
+	}
+
+	@Override
+	protected void onTimeout(int consecutiveTimeouts){
+		metrics.timedOut();
+		if (TftpEvents.TIMEOUT.isEnabled())
+			TftpEvents.TIMEOUT.record("server", TftpEvents.describe(client), file, getTimeoutMillis(), consecutiveTimeouts);
+	}
+}
@@ -1,9 +1,21 @@
 package server;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import logging.Logger;
+import protocol.BufferPool;
+import protocol.Tftp;
 
 
 /**
@@ -15,71 +27,206 @@ import java.net.SocketException;
  *
  */
 public class Server {
+	//log for the server's messages
+	private static final Logger log = Logger.getLogger("server");
 	//the port the server is located on
 	private static final int SERVER_PORT_NUMBER = 69;
 	//change this to turn on/off timeouts for the server
 	private static final boolean TIMEOUTS_ON = false;
 	//Milliseconds until server times out while waiting for response
 	private static final int TIMEOUT_MILLISECONDS = 5000;
-	//max size for data in a DatagramPacket
-
-	private static final int MAX_PACKET_SIZE = 516;
-
-	//change this to turn on/off pauses for the server request processing
-	private static final boolean PAUSES_ON = true;
-	/*number of milliseconds server pauses for each time
-	*(note that setting this too high with timeouts on may
-	*timeout client before message is processed)*/
-	private static final int PAUSE_MILLISECONDS = 1000;
-
-	//socket to receive messages
-	private DatagramSocket receiveSocket;
-	//port number of client to send response to
-	private int clientPort;
-	//buffer to contain data to send to client
-	private DatagramPacket receivePacket;
-	//thread created to handle a client request
-	private static Thread serverLogicThread;
-	//boolean indicating whther server should be shutting down
+
+	//"demo" holds each request briefly and shows every packet, "production" runs at full speed (-Dserver.profile)
+	private static final Profile PROFILE = Profile.parse(System.getProperty("server.profile"));
+
+	//number of worker threads kept alive to process transfers (-Dserver.poolSize)
+	private static final int TRANSFER_POOL_SIZE = Integer.getInteger("server.poolSize", 8);
+	//maximum number of worker threads processing transfers at once (-Dserver.maxPoolSize)
+	private static final int TRANSFER_MAX_POOL_SIZE = Integer.getInteger("server.maxPoolSize", 32);
+	//maximum number of requests waiting for a free worker (-Dserver.queueLimit)
+	private static final int TRANSFER_QUEUE_LIMIT = Integer.getInteger("server.queueLimit", 64);
+	/*engine processing transfers (-Dserver.engine): "pool" runs each transfer on a blocking
+	 * worker thread, "virtual" runs each transfer on its own virtual thread (Java 21+),
+	 * "nio" multiplexes all transfers over a few event loop threads*/
+	private static final String TRANSFER_ENGINE = System.getProperty("server.engine", "pool");
+	//number of event loop threads used by the nio engine (-Dserver.eventLoops)
+	private static final int EVENT_LOOP_COUNT = Integer.getInteger("server.eventLoops", 2);
+	//maximum number of transfers in progress on virtual threads (-Dserver.maxVirtualThreads)
+	private static final int MAX_VIRTUAL_THREADS = Integer.getInteger("server.maxVirtualThreads", 10000);
+	//MB of file blocks cached in memory for read requests, 0 to not cache blocks (-Dserver.blockCacheMB)
+	private static final int BLOCK_CACHE_MB = Integer.getInteger("server.blockCacheMB", 32);
+	/*number of requests received but not yet read by a worker or event loop before more are
+	 * dropped (-Dserver.requestRingSize), which should cover the worker pool and its queue*/
+	private static final int REQUEST_RING_SIZE = Integer.getInteger("server.requestRingSize", 256);
+	/*number of threads receiving requests, each on its own socket bound to the server's
+	 * port with SO_REUSEPORT (-Dserver.listeners)*/
+	private static final int LISTENER_COUNT = Integer.getInteger("server.listeners", 1);
+	/*seconds transfers in progress are given to finish once the server starts shutting
+	 * down, after which they are cancelled (-Dserver.drainSeconds)*/
+	private static final int DRAIN_SECONDS = Integer.getInteger("server.drainSeconds", 30);
+	//maximum number of read and write requests taken on at once (-Dserver.maxTransfers)
+	private static final int MAX_TRANSFERS = Integer.getInteger("server.maxTransfers", 256);
+	//maximum number of write requests taken on at once (-Dserver.maxWriteTransfers)
+	private static final int MAX_WRITE_TRANSFERS = Integer.getInteger("server.maxWriteTransfers", 64);
+	/*MB the requests taken on may have in flight at once, a window of full blocks each
+	 * (-Dserver.maxInFlightMB)*/
+	private static final int MAX_IN_FLIGHT_MB = Integer.getInteger("server.maxInFlightMB", 128);
+	//longest shutdown waits for cancelled transfers to release their files and buffers
+	private static final long CANCEL_WAIT_MILLISECONDS = 2000;
+	//message of the ERROR packet sent to clients refused or cancelled while shutting down
+	static final String SHUTDOWN_MESSAGE = "Server shutting down.";
+	//message of the ERROR packet sent to clients whose request is shed because the server is busy
+	static final String BUSY_MESSAGE = "Server busy, try again later.";
+	//domain of the names the server's MBeans are registered under with JMX
+	private static final String MBEAN_DOMAIN = "tftp.server";
+	//HTTP port metrics are served on for Prometheus, 0 to not serve them (-Dserver.metricsPort)
+	private static final int METRICS_PORT = Integer.getInteger("server.metricsPort", 0);
+	//address metrics are served on, only this host by default (-Dserver.metricsAddress)
+	private static final String METRICS_ADDRESS = System.getProperty("server.metricsAddress", "127.0.0.1");
+
+	//threads receiving messages, each on its own socket
+	private RequestListener[] listeners;
+	//pool of worker threads that handle client requests (pool engine)
+	private TransferExecutor transferExecutor;
+	//event loops that handle client requests (nio engine)
+	private TransferEventLoop[] eventLoops;
+	//boolean indicating whther server should be shutting down (refusing new requests)
 	private volatile boolean quitPreperation;
 	//integer representing the number of messages currently being processed
-	private volatile int numberOfMessagesBeingProcessed;
+	private AtomicInteger numberOfMessagesBeingProcessed;
+	//notified when the last message being processed is done while shutting down
+	private final Object messagesProcessed = new Object();
+	//files currently being read or written by transfers
+	private FileLockTable fileLocks;
+	//blocks of files recently read, shared by every transfer (null if not caching)
+	private BlockCache blockCache;
+	//transfers in progress, from either engine
+	private TransferTable transferTable;
+	//decides whether each request received is taken on or shed
+	private AdmissionController admission;
+	//serves the metrics over HTTP (null if not serving them)
+	private MetricsEndpoint metricsEndpoint;
+
+	/**
+	 * Constructor
+	 * 
+	 * @throws IOException indicate failed to create socket for the intermediate host or start the event loops
+	 */
+	public Server() throws IOException{
+		this(0);
+	}
 
 	/**
 	 * Constructor
 	 * 
-	 * @throws SocketException indicate failed to create socket for the intermediate host
+	 * @param port integer representing the port number to bind intermediate host's socket to
+	 * @throws IOException indicate failed to create socket for the intermediate host, start the event loops or serve metrics
 	 */
-	public Server() throws SocketException{
-		receiveSocket = new DatagramSocket();
+	public Server(int port) throws IOException{
+		PROFILE.applyTo(log);
+		DatagramSocket[] receiveSockets = openReceiveSockets(port, Math.max(1, LISTENER_COUNT));
 		//turn on timeout if required
-		if(TIMEOUTS_ON)
-			receiveSocket.setSoTimeout(TIMEOUT_MILLISECONDS);
+		if(TIMEOUTS_ON){
+			for(DatagramSocket receiveSocket : receiveSockets)
+				receiveSocket.setSoTimeout(TIMEOUT_MILLISECONDS);
+		}
 
-		//create packet of max size to guarantee it fits a received message
-		receivePacket = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
 		quitPreperation = false;
-		numberOfMessagesBeingProcessed = 0;
+		numberOfMessagesBeingProcessed = new AtomicInteger();
+		fileLocks = new FileLockTable();
+		transferTable = new TransferTable();
+		admission = new AdmissionController(MAX_TRANSFERS, MAX_WRITE_TRANSFERS, MAX_IN_FLIGHT_MB * 1024L * 1024L);
+		if(BLOCK_CACHE_MB > 0)
+			blockCache = new BlockCache(BLOCK_CACHE_MB * 1024L * 1024L);
+		if(TRANSFER_ENGINE.equalsIgnoreCase("nio")){
+			eventLoops = new TransferEventLoop[EVENT_LOOP_COUNT];
+			for(int i = 0; i < eventLoops.length; i++){
+				//a loop may be fed by every listener's request ring
+				eventLoops[i] = new TransferEventLoop(this, "transfer-loop-" + (i + 1), REQUEST_RING_SIZE * receiveSockets.length);
+				eventLoops[i].start();
+			}
+		}else if(TRANSFER_ENGINE.equalsIgnoreCase("virtual")){
+			try {
+				transferExecutor = TransferExecutor.newVirtualThreadExecutor(MAX_VIRTUAL_THREADS);
+			} catch (UnsupportedOperationException e) {
+				log.warn(e.getMessage() + ", using a pool of platform threads instead");
+				transferExecutor = new TransferExecutor(TRANSFER_POOL_SIZE, TRANSFER_MAX_POOL_SIZE, TRANSFER_QUEUE_LIMIT);
+			}
+		}else
+			transferExecutor = new TransferExecutor(TRANSFER_POOL_SIZE, TRANSFER_MAX_POOL_SIZE, TRANSFER_QUEUE_LIMIT);
+
+		listeners = new RequestListener[receiveSockets.length];
+		for(int i = 0; i < listeners.length; i++)
+			listeners[i] = new RequestListener(this, "listener-" + (i + 1), receiveSockets[i], REQUEST_RING_SIZE,
+					eventLoops == null ? null : eventLoopShard(i, listeners.length));
+		registerMBeans();
+		if(METRICS_PORT > 0){
+			metricsEndpoint = new MetricsEndpoint(ServerMetrics.get(), admission, new InetSocketAddress(METRICS_ADDRESS, METRICS_PORT));
+			metricsEndpoint.start();
+		}
 	}
 
 	/**
-	 * Constructor
+	 * publish the server's metrics, its table of transfers, its admission limits and its
+	 * transfer pool over JMX, so they can be watched and managed with jconsole or any other JMX client.
+	 * the server runs without them if they cannot be registered
+	 */
+	private void registerMBeans(){
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		try {
+			mbeanServer.registerMBean(ServerMetrics.get(), new ObjectName(MBEAN_DOMAIN + ":type=Metrics"));
+			mbeanServer.registerMBean(transferTable, new ObjectName(MBEAN_DOMAIN + ":type=Transfers"));
+			mbeanServer.registerMBean(admission, new ObjectName(MBEAN_DOMAIN + ":type=Admission"));
+			if(transferExecutor != null)
+				mbeanServer.registerMBean(transferExecutor, new ObjectName(MBEAN_DOMAIN + ":type=TransferPool"));
+		} catch (JMException e) {
+			log.warn("Failed to register the server's MBeans: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * opens the sockets the listeners receive messages on. more than one socket shares
+	 * the port with SO_REUSEPORT, falling back to a single socket where that is not supported
 	 * 
-	 * @param port integer representing the port number to bind intermediate host's socket to
-	 * @throws SocketException indicate failed to create socket for the intermediate host
+	 * @param port the port to bind the sockets to
+	 * @param count number of sockets wanted
+	 * @return the sockets
+	 * @throws IOException indicates a socket could not be opened or bound
 	 */
-	public Server(int port) throws SocketException{
-		this();
-		receiveSocket = new DatagramSocket(port);
+	private static DatagramSocket[] openReceiveSockets(int port, int count) throws IOException{
+		if(count > 1){
+			DatagramSocket[] receiveSockets = new DatagramSocket[count];
+			try {
+				for(int i = 0; i < count; i++)
+					receiveSockets[i] = RequestListener.openSharedSocket(port);
+				return receiveSockets;
+			} catch (UnsupportedOperationException e) {
+				for(DatagramSocket receiveSocket : receiveSockets){
+					if(receiveSocket != null)
+						receiveSocket.close();
+				}
+				log.warn(e.getMessage() + ", using a single listener instead");
+			}
+		}
+		return new DatagramSocket[] {new DatagramSocket(port)};
 	}
-	
+
 	/**
-	 * Sends the receive socket to the thread to be reused.
+	 * picks the event loops a listener hands its messages to, so listeners share as few
+	 * loops as possible
 	 * 
-	 * @return receiveSocket
+	 * @param listener index of the listener
+	 * @param listenerCount number of listeners
+	 * @return the listener's event loops
 	 */
-	public DatagramSocket getReceiveSocket() {
-		return receiveSocket;
+	private TransferEventLoop[] eventLoopShard(int listener, int listenerCount){
+		if(eventLoops.length <= listenerCount)
+			return new TransferEventLoop[] {eventLoops[listener % eventLoops.length]};
+		//every listenerCount-th loop, starting from the listener's own
+		TransferEventLoop[] shard = new TransferEventLoop[(eventLoops.length - listener + listenerCount - 1) / listenerCount];
+		for(int i = 0; i < shard.length; i++)
+			shard[i] = eventLoops[listener + i * listenerCount];
+		return shard;
 	}
 	/**
 	 * informs the caller of whether or not the server is shutting down
@@ -91,28 +238,190 @@ public class Server {
 	}
 
 	/**
-	 * inform the server to begin shutting down
+	 * shut the server down gracefully. new requests are refused with an ERROR packet,
+	 * while transfers in progress are given until the drain deadline (-Dserver.drainSeconds)
+	 * to finish. any still in progress then are cancelled, informing their clients.
+	 * returns once no more messages are being processed, closing the receive socket so
+	 * the server stops
 	 * 
 	 * @author Luke Newton
 	 */
-	public synchronized void setQuitTime() {
+	public void setQuitTime() {
+		synchronized (this) {
+			if (quitPreperation)
+				return;
 			this.quitPreperation = true;
-			receiveSocket.close();	
+		}
+		log.info("Server shutting down, refusing new requests and waiting up to " + DRAIN_SECONDS
+				+ " seconds for " + getNumberOfMessagesBeingProcessed() + " transfers in progress");
+		if (!awaitMessagesProcessed(TimeUnit.SECONDS.toMillis(DRAIN_SECONDS))) {
+			log.warn("Drain deadline passed, cancelling " + getNumberOfMessagesBeingProcessed() + " transfers still in progress");
+			cancelTransfers();
+			if (!awaitMessagesProcessed(CANCEL_WAIT_MILLISECONDS))
+				log.warn(getNumberOfMessagesBeingProcessed() + " cancelled transfers did not end in time");
+		}
+		for(RequestListener listener : listeners)
+			listener.close();
 	}
 
 	/**
-	 * create a new thread to deal with a specified message
+	 * wait until no more messages are being processed, once the server is shutting down
+	 * 
+	 * @param timeoutMillis longest to wait, in milliseconds
+	 * @return true if no more messages are being processed, false if the time ran out first
+	 */
+	private boolean awaitMessagesProcessed(long timeoutMillis) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		synchronized (messagesProcessed) {
+			while (getNumberOfMessagesBeingProcessed() > 0) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0)
+					return false;
+				try {
+					messagesProcessed.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * hand a specified message to the transfer pool or an event loop to be dealt with.
+	 * requests the admission controller sheds are refused here, on the listener's thread,
+	 * so they take no worker and hold nothing
 	 * 
 	 * @author Luke Newton
-	 * @param request the message received to process
+	 * @param listener the listener that received the message
+	 * @param request slot of the listener's request ring holding the message received to process
+	 */
+	public void newMessageToProcess(RequestListener listener, RequestRing.Slot request){
+		log.trace("Server: received message");
+		/*counted before checking for shutdown, so shutting down either sees this message
+		 * being processed or this sees the server shutting down*/
+		numberOfMessagesBeingProcessed.incrementAndGet();
+		if(quitPreperation){
+			refuseRequest(listener.getSocket(), request, SHUTDOWN_MESSAGE);
+			messageProcessed();
+			return;
+		}
+		//cut short by the request ring, so whatever options it held are lost
+		if(request.isTooLarge()){
+			refuseRequest(listener.getSocket(), request, Tftp.ILLEGAL_TFTP_OPERATION,
+					"Request larger than " + RequestRing.MAX_REQUEST_SIZE + " bytes.");
+			messageProcessed();
+			return;
+		}
+		AdmissionController.Permit permit = admission.admit(request.getPacket());
+		if(permit == null){
+			refuseRequest(listener.getSocket(), request, BUSY_MESSAGE);
+			messageProcessed();
+			return;
+		}
+		request.setPermit(permit);
+		TransferEventLoop eventLoop = listener.nextEventLoop();
+		if(eventLoop != null){
+			//a loop that has stopped, or has too many requests waiting, cannot take it
+			if(!eventLoop.submit(request)){
+				refuseRequest(listener.getSocket(), request, BUSY_MESSAGE);
+				admission.release(permit);
+				messageProcessed();
+			}
+		}else
+			transferExecutor.execute(new ServerSpawnThread(this, request));
+	}
+
+	/**
+	 * answer a request that will not be processed with an ERROR packet
+	 * 
+	 * @param receiveSocket the socket the request was received on
+	 * @param request slot of the request ring holding the request, given back once answered
+	 * @param reason the message sent to the client
+	 */
+	private void refuseRequest(DatagramSocket receiveSocket, RequestRing.Slot request, String reason){
+		refuseRequest(receiveSocket, request, Tftp.NOT_DEFINED, reason);
+	}
+
+	/**
+	 * answer a request that will not be processed with an ERROR packet
+	 * 
+	 * @param receiveSocket the socket the request was received on
+	 * @param request slot of the request ring holding the request, given back once answered
+	 * @param errorCode the error code sent to the client
+	 * @param reason the message sent to the client
+	 */
+	private void refuseRequest(DatagramSocket receiveSocket, RequestRing.Slot request, byte errorCode, String reason){
+		DatagramPacket packet = request.getPacket();
+		try {
+			//only requests are answered, anything else sent to the server's port is ignored
+			byte opcode = packet.getLength() < 2 ? 0 : packet.getData()[1];
+			if(opcode == Tftp.OP_RRQ || opcode == Tftp.OP_WRQ){
+				log.info("Refusing request from " + packet.getSocketAddress() + ": " + reason);
+				ByteBuffer error = Transfer.createErrorPacket(errorCode, reason);
+				receiveSocket.send(new DatagramPacket(error.array(), error.limit(), packet.getSocketAddress()));
+			}
+		} catch (IOException e) {
+			log.error("Failed creating/sending error packet", e);
+		} finally {
+			request.release();
+		}
+	}
+
+	/**
+	 * cancel every transfer still in progress, informing their clients the server is
+	 * shutting down
+	 */
+	private void cancelTransfers(){
+		if(eventLoops != null){
+			for(TransferEventLoop eventLoop : eventLoops)
+				eventLoop.cancelTransfers();
+		}else
+			transferExecutor.cancelTransfers();
+	}
+
+	/**
+	 * stop the threads processing transfers, and stop serving metrics
+	 */
+	private void shutdownTransferEngine(){
+		if(eventLoops != null){
+			for(TransferEventLoop eventLoop : eventLoops)
+				eventLoop.shutdown();
+		}else
+			transferExecutor.shutdown();
+		if(metricsEndpoint != null)
+			metricsEndpoint.stop();
+	}
+
+	/**
+	 * returns a summary of the state of the threads processing transfers
+	 * 
+	 * @return a summary of the state of the threads processing transfers
 	 */
-	public void newMessageToProcess(DatagramPacket request){
-		System.out.println("Server: received message");
-		serverLogicThread = new Thread(new ServerSpawnThread(this, request)); 
-		//priorities are set low to make shutdown occur in a timely manner
-		serverLogicThread.setPriority(Thread.MIN_PRIORITY);
-		serverLogicThread.start();
-		numberOfMessagesBeingProcessed++;
+	public String getTransferStatus() {
+		StringBuilder status = new StringBuilder();
+		if(eventLoops == null)
+			status.append("Transfer ").append(transferExecutor);
+		else{
+			status.append("Transfer event loops:");
+			for(int i = 0; i < eventLoops.length; i++){
+				status.append("\n  loop ").append(i + 1)
+					.append(" active: ").append(eventLoops[i].getActiveTransfers())
+					.append(", queued: ").append(eventLoops[i].getQueueDepth());
+			}
+		}
+		for(int i = 0; i < listeners.length; i++)
+			status.append("\nRequest listener ").append(i + 1).append(" ring ").append(listeners[i].getRequestRing());
+		if(blockCache != null)
+			status.append("\nBlock cache ").append(blockCache);
+		status.append("\nAdmission ").append(admission);
+		status.append("\nDisk space reserved for writes: ").append(FileBlockWriter.getReservedBytes()).append(" bytes");
+		status.append("\nTransfers in progress: ").append(transferTable);
+		status.append("\nMetrics ").append(ServerMetrics.get());
+		status.append("\nBuffer pools:\n  ").append(BufferPool.heap())
+			.append("\n  ").append(BufferPool.direct());
+		return status.toString();
 	}
 
 	/**
@@ -121,7 +430,11 @@ public class Server {
 	 * @author Luke Newton
 	 */
 	public void messageProcessed(){
-		numberOfMessagesBeingProcessed--;
+		if(numberOfMessagesBeingProcessed.decrementAndGet() == 0 && quitPreperation){
+			synchronized (messagesProcessed) {
+				messagesProcessed.notifyAll();
+			}
+		}
 	}
 
 	/**
@@ -131,48 +444,72 @@ public class Server {
 	 * @return the number of messages currently being processed
 	 */
 	private int getNumberOfMessagesBeingProcessed() {
-		return numberOfMessagesBeingProcessed;
+		return numberOfMessagesBeingProcessed.get();
+	}
+
+	/**
+	 * returns the table of files currently being read or written by transfers
+	 * 
+	 * @return the table of files currently being read or written by transfers
+	 */
+	public FileLockTable getFileLocks() {
+		return fileLocks;
 	}
 
 	/**
-	 *Return the data in the datagram packet received
-	 *
-	 * @return  the data in the datagram packet received
+	 * returns the table of transfers in progress
+	 * 
+	 * @return the table of transfers in progress
 	 */
-	public byte[] getreceivePacketData(){
-		return receivePacket.getData();
+	public TransferTable getTransferTable() {
+		return transferTable;
 	}
 
 	/**
-	 * returns the port number of the latest client to send a message here
+	 * returns the controller deciding whether each request is taken on
 	 * 
-	 * @return the port number of the latest client to send a message here
+	 * @return the controller deciding whether each request is taken on
 	 */
-	public int getClientPort(){
-		return clientPort;
+	public AdmissionController getAdmission() {
+		return admission;
 	}
 
 	/**
-	 * client waits until it receives a message, which is parsed, stored in receivePacket and returned
+	 * returns the cache of file blocks shared by every transfer
 	 * 
-	 * @return the message received as a  DatagramPacket
-	 * @throws IOException indicated an I/O error has occurred
+	 * @return the cache of file blocks shared by every transfer, or null if blocks are not cached
 	 */
-	public DatagramPacket waitReceiveMessage() throws IOException{
-		receiveSocket.receive(receivePacket);
-		return receivePacket;
+	public BlockCache getBlockCache() {
+		return blockCache;
 	}
-	
+
 	/**
-	 * pauses execution breiefly so output can be read as it is created
+	 * receive messages and hand them to be processed, on every listener's thread, until
+	 * the server has shut down
+	 */
+	public void listen(){
+		for(RequestListener listener : listeners)
+			listener.start();
+		for(RequestListener listener : listeners){
+			try {
+				listener.join();
+			} catch (InterruptedException e) {
+				log.error("Server interrupted while waiting for the listeners to stop", e);
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * pauses execution breiefly so output can be read as it is created, in the demo
+	 * profile only
 	 */
 	public void pause(){
-		if(PAUSES_ON){
+		if(PROFILE.getPauseMilliseconds() > 0){
 			try {
-				Thread.sleep(PAUSE_MILLISECONDS);
+				Thread.sleep(PROFILE.getPauseMilliseconds());
 			} catch (InterruptedException e) {
-				System.out.println("Server interrupted while pausing execution");
-				e.printStackTrace();
+				log.error("Server interrupted while pausing execution", e);
 				System.exit(1);
 			}
 		}
@@ -188,9 +525,8 @@ public class Server {
 		Server server = null;
 		try {
 			server = new Server(SERVER_PORT_NUMBER);
-		} catch (SocketException e) {
-			System.err.println("SocketException: failed to create socket for server");
-			e.printStackTrace();
+		} catch (IOException e) {
+			log.error("IOException: failed to create socket for server", e);
 			System.exit(1);
 		}
 
@@ -200,28 +536,21 @@ public class Server {
 		serverQuitThread.setPriority(Thread.MAX_PRIORITY);
 		serverQuitThread.start();    
 		
+		log.info("Server running the " + PROFILE.name().toLowerCase() + " profile");
+		Logger.flush();
 		System.out.println("Enter 'quit' to begin server shutdown procedures");
+		System.out.println("Enter 'status' to display the state of the transfer " + (TRANSFER_ENGINE.equalsIgnoreCase("nio") ? "event loops" : "pool"));
 
 		/*Recieve packet and create a thread to handle the request.
-		 * Do this while the server is not trying to shut down*/
-		while(!server.isQuitTime()) {
-			DatagramPacket request = null;
-			try {
-				request = server.waitReceiveMessage();
-			} catch (SocketException e){
-				System.out.println("\nSocketException: server receive socket closed");
-				break;
-			} catch (IOException e) {
-				System.err.println("IOException: I/O error occured while server waiting to receive message");
-				e.printStackTrace();
-				System.exit(1);
-			}
-
-			server.newMessageToProcess(request);
-		}
-		//server now shuting down, do not stop until no more messages are being processed
-		while(server.getNumberOfMessagesBeingProcessed() != 0){}
-		System.out.println("\nServer successfully quit due to user command");
+		 * Requests received while shutting down are refused, until the receive sockets are
+		 * closed once no more messages are being processed*/
+		server.listen();
+		//server now shuting down, every message has been processed (or cancelled)
+		server.shutdownTransferEngine();
+		//every transfer has ended, so any buffer still out of the pools was never given back
+		BufferPool.heap().reportLeaks();
+		BufferPool.direct().reportLeaks();
+		log.info("\nServer successfully quit due to user command");
 		System.exit(0);
 	}
 }
\ No newline at end of file
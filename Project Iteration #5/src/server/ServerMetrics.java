@@ -0,0 +1,387 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import protocol.Tftp;
+
+/**
+ * counts what the server has done since it started: requests received by type, transfers
+ * in progress and finished, DATA bytes moved, packets resent, timeouts, duplicate
+ * packets and ERROR packets by code, with histograms of the round trip of each block
+ * and of whole transfers. both transfer engines record into the one registry.
+ *
+ * counters are LongAdders and histograms increment a single bucket, so recording takes
+ * no lock and allocates nothing, and threads recording at once do not contend on a
+ * shared counter. the values are read without stopping the transfers, and are
+ * published over JMX through ServerMetricsMXBean
+ *
+ * @author Luke Newton
+ */
+public final class ServerMetrics implements ServerMetricsMXBean {
+	//the server's registry
+	private static final ServerMetrics INSTANCE = new ServerMetrics();
+	//index counting ERROR packets whose code is not a TFTP error code
+	private static final int OTHER_ERROR_CODE = Tftp.OPTION_NEGOTIATION_FAILED + 1;
+
+	//System.nanoTime() when the registry was created
+	private final long startTime;
+	//requests received, by op code (index 0 for packets without a TFTP op code)
+	private final LongAdder[] requests;
+	//number of transfers in progress
+	private final AtomicInteger activeTransfers;
+	//number of transfers that moved the whole file
+	private final LongAdder transfersCompleted;
+	//number of transfers that ended without moving the whole file
+	private final LongAdder transfersFailed;
+	//bytes of file data sent to clients in DATA packets, not counting blocks sent again
+	private final LongAdder dataBytesSent;
+	//bytes of file data received from clients in DATA packets, not counting duplicates
+	private final LongAdder dataBytesReceived;
+	//packets sent again because the client did not answer, or asked for them again
+	private final LongAdder retransmissions;
+	//number of times a client did not answer in time
+	private final LongAdder timeouts;
+	//duplicate ACKs and DATA received from clients
+	private final LongAdder duplicates;
+	//ERROR packets sent to clients, by error code
+	private final LongAdder[] errorsSent;
+	//ERROR packets received from clients, by error code
+	private final LongAdder[] errorsReceived;
+	//microseconds from sending a packet to the client answering it, for packets sent once
+	private final Histogram roundTrips;
+	//microseconds from the request to the end of each completed transfer
+	private final Histogram transferLatencies;
+	//bytes per second of each completed transfer
+	private final Histogram transferThroughputs;
+
+	/**
+	 * Constructor
+	 */
+	private ServerMetrics(){
+		startTime = System.nanoTime();
+		requests = newCounters(Tftp.OP_OACK + 1);
+		activeTransfers = new AtomicInteger();
+		transfersCompleted = new LongAdder();
+		transfersFailed = new LongAdder();
+		dataBytesSent = new LongAdder();
+		dataBytesReceived = new LongAdder();
+		retransmissions = new LongAdder();
+		timeouts = new LongAdder();
+		duplicates = new LongAdder();
+		errorsSent = newCounters(OTHER_ERROR_CODE + 1);
+		errorsReceived = newCounters(OTHER_ERROR_CODE + 1);
+		roundTrips = new Histogram();
+		transferLatencies = new Histogram();
+		transferThroughputs = new Histogram();
+	}
+
+	/**
+	 * @return the server's registry
+	 */
+	public static ServerMetrics get(){
+		return INSTANCE;
+	}
+
+	/**
+	 * @param count number of counters
+	 * @return new counters, each 0
+	 */
+	private static LongAdder[] newCounters(int count){
+		LongAdder[] counters = new LongAdder[count];
+		for (int i = 0; i < count; i++)
+			counters[i] = new LongAdder();
+		return counters;
+	}
+
+	/**
+	 * @param counters counters summed
+	 * @return the total of the counters
+	 */
+	private static long sum(LongAdder[] counters){
+		long sum = 0;
+		for (LongAdder counter : counters)
+			sum += counter.sum();
+		return sum;
+	}
+
+	/**
+	 * @param counters counters read
+	 * @return the value of each counter
+	 */
+	private static long[] sums(LongAdder[] counters){
+		long[] sums = new long[counters.length];
+		for (int i = 0; i < counters.length; i++)
+			sums[i] = counters[i].sum();
+		return sums;
+	}
+
+	/**
+	 * @param errorCode an error code from an ERROR packet
+	 * @return index counting the error code
+	 */
+	private static int errorIndex(int errorCode){
+		return errorCode >= 0 && errorCode < OTHER_ERROR_CODE ? errorCode : OTHER_ERROR_CODE;
+	}
+
+	/**
+	 * record a packet received on the server's port
+	 *
+	 * @param opcode op code of the packet
+	 */
+	public void requestReceived(byte opcode){
+		requests[Tftp.isValidOpcode(opcode) ? opcode : 0].increment();
+	}
+
+	/**
+	 * record a transfer starting
+	 */
+	public void transferStarted(){
+		activeTransfers.incrementAndGet();
+	}
+
+	/**
+	 * record a transfer ending
+	 *
+	 * @param elapsedNanos nanoseconds since the transfer started
+	 * @param bytes bytes of file data moved
+	 * @param completed true if the whole file was moved
+	 */
+	public void transferFinished(long elapsedNanos, long bytes, boolean completed){
+		activeTransfers.decrementAndGet();
+		if (!completed) {
+			transfersFailed.increment();
+			return;
+		}
+		transfersCompleted.increment();
+		transferLatencies.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+		transferThroughputs.record(bytes * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos));
+	}
+
+	/**
+	 * @param bytes bytes of file data sent in a DATA packet for the first time
+	 */
+	public void dataSent(int bytes){
+		dataBytesSent.add(bytes);
+	}
+
+	/**
+	 * @param bytes bytes of file data received in a DATA packet, not a duplicate
+	 */
+	public void dataReceived(int bytes){
+		dataBytesReceived.add(bytes);
+	}
+
+	/**
+	 * record a packet sent again
+	 */
+	public void retransmitted(){
+		retransmissions.increment();
+	}
+
+	/**
+	 * record a client not answering in time
+	 */
+	public void timedOut(){
+		timeouts.increment();
+	}
+
+	/**
+	 * record a duplicate ACK or DATA received
+	 */
+	public void duplicateReceived(){
+		duplicates.increment();
+	}
+
+	/**
+	 * @param errorCode error code of an ERROR packet sent to a client
+	 */
+	public void errorSent(int errorCode){
+		errorsSent[errorIndex(errorCode)].increment();
+	}
+
+	/**
+	 * @param errorCode error code of an ERROR packet received from a client
+	 */
+	public void errorReceived(int errorCode){
+		errorsReceived[errorIndex(errorCode)].increment();
+	}
+
+	/**
+	 * @param nanos nanoseconds from sending a packet to the client answering it
+	 */
+	public void roundTripMeasured(long nanos){
+		roundTrips.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	@Override
+	public double getUptimeSeconds(){
+		return (System.nanoTime() - startTime) / 1e9;
+	}
+
+	/**
+	 * @param opcode an op code, or 0 for packets without a TFTP op code
+	 * @return number of packets with the op code received on the server's port
+	 */
+	public long getRequests(byte opcode){
+		return requests[Tftp.isValidOpcode(opcode) ? opcode : 0].sum();
+	}
+
+	@Override
+	public long getRequests(){
+		return sum(requests);
+	}
+
+	@Override
+	public long getReadRequests(){
+		return getRequests(Tftp.OP_RRQ);
+	}
+
+	@Override
+	public long getWriteRequests(){
+		return getRequests(Tftp.OP_WRQ);
+	}
+
+	@Override
+	public int getActiveTransfers(){
+		return activeTransfers.get();
+	}
+
+	@Override
+	public long getTransfersCompleted(){
+		return transfersCompleted.sum();
+	}
+
+	@Override
+	public long getTransfersFailed(){
+		return transfersFailed.sum();
+	}
+
+	@Override
+	public long getDataBytesSent(){
+		return dataBytesSent.sum();
+	}
+
+	@Override
+	public long getDataBytesReceived(){
+		return dataBytesReceived.sum();
+	}
+
+	@Override
+	public long getRetransmissions(){
+		return retransmissions.sum();
+	}
+
+	@Override
+	public long getTimeouts(){
+		return timeouts.sum();
+	}
+
+	@Override
+	public long getDuplicates(){
+		return duplicates.sum();
+	}
+
+	/**
+	 * @param errorCode a TFTP error code, or any other value for codes that are not one
+	 * @return number of ERROR packets with the code sent to clients
+	 */
+	public long getErrorsSent(int errorCode){
+		return errorsSent[errorIndex(errorCode)].sum();
+	}
+
+	/**
+	 * @param errorCode a TFTP error code, or any other value for codes that are not one
+	 * @return number of ERROR packets with the code received from clients
+	 */
+	public long getErrorsReceived(int errorCode){
+		return errorsReceived[errorIndex(errorCode)].sum();
+	}
+
+	@Override
+	public long[] getErrorsSentByCode(){
+		return sums(errorsSent);
+	}
+
+	@Override
+	public long[] getErrorsReceivedByCode(){
+		return sums(errorsReceived);
+	}
+
+	/**
+	 * @return microseconds from sending a packet to the client answering it
+	 */
+	public Histogram getRoundTrips(){
+		return roundTrips;
+	}
+
+	/**
+	 * @return microseconds taken by each completed transfer
+	 */
+	public Histogram getTransferLatencies(){
+		return transferLatencies;
+	}
+
+	/**
+	 * @return bytes per second of each completed transfer
+	 */
+	public Histogram getTransferThroughputs(){
+		return transferThroughputs;
+	}
+
+	@Override
+	public Histogram.Summary getRoundTripMicros(){
+		return roundTrips.getSummary();
+	}
+
+	@Override
+	public Histogram.Summary getTransferLatencyMicros(){
+		return transferLatencies.getSummary();
+	}
+
+	@Override
+	public Histogram.Summary getTransferThroughput(){
+		return transferThroughputs.getSummary();
+	}
+
+	/**
+	 * @param counters counters by code
+	 * @return the codes counted with their counts, such as "1=3 5=1", or "none"
+	 */
+	private static String byCode(LongAdder[] counters){
+		StringBuilder codes = new StringBuilder();
+		for (int i = 0; i < counters.length; i++) {
+			long count = counters[i].sum();
+			if (count > 0)
+				codes.append(codes.length() == 0 ? "" : " ").append(i == OTHER_ERROR_CODE ? "other" : i).append('=').append(count);
+		}
+		return codes.length() == 0 ? "none" : codes.toString();
+	}
+
+	/**
+	 * @return a summary of the metrics for display on the console, a line per group
+	 */
+	@Override
+	public String toString(){
+		double uptime = Math.max(getUptimeSeconds(), 1e-3);
+		return "requests: " + getRequests()
+				+ String.format(" (%.1f/s)", getRequests() / uptime)
+				+ ", RRQ: " + getRequests(Tftp.OP_RRQ)
+				+ ", WRQ: " + getRequests(Tftp.OP_WRQ)
+				+ ", other: " + (getRequests() - getRequests(Tftp.OP_RRQ) - getRequests(Tftp.OP_WRQ))
+				+ "\n  transfers active: " + getActiveTransfers()
+				+ ", completed: " + getTransfersCompleted()
+				+ ", failed: " + getTransfersFailed()
+				+ "\n  DATA bytes sent: " + getDataBytesSent()
+				+ ", received: " + getDataBytesReceived()
+				+ "\n  retransmissions: " + getRetransmissions()
+				+ ", timeouts: " + getTimeouts()
+				+ ", duplicates: " + getDuplicates()
+				+ "\n  ERROR packets sent: " + byCode(errorsSent)
+				+ ", received: " + byCode(errorsReceived)
+				+ "\n  round trip (us) " + roundTrips
+				+ "\n  transfer latency (us) " + transferLatencies
+				+ "\n  transfer throughput (bytes/s) " + transferThroughputs;
+	}
+}
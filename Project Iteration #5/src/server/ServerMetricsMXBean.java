@@ -0,0 +1,96 @@
+package server;
+
+/**
+ * management interface of the server's metrics, registered with JMX as
+ * tftp.server:type=Metrics. counts are totals since the server started
+ *
+ * @author Luke Newton
+ */
+public interface ServerMetricsMXBean {
+	/**
+	 * @return seconds since the server started
+	 */
+	double getUptimeSeconds();
+
+	/**
+	 * @return number of packets received on the server's port
+	 */
+	long getRequests();
+
+	/**
+	 * @return number of RRQs received
+	 */
+	long getReadRequests();
+
+	/**
+	 * @return number of WRQs received
+	 */
+	long getWriteRequests();
+
+	/**
+	 * @return number of transfers in progress
+	 */
+	int getActiveTransfers();
+
+	/**
+	 * @return number of transfers that moved the whole file
+	 */
+	long getTransfersCompleted();
+
+	/**
+	 * @return number of transfers that ended without moving the whole file
+	 */
+	long getTransfersFailed();
+
+	/**
+	 * @return bytes of file data sent to clients
+	 */
+	long getDataBytesSent();
+
+	/**
+	 * @return bytes of file data received from clients
+	 */
+	long getDataBytesReceived();
+
+	/**
+	 * @return number of packets sent again
+	 */
+	long getRetransmissions();
+
+	/**
+	 * @return number of times a client did not answer in time
+	 */
+	long getTimeouts();
+
+	/**
+	 * @return number of duplicate ACKs and DATA received
+	 */
+	long getDuplicates();
+
+	/**
+	 * @return ERROR packets sent to clients, indexed by error code (0 to 8), the last
+	 * counting any other code
+	 */
+	long[] getErrorsSentByCode();
+
+	/**
+	 * @return ERROR packets received from clients, indexed by error code (0 to 8), the
+	 * last counting any other code
+	 */
+	long[] getErrorsReceivedByCode();
+
+	/**
+	 * @return microseconds from sending a packet to the client answering it
+	 */
+	Histogram.Summary getRoundTripMicros();
+
+	/**
+	 * @return microseconds taken by each completed transfer
+	 */
+	Histogram.Summary getTransferLatencyMicros();
+
+	/**
+	 * @return bytes per second of each completed transfer
+	 */
+	Histogram.Summary getTransferThroughput();
+}
@@ -19,8 +19,8 @@ public class ServerQuitRunnable implements Runnable {
 
 	/**
 	 * function to execute when thread created.
-	 * waits for user input and checks if they want to quit.
-	 * (potential to expand to other commands)
+	 * waits for user input and checks if they want to quit or see the
+	 * state of the threads processing transfers.
 	 */
 	@Override
 	public void run() {
@@ -29,11 +29,15 @@ public class ServerQuitRunnable implements Runnable {
 		while(true){
 			String input = s.nextLine();
 
-			//if we want to quit, inform server and stop getting user input
+			/*if we want to quit, inform server and stop getting user input. returns once
+			 * the transfers in progress have finished or been cancelled*/
 			if(input.equalsIgnoreCase("quit")){
 				server.setQuitTime();
 				s.close();
 				break;
+			}else if(input.equalsIgnoreCase("status")){
+				//display the state of the threads processing transfers
+				System.out.println(server.getTransferStatus());
 			}
 		}
 	}
@@ -1,26 +1,39 @@
 package server;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import logging.Logger;
+import logging.PacketFormatter;
+import logging.TftpEvents;
+import protocol.BufferPool;
+import protocol.PacketDecoder;
+import protocol.PacketEncoder;
+import protocol.Tftp;
 
 /**
- * handles the processing of a single client request
+ * handles the processing of a single client request. while the transfer is in progress
+ * it is listed in the server's transfer table, from which it can be cancelled
  * 
  * @author Kevin Sun, Luke Newton, Joe Frederick Samuel, Ryan Ribeiro
  */
-public class ServerSpawnThread implements Runnable {
-	//the message to process and respond to
+public class ServerSpawnThread implements Runnable, ActiveTransfer {
+	//log for the server's messages
+	private static final Logger log = Logger.getLogger("server");
+	//registry the transfer's metrics are recorded in
+	private static final ServerMetrics metrics = ServerMetrics.get();
+	//the message to process and respond to, then the packets received from the client
 	private DatagramPacket receivePacket;
+	//slot of the server's request ring holding the request, until it has been read
+	private RequestRing.Slot requestSlot;
+	//what the request holds from the admission controller, given back once the transfer ends
+	private AdmissionController.Permit permit;
 	//socket to send a response to message
 	private DatagramSocket sendSocket;
 	//flags to indicate if received message is a read/write request
@@ -29,14 +42,34 @@ public class ServerSpawnThread implements Runnable {
 	private String fileName;
 	//mode acquired from packet
 	private String mode;
-	//reference to the server object to use as a lock
+	//number of bytes in a full DATA block, agreed with the client
+	private int blockSize;
+	//number of DATA blocks sent before waiting for an ACK, agreed with the client
+	private int windowSize;
+	//decides how long to wait for the client before retransmitting
+	private RetransmissionTimer timer;
+	//System.nanoTime() by which the client must answer the last packet sent before it is sent again
+	private long retransmitDeadline;
+	//the request being processed, with the options agreed with the client
+	private TransferRequest request;
+	//OACK to send the client before the transfer starts, or null if no options were accepted
+	private ByteBuffer optionAcknowledgement;
+	//buffer the DATA packets of a read are built in and the packet sending them, both reused for every block
+	private ByteBuffer dataBuffer;
+	private DatagramPacket dataPacket;
+	//buffer the ACK packets of a write are built in and the packet sending them, both reused for every ACK
+	private ByteBuffer ackBuffer;
+	private DatagramPacket ackPacket;
+	//buffer the packets from the client are received in once the transfer starts
+	private ByteBuffer responseBuffer;
+	//largest packet received from the client while sending it a file (an ACK, or an ERROR and its message)
+	private static final int MAX_RESPONSE_SIZE = 516;
+	//reference to the server that received the request
 	private Server server;
-	//Error flag indicating something went wrong and an ACK should not be sent
-	private boolean noErrors = true;
 	//Last block number received
 	private int lastBlockNum;
 	//Default path to read/write to/from
-	private final String DEFAULT_PATH = "SERVERDATA/";
+	static final String DEFAULT_PATH = "SERVERDATA/";
 
 	//port number of client to send response to
 	private int clientPort;
@@ -45,52 +78,41 @@ public class ServerSpawnThread implements Runnable {
 
 	//last packet sent
 	private DatagramPacket lastPacketSent;
+	//socket used to talk to the client during the transfer, closed to cancel it
+	private volatile DatagramSocket transferSocket;
+	//set once the transfer is cancelled, because the server is shutting down or on request
+	private volatile boolean cancelled;
+	//message sent to the client once the transfer is cancelled
+	private volatile String cancelReason;
+	//System.nanoTime() when the transfer started, or -1 until the request has been read
+	private long transferStart = -1;
+	//bytes of file data moved so far
+	private long bytesTransferred;
+	//set once the whole file has been moved
+	private boolean completed;
+	//number of DATA blocks acknowledged by the client (read) or received from it (write) so far
+	private int currentBlock;
+	//flight recorder event timing the transfer, null unless a recording records it
+	private Object transferEvent;
 
-	private static final String TFTP_SERVER_IP = "127.0.0.1";
-	private static final int MAX_PACKET_SIZE = 516;
-	//max block size as an int
-	private static final int MAX_BLOCK_SIZE = 512;
 	//Socket timeouts
 	private static final boolean TIMEOUTS_ON = true;
-	private static final int TIMEOUT_MILLISECONDS = 7000;
-	//TFTP OP code
-	private static final byte OP_RRQ = 1;
-	private static final byte OP_WRQ = 2;
-	private static final byte OP_DATA = 3;
-	private static final byte OP_ACK = 4;
-	private static final byte OP_ERROR = 5;
-	//Error codes
-	private static final byte FILE_NOT_FOUND = 1;
-	private static final byte ACCESS_VIOLATION_CODE = 2;
-	private static final byte DISK_FULL_CODE = 3;
-	private static final byte ILLEGAL_TFTP_OPERATION = 4;
-	private static final byte UNRECOGNIZED_TID = 5;
-	private static final byte FILE_ALREADY_EXISTS = 6;
-
-	private InetAddress serverInetAddress = null;
 	/**
 	 * Constructor
 	 * 
-	 * @param server reference to the Server that created this to use as lock
-	 * @param packet the message to process and respond to
+	 * @param server reference to the Server that received the request
+	 * @param request slot of the server's request ring holding the message to process
+	 * and respond to, given back once the message has been read
 	 */
-	public ServerSpawnThread(Server server, DatagramPacket packet){
-		receivePacket = new DatagramPacket(packet.getData(), packet.getLength(),
-				packet.getAddress(), packet.getPort());
+	public ServerSpawnThread(Server server, RequestRing.Slot request){
+		requestSlot = request;
+		permit = request.getPermit();
+		receivePacket = request.getPacket();
 		clientPort = receivePacket.getPort();
 		clientAddress = receivePacket.getAddress();
 		readRequest = false;
 		writeRequest = false;
 		this.server = server;
-
-		//TFTP
-		try {
-			serverInetAddress = InetAddress.getByName(TFTP_SERVER_IP);
-		} catch (UnknownHostException e) {
-			System.out.println("Failed to initalize TFTP Server IP");
-			e.printStackTrace();
-			System.exit(1);
-		}
 	}
 
 	/**
@@ -98,642 +120,908 @@ public class ServerSpawnThread implements Runnable {
 	 * handles parsing and responding to message.
 	 */
 	public void run(){
-		System.out.println("server message processing thread start.");
-		/*synchronize on a common object so we only process one message at a time.
-		 * primarily so the console prints ll info for a single message at once*/
-		synchronized(server){
+		log.debug("server message processing thread start.");
+		/*each transfer owns its own sockets and state, so transfers run in parallel.
+		 * only the files being transferred are coordinated through the server's lock table*/
+		try {
 			//print data received from client
-			System.out.println("\nServer: message from");
-			printPacketInfo(receivePacket);
-
-			server.pause();
+			PacketFormatter.trace(log, "Server: message from", receivePacket);
 
 			/*check if message is proper format*/
 			try {
 				parseMessage();
+				transferEvent = TftpEvents.TRANSFER.begin();
+				transferStart = System.nanoTime();
+				metrics.transferStarted();
+				server.getTransferTable().add(this);
+
+				//hold the request so a demo can be followed (no delay in the production profile)
+				server.pause();
+
 				if (readRequest) 
-					sendData(readFile(DEFAULT_PATH + fileName));
+					processReadRequest(DEFAULT_PATH + fileName);
 				else if (writeRequest) 
-					writeFile(DEFAULT_PATH + fileName, receiveFile());
+					processWriteRequest(DEFAULT_PATH + fileName);
 				else {
-					System.err.println("Error: Request is neither a write or a read.");
-					System.exit(1);
+					log.error("Error: Request is neither a write or a read.");
 				}
 			} catch (InvalidMessageFormatException e) {
-				System.out.println("InvalidMessageFormatException: a message received was of an invalid format");
-				e.printStackTrace();
-				System.out.println("Invalid message Contents:");
-				printPacketInfo(receivePacket);
-
+				log.error("InvalidMessageFormatException: a message received was of an invalid format", e);
 			}
+		} finally {
+			if (transferStart >= 0) {
+				server.getTransferTable().remove(this);
+				metrics.transferFinished(System.nanoTime() - transferStart, bytesTransferred, completed);
+				if (transferEvent != null)
+					TftpEvents.TRANSFER.commit(transferEvent, "server", TftpEvents.describe(getClientAddress()),
+							getFilePath(), readRequest ? "read" : "write", bytesTransferred, completed);
+			}
+			releaseRequest();
+			releaseBuffers();
+			server.getAdmission().release(permit);
 			server.messageProcessed();
 		}
-		System.out.println("server message processing thread finished.");
+		log.debug("server message processing thread finished.");
+	}
+
+	/**
+	 * sends a file to the client, sharing the file with any other transfers reading it
+	 * 
+	 * @param filePath path of the file to send
+	 */
+	private void processReadRequest(String filePath) {
+		FileLockTable fileLocks = server.getFileLocks();
+		if (!fileLocks.tryLockRead(filePath)) {
+			log.error("Error: File is being written by another transfer.");
+			try {
+				createAndSendErrorPacket(Tftp.ACCESS_VIOLATION, "File is being written, try again later.");
+			} catch (IOException e) {
+				log.error("Failed creating/sending error packet", e);
+			}
+			return;
+		}
+		FileBlockReader file = null;
+		try {
+			file = openFile(filePath);
+			if (file != null) {
+				request.setTransferSize(file.size());
+				optionAcknowledgement = request.createOptionAcknowledgement();
+				sendData(file);
+			}
+		} finally {
+			fileLocks.unlockRead(filePath);
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					log.error("Failed to close file", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * receives a file from the client, ensuring no other transfer uses the file meanwhile
+	 * 
+	 * @param filePath path of the file to write
+	 */
+	private void processWriteRequest(String filePath) {
+		FileLockTable fileLocks = server.getFileLocks();
+		if (!fileLocks.tryLockWrite(filePath)) {
+			log.error("Error: File is in use by another transfer.");
+			try {
+				createAndSendErrorPacket(Tftp.FILE_ALREADY_EXISTS, "File Already Exists.");
+			} catch (IOException e) {
+				log.error("Failed creating/sending error packet", e);
+			}
+			return;
+		}
+		FileBlockWriter file = null;
+		DatagramSocket sendReceiveSocket = null;
+		try {
+			file = createFile(filePath);
+			if (file == null || !reserveSpace(file))
+				return;
+			optionAcknowledgement = request.createOptionAcknowledgement();
+
+			sendReceiveSocket = openTransferSocket();
+			if (receiveFile(file, sendReceiveSocket))
+				writeFile(file, sendReceiveSocket);
+		} catch (SocketException e) {
+			log.error("Failed to create server socket", e);
+		} finally {
+			fileLocks.unlockWrite(filePath);
+			if (sendReceiveSocket != null)
+				sendReceiveSocket.close();
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					log.error("Failed to remove unfinished file", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * called instead of run() when the server has no capacity left to process this
+	 * request. informs the client that the server is busy.
+	 */
+	public void reject(){
+		reject(Server.BUSY_MESSAGE);
+	}
+
+	/**
+	 * called instead of run() when this request will not be processed. informs the
+	 * client why.
+	 * 
+	 * @param reason the message sent to the client
+	 */
+	public void reject(String reason){
+		log.warn("Refusing request from " + clientAddress + ":" + clientPort + ": " + reason);
+		try {
+			createAndSendErrorPacket(Tftp.NOT_DEFINED, reason);
+		} catch (IOException e) {
+			log.error("Failed creating/sending error packet", e);
+		}
+		releaseRequest();
+		server.getAdmission().release(permit);
+		server.messageProcessed();
+	}
+
+	/**
+	 * cancel the transfer because the server is shutting down. safe to call from any thread
+	 */
+	public void cancel(){
+		cancel(Server.SHUTDOWN_MESSAGE);
+	}
+
+	/**
+	 * cancel the transfer. the socket used to talk to the client is closed, so the
+	 * thread processing the transfer stops waiting on it, informs the client and
+	 * releases the file. safe to call from any thread
+	 * 
+	 * @param reason the message sent to the client
+	 */
+	@Override
+	public void cancel(String reason){
+		//set before the flag, so the thread seeing the flag sends this message
+		cancelReason = reason;
+		cancelled = true;
+		DatagramSocket socket = transferSocket;
+		if (socket != null)
+			socket.close();
+	}
+
+	@Override
+	public InetSocketAddress getClientAddress() {
+		return new InetSocketAddress(clientAddress, clientPort);
+	}
+
+	@Override
+	public int getServerPort() {
+		DatagramSocket socket = transferSocket;
+		return socket == null ? -1 : socket.getLocalPort();
+	}
+
+	@Override
+	public String getFilePath() {
+		return DEFAULT_PATH + fileName;
+	}
+
+	@Override
+	public boolean isReadRequest() {
+		return readRequest;
+	}
+
+	@Override
+	public int getBlockNumber() {
+		return currentBlock;
+	}
+
+	@Override
+	public long getBytesTransferred() {
+		return bytesTransferred;
+	}
+
+	@Override
+	public long getElapsedNanos() {
+		return System.nanoTime() - transferStart;
+	}
+
+	@Override
+	public int getTimeoutMillis() {
+		return timer.getTimeoutMillis();
+	}
+
+	/**
+	 * create the socket used to talk to the client during the transfer
+	 * 
+	 * @return the socket, already closed if the transfer has been cancelled
+	 * @throws SocketException indicates the socket could not be created
+	 */
+	private DatagramSocket openTransferSocket() throws SocketException {
+		DatagramSocket socket = new DatagramSocket();
+		transferSocket = socket;
+		//set before checking, so cancel either finds the socket or it is seen here
+		if (cancelled)
+			socket.close();
+		return socket;
+	}
+
+	/**
+	 * informs the client the transfer was cancelled, and why
+	 */
+	private void cancelTransfer() {
+		log.warn("Cancelling transfer of " + fileName + " with " + clientAddress + ":" + clientPort + ": " + cancelReason);
+		try {
+			createAndSendErrorPacket(Tftp.NOT_DEFINED, cancelReason);
+		} catch (IOException e) {
+			log.error("Failed creating/sending error packet", e);
+		}
 	}
 
 	/**
-	 * Reads the contents of the file and stores it as an array of bytes. If the requested file is not found,
+	 * Opens the file to be read so it can be sent block by block. If the requested file is not found,
 	 * print error message and send error packet
 	 *
 	 * @param filename the name of the file to be read
-	 * @return contents of the file read in
+	 * @return the opened file, or null if it could not be opened
 	 * @author Joe Frederick Samuel, Ryan Ribeiro, Luke Newton, Kevin Sun
 	 */
-	private byte[] readFile(String filename) {
+	private FileBlockReader openFile(String filename) {
 		Path path = Paths.get(filename);
-		System.out.println("Reading file named " + fileName);
+		log.info("Reading file named " + fileName);
 
 		try {
-			byte[] fileData = Files.readAllBytes(path);
-			return fileData;
+			return new FileBlockReader(path, blockSize, server.getBlockCache());
 		} catch (IOException e) {
 			//sends error packet to client
-			System.err.println("Failed to read file at specified path");
+			log.error("Failed to read file at specified path");
 			try {
-				createAndSendErrorPacket(FILE_NOT_FOUND, "Failed to read file - File not found.");
+				createAndSendErrorPacket(Tftp.FILE_NOT_FOUND, "Failed to read file - File not found.");
 			} catch (IOException er) {
-				System.err.println("Failed creating/sending error packet");
-				er.printStackTrace();
+				log.error("Failed creating/sending error packet", er);
 			}
 			return null;
 		} catch (SecurityException se) {
-			System.out.println("Access violation while trying to read file from server.");
+			log.error("Access violation while trying to read file from server.");
 			try {
-				createAndSendErrorPacket(ACCESS_VIOLATION_CODE, "Failed access file - Access Violation.");
+				createAndSendErrorPacket(Tftp.ACCESS_VIOLATION, "Failed access file - Access Violation.");
 			} catch (IOException er) {
-				System.err.println("Failed creating/sending error packet");
-				er.printStackTrace();
+				log.error("Failed creating/sending error packet", er);
 			}
 			return null;
 		}
 	}
+
 	/**
 	 * Sends the contents of a file during a RRQ to the client through error sim.
+	 * Blocks are read from the file as they are sent, so the file is never held in memory.
+	 * Up to a window of blocks are sent before waiting for an ACK (RFC 7440); the client
+	 * acknowledges the last block it received in order, and sending resumes from the
+	 * block after it.
 	 * 
-	 * @param fileContents the file data to send
+	 * @param file the file to send
 	 * @author Joe Frederick Samuel, Ryan Ribeiro, Luke Newton
 	 */
-	private void sendData(byte[] fileContents) {
-		//split file text into chunks for transfer
-		byte[][] fileData = splitByteArray(fileContents);
+	private void sendData(FileBlockReader file) {
+		dataBuffer = BufferPool.heap().acquire(blockSize + Tftp.HEADER_LENGTH);
+		dataPacket = new DatagramPacket(dataBuffer.array(), dataBuffer.limit(), clientAddress, clientPort);
+		//the packets received from the client (ACKs, or an ERROR with its message)
+		responseBuffer = BufferPool.heap().acquire(MAX_RESPONSE_SIZE);
+		receivePacket = new DatagramPacket(responseBuffer.array(), MAX_RESPONSE_SIZE);
+		ByteBuffer received = responseBuffer;
 
 		//create socket to transfer file
 		DatagramSocket sendReceiveSocket = null;
 		try {
-			sendReceiveSocket = new DatagramSocket();
-			if (TIMEOUTS_ON)
-				sendReceiveSocket.setSoTimeout(TIMEOUT_MILLISECONDS);
+			sendReceiveSocket = openTransferSocket();
 		} catch (SocketException e) {
-			System.err.println("Server error while creating socket to transfer data");
-			e.printStackTrace();
-			System.exit(1);
+			log.error("Server error while creating socket to transfer data", e);
+			return;
 		}
 
 		/*transfer file to client*/
-		DatagramPacket response;
-		int blockNumber = 0;
-		byte[] serverResponseData, ACKData;
-		DatagramPacket ACKDatagram;
-		boolean keepReceiving;
-		do {
-			/*create response data*/
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		//state of the window of blocks in flight
+		BlockWindow window = new BlockWindow();
+		//set until the client acknowledges the OACK (as block 0)
+		boolean awaitingOptionAcknowledgement = optionAcknowledgement != null;
+		try {
+			if (awaitingOptionAcknowledgement)
+				sendOptionAcknowledgement(sendReceiveSocket);
+			else
+				sendWindow(file, window, sendReceiveSocket);
 
-			//check TID
-			if(receivePacket.getPort() != clientPort || receivePacket.getAddress() != clientAddress){
-				System.err.println("unrecognized TID: " + receivePacket.getPort());
-				//unexpected TID
-				outputStream.write(0);
-				outputStream.write(OP_ERROR);
-				outputStream.write(0);
-				outputStream.write(UNRECOGNIZED_TID);
+			while (!timer.isPastDeadline()) {
+				//get ACK packet
 				try {
-					outputStream.write("unrecognized TID".getBytes());
-				} catch (IOException e) {
-					System.err.println("IO exception while sending unexpected TID ERROR");
-					e.printStackTrace();
-					System.exit(1);
-				}
-				outputStream.write(0);
-
-				serverResponseData = outputStream.toByteArray();
-				response = new DatagramPacket(serverResponseData, serverResponseData.length, 
-						receivePacket.getAddress(), receivePacket.getPort());
-			}else{
-				//update block number
-				blockNumber++;
-				byte[] blockNumberArray = intToByteArray(blockNumber);
-
-				//normal operation
-				outputStream.write(0);
-				outputStream.write(OP_DATA);
-				outputStream.write(blockNumberArray[2]);
-				outputStream.write(blockNumberArray[3]);
-				for (int i = 0; i < fileData[blockNumber-1].length; i++){
-					outputStream.write(fileData[blockNumber-1][i]);
+					log.trace("Server: waiting for acknowledge");
+					receive(receivePacket, sendReceiveSocket);
+				} catch (SocketTimeoutException te) {
+					//resend every block not yet acknowledged, waiting twice as long for them
+					if (!timer.timedOut())//We've given up trying to receive, abandon the transfer
+						break;
+					log.warn("Timed out. Resending unacknowledged packets.");
+					resend(file, window, awaitingOptionAcknowledgement, sendReceiveSocket);
+					continue;
 				}
 
-				serverResponseData = outputStream.toByteArray();
-				//create data datagram
-				response = new DatagramPacket(serverResponseData, serverResponseData.length, 
-						clientAddress, clientPort);
-			}
-			//print information in message to send
-			System.out.println("Server: sending packet");
-			printPacketInfo(response);
-
-			//send datagram
-			try {
-				sendReceiveSocket.send(response);
-
-			} catch (IOException e) {
-				System.err.println("Server error while sending data packet to client");
-				e.printStackTrace();
-				System.exit(1);
-			}
-			if(receivePacket.getPort() == clientPort && receivePacket.getAddress() == clientAddress)
-				lastPacketSent = response;
-
-			int numTimeouts = 0;
-			do { //keep receiving if the packet was not the one expected. NOTE: Packet last received is thrown out if unexpected.
-				do { //keep receiving if no packet is given and socket times out.
-					keepReceiving = true;
-					//get ACK packet
-					try {
-						System.out.println("Server: waiting for acknowledge");
-
-						sendReceiveSocket.receive(receivePacket);
-						keepReceiving = false;
-
-					} catch (SocketTimeoutException te) {
-						//resend last packet
-						numTimeouts += 1;
-						System.err.println("Timed out. Resending last packet.");
-						printPacketInfo(lastPacketSent);
-						try {
-							sendReceiveSocket.send(lastPacketSent);
-						} catch (IOException e) {
-							System.err.println("Server error while sending data packet to client");
-							e.printStackTrace();
-						}
-					} catch (IOException e) {
-						System.err.println("Server error while waiting for acknowledge");
-						e.printStackTrace();
-						System.exit(1);
-					}
-				} while (keepReceiving && numTimeouts < 3);
-
-				if (numTimeouts >= 3) {//We've given up trying to receive, exit this loop
-					System.err.println("Timed out indefinitely. Total time waited: " + (TIMEOUT_MILLISECONDS * 3)/1000 + " seconds");
-					break;
-				}
-
-				//extract ACK data
-				ACKDatagram = receivePacket;
-				ACKData = ACKDatagram.getData();
-				int receivedBlockNumber = extractBlockNumber(ACKData);
-
 				//print information in message received
-				System.out.println("Server: received packet");
-				printPacketInfo(ACKDatagram);
+				PacketFormatter.trace(log, "Server: received packet", receivePacket);
+				received.limit(receivePacket.getLength());
+
+				//check TID
+				if(receivePacket.getPort() != clientPort || !receivePacket.getAddress().equals(clientAddress)){
+					log.warn("unrecognized TID: " + receivePacket.getPort());
+					sendUnrecognizedTIDError(receivePacket, sendReceiveSocket);
+					continue;
+				}
 
 				//check for illegal operation
-				byte opcode = ACKDatagram.getData()[1];
-				if(!(opcode == OP_RRQ || opcode == OP_WRQ || opcode == OP_ACK 
-						|| opcode == OP_DATA || opcode == OP_ERROR)){
-					try {
-						System.err.println("Error: Illegal TFTP Operation (op code not recognized)");
-						createAndSendErrorPacket(ILLEGAL_TFTP_OPERATION, "Op code not recognized");
-						sendReceiveSocket.close();
-						return;
-					} catch (IOException e) {
-						System.err.println("IO error while sending ERROR packet");
-						e.printStackTrace();
-						System.exit(1);
-					}
+				byte opcode = PacketDecoder.getOpcode(received);
+				if(!(opcode == Tftp.OP_RRQ || opcode == Tftp.OP_WRQ || opcode == Tftp.OP_ACK 
+						|| opcode == Tftp.OP_DATA || opcode == Tftp.OP_ERROR)){
+					log.error("Error: Illegal TFTP Operation (op code not recognized)");
+					createAndSendErrorPacket(Tftp.ILLEGAL_TFTP_OPERATION, "Op code not recognized");
+					return;
 				}
 
-				if(opcode == OP_ERROR){
-					System.err.println("Error during file read:");
-					printPacketInfo(receivePacket);
-					System.err.println("File read from server failed");
+				if(opcode == Tftp.OP_ERROR){
+					metrics.errorReceived(PacketDecoder.getErrorCode(received));
+					log.error("Error during file read: error code " + PacketDecoder.getErrorCode(received)
+							+ ": " + PacketDecoder.getErrorMessage(received));
+					PacketFormatter.trace(log, null, receivePacket);
+					log.error("File read from server failed");
 					return;
 				}
 
-				//ensure we got an ACK response
-				if (ACKDatagram.getData()[1] != OP_ACK || receivedBlockNumber != blockNumber) {
-					System.err.println("Error: packet not expected. Resending last packet sent.");
-					printPacketInfo(lastPacketSent);
-					try {
-						sendReceiveSocket.send(lastPacketSent);
-					} catch (IOException e) {
-						System.err.println("Server error while sending data packet to client");
-						e.printStackTrace();
-					}
-					keepReceiving = true;
+				int receivedBlockNumber = PacketDecoder.getBlockNumber(received);
+				if(opcode == Tftp.OP_ACK && awaitingOptionAcknowledgement && receivedBlockNumber == 0){
+					//OACK acknowledged, start sending DATA
+					awaitingOptionAcknowledgement = false;
+					timer.acknowledged();
+					sendWindow(file, window, sendReceiveSocket);
+					continue;
 				}
-			} while(keepReceiving);
-
-			//Exit when the final ACK is received. If we reach here, the received ACK has been dealt with.
-			// Just check that last packet has been sent.
-		} while(lastPacketSent.getLength() == MAX_PACKET_SIZE);
-		sendReceiveSocket.close();
-	}
 
-	/**
-	 * extract a block number from an ACK packet
-	 * 
-	 * @author Luke Newton
-	 * @param ACKData the data the ACK packet contains
-	 * @return the block number of the ACK packet
-	 */
-	private int extractBlockNumber(byte[] ACKData) {
-		return ByteBuffer.wrap(new byte[]{0, 0, ACKData[2], ACKData[3]}).getInt();
+				//ensure we got an ACK for a block in flight (block numbers wrap around after 65535)
+				if (opcode != Tftp.OP_ACK || awaitingOptionAcknowledgement || !window.acknowledge(receivedBlockNumber)) {
+					if (opcode == Tftp.OP_ACK && !awaitingOptionAcknowledgement && window.isResendRequest(receivedBlockNumber, windowSize)) {
+						log.warn("Client is missing blocks. Resending unacknowledged packets.");
+						sendWindow(file, window, sendReceiveSocket);
+					} else
+						log.warn("Error: packet not expected. Ignoring it.");
+					continue;
+				}
+				timer.acknowledged();
+				currentBlock = window.getAcknowledged();
+
+				//Exit when the final ACK is received
+				if (window.isComplete()) {
+					log.info("Server: file sent in " + window.getBlocksSent() + " DATA packets ("
+							+ window.getBlocksResent() + " resent), " + window.getDuplicateAcknowledgements() + " duplicate ACKs received");
+					completed = true;
+					return;
+				}
+				sendWindow(file, window, sendReceiveSocket);
+			}
+			abandonTransfer();
+		} catch (IOException e) {
+			if (cancelled) {
+				cancelTransfer();
+				return;
+			}
+			log.error("Server error while sending data to client", e);
+			try {
+				createAndSendErrorPacket(Tftp.ACCESS_VIOLATION, "Failed to read file.");
+			} catch (IOException er) {
+				log.error("Failed creating/sending error packet", er);
+			}
+		} finally {
+			sendReceiveSocket.close();
+		}
 	}
 
 	/**
-	 * converts and integer into a byte array
+	 * resends whatever the client has not acknowledged: the OACK if DATA has not started,
+	 * otherwise every block sent since the last one acknowledged
 	 * 
-	 * @author Luke Newton
-	 * @param blockNumber the integer to convert to a byte array
-	 * @return the passed integer as a byte array
+	 * @param file the file being sent
+	 * @param window state of the window of blocks in flight
+	 * @param awaitingOptionAcknowledgement true if the OACK has not been acknowledged
+	 * @param sendReceiveSocket socket used to talk to the client
+	 * @throws IOException indicates an I/O error occurred while reading the file or sending
 	 */
-	private byte[] intToByteArray(int blockNumber) {
-		return ByteBuffer.allocate(Integer.BYTES).putInt(blockNumber).array();
+	private void resend(FileBlockReader file, BlockWindow window, boolean awaitingOptionAcknowledgement,
+			DatagramSocket sendReceiveSocket) throws IOException {
+		if (awaitingOptionAcknowledgement) {
+			PacketFormatter.trace(log, null, lastPacketSent);
+			timer.resent();
+			sendReceiveSocket.send(lastPacketSent);
+			packetSent();
+		} else {
+			window.rewind();
+			sendWindow(file, window, sendReceiveSocket);
+		}
 	}
 
 	/**
-	 * segments data into proper sized chunks to send in packets
+	 * sends the blocks following the last one sent, until a window of blocks is
+	 * unacknowledged or the final block has been sent
 	 * 
-	 * @param data the data to segment
-	 * @return an array containing byte arrays of a max length 512
+	 * @param file the file being sent
+	 * @param window state of the window of blocks in flight
+	 * @param sendReceiveSocket socket used to talk to the client
+	 * @throws IOException indicates an I/O error occurred while reading the file or sending
 	 */
-	private byte[][] splitByteArray(byte[] data){
-		//the length of the data to segment
-		int dataLength = data.length;
-		//array to hold the segmented data
-		byte[][] result = new byte[(dataLength + MAX_BLOCK_SIZE - 1)/MAX_BLOCK_SIZE + 1][];
-		int resultIndex = 0;
-		int stopIndex = 0;
+	private void sendWindow(FileBlockReader file, BlockWindow window, DatagramSocket sendReceiveSocket) throws IOException {
+		while (window.canSend(windowSize)) {
+			//no round trip is measured for a block sent again, the ACK may be for either copy
+			boolean resending = window.isResending();
+			if (resending)
+				timer.resent();
+			int blockNumber = window.nextBlock();
+			int dataLength = file.readBlock(blockNumber, dataBuffer.array(), Tftp.HEADER_LENGTH);
+			dataBuffer.clear();
+			PacketEncoder.putDataHeader(dataBuffer, blockNumber);
+			window.sent(dataLength < blockSize);
+			if (!resending) {
+				metrics.dataSent(dataLength);
+				bytesTransferred += dataLength;
+			}
 
-		for (int i = 0; i + MAX_BLOCK_SIZE <= dataLength; i += MAX_BLOCK_SIZE){
-			stopIndex += MAX_BLOCK_SIZE;
-			result[resultIndex] = Arrays.copyOfRange(data, i, stopIndex);
-			resultIndex++;
+			dataPacket.setLength(dataLength + Tftp.HEADER_LENGTH);
+			//print information in message to send
+			PacketFormatter.trace(log, "Server: sending packet", dataPacket);
+			sendReceiveSocket.send(dataPacket);
+			packetSent();
 		}
-
-		//add the last segment
-		if (stopIndex < dataLength)
-			result[resultIndex] = Arrays.copyOfRange(data, stopIndex, dataLength);
-
-		resultIndex++;
-		//ensure that we always have a not full segment to send at the end (to stop data transfer)
-		result[resultIndex] = new byte[]{0};
-
-		return result;
 	}
 
 	/**
-	 * Writes data to file
+	 * Creates the file to write a WRQ's data to. The data is written to a temporary file until
+	 * the transfer is complete. If the file already exists or cannot be created, print error 
+	 * message and send error packet
 	 * 
 	 * @param fileName name of the new file to write to
+	 * @return the file to write to, or null if it could not be created
 	 * @author Joe Frederick Samuel, Luke Newton, CRushton
 	 */
-	private void writeFile(String fileName, byte[] fileContents) {
-		if(fileContents == null)
-			return;
-
+	private FileBlockWriter createFile(String fileName) {
 		//Check for file already exists
 		File file = new File(fileName);
 		if (file.exists() && file.isFile()) {
-			System.err.println("Error: File Already exists.");
+			log.error("Error: File Already exists.");
 			try {
-				createAndSendErrorPacket(FILE_ALREADY_EXISTS, "File Already Exists.");
+				createAndSendErrorPacket(Tftp.FILE_ALREADY_EXISTS, "File Already Exists.");
 			} catch (IOException e) {
-				System.err.println("Failed creating/sending error packet");
-				e.printStackTrace();
+				log.error("Failed creating/sending error packet", e);
 			}
-		} else {
-			try {
-				FileOutputStream fileWriter = new FileOutputStream(fileName); //fileName also includes path. Default path is project folder (may differ from machine to machine)
-				fileWriter.write(fileContents);
-				fileWriter.close();
+			return null;
+		}
 
-			} catch (IOException e) {
-				System.err.println("Failed to write the file.");
-				if (e.getMessage().equals("There is not enough space on the disk")) { //create and send error code 3 packet
-					try {
-						createAndSendErrorPacket(DISK_FULL_CODE, "Failed to write file - disk full.");
-					} catch (IOException er) {
-						System.err.println("Failed creating/sending error packet");
-						er.printStackTrace();
-					}
-				}
-				e.printStackTrace();
+		try {
+			return new FileBlockWriter(file.toPath()); //fileName also includes path. Default path is project folder (may differ from machine to machine)
+		} catch (IOException e) {
+			log.error("Failed to create the file.", e);
+			reportWriteFailure(e);
+		} catch (SecurityException se) {
+			log.error("Access violation while trying to write file to server.");
+			try {
+				createAndSendErrorPacket(Tftp.ACCESS_VIOLATION, "Failed access file - Access Violation.");
+			} catch (IOException er) {
+				log.error("Failed creating/sending error packet", er);
+			}
+		}
+		return null;
+	}
 
-			} catch (SecurityException se) {
-				System.err.println("Access violation while trying to read file from server.");
-				try {
-					createAndSendErrorPacket(ACCESS_VIOLATION_CODE, "Failed access file - Access Violation.");
-				} catch (IOException er) {
-					System.err.println("Failed creating/sending error packet");
-					er.printStackTrace();
-				}
+	/**
+	 * Finishes writing a file once every block has been received, then sends the final ACK
+	 * 
+	 * @param file the file the received data was written to
+	 * @param sendReceiveSocket socket used to talk to the client
+	 * @author Joe Frederick Samuel, Luke Newton, CRushton
+	 */
+	private void writeFile(FileBlockWriter file, DatagramSocket sendReceiveSocket) {
+		try {
+			file.commit();
+		} catch (FileAlreadyExistsException e) {
+			log.error("Error: File Already exists.");
+			try {
+				createAndSendErrorPacket(Tftp.FILE_ALREADY_EXISTS, "File Already Exists.");
+			} catch (IOException er) {
+				log.error("Failed creating/sending error packet", er);
 			}
+			return;
+		} catch (IOException e) {
+			log.error("Failed to write the file.", e);
+			reportWriteFailure(e);
+			return;
+		} catch (SecurityException se) {
+			log.error("Access violation while trying to write file to server.");
+			try {
+				createAndSendErrorPacket(Tftp.ACCESS_VIOLATION, "Failed access file - Access Violation.");
+			} catch (IOException er) {
+				log.error("Failed creating/sending error packet", er);
+			}
+			return;
 		}
 		//writing file is successful, send ACK
-		if (noErrors)
-			acknowledge(intToByteArray(lastBlockNum), sendSocket);
+		completed = true;
+		acknowledge(lastBlockNum, sendReceiveSocket);
 	}
 
 	/**
-	 * retrieve a file from the server in multple chunks and put blocks together
+	 * sets aside room for the whole file if the client gave its size (RFC 2349), so a
+	 * file too large for the disk is refused before any of it is sent
 	 * 
-	 * currently assumes that chunks of message appear in correct order!
+	 * @param file the file to write the received data to
+	 * @return false if the transfer was refused
+	 */
+	private boolean reserveSpace(FileBlockWriter file) {
+		if (request.getTransferSize() < 0)
+			return true;
+		try {
+			file.reserve(request.getTransferSize());
+			return true;
+		} catch (IOException e) {
+			log.error("Failed to reserve space for the file: " + e.getMessage());
+			reportWriteFailure(e);
+			return false;
+		}
+	}
+
+	/**
+	 * informs the client that the file could not be written
+	 * 
+	 * @param e the exception thrown while writing the file
+	 */
+	private void reportWriteFailure(IOException e) {
+		try {
+			if (e instanceof DiskFullException) //create and send error code 3 packet
+				createAndSendErrorPacket(Tftp.DISK_FULL, "Failed to write file - disk full.");
+			else
+				createAndSendErrorPacket(Tftp.ACCESS_VIOLATION, "Failed to write file.");
+		} catch (IOException er) {
+			log.error("Failed creating/sending error packet", er);
+		}
+	}
+
+	/**
+	 * retrieve a file from the client in multiple chunks, writing each block to the file as it
+	 * arrives. a window of blocks is acknowledged at once (RFC 7440), and the final block
+	 * is not acknowledged until the file has been written.
 	 * 
 	 * @author Joe Frederick Samuel, Luke Newton
-	 * @return the file retrieved from the server as a byte array
+	 * @param file the file to write the received blocks to
+	 * @param sendReceiveSocket socket used to talk to the client
+	 * @return true if the final block of the file was received
 	 */
-	private byte[] receiveFile(){
-		//store the packets received from the server
-		DatagramPacket response = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE,
-				clientAddress, clientPort);
-		//the size of the message received from the server
+	private boolean receiveFile(FileBlockWriter file, DatagramSocket sendReceiveSocket){
+		//store the packets received from the client
+		responseBuffer = BufferPool.heap().acquire(blockSize + Tftp.HEADER_LENGTH);
+		DatagramPacket response = new DatagramPacket(responseBuffer.array(), blockSize + Tftp.HEADER_LENGTH);
+		//view of the packets received, for reading their fields
+		ByteBuffer received = responseBuffer;
+		//the size of the message received from the client
 		int messageSize;
-		//current block number of DATA
+		//number of the last DATA block written to the file
 		int blockNumber = 0;
+		//number of the last DATA block acknowledged
+		int lastAcknowledged = 0;
 		//the data contained in the response datagram
-		byte[] serverResponseData;
-		//buffer to store what has been received so far
-		List<Byte> responseBuffer = new ArrayList<>();
-
-		DatagramSocket sendReceiveSocket = null;
-		try {
-			sendReceiveSocket = new DatagramSocket();
-			if (TIMEOUTS_ON)
-				sendReceiveSocket.setSoTimeout(TIMEOUT_MILLISECONDS);
-		} catch (SocketException e) {
-			System.err.println("Failed to create server socket");
-			e.printStackTrace();
-			System.exit(1);
-		}
+		byte[] clientResponseData;
 		boolean keepReceiving;
-		int numTimeouts = 0;
-		do {
-			//check TID
-			if(response.getPort() != clientPort || response.getAddress() != clientAddress){
-				System.err.println("unrecognized TID: " + response.getPort());
-				//unexpected TID
-				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-				outputStream.write(0);
-				outputStream.write(OP_ERROR);
-				outputStream.write(0);
-				outputStream.write(UNRECOGNIZED_TID);
+
+		//acknowledge the WRQ, with an OACK if options were accepted
+		if (optionAcknowledgement != null)
+			sendOptionAcknowledgement(sendReceiveSocket);
+		else
+			acknowledge(blockNumber, sendReceiveSocket);
+		while (true) {
+			if (timer.isPastDeadline()) {
+				abandonTransfer();
+				return false;
+			}
+			do { //send last packet & keep receiving if timeout happens
+				keepReceiving = true;
+				//receive client message
 				try {
-					outputStream.write("unrecognized TID".getBytes());
+					receive(response, sendReceiveSocket);
+					keepReceiving = false;
+				} catch (SocketTimeoutException te) {
+					//acknowledge what has been received so far, waiting twice as long for an answer
+					if (!timer.timedOut()) {
+						abandonTransfer();
+						return false;
+					}
+					lastAcknowledged = reacknowledge(blockNumber, lastAcknowledged, sendReceiveSocket);
 				} catch (IOException e) {
-					System.err.println("IO exception while sending unexpected TID ERROR");
-					e.printStackTrace();
-					System.exit(1);
+					if (cancelled)
+						cancelTransfer();
+					else
+						log.error("I/O Exception while receiving message", e);
+					return false;
 				}
-				outputStream.write(0);
+			} while (keepReceiving);
+			//print information in message received
+			PacketFormatter.trace(log, "Server: received packet", response);
+
+			//get size of the message
+			messageSize = response.getLength();
+			//get response datagram data
+			clientResponseData = response.getData();
+			received.limit(messageSize);
 
-				DatagramPacket responseToUnexpectedTID = new DatagramPacket(outputStream.toByteArray(), 
-						outputStream.toByteArray().length, response.getAddress(), response.getPort());
+			//check TID
+			if(response.getPort() != clientPort || !response.getAddress().equals(clientAddress)){
+				log.warn("unrecognized TID: " + response.getPort());
+				sendUnrecognizedTIDError(response, sendReceiveSocket);
+				continue;
+			}
 
+			//check for illegal operation
+			byte opcode = PacketDecoder.getOpcode(received);
+			if(!(opcode == Tftp.OP_RRQ || opcode == Tftp.OP_WRQ || opcode == Tftp.OP_ACK 
+					|| opcode == Tftp.OP_DATA || opcode == Tftp.OP_ERROR)){
 				try {
-					sendReceiveSocket.send(responseToUnexpectedTID);
-					System.out.println("Sent message to:");
-					printPacketInfo(responseToUnexpectedTID);
+					log.error("Error: Illegal TFTP Operation (op code not recognized)");
+					createAndSendErrorPacket(Tftp.ILLEGAL_TFTP_OPERATION, "Op code not recognized");
 				} catch (IOException e) {
-					System.err.println("Server error while sending unknown TID ERROR");
-					e.printStackTrace();
-					System.exit(1);
+					log.error("IO error while sending ERROR packet", e);
 				}
-			}  
-			//normal operation
-			//Send acknowledgement to client. It should be determined after writing the file successfully whether an ACK should be sent or an error
-			else if (noErrors && !(response.getLength() < MAX_PACKET_SIZE))
-				acknowledge(intToByteArray(blockNumber), sendReceiveSocket);
-
-			if (response.getLength() < MAX_PACKET_SIZE) {
-				lastBlockNum = blockNumber;
-				break;
+				return false;
 			}
-			do { //keep receiving if unexpected packet was received. Note: last packet received is thrown out
-				do { //send last packet & keep receiving if timeout happens
-					keepReceiving = true;
-					//receive client message
-					try {
-						sendReceiveSocket.receive(response);
-						keepReceiving = false;
-					} catch (SocketTimeoutException te) {
-						//resend last message
-						numTimeouts += 1;
-						try {
-							sendReceiveSocket.send(lastPacketSent);
-						} catch (IOException e) {
-							System.err.println("I/O Exception while resending message");
-							e.printStackTrace();
-						}
-					} catch (IOException e) {
-						System.err.println("I/O Exception while receiving message");
-						e.printStackTrace();
-						System.exit(1);
-					}
-				} while (keepReceiving && numTimeouts < 3);
-				//print information in message received
-				System.out.println("Server: received packet");
-				printPacketInfo(response);
-
-				//get size of the message
-				messageSize = response.getLength();
-				//get response datagram data
-				serverResponseData = response.getData();
 
-				//check for illegal operation
-				byte opcode = response.getData()[1];
-				if(!(opcode == OP_RRQ || opcode == OP_WRQ || opcode == OP_ACK 
-						|| opcode == OP_DATA || opcode == OP_ERROR)){
-					try {
-						System.err.println("Error: Illegal TFTP Operation (op code not recognized)");
-						createAndSendErrorPacket(ILLEGAL_TFTP_OPERATION, "Op code not recognized");
-						sendReceiveSocket.close();
-						return null;
-					} catch (IOException e) {
-						System.err.println("IO error while sending ERROR packet");
-						e.printStackTrace();
-						System.exit(1);
-					}
-				}
+			//check for error packet
+			if(opcode == Tftp.OP_ERROR){
+				metrics.errorReceived(PacketDecoder.getErrorCode(received));
+				log.error("Error during file write to server: error code " + PacketDecoder.getErrorCode(received)
+						+ ": " + PacketDecoder.getErrorMessage(received));
+				PacketFormatter.trace(log, null, response);
+				return false;
+			}
 
-				//check for error packet
-				if(serverResponseData[1] == OP_ERROR){
-					System.err.println("Error during file write to server:");
-					printPacketInfo(response);
-					sendReceiveSocket.close();
-					return null;
-				}
+			//if we did not get a DATA packet, keep receiving
+			if (opcode != Tftp.OP_DATA) {
+				log.warn("Error during file write: unexpected packet format.");
+				continue;
+			}
 
-				//if we did not get a DATA packet, exit
-				if (serverResponseData[1] != OP_DATA) {
-					System.err.println("Error during file read: unexpected packet format.");
-					keepReceiving = true;
+			//only the block following the last one written is accepted (block numbers wrap around after 65535)
+			int receivedBlockNumber = PacketDecoder.getBlockNumber(received);
+			if (receivedBlockNumber != ((blockNumber + 1) & 0xFFFF)) {
+				//duplicate of the block last written, its ACK must have been lost
+				if (receivedBlockNumber == (blockNumber & 0xFFFF)) {
+					metrics.duplicateReceived();
+					lastAcknowledged = reacknowledge(blockNumber, lastAcknowledged, sendReceiveSocket);
 				}
-			} while(keepReceiving && numTimeouts < 3);
-			//get block number
-			blockNumber = extractBlockNumber(serverResponseData);
+				//a later block of the window, so blocks were lost: have the client resend from the last block received
+				else if (((receivedBlockNumber - blockNumber) & 0xFFFF) <= windowSize && lastAcknowledged != blockNumber)
+					lastAcknowledged = reacknowledge(blockNumber, lastAcknowledged, sendReceiveSocket);
+				continue;
+			}
+			blockNumber++;
+			currentBlock = blockNumber;
+			timer.acknowledged();
 
+			//write the block straight to the file (index 4 is the start of data in TFTP DATA packets)
+			int dataLength = PacketDecoder.getDataLength(received);
+			try {
+				file.write(clientResponseData, Tftp.HEADER_LENGTH, dataLength);
+			} catch (IOException e) {
+				log.error("Failed to write the file.", e);
+				reportWriteFailure(e);
+				return false;
+			}
+			metrics.dataReceived(dataLength);
+			bytesTransferred += dataLength;
 
-			if(response.getPort() == clientPort && response.getAddress() == clientAddress){
-				//add response data to buffer (index 4 is the start of data in TFTP DATA packets)
-				for(int i = 4; i < messageSize; i++)
-					responseBuffer.add(serverResponseData[i]);
+			//a block shorter than the max block size is the last block of the file
+			if (messageSize < blockSize + Tftp.HEADER_LENGTH) {
+				lastBlockNum = blockNumber;
+				return true;
+			}
+			//acknowledge once a window of blocks has been received
+			if (blockNumber - lastAcknowledged >= windowSize) {
+				acknowledge(blockNumber, sendReceiveSocket);
+				lastAcknowledged = blockNumber;
 			}
+		}
+	}
 
-		} while(true);
+	/**
+	 * acknowledges the last block received in order. if that block has already been
+	 * acknowledged, the last packet sent (which may be an OACK) is resent instead
+	 * 
+	 * @param blockNumber number of the last block received in order
+	 * @param lastAcknowledged number of the last block acknowledged
+	 * @param sendReceiveSocket socket used to talk to the client
+	 * @return number of the last block acknowledged
+	 */
+	private int reacknowledge(int blockNumber, int lastAcknowledged, DatagramSocket sendReceiveSocket) {
+		//the DATA that follows may answer this packet or the one before it, so it is not timed
+		timer.resent();
+		if (blockNumber != lastAcknowledged) {
+			acknowledge(blockNumber, sendReceiveSocket);
+			return blockNumber;
+		}
+		try {
+			sendReceiveSocket.send(lastPacketSent);
+		} catch (IOException e) {
+			log.error("I/O Exception while resending message", e);
+		}
+		packetSent();
+		return lastAcknowledged;
+	}
 
-		/*get final byte array from response buffer*/
-		ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-		for(Byte b: responseBuffer)
-			byteOutputStream.write(b);
+	/**
+	 * informs the sender of a packet from an unexpected TID that it is not part of this transfer
+	 * 
+	 * @param packet the packet received from an unexpected TID
+	 * @param sendReceiveSocket socket used to talk to the client
+	 */
+	private void sendUnrecognizedTIDError(DatagramPacket packet, DatagramSocket sendReceiveSocket) {
+		DatagramPacket responseToUnexpectedTID = createErrorPacket(Tftp.UNRECOGNIZED_TID, "unrecognized TID",
+				packet.getAddress(), packet.getPort());
 
-		return byteOutputStream.toByteArray();
+		try {
+			sendReceiveSocket.send(responseToUnexpectedTID);
+			PacketFormatter.trace(log, "Sent message to:", responseToUnexpectedTID);
+		} catch (IOException e) {
+			log.error("Server error while sending unknown TID ERROR", e);
+		}
 	}
 
 	/**
 	 * Acknowledges reception of server packet.
 	 * 
-	 * @param blockID byte array containing the block ID whose reception is acknowledged.
+	 * @param blockNumber number of the block whose reception is acknowledged
 	 * @author Joe Frederick Samuel, Luke Newton
 	 */
-	private void acknowledge(byte[] blockID, DatagramSocket socket) {
-		byte[] ack = {0, OP_ACK, blockID[2], blockID[3]};
-		DatagramPacket ACKDatagram = new DatagramPacket(ack, ack.length, serverInetAddress, receivePacket.getPort());
+	private void acknowledge(int blockNumber, DatagramSocket socket) {
+		if (ackPacket == null) {
+			ackBuffer = BufferPool.heap().acquire(Tftp.HEADER_LENGTH);
+			ackPacket = new DatagramPacket(ackBuffer.array(), Tftp.HEADER_LENGTH, clientAddress, clientPort);
+		}
+		ackBuffer.clear();
+		PacketEncoder.putAcknowledgement(ackBuffer, blockNumber);
 
 		//create socket if needed
 		if (socket == null) {
 			try {
 				socket = new DatagramSocket();
 			} catch (SocketException e) {
-				e.printStackTrace();
+				log.error("Failed to create socket to send ACK", e);
 			}
 		}
 		try {
-			socket.send(ACKDatagram);
+			socket.send(ackPacket);
 		} catch (IOException e) {
-			System.err.println("Server error while sending ACK to client");
-			e.printStackTrace();
-			System.exit(1);
+			//a cancelled transfer's socket is closed, it notices when next receiving
+			if (!cancelled) {
+				log.error("Server error while sending ACK to client, ending the transfer", e);
+				//as with a cancelled transfer, the next receive fails on the closed socket and ends only this transfer
+				socket.close();
+			}
 		}
-		lastPacketSent = ACKDatagram;
-		System.out.println("sent acknowledgement to client");
+		lastPacketSent = ackPacket;
+		packetSent();
+		log.trace("sent acknowledgement to client");
 	}
 
 	/**
-	 * ensures the received message is of proper format. format follows:
+	 * informs the client which of its options were accepted
 	 * 
-	 * byte 0: 0 byte
-	 * byte 1: 1 byte for read request, 2 byte for write request
-	 * byte 2 to n: some text
-	 * byte n+1: 0 byte
-	 * byte n+2 to m: some text
-	 * byte m+1: 0 byte
-	 * nothing follows (ie. byte array has m+2 elements)
-	 * 
-	 * @throws InvalidMessageFormatException indicates that the received message is not a valid read/write command
+	 * @param socket socket used to talk to the client
 	 */
-	private void parseMessage() throws InvalidMessageFormatException {
-		byte[] messageData = Arrays.copyOf(receivePacket.getData(), receivePacket.getLength());
-
-		//check first byte
-		if (messageData[0] != 0)
-			throw new InvalidMessageFormatException();
-
-		//check read/write byte
-		if (messageData[1] == OP_RRQ) {
-			readRequest = true;
-			writeRequest = false;
-		} else if (messageData[1] == OP_WRQ) {
-			readRequest = false;
-			writeRequest = true;
-		} else {
-			try {
-				createAndSendErrorPacket(ILLEGAL_TFTP_OPERATION, "Op code not recognized");
-			} catch (IOException e) {
-				System.err.println("IO error occured while sending ERROR packet");
-				e.printStackTrace();
-				System.exit(1);
-			}
-			throw new InvalidMessageFormatException();
-		}
-
-		int currentIndex = 2; //start at 2 to account for the first two bytes
-		//store names of file and mode in a stream
-		ByteArrayOutputStream textStream = new ByteArrayOutputStream();
+	private void sendOptionAcknowledgement(DatagramSocket socket) {
+		if (TftpEvents.OPTION_NEGOTIATION.isEnabled())
+			TftpEvents.OPTION_NEGOTIATION.record("server", TftpEvents.describe(getClientAddress()), getFilePath(),
+					request.getBlockSize(), request.getWindowSize(), request.getTimeoutMillis(0), request.getTransferSize());
+		DatagramPacket OACKDatagram = new DatagramPacket(optionAcknowledgement.array(), optionAcknowledgement.limit(), 
+				clientAddress, clientPort);
 		try {
-			/*
-			 * Check for some text followed by a zero
-			 * & add text to byte array
-			 */
-			//NOTE: this does not allow for spaces (space represented by a zero byte)
-			for (; messageData[currentIndex] != 0; currentIndex++) {
-				textStream.write(messageData[currentIndex]);
-			}
-
-
-			//Convert file name to byte array
-			fileName = textStream.toString();
-
-			//if our filename does not have a '.' in it or is empty, it does not indicate file type, and so is invalid
-			if (textStream.size() <= 0 || !fileName.contains(".")){
-				try {
-					createAndSendErrorPacket(ILLEGAL_TFTP_OPERATION, "Invalid Filename");
-				} catch (IOException e) {
-					System.err.println("IO error occured while sending ERROR packet");
-					e.printStackTrace();
-					System.exit(1);
-				}
-				throw new InvalidMessageFormatException("Invalid Filename");
+			socket.send(OACKDatagram);
+		} catch (IOException e) {
+			//a cancelled transfer's socket is closed, it notices when next receiving
+			if (!cancelled) {
+				log.error("Server error while sending OACK to client, ending the transfer", e);
+				//as with a cancelled transfer, the next receive fails on the closed socket and ends only this transfer
+				socket.close();
 			}
+		}
+		lastPacketSent = OACKDatagram;
+		packetSent();
+		log.trace("sent option acknowledgement to client");
+	}
 
+	/**
+	 * restarts the timer for the client's answer to a packet just sent. a packet sent
+	 * again must be reported to the timer with resent() first
+	 */
+	private void packetSent() {
+		timer.sent();
+		retransmitDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timer.getTimeoutMillis());
+	}
 
-			/*
-			 * Check for some more text followed by a zero
-			 */
-			//NOTE: this does not allow for spaces (space represented by a zero byte)
-			textStream.reset();
-
-			for (currentIndex++; messageData[currentIndex] != 0; currentIndex++) {
-				textStream.write(messageData[currentIndex]);
-			}
+	/**
+	 * waits for a packet from the client, no later than the retransmission deadline of
+	 * the last packet sent. packets that do not answer it (duplicates, or from another
+	 * TID) use up the time left rather than starting the wait again
+	 * 
+	 * @param packet the packet to receive into
+	 * @param sendReceiveSocket socket used to talk to the client
+	 * @throws IOException indicates an I/O error occurred, including the timeout passing
+	 * and the transfer being cancelled
+	 */
+	private void receive(DatagramPacket packet, DatagramSocket sendReceiveSocket) throws IOException {
+		if (TIMEOUTS_ON) {
+			long remaining = retransmitDeadline - System.nanoTime();
+			if (remaining <= 0)
+				throw new SocketTimeoutException("Retransmission deadline passed");
+			//a socket timeout of 0 would wait forever
+			sendReceiveSocket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+		}
+		sendReceiveSocket.receive(packet);
+		//closing the socket may end the receive without an exception, leaving the packet unchanged
+		if (cancelled)
+			throw new SocketException("Transfer cancelled");
+	}
 
-			mode = textStream.toString();
-			mode = mode.toLowerCase();
+	/**
+	 * reports why a transfer is being abandoned, informing the client if it took longer
+	 * than transfers are allowed to
+	 */
+	private void abandonTransfer() {
+		if (!timer.isPastDeadline()) {
+			log.warn("Timed out indefinitely. Total time waited: " + timer.getMillisWaited()/1000 + " seconds");
+			return;
+		}
+		log.warn("Transfer took too long, abandoning it");
+		try {
+			createAndSendErrorPacket(Tftp.NOT_DEFINED, "Transfer took too long.");
+		} catch (IOException e) {
+			log.error("Failed creating/sending error packet", e);
+		}
+	}
 
-			//if the mode text is not netascii or octet, or is empty, packet is invalid
-			if (textStream.size() <= 0 || 
-					(!mode.equals("netascii") && !mode.equals("octet"))){
+	/**
+	 * ensures the received message is a valid read or write request, informing the
+	 * client if it is not
+	 * 
+	 * @throws InvalidMessageFormatException indicates that the received message is not a valid read/write command
+	 */
+	private void parseMessage() throws InvalidMessageFormatException {
+		TransferRequest request;
+		try {
+			request = TransferRequest.parse(receivePacket.getData(), receivePacket.getLength());
+		} catch (InvalidMessageFormatException e) {
+			PacketFormatter.trace(log, "Invalid message Contents:", receivePacket);
+			if (e.isErrorPacketRequired()) {
 				try {
-					createAndSendErrorPacket(ILLEGAL_TFTP_OPERATION, "Invalid Mode");
-				} catch (IOException e) {
-					System.err.println("IO error occured while sending ERROR packet");
-					e.printStackTrace();
-					System.exit(1);
+					createAndSendErrorPacket(e.getErrorCode(), e.getMessage());
+				} catch (IOException er) {
+					log.error("IO error occured while sending ERROR packet", er);
 				}
-				throw new InvalidMessageFormatException("Invalid Mode");
 			}
-
-		} catch (IndexOutOfBoundsException e) {
-			/*if we go out of bounds while iterating through the message data,
-			 * then it does not end in a 0 and thus is incorrect format
-			 */
-			throw new InvalidMessageFormatException("Reached End Of Packet");
-		}
-		//check that this is the end of the message
-		if (currentIndex + 1 != messageData.length) {
-			throw new InvalidMessageFormatException("Reached \"End\" Of Packet But There Is More");
+			throw e;
+		} finally {
+			//the request has been read, so the listener can receive another into its slot
+			releaseRequest();
 		}
+
+		readRequest = request.isReadRequest();
+		writeRequest = request.isWriteRequest();
+		fileName = request.getFileName();
+		mode = request.getMode();
+		blockSize = request.getBlockSize();
+		windowSize = request.getWindowSize();
+		timer = new RetransmissionTimer(request.getTimeoutMillis(0), new InetSocketAddress(clientAddress, clientPort),
+				DEFAULT_PATH + fileName);
+		this.request = request;
 	}
 
 	/**
@@ -742,16 +1030,18 @@ public class ServerSpawnThread implements Runnable {
 	 * @param message the datagram packet to send
 	 */
 	private void sendMessage(DatagramPacket message){
+		sendSocket = null;
 		try {
 			sendSocket = new DatagramSocket();
 			sendSocket.send(message);
+			lastPacketSent = message;
 		} catch (IOException e) {
-			System.out.println("IOException: I/O error occurred while server sending message");
-			e.printStackTrace();
-			System.exit(1);
+			//only this transfer is affected, it ends without the client being told
+			log.error("IOException: I/O error occurred while server sending message", e);
+		} finally {
+			if (sendSocket != null)
+				sendSocket.close();
 		}
-		lastPacketSent = message;
-		sendSocket.close();
 	}
 
 	/**
@@ -762,60 +1052,61 @@ public class ServerSpawnThread implements Runnable {
 	 * @throws IOException
 	 */
 	private void createAndSendErrorPacket(byte errorCode, String msg) throws IOException {
-		noErrors = false;
 		/*
 		 * Check for input errors
 		 */
-		if (errorCode < 0 || errorCode > 7) {
-			System.err.println("Unexpected error code given. Error packet not sent.");
+		if (errorCode < 0 || errorCode > Tftp.OPTION_NEGOTIATION_FAILED) {
+			log.error("Unexpected error code given. Error packet not sent.");
 
 		} else if (msg == null) {
-			System.err.println("Error message is null. Error packet not sent.");
+			log.error("Error message is null. Error packet not sent.");
 
 		} else {
 			/*
 			 * Construct error message & send
 			 */
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+			DatagramPacket errorPacket = createErrorPacket(errorCode, msg, clientAddress, clientPort);
 
-			byteStream.write(0);
-			byteStream.write(OP_ERROR);
-			byteStream.write(0);
-			byteStream.write(errorCode);
-			byteStream.write(msg.getBytes()); //<- IOException source
-			byteStream.write(0);
-
-			byte[] responseData = byteStream.toByteArray();
+			sendMessage(errorPacket);
+		}
 
-			DatagramPacket errorPacket = new DatagramPacket(responseData, responseData.length,
-					clientAddress, clientPort); //<- IOException source
+	}
 
-			sendMessage(errorPacket);
+	/**
+	 * give the request's slot back to the server's request ring, if not already given back
+	 */
+	private void releaseRequest() {
+		if (requestSlot != null) {
+			requestSlot.release();
+			requestSlot = null;
+			receivePacket = null;
 		}
+	}
 
+	/**
+	 * give the buffers taken for the transfer's packets back to their pool
+	 */
+	private void releaseBuffers() {
+		BufferPool.heap().release(dataBuffer);
+		BufferPool.heap().release(ackBuffer);
+		BufferPool.heap().release(responseBuffer);
+		dataBuffer = ackBuffer = responseBuffer = null;
+		dataPacket = ackPacket = null;
 	}
 
 	/**
-	 * prints packet information
+	 * creates an ERROR packet
 	 * 
-	 * @author Luke Newton, Cameron Rushton
-	 * @param packet : DatagramPacket
-	 */
-	private void printPacketInfo(DatagramPacket packet) {
-		//get meaningful portion of message
-		byte[] dataAsByteArray = Arrays.copyOf(packet.getData(), packet.getLength());		
-
-		System.out.println("host: " + packet.getAddress() + ":" + packet.getPort());
-		System.out.println("Message length: " + packet.getLength());
-		System.out.print("Type: ");
-		switch(dataAsByteArray[1]) {
-		case 1: System.out.println("RRQ"); break;
-		case 2: System.out.println("WRQ"); break;
-		case 3: System.out.println("DATA"); break;
-		case 4: System.out.println("ACK"); break;
-		case 5: System.out.println("ERROR"); break;
-		}
-		System.out.println("Containing: " + new String(dataAsByteArray));
-		System.out.println("Contents as raw data: " + Arrays.toString(dataAsByteArray) + "\n");
-	}
-}
+	 * @param errorCode A number indicating the TFTP error code number
+	 * @param msg The message that is displayed to the user
+	 * @param address address to send the packet to
+	 * @param port port to send the packet to
+	 * @return the ERROR packet, ready to send
+	 */
+	private static DatagramPacket createErrorPacket(byte errorCode, String msg, InetAddress address, int port) {
+		metrics.errorSent(errorCode);
+		ByteBuffer errorData = ByteBuffer.allocate(PacketEncoder.errorLength(msg));
+		PacketEncoder.putError(errorData, errorCode, msg);
+		return new DatagramPacket(errorData.array(), errorData.position(), address, port);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,371 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import logging.Logger;
+import logging.TftpEvents;
+import protocol.PacketDecoder;
+import protocol.PacketEncoder;
+import protocol.Tftp;
+
+/**
+ * the state of a single file transfer processed by a TransferEventLoop. instead of
+ * blocking a thread while waiting on the client, a transfer is driven by its event
+ * loop calling packetReceived when a packet arrives on the transfer's channel and
+ * timeout when the client has not responded in time.
+ *
+ * a transfer is listed in the server's transfer table while it is in progress, and
+ * can be cancelled from there by any thread: the loop ends it the next time it checks
+ * for timeouts
+ *
+ * @author Luke Newton
+ */
+abstract class Transfer implements ActiveTransfer {
+	//log for the server's messages
+	protected static final Logger log = Logger.getLogger("server");
+	//registry the transfer's metrics are recorded in
+	protected static final ServerMetrics metrics = ServerMetrics.get();
+	//the server that received the request
+	protected Server server;
+	//channel used to talk to the client (its port is this transfer's TID)
+	protected DatagramChannel channel;
+	//address and port of the client
+	protected InetSocketAddress clientAddress;
+	//path of the file being transferred
+	protected String filePath;
+	//number of bytes in a full DATA block, agreed with the client
+	protected int blockSize;
+	//number of DATA blocks sent before waiting for an ACK, agreed with the client
+	protected int windowSize;
+	//the request that began the transfer, with the options agreed with the client
+	protected TransferRequest request;
+	//decides how long to wait for the client before resending
+	protected RetransmissionTimer timer;
+	//last packet sent, resent if the client does not respond
+	protected ByteBuffer lastPacketSent;
+	//bytes of file data moved so far
+	protected long bytesTransferred;
+	//set once the whole file has been moved
+	protected boolean completed;
+	//System.nanoTime() when the transfer started
+	private long startTime;
+	//System.nanoTime() at which the client is considered to have not responded
+	private long deadline;
+	//set once the transfer has ended, successfully or not
+	private boolean finished;
+	//message to end the transfer with once the loop next checks it, null unless cancelled
+	private volatile String cancelReason;
+	//flight recorder event timing the transfer, null unless a recording records it
+	private Object transferEvent;
+	//what the request holds from the admission controller, given back once the transfer ends
+	private AdmissionController.Permit permit;
+
+	/**
+	 * Constructor
+	 *
+	 * @param server the server that received the request
+	 * @param channel channel used to talk to the client
+	 * @param clientAddress address and port of the client
+	 * @param filePath path of the file being transferred
+	 * @param request the request that began the transfer
+	 * @param permit what the request holds from the admission controller until the transfer ends
+	 */
+	Transfer(Server server, DatagramChannel channel, InetSocketAddress clientAddress, String filePath, TransferRequest request,
+			AdmissionController.Permit permit){
+		this.server = server;
+		this.permit = permit;
+		this.channel = channel;
+		this.clientAddress = clientAddress;
+		this.filePath = filePath;
+		blockSize = request.getBlockSize();
+		windowSize = request.getWindowSize();
+		timer = new RetransmissionTimer(request.getTimeoutMillis(0), clientAddress, filePath);
+		this.request = request;
+		transferEvent = TftpEvents.TRANSFER.begin();
+		startTime = System.nanoTime();
+		metrics.transferStarted();
+	}
+
+	/**
+	 * ensure the channel's send buffer can hold a whole window of DATA blocks, since a
+	 * non-blocking send drops any packet that does not fit
+	 *
+	 * @throws IOException indicates the buffer size could not be changed
+	 */
+	void reserveSendBuffer() throws IOException {
+		int windowBytes = (int) Math.min(Integer.MAX_VALUE, (long) windowSize * (blockSize + 4));
+		if (channel.getOption(StandardSocketOptions.SO_SNDBUF) < windowBytes)
+			channel.setOption(StandardSocketOptions.SO_SNDBUF, windowBytes);
+	}
+
+	/**
+	 * begin the transfer by sending the first packet to the client
+	 *
+	 * @throws IOException indicates an I/O error occurred while sending
+	 */
+	abstract void start() throws IOException;
+
+	/**
+	 * respond to a DATA or ACK packet received from the client
+	 *
+	 * @param opcode the opcode of the packet
+	 * @param packet the packet received, positioned at its first byte
+	 * @throws IOException indicates an I/O error occurred while responding
+	 */
+	abstract void handlePacket(byte opcode, ByteBuffer packet) throws IOException;
+
+	/**
+	 * release any resources held for the file being transferred
+	 */
+	abstract void releaseFile();
+
+	/**
+	 * give the buffers the transfer's packets are built in back to their pool
+	 */
+	abstract void releaseBuffers();
+
+	/**
+	 * respond to a packet received on this transfer's channel
+	 *
+	 * @param packet the packet received, positioned at its first byte
+	 * @param source address of the sender of the packet
+	 * @throws IOException indicates an I/O error occurred while responding
+	 */
+	void packetReceived(ByteBuffer packet, SocketAddress source) throws IOException {
+		//check TID
+		if (!clientAddress.equals(source)) {
+			log.warn("unrecognized TID: " + source);
+			channel.send(createErrorPacket(Tftp.UNRECOGNIZED_TID, "unrecognized TID"), source);
+			return;
+		}
+
+		//check for illegal operation
+		byte opcode = PacketDecoder.getOpcode(packet);
+		if (opcode == Tftp.OP_ERROR) {
+			metrics.errorReceived(PacketDecoder.getErrorCode(packet));
+			log.error("Transfer of " + filePath + " ended by ERROR from client " + clientAddress + ": error code "
+					+ PacketDecoder.getErrorCode(packet) + ": " + PacketDecoder.getErrorMessage(packet));
+			finish();
+			return;
+		}
+		if (opcode != Tftp.OP_RRQ && opcode != Tftp.OP_WRQ && opcode != Tftp.OP_DATA && opcode != Tftp.OP_ACK) {
+			log.error("Error: Illegal TFTP Operation (op code not recognized)");
+			sendError(Tftp.ILLEGAL_TFTP_OPERATION, "Op code not recognized");
+			return;
+		}
+
+		handlePacket(opcode, packet);
+	}
+
+	/**
+	 * respond to the client not answering in time by resending what it has not
+	 * acknowledged, abandoning the transfer after too many timeouts in a row or once
+	 * it has taken longer than it is allowed to
+	 *
+	 * @throws IOException indicates an I/O error occurred while resending
+	 */
+	void timeout() throws IOException {
+		if (!timer.timedOut()) {
+			if (timer.isPastDeadline()) {
+				log.warn("Transfer of " + filePath + " with " + clientAddress + " took too long, abandoning it");
+				sendError(Tftp.NOT_DEFINED, "Transfer took too long.");
+			} else {
+				log.warn("Timed out indefinitely on transfer of " + filePath + " with " + clientAddress
+						+ ". Total time waited: " + timer.getMillisWaited()/1000 + " seconds");
+				finish();
+			}
+			return;
+		}
+		resend();
+	}
+
+	/**
+	 * resend what the client has not acknowledged, by default the last packet sent
+	 *
+	 * @throws IOException indicates an I/O error occurred while resending
+	 */
+	protected void resend() throws IOException {
+		timer.resent();
+		send(lastPacketSent);
+	}
+
+	/**
+	 * send a packet to the client, restarting the timer for its response. a packet
+	 * sent again must be reported to the timer with resent() first
+	 *
+	 * @param packet the packet to send, from position 0 to its limit
+	 * @throws IOException indicates an I/O error occurred while sending
+	 */
+	protected void send(ByteBuffer packet) throws IOException {
+		lastPacketSent = packet;
+		packet.rewind();
+		/*a non-blocking send can drop the packet if the socket buffer is full,
+		 * which is handled the same as a packet lost on the network*/
+		channel.send(packet, clientAddress);
+		timer.sent();
+		deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timer.getTimeoutMillis());
+	}
+
+	/**
+	 * informs the client which of its options were accepted. the client acknowledges
+	 * the OACK as block 0
+	 *
+	 * @return true if an OACK was sent, false if no options were accepted
+	 * @throws IOException indicates an I/O error occurred while sending
+	 */
+	protected boolean sendOptionAcknowledgement() throws IOException {
+		ByteBuffer optionAcknowledgement = request.createOptionAcknowledgement();
+		if (optionAcknowledgement == null)
+			return false;
+		if (TftpEvents.OPTION_NEGOTIATION.isEnabled())
+			TftpEvents.OPTION_NEGOTIATION.record("server", TftpEvents.describe(clientAddress), filePath,
+					request.getBlockSize(), request.getWindowSize(), request.getTimeoutMillis(0), request.getTransferSize());
+		send(optionAcknowledgement);
+		return true;
+	}
+
+	/**
+	 * send an ERROR packet to the client, ending the transfer
+	 *
+	 * @param errorCode A number indicating the TFTP error code number
+	 * @param msg The message that is displayed to the user
+	 * @throws IOException indicates an I/O error occurred while sending
+	 */
+	protected void sendError(byte errorCode, String msg) throws IOException {
+		channel.send(createErrorPacket(errorCode, msg), clientAddress);
+		finish();
+	}
+
+	/**
+	 * end the transfer now, informing the client why. only called on the loop's thread
+	 *
+	 * @param reason the message sent to the client
+	 * @throws IOException indicates an I/O error occurred while sending
+	 */
+	void abort(String reason) throws IOException {
+		log.warn("Cancelling transfer of " + filePath + " with " + clientAddress + ": " + reason);
+		sendError(Tftp.NOT_DEFINED, reason);
+	}
+
+	@Override
+	public void cancel(String reason){
+		cancelReason = reason;
+	}
+
+	/**
+	 * @return message to end the transfer with, or null if it has not been cancelled
+	 */
+	String getCancelReason(){
+		return cancelReason;
+	}
+
+	/**
+	 * mark the transfer as ended so the event loop releases it
+	 */
+	protected void finish(){
+		finished = true;
+	}
+
+	/**
+	 * @return what the request holds from the admission controller until the transfer ends
+	 */
+	AdmissionController.Permit getPermit(){
+		return permit;
+	}
+
+	/**
+	 * @return true if the transfer has ended
+	 */
+	boolean isFinished(){
+		return finished;
+	}
+
+	/**
+	 * @param now the current System.nanoTime()
+	 * @return true if the client has not responded before the deadline
+	 */
+	boolean isTimedOut(long now){
+		return !finished && now - deadline >= 0;
+	}
+
+	/**
+	 * release everything held by the transfer once it has ended
+	 */
+	void close(){
+		metrics.transferFinished(System.nanoTime() - startTime, bytesTransferred, completed);
+		if (transferEvent != null)
+			TftpEvents.TRANSFER.commit(transferEvent, "server", TftpEvents.describe(clientAddress), filePath,
+					isReadRequest() ? "read" : "write", bytesTransferred, completed);
+		releaseFile();
+		releaseBuffers();
+		lastPacketSent = null;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.error("Failed to close transfer channel", e);
+		}
+	}
+
+	/**
+	 * @return the channel used to talk to the client
+	 */
+	DatagramChannel getChannel(){
+		return channel;
+	}
+
+	@Override
+	public InetSocketAddress getClientAddress(){
+		return clientAddress;
+	}
+
+	@Override
+	public int getServerPort(){
+		return channel.socket().getLocalPort();
+	}
+
+	@Override
+	public String getFilePath(){
+		return filePath;
+	}
+
+	@Override
+	public boolean isReadRequest(){
+		return request.isReadRequest();
+	}
+
+	@Override
+	public long getBytesTransferred(){
+		return bytesTransferred;
+	}
+
+	@Override
+	public long getElapsedNanos(){
+		return System.nanoTime() - startTime;
+	}
+
+	@Override
+	public int getTimeoutMillis(){
+		return timer.getTimeoutMillis();
+	}
+
+	/**
+	 * creates an ERROR packet
+	 *
+	 * @param errorCode A number indicating the TFTP error code number
+	 * @param msg The message that is displayed to the user
+	 * @return the ERROR packet, ready to send
+	 */
+	static ByteBuffer createErrorPacket(byte errorCode, String msg){
+		metrics.errorSent(errorCode);
+		ByteBuffer errorPacket = ByteBuffer.allocate(PacketEncoder.errorLength(msg));
+		PacketEncoder.putError(errorPacket, errorCode, msg);
+		errorPacket.flip();
+		return errorPacket;
+	}
+}
@@ -0,0 +1,427 @@
+package server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import logging.Logger;
+import protocol.BufferPool;
+import protocol.Tftp;
+
+/**
+ * a single thread driving many transfers at once. every transfer has its own
+ * non-blocking DatagramChannel registered with this loop's Selector, and the loop
+ * hands each packet received to the transfer it belongs to, so no thread is ever
+ * parked waiting on a single client. transfers cancelled from the server's transfer
+ * table are ended by the loop the next time it checks for timeouts
+ *
+ * @author Luke Newton
+ */
+public class TransferEventLoop implements Runnable {
+	//log for the server's messages
+	private static final Logger log = Logger.getLogger("server");
+	//max size for data in a DatagramPacket (a DATA packet with the largest block size allowed by RFC 2348)
+	private static final int MAX_PACKET_SIZE = 65468;
+	//longest the loop waits for packets before checking for transfers that have timed out
+	private static final long TIMEOUT_CHECK_MILLISECONDS = 100;
+	//longest shutdown waits for the loop to release its transfers
+	private static final long SHUTDOWN_WAIT_MILLISECONDS = 1000;
+	//message of the ERROR packet sent to clients whose transfer could not be started
+	private static final String START_FAILED_MESSAGE = "Server could not start the transfer.";
+
+	//the server that received the requests processed by this loop
+	private Server server;
+	//selector reporting which transfer channels have packets waiting
+	private Selector selector;
+	//requests handed to this loop that have not been started yet, still in a listener's request ring
+	private ArrayBlockingQueue<RequestRing.Slot> newRequests;
+	//transfers currently in progress on this loop (only used by the loop thread)
+	private Set<Transfer> transfers;
+	//number of transfers in progress, readable from other threads
+	private volatile int activeTransfers;
+	//buffer every packet is received into (transfers are handled one at a time, so it is shared)
+	private ByteBuffer receiveBuffer;
+	//cleared to stop the loop
+	private volatile boolean running;
+	//set to cancel every transfer in progress and refuse any request not yet started
+	private volatile boolean cancelling;
+	//the thread running the loop
+	private Thread thread;
+
+	/**
+	 * Constructor
+	 *
+	 * @param server the server that received the requests processed by this loop
+	 * @param name name to give the loop's thread
+	 * @param requestRingSize number of requests the request rings feeding the loop hold
+	 * (the most that can be waiting for the loop at once)
+	 * @throws IOException indicates the selector could not be opened
+	 */
+	public TransferEventLoop(Server server, String name, int requestRingSize) throws IOException {
+		this.server = server;
+		selector = Selector.open();
+		newRequests = new ArrayBlockingQueue<>(Math.max(1, requestRingSize));
+		transfers = new HashSet<>();
+		//direct buffer so packets are received, and DATA written to file, without copying through the heap
+		receiveBuffer = BufferPool.direct().acquire(MAX_PACKET_SIZE);
+		running = true;
+		thread = new Thread(this, name);
+	}
+
+	/**
+	 * start the loop's thread
+	 */
+	public void start(){
+		thread.start();
+	}
+
+	/**
+	 * stop the loop, abandoning any transfers still in progress, and wait briefly for
+	 * the loop to release them
+	 */
+	public void shutdown(){
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(SHUTDOWN_WAIT_MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * cancel every transfer in progress on this loop, and refuse every request not yet
+	 * started, informing their clients the server is shutting down. safe to call from
+	 * any thread
+	 */
+	public void cancelTransfers(){
+		cancelling = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * hand a request to this loop to be processed. safe to call from any thread
+	 *
+	 * @param request slot of a listener's request ring holding the request, given back
+	 * once the loop has read it
+	 * @return true if the loop took the request, false if it has stopped or too many
+	 * requests are waiting for it (the caller must then refuse the request)
+	 */
+	public boolean submit(RequestRing.Slot request){
+		if (!running || !newRequests.offer(request))
+			return false;
+		//a loop that stopped meanwhile has either refused the request already or left it to the caller
+		if (!running && newRequests.remove(request))
+			return false;
+		selector.wakeup();
+		return true;
+	}
+
+	/**
+	 * @return the number of transfers in progress on this loop
+	 */
+	public int getActiveTransfers(){
+		return activeTransfers;
+	}
+
+	/**
+	 * @return the number of requests waiting to be started by this loop
+	 */
+	public int getQueueDepth(){
+		return newRequests.size();
+	}
+
+	/**
+	 * function to execute when thread created.
+	 * waits for packets on every transfer's channel and hands them to the transfer.
+	 */
+	@Override
+	public void run() {
+		long nextTimeoutCheck = System.nanoTime();
+		try {
+			while (running) {
+				selector.select(TIMEOUT_CHECK_MILLISECONDS);
+				startNewTransfers();
+				if (cancelling)
+					cancelTransfersInProgress();
+				processReceivedPackets();
+
+				long now = System.nanoTime();
+				if (now - nextTimeoutCheck >= 0) {
+					checkTimeouts(now);
+					nextTimeoutCheck = now + TIMEOUT_CHECK_MILLISECONDS * 1000000;
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			log.error("Transfer event loop failed", e);
+		} finally {
+			running = false;
+			RequestRing.Slot slot;
+			while ((slot = newRequests.poll()) != null)
+				refuse(slot, START_FAILED_MESSAGE);
+			for (Transfer transfer : transfers)
+				endTransfer(transfer);
+			transfers.clear();
+			activeTransfers = 0;
+			BufferPool.direct().release(receiveBuffer);
+			receiveBuffer = null;
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.error("Failed to close the selector", e);
+			}
+		}
+	}
+
+	/**
+	 * create a transfer for every request handed to this loop since it last checked
+	 */
+	private void startNewTransfers() {
+		RequestRing.Slot slot;
+		while ((slot = newRequests.poll()) != null)
+			startTransfer(slot);
+	}
+
+	/**
+	 * create a transfer for a request. a request whose transfer cannot be started is
+	 * refused, and the loop carries on with the others
+	 *
+	 * @param slot slot of a listener's request ring holding the request, given back once read
+	 */
+	private void startTransfer(RequestRing.Slot slot) {
+		DatagramPacket request = slot.getPacket();
+		AdmissionController.Permit permit = slot.getPermit();
+		InetSocketAddress clientAddress = new InetSocketAddress(request.getAddress(), request.getPort());
+
+		TransferRequest transferRequest;
+		InvalidMessageFormatException invalidRequest = null;
+		try {
+			transferRequest = TransferRequest.parse(request.getData(), request.getLength());
+		} catch (InvalidMessageFormatException e) {
+			transferRequest = null;
+			invalidRequest = e;
+		} finally {
+			//the request has been read, so the server can receive another into its slot
+			slot.release();
+		}
+
+		//each transfer gets its own channel, so its port is a new TID
+		DatagramChannel channel = null;
+		try {
+			channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			channel.bind(null);
+		} catch (IOException e) {
+			log.error("Failed to open a channel for the transfer requested by " + clientAddress, e);
+			refuse(channel, clientAddress, Tftp.NOT_DEFINED, START_FAILED_MESSAGE, permit);
+			return;
+		}
+
+		if (cancelling) {
+			log.warn("Refusing request from " + clientAddress + ": " + Server.SHUTDOWN_MESSAGE);
+			refuse(channel, clientAddress, Tftp.NOT_DEFINED, Server.SHUTDOWN_MESSAGE, permit);
+			return;
+		}
+
+		if (invalidRequest != null) {
+			InvalidMessageFormatException e = invalidRequest;
+			log.info("InvalidMessageFormatException: a message received was of an invalid format ("
+					+ e.getMessage() + ") from " + clientAddress);
+			refuse(channel, clientAddress, e.getErrorCode(), e.isErrorPacketRequired() ? e.getMessage() : null, permit);
+			return;
+		}
+
+		String filePath = ServerSpawnThread.DEFAULT_PATH + transferRequest.getFileName();
+		Transfer transfer;
+		if (transferRequest.isReadRequest())
+			transfer = new ReadTransfer(server, channel, clientAddress, filePath, transferRequest, permit);
+		else
+			transfer = new WriteTransfer(server, channel, clientAddress, filePath, transferRequest, permit);
+
+		try {
+			channel.register(selector, SelectionKey.OP_READ, transfer);
+		} catch (IOException e) {
+			log.error("Failed to register the transfer of " + filePath, e);
+			try {
+				transfer.sendError(Tftp.NOT_DEFINED, START_FAILED_MESSAGE);
+			} catch (IOException er) {
+				log.error("Failed creating/sending error packet", er);
+			}
+			endTransfer(transfer);
+			return;
+		}
+		transfers.add(transfer);
+		activeTransfers = transfers.size();
+		server.getTransferTable().add(transfer);
+		try {
+			transfer.start();
+		} catch (IOException e) {
+			log.error("Failed to start transfer of " + filePath, e);
+			transfer.finish();
+		}
+		removeIfFinished(transfer);
+	}
+
+	/**
+	 * refuse a request that has not been read yet, informing its client why
+	 *
+	 * @param slot slot of a listener's request ring holding the request, given back
+	 * @param msg the message sent to the client
+	 */
+	private void refuse(RequestRing.Slot slot, String msg) {
+		DatagramPacket request = slot.getPacket();
+		AdmissionController.Permit permit = slot.getPermit();
+		InetSocketAddress clientAddress = new InetSocketAddress(request.getAddress(), request.getPort());
+		slot.release();
+		log.warn("Refusing request from " + clientAddress + ": " + msg);
+		refuse(null, clientAddress, Tftp.NOT_DEFINED, msg, permit);
+	}
+
+	/**
+	 * refuse a request without starting its transfer, informing the server it is done
+	 *
+	 * @param channel channel opened for the transfer, closed here, or null if none could be opened
+	 * @param clientAddress address and port of the client
+	 * @param errorCode A number indicating the TFTP error code number
+	 * @param msg the message sent to the client, or null to send no ERROR packet
+	 * @param permit what the request held from the admission controller
+	 */
+	private void refuse(DatagramChannel channel, InetSocketAddress clientAddress, byte errorCode, String msg,
+			AdmissionController.Permit permit) {
+		try {
+			if (msg != null) {
+				//without a channel of its own the client is answered from a temporary one
+				if (channel == null)
+					channel = DatagramChannel.open();
+				channel.send(Transfer.createErrorPacket(errorCode, msg), clientAddress);
+			}
+		} catch (IOException e) {
+			log.error("Failed creating/sending error packet", e);
+		} finally {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					log.error("Failed to close transfer channel", e);
+				}
+			}
+			server.getAdmission().release(permit);
+			server.messageProcessed();
+		}
+	}
+
+	/**
+	 * hand every packet waiting on a transfer's channel to that transfer
+	 */
+	private void processReceivedPackets() {
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			Transfer transfer = (Transfer) key.attachment();
+			try {
+				SocketAddress source;
+				//drain the channel, the client may have sent more than one packet
+				while (!transfer.isFinished()) {
+					receiveBuffer.clear();
+					receiveBuffer.limit(MAX_PACKET_SIZE);
+					source = transfer.getChannel().receive(receiveBuffer);
+					if (source == null)
+						break;
+					receiveBuffer.flip();
+					transfer.packetReceived(receiveBuffer, source);
+				}
+			} catch (IOException e) {
+				log.error("I/O Exception during transfer", e);
+				transfer.finish();
+			}
+			removeIfFinished(transfer);
+		}
+	}
+
+	/**
+	 * end every transfer in progress, informing their clients the server is shutting down
+	 */
+	private void cancelTransfersInProgress() {
+		for (Transfer transfer : transfers) {
+			try {
+				transfer.abort(Server.SHUTDOWN_MESSAGE);
+			} catch (IOException e) {
+				log.error("Failed creating/sending error packet", e);
+				transfer.finish();
+			}
+			endTransfer(transfer);
+		}
+		transfers.clear();
+		activeTransfers = 0;
+	}
+
+	/**
+	 * inform every transfer whose client has not responded in time, and end every
+	 * transfer cancelled since the last check
+	 *
+	 * @param now the current System.nanoTime()
+	 */
+	private void checkTimeouts(long now) {
+		Iterator<Transfer> iterator = transfers.iterator();
+		while (iterator.hasNext()) {
+			Transfer transfer = iterator.next();
+			String cancelReason = transfer.getCancelReason();
+			if (cancelReason != null && !transfer.isFinished()) {
+				try {
+					transfer.abort(cancelReason);
+				} catch (IOException e) {
+					log.error("Failed creating/sending error packet", e);
+					transfer.finish();
+				}
+			} else if (transfer.isTimedOut(now)) {
+				try {
+					transfer.timeout();
+				} catch (IOException e) {
+					log.error("I/O Exception while resending message", e);
+					transfer.finish();
+				}
+			}
+			if (transfer.isFinished()) {
+				iterator.remove();
+				endTransfer(transfer);
+			}
+		}
+		activeTransfers = transfers.size();
+	}
+
+	/**
+	 * release a transfer if it has ended
+	 *
+	 * @param transfer the transfer to check
+	 */
+	private void removeIfFinished(Transfer transfer) {
+		if (transfer.isFinished()) {
+			transfers.remove(transfer);
+			endTransfer(transfer);
+			activeTransfers = transfers.size();
+		}
+	}
+
+	/**
+	 * release everything held by a transfer and inform the server it is done
+	 *
+	 * @param transfer the transfer that has ended
+	 */
+	private void endTransfer(Transfer transfer) {
+		server.getTransferTable().remove(transfer);
+		transfer.close();
+		server.getAdmission().release(transfer.getPermit());
+		server.messageProcessed();
+	}
+}
@@ -0,0 +1,339 @@
+package server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a bounded pool of worker threads used by the server to process file transfers.
+ * requests that arrive while every worker is busy wait in a queue of limited size,
+ * and requests that arrive while the queue is full are refused with a TFTP ERROR
+ * packet instead of creating another thread.
+ * 
+ * alternatively transfers can each run on their own virtual thread (Java 21+), limited
+ * only by a maximum number of transfers in progress.
+ *
+ * the size of the pool, or the limit on virtual threads, can be changed while the
+ * server runs through TransferPoolMXBean
+ *
+ * @author Luke Newton
+ */
+public class TransferExecutor implements TransferPoolMXBean {
+	//seconds an idle worker above the core pool size is kept alive for
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	//pool of threads that run the transfers (platform threads only)
+	private ThreadPoolExecutor executor;
+	//starts a new virtual thread for every transfer (virtual threads only)
+	private ExecutorService virtualThreads;
+	//limits the number of transfers in progress on virtual threads
+	private ResizableSemaphore virtualThreadPermits;
+	//maximum number of transfers in progress on virtual threads
+	private volatile int maxVirtualThreads;
+	//number of transfers in progress on virtual threads
+	private AtomicInteger activeVirtualThreads;
+	//number of transfers finished on virtual threads
+	private AtomicLong completedVirtualThreads;
+	//number of requests refused because the pool and queue were full
+	private AtomicLong rejectedTransfers;
+	//transfers currently being processed by a worker
+	private Set<ServerSpawnThread> runningTransfers;
+	//set once the transfers are cancelled, so any started afterwards are cancelled as well
+	private volatile boolean cancelling;
+
+	/**
+	 * Constructor
+	 *
+	 * @param poolSize number of worker threads kept alive to process transfers
+	 * @param maxPoolSize maximum number of worker threads processing transfers at once
+	 * @param queueLimit maximum number of requests waiting for a free worker
+	 */
+	public TransferExecutor(int poolSize, int maxPoolSize, int queueLimit){
+		rejectedTransfers = new AtomicLong();
+		runningTransfers = ConcurrentHashMap.newKeySet();
+		executor = new ThreadPoolExecutor(poolSize, Math.max(poolSize, maxPoolSize),
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueLimit),
+				new TransferThreadFactory(), new RejectTransferHandler()) {
+			@Override
+			protected void beforeExecute(Thread thread, Runnable transfer) {
+				transferStarted((ServerSpawnThread) transfer);
+			}
+
+			@Override
+			protected void afterExecute(Runnable transfer, Throwable thrown) {
+				runningTransfers.remove(transfer);
+			}
+		};
+	}
+
+	/**
+	 * Constructor for an executor running every transfer on its own virtual thread
+	 *
+	 * @param maxTransfers maximum number of transfers in progress at once
+	 * @param virtualThreads executor starting a new virtual thread for every task
+	 */
+	private TransferExecutor(int maxTransfers, ExecutorService virtualThreads){
+		rejectedTransfers = new AtomicLong();
+		runningTransfers = ConcurrentHashMap.newKeySet();
+		this.virtualThreads = virtualThreads;
+		maxVirtualThreads = maxTransfers;
+		virtualThreadPermits = new ResizableSemaphore(maxTransfers);
+		activeVirtualThreads = new AtomicInteger();
+		completedVirtualThreads = new AtomicLong();
+	}
+
+	/**
+	 * creates an executor running every transfer on its own virtual thread. the
+	 * transfers keep their blocking DatagramSocket I/O, but a thread parked waiting
+	 * on a socket no longer ties up a platform thread
+	 *
+	 * @param maxTransfers maximum number of transfers in progress at once
+	 * @return the new executor
+	 * @throws UnsupportedOperationException indicates the JVM does not support virtual threads (Java 21+)
+	 */
+	public static TransferExecutor newVirtualThreadExecutor(int maxTransfers){
+		try {
+			//looked up at runtime so the server still builds and runs on older JVMs
+			ExecutorService virtualThreads = (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			return new TransferExecutor(maxTransfers, virtualThreads);
+		} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			throw new UnsupportedOperationException("virtual threads require Java 21 or later", e);
+		}
+	}
+
+	/**
+	 * queue a transfer to be processed by the next free worker
+	 *
+	 * @param transfer the transfer to process
+	 */
+	public void execute(ServerSpawnThread transfer){
+		if(executor != null){
+			executor.execute(transfer);
+			return;
+		}
+
+		if(!virtualThreadPermits.tryAcquire()){
+			rejectedTransfers.incrementAndGet();
+			transfer.reject();
+			return;
+		}
+		virtualThreads.execute(() -> {
+			activeVirtualThreads.incrementAndGet();
+			transferStarted(transfer);
+			try {
+				transfer.run();
+			} finally {
+				runningTransfers.remove(transfer);
+				activeVirtualThreads.decrementAndGet();
+				completedVirtualThreads.incrementAndGet();
+				virtualThreadPermits.release();
+			}
+		});
+	}
+
+	/**
+	 * record a transfer a worker is about to process
+	 *
+	 * @param transfer the transfer
+	 */
+	private void transferStarted(ServerSpawnThread transfer){
+		runningTransfers.add(transfer);
+		//added before checking, so cancelTransfers either finds the transfer or it sees cancelling
+		if(cancelling)
+			transfer.cancel();
+	}
+
+	/**
+	 * cancel every transfer being processed, and refuse every request still waiting
+	 * for a worker, informing their clients the server is shutting down
+	 */
+	public void cancelTransfers(){
+		cancelling = true;
+		if(executor != null){
+			List<Runnable> queued = new ArrayList<>();
+			executor.getQueue().drainTo(queued);
+			for(Runnable transfer : queued)
+				((ServerSpawnThread) transfer).reject(Server.SHUTDOWN_MESSAGE);
+		}
+		for(ServerSpawnThread transfer : runningTransfers)
+			transfer.cancel();
+	}
+
+	/**
+	 * stop accepting new transfers, allowing queued transfers to finish
+	 */
+	public void shutdown(){
+		if(executor != null)
+			executor.shutdown();
+		else
+			virtualThreads.shutdown();
+	}
+
+	/**
+	 * @return true if transfers run on virtual threads rather than a pool of platform threads
+	 */
+	public boolean isVirtual(){
+		return executor == null;
+	}
+
+	/**
+	 * @return the number of worker threads currently in the pool
+	 */
+	public int getPoolSize(){
+		return executor != null ? executor.getPoolSize() : activeVirtualThreads.get();
+	}
+
+	/**
+	 * @return the largest number of worker threads that have been in the pool at once
+	 */
+	public int getLargestPoolSize(){
+		return executor != null ? executor.getLargestPoolSize() : maxVirtualThreads;
+	}
+
+	/**
+	 * @return the approximate number of workers currently processing a transfer
+	 */
+	public int getActiveCount(){
+		return executor != null ? executor.getActiveCount() : activeVirtualThreads.get();
+	}
+
+	/**
+	 * @return the number of requests waiting for a free worker
+	 */
+	public int getQueueDepth(){
+		//virtual threads start immediately, so nothing waits
+		return executor != null ? executor.getQueue().size() : 0;
+	}
+
+	/**
+	 * @return the approximate number of transfers that have finished processing
+	 */
+	public long getCompletedTransfers(){
+		return executor != null ? executor.getCompletedTaskCount() : completedVirtualThreads.get();
+	}
+
+	/**
+	 * @return the number of requests refused because the pool and queue were full
+	 */
+	public long getRejectedTransfers(){
+		return rejectedTransfers.get();
+	}
+
+	@Override
+	public int getCorePoolSize(){
+		return executor != null ? executor.getCorePoolSize() : maxVirtualThreads;
+	}
+
+	@Override
+	public synchronized void setCorePoolSize(int poolSize){
+		if(executor == null)
+			throw new UnsupportedOperationException("virtual threads are not pooled, set the maximum pool size instead");
+		if(poolSize < 0)
+			throw new IllegalArgumentException("pool size must not be negative: " + poolSize);
+		//the maximum is raised first, since the core size may never exceed it
+		if(poolSize > executor.getMaximumPoolSize())
+			executor.setMaximumPoolSize(poolSize);
+		executor.setCorePoolSize(poolSize);
+	}
+
+	@Override
+	public int getMaximumPoolSize(){
+		return executor != null ? executor.getMaximumPoolSize() : maxVirtualThreads;
+	}
+
+	@Override
+	public synchronized void setMaximumPoolSize(int maxPoolSize){
+		if(maxPoolSize < 1)
+			throw new IllegalArgumentException("maximum pool size must be at least 1: " + maxPoolSize);
+		if(executor != null){
+			//the core size is lowered first, since it may never exceed the maximum
+			if(maxPoolSize < executor.getCorePoolSize())
+				executor.setCorePoolSize(maxPoolSize);
+			executor.setMaximumPoolSize(maxPoolSize);
+			return;
+		}
+		if(maxPoolSize > maxVirtualThreads)
+			virtualThreadPermits.release(maxPoolSize - maxVirtualThreads);
+		else
+			virtualThreadPermits.reducePermits(maxVirtualThreads - maxPoolSize);
+		maxVirtualThreads = maxPoolSize;
+	}
+
+	/**
+	 * @return a one line summary of the pool state for display on the console
+	 */
+	@Override
+	public String toString(){
+		if(isVirtual())
+			return "virtual threads active: " + getActiveCount() + " (limit " + maxVirtualThreads + ")"
+					+ ", completed: " + getCompletedTransfers()
+					+ ", rejected: " + getRejectedTransfers();
+		return "pool size: " + getPoolSize() + " (largest " + getLargestPoolSize() + ")"
+				+ ", active: " + getActiveCount()
+				+ ", queued: " + getQueueDepth()
+				+ ", completed: " + getCompletedTransfers()
+				+ ", rejected: " + getRejectedTransfers();
+	}
+
+	/**
+	 * creates the worker threads for the pool
+	 */
+	private static class TransferThreadFactory implements ThreadFactory {
+		//number used to give each worker a distinct name
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "transfer-" + threadNumber.getAndIncrement());
+			//priorities are set low to make shutdown occur in a timely manner
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	}
+
+	/**
+	 * a semaphore whose number of permits can be lowered. permits held when it is lowered
+	 * are not taken back, so acquiring fails until enough of them are released
+	 */
+	private static class ResizableSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor
+		 *
+		 * @param permits number of permits available
+		 */
+		ResizableSemaphore(int permits){
+			super(permits);
+		}
+
+		@Override
+		protected void reducePermits(int reduction){
+			super.reducePermits(reduction);
+		}
+	}
+
+	/**
+	 * answers a request that could not be queued with a TFTP ERROR packet
+	 */
+	private class RejectTransferHandler implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			rejectedTransfers.incrementAndGet();
+			((ServerSpawnThread) r).reject();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the state of a transfer in progress at one time, a row of the server's transfer
+ * table. JMX shows each as a row of the Transfers attribute
+ *
+ * @author Luke Newton
+ */
+public final class TransferInfo {
+	//number identifying the transfer in the table
+	private final long id;
+	//address and port of the client
+	private final String client;
+	//port the server talks to the client on
+	private final int serverPort;
+	//path of the file being transferred
+	private final String file;
+	//"read" if the file is sent to the client, "write" if received from it
+	private final String direction;
+	//DATA blocks acknowledged or received so far
+	private final int blockNumber;
+	//bytes of file data moved so far
+	private final long bytesTransferred;
+	//milliseconds since the transfer started
+	private final long elapsedMillis;
+	//milliseconds the transfer waits for the client before resending
+	private final int timeoutMillis;
+
+	/**
+	 * Constructor
+	 *
+	 * @param id number identifying the transfer in the table
+	 * @param transfer the transfer, read now
+	 */
+	TransferInfo(long id, ActiveTransfer transfer){
+		this.id = id;
+		client = transfer.getClientAddress().getAddress().getHostAddress() + ":" + transfer.getClientAddress().getPort();
+		serverPort = transfer.getServerPort();
+		file = transfer.getFilePath();
+		direction = transfer.isReadRequest() ? "read" : "write";
+		blockNumber = transfer.getBlockNumber();
+		bytesTransferred = transfer.getBytesTransferred();
+		elapsedMillis = TimeUnit.NANOSECONDS.toMillis(transfer.getElapsedNanos());
+		timeoutMillis = transfer.getTimeoutMillis();
+	}
+
+	public long getId(){
+		return id;
+	}
+
+	public String getClient(){
+		return client;
+	}
+
+	public int getServerPort(){
+		return serverPort;
+	}
+
+	public String getFile(){
+		return file;
+	}
+
+	public String getDirection(){
+		return direction;
+	}
+
+	public int getBlockNumber(){
+		return blockNumber;
+	}
+
+	public long getBytesTransferred(){
+		return bytesTransferred;
+	}
+
+	public long getElapsedMillis(){
+		return elapsedMillis;
+	}
+
+	public int getTimeoutMillis(){
+		return timeoutMillis;
+	}
+
+	/**
+	 * @return a one line summary of the transfer for display on the console
+	 */
+	@Override
+	public String toString(){
+		return "#" + id + " " + direction + " " + file + " with " + client + " on port " + serverPort
+				+ ", block: " + blockNumber
+				+ ", bytes: " + bytesTransferred
+				+ String.format(", elapsed: %.1fs", elapsedMillis / 1000.0)
+				+ ", timeout: " + timeoutMillis + "ms";
+	}
+}
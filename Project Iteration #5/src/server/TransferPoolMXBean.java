@@ -0,0 +1,68 @@
+package server;
+
+/**
+ * management interface of the threads processing transfers for the pool and virtual
+ * engines, registered with JMX as tftp.server:type=TransferPool. the pool can be
+ * resized while the server runs
+ *
+ * @author Luke Newton
+ */
+public interface TransferPoolMXBean {
+	/**
+	 * @return true if transfers run on virtual threads rather than a pool of platform threads
+	 */
+	boolean isVirtual();
+
+	/**
+	 * @return the number of worker threads currently in the pool
+	 */
+	int getPoolSize();
+
+	/**
+	 * @return the largest number of worker threads that have been in the pool at once
+	 */
+	int getLargestPoolSize();
+
+	/**
+	 * @return the approximate number of workers currently processing a transfer
+	 */
+	int getActiveCount();
+
+	/**
+	 * @return the number of requests waiting for a free worker
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return the approximate number of transfers that have finished processing
+	 */
+	long getCompletedTransfers();
+
+	/**
+	 * @return the number of requests refused because the pool and queue were full
+	 */
+	long getRejectedTransfers();
+
+	/**
+	 * @return number of worker threads kept alive to process transfers
+	 */
+	int getCorePoolSize();
+
+	/**
+	 * @param poolSize number of worker threads to keep alive, raising the maximum to
+	 * match if it is below (pool of platform threads only)
+	 */
+	void setCorePoolSize(int poolSize);
+
+	/**
+	 * @return maximum number of transfers processed at once
+	 */
+	int getMaximumPoolSize();
+
+	/**
+	 * @param maxPoolSize maximum number of transfers to process at once, lowering the
+	 * core pool size to match if it is above. transfers already in progress above a
+	 * lowered maximum are left to finish
+	 */
+	void setMaximumPoolSize(int maxPoolSize);
+}
@@ -0,0 +1,346 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import protocol.PacketDecoder;
+import protocol.PacketEncoder;
+import protocol.Tftp;
+
+/**
+ * a read or write request received by the server, parsed from the raw bytes of
+ * the request packet. any options appended to the request (RFC 2347) are negotiated
+ * here, producing the values the transfer uses and the OACK telling the client which
+ * options were accepted
+ *
+ * @author Kevin Sun, Luke Newton, Cameron Rushton
+ */
+public class TransferRequest {
+	//block size used when the client does not ask for another (RFC 1350)
+	public static final int DEFAULT_BLOCK_SIZE = 512;
+	//smallest and largest block size a client may ask for (RFC 2348)
+	private static final int MIN_BLOCK_SIZE = 8;
+	private static final int MAX_BLOCK_SIZE = 65464;
+	//largest block size the server agrees to (-Dserver.maxBlockSize)
+	private static final int SERVER_MAX_BLOCK_SIZE = Math.min(MAX_BLOCK_SIZE, 
+			Math.max(DEFAULT_BLOCK_SIZE, Integer.getInteger("server.maxBlockSize", MAX_BLOCK_SIZE)));
+	//largest window size a client may ask for (RFC 7440)
+	private static final int MAX_WINDOW_SIZE = 65535;
+	//largest number of blocks the server sends or receives before an ACK (-Dserver.maxWindowSize)
+	private static final int SERVER_MAX_WINDOW_SIZE = Math.min(MAX_WINDOW_SIZE, 
+			Math.max(1, Integer.getInteger("server.maxWindowSize", 64)));
+	//smallest and largest timeout in seconds a client may ask for (RFC 2349)
+	private static final int MIN_TIMEOUT = 1;
+	private static final int MAX_TIMEOUT = 255;
+
+	//opcode of the request (RRQ or WRQ)
+	private byte opcode;
+	//file name acquired from packet
+	private String fileName;
+	//mode acquired from packet
+	private String mode;
+	//number of bytes in a full DATA block for this transfer
+	private int blockSize;
+	//number of DATA blocks sent before waiting for an ACK
+	private int windowSize;
+	//size of the file in bytes given by the client in a WRQ, or -1 if not given
+	private long transferSize;
+	//seconds to wait before retransmitting asked for by the client, or 0 to use the server's default
+	private int timeout;
+	//options accepted by the server, in the order the client sent them
+	private Map<String, String> acceptedOptions;
+
+	/**
+	 * Constructor
+	 *
+	 * @param opcode opcode of the request (RRQ or WRQ)
+	 * @param fileName file name acquired from packet
+	 * @param mode mode acquired from packet
+	 */
+	private TransferRequest(byte opcode, String fileName, String mode){
+		this.opcode = opcode;
+		this.fileName = fileName;
+		this.mode = mode;
+		blockSize = DEFAULT_BLOCK_SIZE;
+		windowSize = 1;
+		transferSize = -1;
+		timeout = 0;
+		acceptedOptions = new LinkedHashMap<>();
+	}
+
+	/**
+	 * @return true if this is a read request
+	 */
+	public boolean isReadRequest(){
+		return opcode == Tftp.OP_RRQ;
+	}
+
+	/**
+	 * @return true if this is a write request
+	 */
+	public boolean isWriteRequest(){
+		return opcode == Tftp.OP_WRQ;
+	}
+
+	/**
+	 * @return the file name acquired from the packet
+	 */
+	public String getFileName(){
+		return fileName;
+	}
+
+	/**
+	 * @return the mode acquired from the packet, in lower case
+	 */
+	public String getMode(){
+		return mode;
+	}
+
+	/**
+	 * @return number of bytes in a full DATA block for this transfer
+	 */
+	public int getBlockSize(){
+		return blockSize;
+	}
+
+	/**
+	 * @return number of DATA blocks sent before waiting for an ACK (1 unless agreed otherwise)
+	 */
+	public int getWindowSize(){
+		return windowSize;
+	}
+
+	/**
+	 * @return size of the file in bytes given by the client in a WRQ, or -1 if not given
+	 */
+	public long getTransferSize(){
+		return transferSize;
+	}
+
+	/**
+	 * records the size of the file a RRQ reads, reported to the client in the OACK if
+	 * it asked for it. must be called before the OACK is created
+	 *
+	 * @param size size of the file in bytes
+	 */
+	public void setTransferSize(long size){
+		if (isReadRequest() && acceptedOptions.containsKey(Tftp.TRANSFER_SIZE_OPTION))
+			acceptedOptions.put(Tftp.TRANSFER_SIZE_OPTION, Long.toString(size));
+	}
+
+	/**
+	 * @param defaultMillis milliseconds to wait if the client did not ask for a timeout
+	 * @return milliseconds to wait for the client before retransmitting
+	 */
+	public int getTimeoutMillis(int defaultMillis){
+		return timeout > 0 ? timeout * 1000 : defaultMillis;
+	}
+
+	/**
+	 * creates the OACK informing the client which of its options were accepted
+	 *
+	 * @return the OACK, filling the whole of its buffer, or null if no options were
+	 * accepted (the transfer then starts as it would without options)
+	 */
+	public ByteBuffer createOptionAcknowledgement(){
+		if (acceptedOptions.isEmpty())
+			return null;
+
+		//each option is its name and value, both 0 terminated
+		int length = 2;
+		for (Map.Entry<String, String> option : acceptedOptions.entrySet())
+			length += option.getKey().length() + option.getValue().length() + 2;
+		ByteBuffer optionAcknowledgement = ByteBuffer.allocate(length);
+		PacketEncoder.putOptionAcknowledgement(optionAcknowledgement);
+		for (Map.Entry<String, String> option : acceptedOptions.entrySet())
+			PacketEncoder.putOption(optionAcknowledgement, option.getKey(), option.getValue());
+		optionAcknowledgement.flip();
+		return optionAcknowledgement;
+	}
+
+	/**
+	 * agrees on a value for an option sent by the client. options the server does not
+	 * support are ignored, as RFC 2347 requires
+	 *
+	 * @param name name of the option, in lower case
+	 * @param value value the client asked for
+	 * @throws InvalidMessageFormatException indicates the value is not valid for the option
+	 */
+	private void negotiate(String name, String value) throws InvalidMessageFormatException {
+		if (name.equals(Tftp.BLOCK_SIZE_OPTION)) {
+			int requested = parseOptionValue(name, value, MIN_BLOCK_SIZE, MAX_BLOCK_SIZE);
+			//the client must accept any block size no larger than it asked for
+			blockSize = Math.min(requested, SERVER_MAX_BLOCK_SIZE);
+			acceptedOptions.put(name, Integer.toString(blockSize));
+		} else if (name.equals(Tftp.WINDOW_SIZE_OPTION)) {
+			int requested = parseOptionValue(name, value, 1, MAX_WINDOW_SIZE);
+			//the client must accept any window size no larger than it asked for
+			windowSize = Math.min(requested, SERVER_MAX_WINDOW_SIZE);
+			acceptedOptions.put(name, Integer.toString(windowSize));
+		} else if (name.equals(Tftp.TRANSFER_SIZE_OPTION)) {
+			long size = parseSizeValue(name, value);
+			//a WRQ gives the size of the file to come, a RRQ asks for it (sent as 0) and is answered once the file is opened
+			if (isWriteRequest())
+				transferSize = size;
+			acceptedOptions.put(name, Long.toString(size));
+		} else if (name.equals(Tftp.TIMEOUT_OPTION)) {
+			//the server must use the timeout asked for or ignore the option, it cannot offer another
+			timeout = parseOptionValue(name, value, MIN_TIMEOUT, MAX_TIMEOUT);
+			acceptedOptions.put(name, Integer.toString(timeout));
+		}
+	}
+
+	/**
+	 * reads the value of a numeric option
+	 *
+	 * @param name name of the option
+	 * @param value text value of the option
+	 * @param min smallest valid value of the option
+	 * @param max largest valid value of the option
+	 * @return the value of the option
+	 * @throws InvalidMessageFormatException indicates the value is not a number in the valid range
+	 */
+	private static int parseOptionValue(String name, String value, int min, int max) throws InvalidMessageFormatException {
+		try {
+			int number = Integer.parseInt(value);
+			if (number >= min && number <= max)
+				return number;
+		} catch (NumberFormatException e) {
+			//handled below
+		}
+		throw new InvalidMessageFormatException("Invalid value for option " + name, Tftp.OPTION_NEGOTIATION_FAILED);
+	}
+
+	/**
+	 * reads the value of a size option, which may be larger than an int
+	 *
+	 * @param name name of the option
+	 * @param value text value of the option
+	 * @return the value of the option
+	 * @throws InvalidMessageFormatException indicates the value is not a number of bytes
+	 */
+	private static long parseSizeValue(String name, String value) throws InvalidMessageFormatException {
+		try {
+			long number = Long.parseLong(value);
+			if (number >= 0)
+				return number;
+		} catch (NumberFormatException e) {
+			//handled below
+		}
+		throw new InvalidMessageFormatException("Invalid value for option " + name, Tftp.OPTION_NEGOTIATION_FAILED);
+	}
+
+	/**
+	 * estimates the bytes a transfer asked for by a request may have in flight at once:
+	 * a window of full blocks, as its options would be agreed. only the options are
+	 * read, so the request can be weighed before it is parsed; options with invalid
+	 * values count as not sent, since the request is refused once parsed
+	 *
+	 * @param messageData buffer containing the request
+	 * @param length number of bytes of the buffer the request occupies
+	 * @return bytes a window of full blocks holds
+	 */
+	public static long windowBytes(byte[] messageData, int length){
+		ByteBuffer packet = ByteBuffer.wrap(messageData, 0, length);
+		//the options follow the file name and the mode
+		int fileNameEnd = PacketDecoder.findTextEnd(packet, 2);
+		int modeEnd = fileNameEnd < 0 ? -1 : PacketDecoder.findTextEnd(packet, fileNameEnd + 1);
+		if (modeEnd < 0)
+			return DEFAULT_BLOCK_SIZE;
+		int blockSize = Math.min(SERVER_MAX_BLOCK_SIZE,
+				findOptionValue(packet, modeEnd + 1, Tftp.BLOCK_SIZE_OPTION, MIN_BLOCK_SIZE, MAX_BLOCK_SIZE, DEFAULT_BLOCK_SIZE));
+		int windowSize = Math.min(SERVER_MAX_WINDOW_SIZE,
+				findOptionValue(packet, modeEnd + 1, Tftp.WINDOW_SIZE_OPTION, 1, MAX_WINDOW_SIZE, 1));
+		return (long) blockSize * windowSize;
+	}
+
+	/**
+	 * reads the value of a numeric option straight from a request
+	 *
+	 * @param packet the request
+	 * @param optionsStart index the options start at
+	 * @param name name of the option, in lower case
+	 * @param min smallest valid value of the option
+	 * @param max largest valid value of the option
+	 * @param defaultValue value used if the option is not sent or its value is not valid
+	 * @return the value of the option
+	 */
+	private static int findOptionValue(ByteBuffer packet, int optionsStart, String name, int min, int max, int defaultValue){
+		int valueStart = PacketDecoder.findOption(packet, optionsStart, name);
+		if (valueStart < 0)
+			return defaultValue;
+		long value = PacketDecoder.parseNumber(packet, valueStart, PacketDecoder.findTextEnd(packet, valueStart));
+		return value < min || value > max ? defaultValue : (int) value;
+	}
+
+	/**
+	 * ensures the received message is of proper format. format follows:
+	 *
+	 * byte 0: 0 byte
+	 * byte 1: 1 byte for read request, 2 byte for write request
+	 * byte 2 to n: some text
+	 * byte n+1: 0 byte
+	 * byte n+2 to m: some text
+	 * byte m+1: 0 byte
+	 * followed by any number of options, each formatted as some text, a 0 byte,
+	 * some more text and a 0 byte (the option's name and value)
+	 *
+	 * @param messageData buffer containing the request
+	 * @param length number of bytes of the buffer the request occupies
+	 * @return the parsed request
+	 * @throws InvalidMessageFormatException indicates that the received message is not a valid read/write command
+	 */
+	public static TransferRequest parse(byte[] messageData, int length) throws InvalidMessageFormatException {
+		//check first byte
+		if (length < 2 || messageData[0] != 0)
+			throw new InvalidMessageFormatException();
+
+		//check read/write byte
+		ByteBuffer packet = ByteBuffer.wrap(messageData, 0, length);
+		byte opcode = PacketDecoder.getOpcode(packet);
+		if (opcode != Tftp.OP_RRQ && opcode != Tftp.OP_WRQ)
+			throw new InvalidMessageFormatException("Op code not recognized", Tftp.ILLEGAL_TFTP_OPERATION);
+
+		/*
+		 * Check for some text followed by a zero
+		 */
+		//NOTE: this does not allow for spaces (space represented by a zero byte)
+		int fileNameEnd = PacketDecoder.findTextEnd(packet, 2);
+		if (fileNameEnd < 0)
+			throw new InvalidMessageFormatException("Reached End Of Packet");
+		String fileName = PacketDecoder.getText(packet, 2, fileNameEnd);
+
+		//if our filename does not have a '.' in it or is empty, it does not indicate file type, and so is invalid
+		if (fileName.isEmpty() || !fileName.contains("."))
+			throw new InvalidMessageFormatException("Invalid Filename", Tftp.ILLEGAL_TFTP_OPERATION);
+
+		/*
+		 * Check for some more text followed by a zero
+		 */
+		int modeEnd = PacketDecoder.findTextEnd(packet, fileNameEnd + 1);
+		if (modeEnd < 0)
+			throw new InvalidMessageFormatException("Reached End Of Packet");
+		String mode = PacketDecoder.getText(packet, fileNameEnd + 1, modeEnd).toLowerCase();
+
+		//if the mode text is not netascii or octet, or is empty, packet is invalid
+		if (!mode.equals("netascii") && !mode.equals("octet"))
+			throw new InvalidMessageFormatException("Invalid Mode", Tftp.ILLEGAL_TFTP_OPERATION);
+		TransferRequest request = new TransferRequest(opcode, fileName, mode);
+
+		//any remaining text is options, as pairs of a name and a value
+		int index = modeEnd + 1;
+		while (index < length) {
+			int nameEnd = PacketDecoder.findTextEnd(packet, index);
+			int valueEnd = nameEnd < 0 ? -1 : PacketDecoder.findTextEnd(packet, nameEnd + 1);
+			if (valueEnd < 0)
+				throw new InvalidMessageFormatException("Option Not Terminated", Tftp.OPTION_NEGOTIATION_FAILED);
+			if (nameEnd == index)
+				throw new InvalidMessageFormatException("Invalid Option", Tftp.OPTION_NEGOTIATION_FAILED);
+			request.negotiate(PacketDecoder.getText(packet, index, nameEnd).toLowerCase(),
+					PacketDecoder.getText(packet, nameEnd + 1, valueEnd));
+			index = valueEnd + 1;
+		}
+		return request;
+	}
+}
@@ -0,0 +1,93 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import logging.Logger;
+
+/**
+ * the transfers in progress on the server, from either engine, each numbered as it
+ * starts. transfers add themselves when they start and remove themselves when they
+ * end, and the table can be listed and a transfer cancelled from any thread, such as
+ * the console or a JMX client
+ *
+ * @author Luke Newton
+ */
+public class TransferTable implements TransferTableMXBean {
+	//log for the server's messages
+	private static final Logger log = Logger.getLogger("server");
+	//message of the ERROR packet sent to clients whose transfer is cancelled from the table
+	static final String CANCEL_MESSAGE = "Transfer cancelled by the server.";
+
+	//number identifying each transfer in progress
+	private Map<ActiveTransfer, Long> transfers;
+	//number given to the last transfer added
+	private AtomicLong lastId;
+
+	/**
+	 * Constructor
+	 */
+	public TransferTable(){
+		transfers = new ConcurrentHashMap<>();
+		lastId = new AtomicLong();
+	}
+
+	/**
+	 * @param transfer a transfer that has started
+	 */
+	void add(ActiveTransfer transfer){
+		transfers.put(transfer, lastId.incrementAndGet());
+	}
+
+	/**
+	 * @param transfer a transfer that has ended
+	 */
+	void remove(ActiveTransfer transfer){
+		transfers.remove(transfer);
+	}
+
+	@Override
+	public int getTransferCount(){
+		return transfers.size();
+	}
+
+	@Override
+	public List<TransferInfo> getTransfers(){
+		List<TransferInfo> rows = new ArrayList<>(transfers.size());
+		for (Map.Entry<ActiveTransfer, Long> transfer : transfers.entrySet())
+			rows.add(new TransferInfo(transfer.getValue(), transfer.getKey()));
+		rows.sort(Comparator.comparingLong(TransferInfo::getId));
+		return rows;
+	}
+
+	@Override
+	public boolean cancelTransfer(long id){
+		//cancelling is rare, so the transfer is searched for rather than indexed by number
+		for (Map.Entry<ActiveTransfer, Long> transfer : transfers.entrySet()) {
+			if (transfer.getValue() == id) {
+				log.warn("Cancelling transfer #" + id + " on request");
+				transfer.getKey().cancel(CANCEL_MESSAGE);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the transfers in progress for display on the console, a line each
+	 */
+	@Override
+	public String toString(){
+		List<TransferInfo> rows = getTransfers();
+		if (rows.isEmpty())
+			return "none";
+		StringBuilder table = new StringBuilder();
+		for (TransferInfo row : rows)
+			table.append("\n  ").append(row);
+		return table.toString();
+	}
+}
@@ -0,0 +1,29 @@
+package server;
+
+import java.util.List;
+
+/**
+ * management interface of the server's table of transfers in progress, registered
+ * with JMX as tftp.server:type=Transfers
+ *
+ * @author Luke Newton
+ */
+public interface TransferTableMXBean {
+	/**
+	 * @return number of transfers in progress
+	 */
+	int getTransferCount();
+
+	/**
+	 * @return every transfer in progress, oldest first
+	 */
+	List<TransferInfo> getTransfers();
+
+	/**
+	 * end a transfer in progress, informing its client it was cancelled
+	 *
+	 * @param id number identifying the transfer in the table
+	 * @return true if the transfer was found, false if it is not in progress
+	 */
+	boolean cancelTransfer(long id);
+}
@@ -0,0 +1,235 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.FileAlreadyExistsException;
+
+import protocol.BufferPool;
+import protocol.PacketDecoder;
+import protocol.PacketEncoder;
+import protocol.Tftp;
+
+/**
+ * the state of a write request processed by a TransferEventLoop: the server
+ * acknowledges each DATA block received from the client, writing each block to a
+ * temporary file as it arrives and renaming it once the final block has arrived
+ *
+ * @author Luke Newton
+ */
+class WriteTransfer extends Transfer {
+	//the file being received, written a block at a time
+	private FileBlockWriter file;
+	//number of the DATA block last received
+	private int blockNumber;
+	//number of the DATA block last acknowledged
+	private int lastAcknowledged;
+	//buffer the ACK packets are built in
+	private ByteBuffer ackPacket;
+	//set once a write lock is held on the file
+	private boolean fileLocked;
+
+	/**
+	 * Constructor
+	 *
+	 * @param server the server that received the request
+	 * @param channel channel used to talk to the client
+	 * @param clientAddress address and port of the client
+	 * @param filePath path of the file to write
+	 * @param request the request that began the transfer
+	 * @param permit what the request holds from the admission controller until the transfer ends
+	 */
+	WriteTransfer(Server server, DatagramChannel channel, InetSocketAddress clientAddress, String filePath, TransferRequest request,
+			AdmissionController.Permit permit){
+		super(server, channel, clientAddress, filePath, request, permit);
+		ackPacket = BufferPool.direct().acquire(Tftp.HEADER_LENGTH);
+	}
+
+	@Override
+	void start() throws IOException {
+		if (!server.getFileLocks().tryLockWrite(filePath)) {
+			log.error("Error: File is in use by another transfer.");
+			sendError(Tftp.FILE_ALREADY_EXISTS, "File Already Exists.");
+			return;
+		}
+		fileLocked = true;
+
+		//Check for file already exists
+		File target = new File(filePath);
+		if (target.exists() && target.isFile()) {
+			log.error("Error: File Already exists.");
+			sendError(Tftp.FILE_ALREADY_EXISTS, "File Already Exists.");
+			return;
+		}
+		try {
+			file = new FileBlockWriter(target.toPath());
+		} catch (IOException e) {
+			log.error("Failed to create the file.", e);
+			sendError(Tftp.ACCESS_VIOLATION, "Failed to write file.");
+			return;
+		} catch (SecurityException se) {
+			log.error("Access violation while trying to write file to server.");
+			sendError(Tftp.ACCESS_VIOLATION, "Failed access file - Access Violation.");
+			return;
+		}
+		//with the size of the file known, refuse it now if it will not fit rather than part way through
+		if (request.getTransferSize() >= 0) {
+			try {
+				file.reserve(request.getTransferSize());
+			} catch (IOException e) {
+				log.error("Failed to reserve space for the file: " + e.getMessage());
+				sendWriteError(e);
+				return;
+			}
+		}
+		//the OACK takes the place of the ACK for block 0
+		if (!sendOptionAcknowledgement())
+			acknowledge(0);
+	}
+
+	@Override
+	void handlePacket(byte opcode, ByteBuffer packet) throws IOException {
+		if (opcode != Tftp.OP_DATA || packet.remaining() < Tftp.HEADER_LENGTH) {
+			log.warn("Error during file write: unexpected packet format.");
+			return;
+		}
+
+		//a block larger than agreed would grow the file past the size reserved and admitted for it
+		if (PacketDecoder.getDataLength(packet) > blockSize) {
+			log.error("Error: DATA block of " + PacketDecoder.getDataLength(packet) + " bytes from " + clientAddress
+					+ " is larger than the block size of " + blockSize);
+			sendError(Tftp.ILLEGAL_TFTP_OPERATION, "DATA larger than the block size.");
+			return;
+		}
+
+		int receivedBlockNumber = PacketDecoder.getBlockNumber(packet);
+		if (receivedBlockNumber != ((blockNumber + 1) & 0xFFFF)) {
+			//duplicate of a block already received, the ACK for it must have been lost
+			if (receivedBlockNumber == (blockNumber & 0xFFFF)) {
+				metrics.duplicateReceived();
+				resend();
+			}
+			//a later block of the window, so blocks were lost: have the client resend from the last block received
+			else if (((receivedBlockNumber - blockNumber) & 0xFFFF) <= windowSize && lastAcknowledged != blockNumber)
+				resend();
+			return;
+		}
+
+		blockNumber++;
+		timer.acknowledged();
+		int dataLength = PacketDecoder.getDataLength(packet);
+		try {
+			packet.position(packet.position() + Tftp.HEADER_LENGTH);
+			file.write(packet);
+		} catch (IOException e) {
+			log.error("Failed to write the file.", e);
+			sendWriteError(e);
+			return;
+		}
+		metrics.dataReceived(dataLength);
+		bytesTransferred += dataLength;
+
+		if (dataLength < blockSize) {
+			//final block received, the final ACK is only sent once the file is written
+			if (writeFile())
+				acknowledge(blockNumber);
+			finish();
+		} else if (blockNumber - lastAcknowledged >= windowSize)
+			//acknowledge once a window of blocks has been received
+			acknowledge(blockNumber);
+	}
+
+	/**
+	 * acknowledges the last block received in order. if that block has already been
+	 * acknowledged, the last packet sent (which may be an OACK) is resent instead
+	 */
+	@Override
+	protected void resend() throws IOException {
+		if (blockNumber != lastAcknowledged) {
+			//the DATA that follows may answer this ACK or the one before it, so it is not timed
+			timer.resent();
+			acknowledge(blockNumber);
+		} else
+			super.resend();
+	}
+
+	/**
+	 * finishes the file once every block has been received
+	 *
+	 * @return true if the file was written
+	 * @throws IOException indicates an I/O error occurred while sending an ERROR packet
+	 */
+	private boolean writeFile() throws IOException {
+		try {
+			file.commit();
+			completed = true;
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			log.error("Error: File Already exists.");
+			sendError(Tftp.FILE_ALREADY_EXISTS, "File Already Exists.");
+		} catch (IOException e) {
+			log.error("Failed to write the file.", e);
+			sendWriteError(e);
+		} catch (SecurityException se) {
+			log.error("Access violation while trying to write file to server.");
+			sendError(Tftp.ACCESS_VIOLATION, "Failed access file - Access Violation.");
+		}
+		return false;
+	}
+
+	/**
+	 * informs the client that the file could not be written
+	 *
+	 * @param e the exception thrown while writing the file
+	 * @throws IOException indicates an I/O error occurred while sending
+	 */
+	private void sendWriteError(IOException e) throws IOException {
+		if (e instanceof DiskFullException)
+			sendError(Tftp.DISK_FULL, "Failed to write file - disk full.");
+		else
+			sendError(Tftp.ACCESS_VIOLATION, "Failed to write file.");
+	}
+
+	/**
+	 * acknowledges reception of a DATA block
+	 *
+	 * @param number the number of the block to acknowledge
+	 * @throws IOException indicates an I/O error occurred while sending
+	 */
+	private void acknowledge(int number) throws IOException {
+		ackPacket.clear();
+		PacketEncoder.putAcknowledgement(ackPacket, number);
+		ackPacket.flip();
+		send(ackPacket);
+		lastAcknowledged = number;
+	}
+
+	@Override
+	public int getBlockNumber() {
+		return blockNumber;
+	}
+
+	@Override
+	void releaseBuffers() {
+		BufferPool.direct().release(ackPacket);
+		ackPacket = null;
+	}
+
+	@Override
+	void releaseFile() {
+		if (fileLocked)
+			server.getFileLocks().unlockWrite(filePath);
+		fileLocked = false;
+		if (file != null) {
+			try {
+				//removes the temporary file if the transfer did not finish
+				file.close();
+			} catch (IOException e) {
+				log.error("Failed to remove unfinished file", e);
+			}
+			file = null;
+		}
+	}
+}
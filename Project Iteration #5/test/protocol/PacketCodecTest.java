@@ -0,0 +1,364 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * round trip tests of PacketEncoder and PacketDecoder: every kind of packet is written
+ * with the encoder and read back with the decoder, which must give back exactly what was
+ * written. the packets are also checked byte for byte against RFC 1350, 2347, 2348 and
+ * 7440, so the two cannot agree on a wrong format.
+ *
+ * run from the project folder with
+ *   javac -d build/test src/protocol/*.java src/logging/*.java test/protocol/*.java
+ *   java -cp build/test protocol.PacketCodecTest
+ * the exit status is 1 if any check failed
+ *
+ * @author Luke Newton
+ */
+public class PacketCodecTest {
+	//largest block size allowed by RFC 2348
+	private static final int MAX_BLOCK_SIZE = 65464;
+
+	//number of checks run and failed
+	private static int checks;
+	private static int failures;
+
+	public static void main(String[] args) {
+		requestWithoutOptions();
+		requestWithOptions();
+		requestOptionsIgnoreCase();
+		requestLength();
+		data(0);
+		data(1);
+		data(512);
+		data(MAX_BLOCK_SIZE);
+		dataHeaderOnly();
+		acknowledgement();
+		blockNumberWraparound();
+		error();
+		errorWithoutTerminator();
+		optionAcknowledgement();
+		shortPackets();
+		offsetBuffer();
+		numbers();
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * a RRQ and a WRQ with no options
+	 */
+	private static void requestWithoutOptions() {
+		for (byte opcode : new byte[] {Tftp.OP_RRQ, Tftp.OP_WRQ}) {
+			ByteBuffer packet = encode(64, buffer -> PacketEncoder.putRequest(buffer, opcode, "test.txt", "octet"));
+			check(Arrays.equals(bytes(packet), concat(new byte[] {0, opcode}, text("test.txt"), text("octet"))),
+					Tftp.typeName(opcode) + " bytes");
+			check(PacketDecoder.getOpcode(packet) == opcode, Tftp.typeName(opcode) + " op code");
+			int nameEnd = PacketDecoder.findTextEnd(packet, 2);
+			check(PacketDecoder.getText(packet, 2, nameEnd).equals("test.txt"), Tftp.typeName(opcode) + " file name");
+			int modeEnd = PacketDecoder.findTextEnd(packet, nameEnd + 1);
+			check(PacketDecoder.getText(packet, nameEnd + 1, modeEnd).equals("octet"), Tftp.typeName(opcode) + " mode");
+			check(modeEnd == packet.remaining() - 1, Tftp.typeName(opcode) + " ends after the mode");
+			check(PacketDecoder.findOption(packet, modeEnd + 1, Tftp.BLOCK_SIZE_OPTION) < 0,
+					Tftp.typeName(opcode) + " has no options");
+		}
+	}
+
+	/**
+	 * a RRQ and a WRQ with every option this TFTP supports
+	 */
+	private static void requestWithOptions() {
+		for (byte opcode : new byte[] {Tftp.OP_RRQ, Tftp.OP_WRQ}) {
+			ByteBuffer packet = encode(128, buffer -> {
+				PacketEncoder.putRequest(buffer, opcode, "a.bin", "netascii");
+				PacketEncoder.putOption(buffer, Tftp.BLOCK_SIZE_OPTION, 1428);
+				PacketEncoder.putOption(buffer, Tftp.TIMEOUT_OPTION, 3);
+				PacketEncoder.putOption(buffer, Tftp.TRANSFER_SIZE_OPTION, 0);
+				PacketEncoder.putOption(buffer, Tftp.WINDOW_SIZE_OPTION, "16");
+			});
+			check(Arrays.equals(bytes(packet), concat(new byte[] {0, opcode}, text("a.bin"), text("netascii"),
+					text("blksize"), text("1428"), text("timeout"), text("3"), text("tsize"), text("0"),
+					text("windowsize"), text("16"))), Tftp.typeName(opcode) + " with options bytes");
+			int optionsStart = PacketDecoder.findTextEnd(packet, PacketDecoder.findTextEnd(packet, 2) + 1) + 1;
+			check(option(packet, optionsStart, Tftp.BLOCK_SIZE_OPTION) == 1428, Tftp.typeName(opcode) + " blksize");
+			check(option(packet, optionsStart, Tftp.TIMEOUT_OPTION) == 3, Tftp.typeName(opcode) + " timeout");
+			check(option(packet, optionsStart, Tftp.TRANSFER_SIZE_OPTION) == 0, Tftp.typeName(opcode) + " tsize");
+			check(option(packet, optionsStart, Tftp.WINDOW_SIZE_OPTION) == 16, Tftp.typeName(opcode) + " windowsize");
+			check(PacketDecoder.findOption(packet, optionsStart, "multicast") < 0,
+					Tftp.typeName(opcode) + " option not sent is not found");
+		}
+	}
+
+	/**
+	 * option names are matched whatever their case (RFC 2347)
+	 */
+	private static void requestOptionsIgnoreCase() {
+		ByteBuffer packet = encode(64, buffer -> {
+			PacketEncoder.putRequest(buffer, Tftp.OP_RRQ, "a.bin", "octet");
+			PacketEncoder.putOption(buffer, "BlkSize", 8192);
+		});
+		int optionsStart = PacketDecoder.findTextEnd(packet, PacketDecoder.findTextEnd(packet, 2) + 1) + 1;
+		check(option(packet, optionsStart, Tftp.BLOCK_SIZE_OPTION) == 8192, "option name in mixed case");
+	}
+
+	/**
+	 * requestLength() is the length putRequest() writes
+	 */
+	private static void requestLength() {
+		String[][] requests = {{"", "octet"}, {"x", "netascii"}, {"some/long name.txt", "octet"}};
+		for (String[] request : requests) {
+			ByteBuffer packet = encode(64, buffer -> PacketEncoder.putRequest(buffer, Tftp.OP_WRQ, request[0], request[1]));
+			check(packet.remaining() == PacketEncoder.requestLength(request[0], request[1]),
+					"request length of \"" + request[0] + "\"");
+		}
+	}
+
+	/**
+	 * a DATA packet carrying a block of the given size
+	 *
+	 * @param size number of bytes in the block
+	 */
+	private static void data(int size) {
+		byte[] block = new byte[size];
+		for (int i = 0; i < size; i++)
+			block[i] = (byte) (i * 31 + 7);
+		ByteBuffer packet = encode(size + Tftp.HEADER_LENGTH, buffer -> PacketEncoder.putData(buffer, 42, block, 0, size));
+		check(packet.remaining() == size + Tftp.HEADER_LENGTH, "DATA of " + size + " bytes length");
+		check(PacketDecoder.getOpcode(packet) == Tftp.OP_DATA, "DATA of " + size + " bytes op code");
+		check(PacketDecoder.getBlockNumber(packet) == 42, "DATA of " + size + " bytes block number");
+		check(PacketDecoder.getDataLength(packet) == size, "DATA of " + size + " bytes data length");
+		byte[] decoded = new byte[size];
+		((ByteBuffer) packet.duplicate().position(Tftp.HEADER_LENGTH)).get(decoded);
+		check(Arrays.equals(decoded, block), "DATA of " + size + " bytes data");
+	}
+
+	/**
+	 * a DATA header written for the block to be read into the buffer after it, from part
+	 * of a larger array
+	 */
+	private static void dataHeaderOnly() {
+		ByteBuffer buffer = ByteBuffer.allocate(516);
+		PacketEncoder.putDataHeader(buffer, 7);
+		check(buffer.position() == Tftp.HEADER_LENGTH, "DATA header leaves the buffer at the data");
+		byte[] source = {9, 8, 7, 6, 5, 4};
+		buffer.put(source, 2, 3);
+		buffer.flip();
+		check(Arrays.equals(bytes(buffer), new byte[] {0, Tftp.OP_DATA, 0, 7, 7, 6, 5}), "DATA header bytes");
+		check(PacketDecoder.getDataLength(buffer) == 3, "DATA header data length");
+	}
+
+	/**
+	 * an ACK, including for block 0 (the answer to a WRQ or OACK)
+	 */
+	private static void acknowledgement() {
+		for (int block : new int[] {0, 1, 255, 256, 65535}) {
+			ByteBuffer packet = encode(Tftp.HEADER_LENGTH, buffer -> PacketEncoder.putAcknowledgement(buffer, block));
+			check(Arrays.equals(bytes(packet), new byte[] {0, Tftp.OP_ACK, (byte) (block >> 8), (byte) block}),
+					"ACK " + block + " bytes");
+			check(PacketDecoder.getOpcode(packet) == Tftp.OP_ACK, "ACK " + block + " op code");
+			check(PacketDecoder.getBlockNumber(packet) == block, "ACK " + block + " block number");
+		}
+	}
+
+	/**
+	 * block numbers are kept to 16 bits, so the block after 65535 is 0 (RFC 7440 and
+	 * most servers for files of more than 65535 blocks), and are read back unsigned
+	 */
+	private static void blockNumberWraparound() {
+		int[][] expected = {{65535, 65535}, {65536, 0}, {65537, 1}, {131071, 65535}, {32768, 32768}};
+		for (int[] block : expected) {
+			ByteBuffer ack = encode(Tftp.HEADER_LENGTH, buffer -> PacketEncoder.putAcknowledgement(buffer, block[0]));
+			check(PacketDecoder.getBlockNumber(ack) == block[1], "ACK " + block[0] + " wraps to " + block[1]);
+			ByteBuffer data = encode(Tftp.HEADER_LENGTH, buffer -> PacketEncoder.putDataHeader(buffer, block[0]));
+			check(PacketDecoder.getBlockNumber(data) == block[1], "DATA " + block[0] + " wraps to " + block[1]);
+		}
+		//the next block is found the way the server and client find it
+		int last = PacketDecoder.getBlockNumber(encode(Tftp.HEADER_LENGTH, buffer -> PacketEncoder.putAcknowledgement(buffer, 65535)));
+		check(((last + 1) & 0xFFFF) == 0, "block after 65535 is 0");
+	}
+
+	/**
+	 * an ERROR packet with every error code
+	 */
+	private static void error() {
+		for (byte code = Tftp.NOT_DEFINED; code <= Tftp.OPTION_NEGOTIATION_FAILED; code++) {
+			byte errorCode = code;
+			String message = "error " + code;
+			ByteBuffer packet = encode(PacketEncoder.errorLength(message),
+					buffer -> PacketEncoder.putError(buffer, errorCode, message));
+			check(packet.remaining() == PacketEncoder.errorLength(message), "ERROR " + code + " length");
+			check(Arrays.equals(bytes(packet), concat(new byte[] {0, Tftp.OP_ERROR, 0, code}, text(message))),
+					"ERROR " + code + " bytes");
+			check(PacketDecoder.getOpcode(packet) == Tftp.OP_ERROR, "ERROR " + code + " op code");
+			check(PacketDecoder.getErrorCode(packet) == code, "ERROR " + code + " error code");
+			check(PacketDecoder.getErrorMessage(packet).equals(message), "ERROR " + code + " message");
+		}
+		ByteBuffer empty = encode(PacketEncoder.errorLength(""), buffer -> PacketEncoder.putError(buffer, Tftp.DISK_FULL, ""));
+		check(PacketDecoder.getErrorMessage(empty).isEmpty(), "ERROR with an empty message");
+	}
+
+	/**
+	 * an ERROR packet from a peer that left off the 0 byte ending the message
+	 */
+	private static void errorWithoutTerminator() {
+		ByteBuffer packet = ByteBuffer.wrap(concat(new byte[] {0, Tftp.OP_ERROR, 0, Tftp.FILE_NOT_FOUND}, "gone".getBytes()));
+		check(PacketDecoder.getErrorMessage(packet).equals("gone"), "ERROR message without its 0 byte");
+	}
+
+	/**
+	 * an OACK with the options agreed, and one with none
+	 */
+	private static void optionAcknowledgement() {
+		ByteBuffer packet = encode(64, buffer -> {
+			PacketEncoder.putOptionAcknowledgement(buffer);
+			PacketEncoder.putOption(buffer, Tftp.BLOCK_SIZE_OPTION, MAX_BLOCK_SIZE);
+			PacketEncoder.putOption(buffer, Tftp.TRANSFER_SIZE_OPTION, 34000000000L);
+			PacketEncoder.putOption(buffer, Tftp.WINDOW_SIZE_OPTION, 65535);
+		});
+		check(Arrays.equals(bytes(packet), concat(new byte[] {0, Tftp.OP_OACK}, text("blksize"), text("65464"),
+				text("tsize"), text("34000000000"), text("windowsize"), text("65535"))), "OACK bytes");
+		check(PacketDecoder.getOpcode(packet) == Tftp.OP_OACK, "OACK op code");
+		check(option(packet, 2, Tftp.BLOCK_SIZE_OPTION) == MAX_BLOCK_SIZE, "OACK blksize");
+		check(option(packet, 2, Tftp.TRANSFER_SIZE_OPTION) == 34000000000L, "OACK tsize larger than an int");
+		check(option(packet, 2, Tftp.WINDOW_SIZE_OPTION) == 65535, "OACK windowsize");
+		check(PacketDecoder.findOption(packet, 2, Tftp.TIMEOUT_OPTION) < 0, "OACK option not agreed");
+
+		ByteBuffer none = encode(2, PacketEncoder::putOptionAcknowledgement);
+		check(Arrays.equals(bytes(none), new byte[] {0, Tftp.OP_OACK}), "OACK with no options bytes");
+		check(PacketDecoder.findOption(none, 2, Tftp.BLOCK_SIZE_OPTION) < 0, "OACK with no options");
+	}
+
+	/**
+	 * packets too short for a field are read as not having it, not as an exception
+	 */
+	private static void shortPackets() {
+		ByteBuffer empty = ByteBuffer.allocate(0);
+		check(PacketDecoder.getOpcode(empty) == 0, "empty packet op code");
+		ByteBuffer opcodeOnly = ByteBuffer.wrap(new byte[] {0, Tftp.OP_ACK});
+		check(PacketDecoder.getBlockNumber(opcodeOnly) == -1, "ACK without a block number");
+		check(PacketDecoder.getDataLength(opcodeOnly) == 0, "DATA without a block number");
+		check(PacketDecoder.getErrorCode(opcodeOnly) == -1, "ERROR without an error code");
+		check(PacketDecoder.getErrorMessage(opcodeOnly).isEmpty(), "ERROR without a message");
+		ByteBuffer unterminated = ByteBuffer.wrap(concat(new byte[] {0, Tftp.OP_RRQ}, "a.bin".getBytes()));
+		check(PacketDecoder.findTextEnd(unterminated, 2) == -1, "request without the 0 byte ending the file name");
+		ByteBuffer noValue = ByteBuffer.wrap(concat(new byte[] {0, Tftp.OP_OACK}, text("blksize")));
+		check(PacketDecoder.findOption(noValue, 2, Tftp.BLOCK_SIZE_OPTION) == -1, "option without a value");
+	}
+
+	/**
+	 * packets held part way into a buffer are read from the buffer's position, as the
+	 * decoder's indexes count from the start of the packet
+	 */
+	private static void offsetBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put(new byte[] {1, 2, 3});
+		PacketEncoder.putError(buffer, Tftp.FILE_ALREADY_EXISTS, "exists");
+		buffer.flip().position(3);
+		check(PacketDecoder.getOpcode(buffer) == Tftp.OP_ERROR, "packet at an offset op code");
+		check(PacketDecoder.getErrorCode(buffer) == Tftp.FILE_ALREADY_EXISTS, "packet at an offset error code");
+		check(PacketDecoder.getErrorMessage(buffer).equals("exists"), "packet at an offset message");
+		check(buffer.position() == 3, "decoding leaves the buffer where it was");
+	}
+
+	/**
+	 * option values written as numbers read back the same, and values that are not
+	 * decimal numbers are refused
+	 */
+	private static void numbers() {
+		for (long value : new long[] {0, 1, 9, 10, 99, 100, 512, 65535, Integer.MAX_VALUE, 999999999999999999L}) {
+			ByteBuffer packet = encode(32, buffer -> PacketEncoder.putOption(buffer, "n", value));
+			check(option(packet, 0, "n") == value, "number " + value);
+		}
+		for (String value : new String[] {"", "-1", "12a", " 1", "1000000000000000000"}) {
+			ByteBuffer packet = encode(32, buffer -> PacketEncoder.putOption(buffer, "n", value));
+			check(option(packet, 0, "n") == -1, "\"" + value + "\" is not a number");
+		}
+	}
+
+	/**
+	 * something written into a buffer
+	 */
+	private interface Encoding {
+		void encode(ByteBuffer buffer);
+	}
+
+	/**
+	 * write a packet into a buffer only as large as it should need, so an encoder writing
+	 * more fails with a BufferOverflowException
+	 *
+	 * @param capacity bytes the packet may take
+	 * @param encoding writes the packet
+	 * @return the packet, from the buffer's position to its limit
+	 */
+	private static ByteBuffer encode(int capacity, Encoding encoding) {
+		ByteBuffer buffer = ByteBuffer.allocate(capacity);
+		encoding.encode(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @param packet the packet
+	 * @param optionsStart index the options start at
+	 * @param name name of the option, in lower case
+	 * @return the value of the option, or -1 if the packet does not have it or it is not a number
+	 */
+	private static long option(ByteBuffer packet, int optionsStart, String name) {
+		int valueStart = PacketDecoder.findOption(packet, optionsStart, name);
+		if (valueStart < 0)
+			return -1;
+		return PacketDecoder.parseNumber(packet, valueStart, PacketDecoder.findTextEnd(packet, valueStart));
+	}
+
+	/**
+	 * @param packet the packet
+	 * @return the bytes of the packet, from the buffer's position to its limit
+	 */
+	private static byte[] bytes(ByteBuffer packet) {
+		byte[] bytes = new byte[packet.remaining()];
+		packet.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @param text the text
+	 * @return the text followed by a 0 byte, as it appears in a packet
+	 */
+	private static byte[] text(String text) {
+		return concat(text.getBytes(), new byte[] {0});
+	}
+
+	/**
+	 * @param parts arrays to join
+	 * @return the arrays one after another
+	 */
+	private static byte[] concat(byte[]... parts) {
+		int length = 0;
+		for (byte[] part : parts)
+			length += part.length;
+		byte[] joined = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, joined, offset, part.length);
+			offset += part.length;
+		}
+		return joined;
+	}
+
+	/**
+	 * record the result of a check, printing it if it failed
+	 *
+	 * @param passed true if the check passed
+	 * @param name what was checked
+	 */
+	private static void check(boolean passed, String name) {
+		checks++;
+		if (!passed) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+}
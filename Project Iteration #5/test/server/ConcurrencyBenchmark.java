@@ -0,0 +1,58 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * measures how the server's total throughput grows with the number of clients reading
+ * at once. every client reads the same file in lock-step, dropping a small fraction of
+ * the DATA it receives as a lossy network would, so each transfer spends most of its
+ * time waiting on its own timeouts. transfers that run in parallel overlap those waits,
+ * and the total throughput should grow about in step with the number of clients until
+ * the worker pool or the processors are used up; transfers run one at a time would
+ * give the same total however many clients there are.
+ *
+ * run from the project folder (see documentation/README.txt) with
+ *   java -cp build/test server.ConcurrencyBenchmark [file KB] [loss %] [engine]
+ * which defaults to a 1024 KB file, 0.5% loss and the pool engine
+ *
+ * @author Luke Newton
+ */
+public class ConcurrencyBenchmark {
+	//numbers of clients reading at once
+	private static final int[] CLIENTS = {1, 2, 4, 8, 16, 32};
+
+	public static void main(String[] args) throws IOException {
+		int fileKB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		double loss = args.length > 1 ? Double.parseDouble(args[1]) / 100 : 0.005;
+		String engine = args.length > 2 ? args[2] : "pool";
+
+		Path directory = TestServer.createDirectory();
+		try {
+			TestServer.createFile(directory, "bench.bin", fileKB * 1024L);
+			//enough workers for every client, so only the engine limits how many transfers run at once
+			try (TestServer server = TestServer.start(directory, "server.engine=" + engine, "server.poolSize=64",
+					"server.maxPoolSize=64")) {
+				System.out.println("engine " + engine + ", " + fileKB + " KB file, " + loss * 100 + "% of DATA lost");
+				System.out.println("clients  completed  seconds  total KB/s  KB/s per client");
+				for (int clients : CLIENTS) {
+					long start = System.nanoTime();
+					List<TestClient.Read> reads = new TestClient(server.getAddress()).loss(loss).read("bench.bin", clients);
+					double seconds = (System.nanoTime() - start) / 1e9;
+					long bytes = 0;
+					int completed = 0;
+					for (TestClient.Read read : reads) {
+						bytes += read.bytes;
+						if (read.complete)
+							completed++;
+					}
+					double total = bytes / 1024.0 / seconds;
+					System.out.printf("%7d  %9d  %7.2f  %10.0f  %15.0f%n", clients, completed, seconds, total, total / clients);
+				}
+			}
+		} finally {
+			TestServer.deleteDirectory(directory);
+		}
+	}
+}
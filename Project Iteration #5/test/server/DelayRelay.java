@@ -0,0 +1,166 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * passes packets between clients and a server, holding each one for a fixed delay in
+ * either direction, as a slower network would. clients send their requests to the
+ * relay instead of the server. like the error simulator, the relay talks to the server
+ * from a socket of its own for every client, and sends the rest of a client's packets
+ * to the port the server answered from; unlike the error simulator it needs no commands,
+ * so the benchmarks can run unattended
+ *
+ * @author Luke Newton
+ */
+final class DelayRelay implements Closeable {
+	//largest packet passed on
+	private static final int MAX_PACKET_SIZE = 65536;
+
+	//address of the server's request port
+	private final InetSocketAddress server;
+	//milliseconds each packet is held before it is passed on
+	private final long delayMillis;
+	//socket clients send their packets to, and receive the server's from
+	private final DatagramSocket clientSocket;
+	//connection to the server of each client, by the client's address
+	private final Map<SocketAddress, Connection> connections = new ConcurrentHashMap<>();
+	//sends each packet once it has been held for the delay, in the order received
+	private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "relay sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * a client's connection to the server
+	 */
+	private final class Connection implements Runnable {
+		//address packets from the server are passed on to
+		private final SocketAddress client;
+		//socket the client's packets are sent to the server from
+		private final DatagramSocket socket;
+		//address the client's packets are sent to: the request port until the server answers, then its TID
+		private volatile SocketAddress peer = server;
+
+		/**
+		 * Constructor
+		 *
+		 * @param client address packets from the server are passed on to
+		 * @throws IOException indicates the socket could not be opened
+		 */
+		Connection(SocketAddress client) throws IOException {
+			this.client = client;
+			socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		}
+
+		/**
+		 * passes on packets from the server to the client until the relay is closed
+		 */
+		@Override
+		public void run(){
+			DatagramPacket packet = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
+			try {
+				while (true) {
+					socket.receive(packet);
+					peer = packet.getSocketAddress();
+					pass(clientSocket, packet, client);
+				}
+			} catch (IOException e) {
+				//the relay was closed
+			}
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param server address of the server's request port
+	 * @param delayMillis milliseconds each packet is held before it is passed on
+	 * @throws IOException indicates the relay's socket could not be opened
+	 */
+	DelayRelay(InetSocketAddress server, long delayMillis) throws IOException {
+		this.server = server;
+		this.delayMillis = delayMillis;
+		clientSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		start(this::relayClients, "relay clients");
+	}
+
+	/**
+	 * @return address clients send their requests to
+	 */
+	InetSocketAddress getAddress(){
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), clientSocket.getLocalPort());
+	}
+
+	/**
+	 * passes on packets from clients to the server until the relay is closed
+	 */
+	private void relayClients(){
+		DatagramPacket packet = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
+		try {
+			while (true) {
+				clientSocket.receive(packet);
+				Connection connection = connections.get(packet.getSocketAddress());
+				if (connection == null) {
+					connection = new Connection(packet.getSocketAddress());
+					connections.put(packet.getSocketAddress(), connection);
+					start(connection, "relay " + packet.getSocketAddress());
+				}
+				pass(connection.socket, packet, connection.peer);
+			}
+		} catch (IOException e) {
+			//the relay was closed
+		}
+	}
+
+	/**
+	 * sends a copy of a packet once it has been held for the delay
+	 *
+	 * @param socket socket to send the packet from
+	 * @param packet the packet
+	 * @param destination address to send the packet to
+	 */
+	private void pass(DatagramSocket socket, DatagramPacket packet, SocketAddress destination){
+		byte[] data = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+		sender.schedule(() -> {
+			try {
+				socket.send(new DatagramPacket(data, data.length, destination));
+			} catch (IOException e) {
+				//lost, as it could be on a real network
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param task task to run on a thread of its own
+	 * @param name name of the thread
+	 */
+	private static void start(Runnable task, String name){
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * stops passing packets on
+	 */
+	@Override
+	public void close(){
+		sender.shutdownNow();
+		clientSocket.close();
+		for (Connection connection : connections.values())
+			connection.socket.close();
+	}
+}
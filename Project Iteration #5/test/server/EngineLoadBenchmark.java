@@ -0,0 +1,113 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * compares the transfer engines with thousands of transfers at once: a pool of platform
+ * threads, a virtual thread per transfer (Java 21 or later), and the event loops for
+ * reference. each engine is given room for every transfer (threads, admission limits
+ * and request ring), so the results show what each costs rather than where its limits
+ * were set. every client reads the same small file, a few round trips long, all
+ * requests sent together.
+ *
+ * a server asked for virtual threads on a JVM without them runs platform threads
+ * instead, which is reported rather than measured twice. thousands of transfers need
+ * as many sockets in this JVM and the server's, so the open file limit must allow them
+ *
+ * run from the project folder (see documentation/README.txt) with
+ *   java -cp build/test server.EngineLoadBenchmark [transfers ...]
+ * which defaults to 1000 and 10000 transfers
+ *
+ * @author Luke Newton
+ */
+public class EngineLoadBenchmark {
+	//engines compared, as named by -Dserver.engine
+	private static final String[] ENGINES = {"pool", "virtual", "nio"};
+	//size of the file read, 16 blocks of 512 bytes
+	private static final int FILE_SIZE = 8 * 1024;
+
+	public static void main(String[] args) throws IOException {
+		List<Integer> counts = new ArrayList<>();
+		for (String arg : args)
+			counts.add(Integer.parseInt(arg));
+		if (counts.isEmpty()) {
+			counts.add(1000);
+			counts.add(10000);
+		}
+		int most = Collections.max(counts);
+
+		Path directory = TestServer.createDirectory();
+		try {
+			TestServer.createFile(directory, "small.bin", FILE_SIZE);
+			System.out.println(Runtime.getRuntime().availableProcessors() + " processors, Java " + System.getProperty("java.version"));
+			System.out.println("engine   transfers  completed  failed  seconds  transfers/s  median ms  99th % ms");
+			for (String engine : ENGINES) {
+				try (TestServer server = TestServer.start(directory, "server.engine=" + engine,
+						"server.poolSize=" + most, "server.maxPoolSize=" + most, "server.maxVirtualThreads=" + most,
+						"server.maxTransfers=" + most, "server.requestRingSize=" + most)) {
+					if (engine.equals("virtual") && new String(Files.readAllBytes(directory.resolve("server.log")))
+							.contains("using a pool of platform threads instead")) {
+						System.out.println("virtual  (virtual threads need Java 21 or later, not measured)");
+						continue;
+					}
+					for (int count : counts)
+						run(server, engine, count);
+				}
+			}
+		} finally {
+			TestServer.deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * reads the file the given number of times at once and prints the results
+	 *
+	 * @param server the server
+	 * @param engine name of the server's engine
+	 * @param count number of transfers
+	 * @throws IOException indicates the transfers could not be made
+	 */
+	private static void run(TestServer server, String engine, int count) throws IOException {
+		long start = System.nanoTime();
+		List<TestClient.Read> reads = new TestClient(server.getAddress()).read("small.bin", count);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		List<Double> millis = new ArrayList<>();
+		//number of failed transfers for each reason given
+		Map<String, Integer> errors = new TreeMap<>();
+		int completed = 0;
+		for (TestClient.Read read : reads) {
+			if (read.complete && read.bytes == FILE_SIZE) {
+				completed++;
+				millis.add(read.getMillis());
+			} else {
+				String error = read.error == null ? "Incomplete file" : read.error;
+				Integer times = errors.get(error);
+				errors.put(error, times == null ? 1 : times + 1);
+			}
+		}
+		Collections.sort(millis);
+		System.out.printf("%-7s  %9d  %9d  %6d  %7.2f  %11.0f  %9.1f  %9.1f%n", engine, count, completed, count - completed,
+				seconds, completed / seconds, percentile(millis, 0.5), percentile(millis, 0.99));
+		for (Map.Entry<String, Integer> error : errors.entrySet())
+			System.out.println("         " + error.getValue() + " failed: " + error.getKey());
+	}
+
+	/**
+	 * @param sorted values in ascending order
+	 * @param fraction fraction of the values at or below the one returned
+	 * @return the value, or 0 if there are none
+	 */
+	private static double percentile(List<Double> sorted, double fraction) {
+		if (sorted.isEmpty())
+			return 0;
+		return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(fraction * sorted.size()) - 1));
+	}
+}
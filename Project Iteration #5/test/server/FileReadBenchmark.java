@@ -0,0 +1,195 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import protocol.Tftp;
+
+/**
+ * compares the ways a read request's blocks can be taken from the file: the whole file
+ * read into the heap and split into blocks (as the server once did), blocks read from
+ * the file's channel as they are needed, and blocks copied out of a mapping of the
+ * file. several readers read the same file at once, each copying every block into a
+ * DATA packet as a transfer would, so the results show the cost of each way both in
+ * time and in heap used per transfer.
+ *
+ * whether FileBlockReader maps a file is read once from server.mmapThresholdMB, so each
+ * way is measured in a JVM of its own. the file is read a few times before the timed
+ * passes, so it is in the page cache and the code is compiled, and the median pass is
+ * reported
+ *
+ * run from the project folder (see documentation/README.txt) with
+ *   java -cp build/test server.FileReadBenchmark [file MB] [readers]
+ * which defaults to a 64 MB file and 4 readers
+ *
+ * @author Luke Newton
+ */
+public class FileReadBenchmark {
+	//ways the file is read, as named on the command line of the JVM measuring them
+	private static final String WHOLE_FILE = "whole-file";
+	private static final String CHANNEL = "channel";
+	private static final String MAPPED = "mapped";
+	//passes over the file before the timed ones, and timed passes
+	private static final int WARM_UP_PASSES = 2;
+	private static final int TIMED_PASSES = 5;
+	//bytes in a block, the default block size
+	private static final int BLOCK_SIZE = 512;
+
+	//sum of bytes read, kept so the copies cannot be optimized away
+	private static volatile long checksum;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("--measure")) {
+			measure(args[1], Paths.get(args[2]), Integer.parseInt(args[3]));
+			return;
+		}
+		int fileMB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int readers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+		Path directory = TestServer.createDirectory();
+		try {
+			Path file = directory.resolve(ServerSpawnThread.DEFAULT_PATH + "bench.bin");
+			TestServer.createFile(directory, "bench.bin", fileMB * 1024L * 1024);
+			System.out.println(fileMB + " MB file, " + readers + " readers at once, " + BLOCK_SIZE + " byte blocks");
+			System.out.println("read as      MB/s  ms per pass  heap MB per reader");
+			//the file is split in the heap of the JVM measuring it, which needs room for every reader's copies
+			String heap = "-Xmx" + Math.max(256, 3 * fileMB * readers) + "m";
+			measureInChild(WHOLE_FILE, file, readers, heap, "-Dserver.mmapThresholdMB=-1");
+			measureInChild(CHANNEL, file, readers, heap, "-Dserver.mmapThresholdMB=-1");
+			measureInChild(MAPPED, file, readers, heap, "-Dserver.mmapThresholdMB=0");
+		} finally {
+			TestServer.deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * measures one way of reading the file in a JVM of its own, whose results are printed
+	 * to this JVM's output
+	 *
+	 * @param way the way the file is read
+	 * @param file the file
+	 * @param readers number of readers reading the file at once
+	 * @param options options of the JVM
+	 * @throws IOException indicates the JVM could not be started
+	 * @throws InterruptedException indicates this thread was interrupted while waiting for the JVM
+	 */
+	private static void measureInChild(String way, Path file, int readers, String... options)
+			throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.addAll(Arrays.asList(options));
+		command.add(FileReadBenchmark.class.getName());
+		command.add("--measure");
+		command.add(way);
+		command.add(file.toString());
+		command.add(Integer.toString(readers));
+		int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if (status != 0)
+			System.out.println(way + " failed, exit status " + status);
+	}
+
+	/**
+	 * reads the file with several readers at once, a number of times, and prints the
+	 * throughput of the median pass and the heap each reader used
+	 *
+	 * @param way the way the file is read
+	 * @param file the file
+	 * @param readers number of readers reading the file at once
+	 * @throws Exception indicates the file could not be read
+	 */
+	private static void measure(String way, Path file, int readers) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(readers);
+		try {
+			List<Double> millis = new ArrayList<>();
+			long heapBytes = 0;
+			for (int pass = 0; pass < WARM_UP_PASSES + TIMED_PASSES; pass++) {
+				List<Callable<Long>> tasks = new ArrayList<>();
+				for (int i = 0; i < readers; i++)
+					tasks.add(() -> read(way, file));
+				long start = System.nanoTime();
+				for (Future<Long> heapUsed : pool.invokeAll(tasks))
+					heapBytes = Math.max(heapBytes, heapUsed.get());
+				if (pass >= WARM_UP_PASSES)
+					millis.add((System.nanoTime() - start) / 1e6);
+			}
+			Collections.sort(millis);
+			double median = millis.get(millis.size() / 2);
+			double megabytes = (double) Files.size(file) * readers / (1024 * 1024);
+			System.out.printf("%-10s  %6.0f  %11.1f  %18s%n", way, megabytes / (median / 1000), median,
+					heapBytes < 0 ? "unknown" : String.format("%.1f", heapBytes / (1024.0 * 1024)));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * copies every block of the file into a DATA packet, in order
+	 *
+	 * @param way the way the file is read
+	 * @param file the file
+	 * @return bytes of heap allocated by this thread while reading, or -1 if the JVM cannot tell
+	 * @throws IOException indicates the file could not be read
+	 */
+	private static long read(String way, Path file) throws IOException {
+		long allocatedBefore = allocatedBytes();
+		byte[] packet = new byte[Tftp.HEADER_LENGTH + BLOCK_SIZE];
+		long sum = 0;
+		if (way.equals(WHOLE_FILE)) {
+			byte[][] blocks = splitByteArray(Files.readAllBytes(file));
+			for (byte[] block : blocks) {
+				System.arraycopy(block, 0, packet, Tftp.HEADER_LENGTH, block.length);
+				sum += packet[Tftp.HEADER_LENGTH];
+			}
+		} else {
+			try (FileBlockReader reader = new FileBlockReader(file, BLOCK_SIZE)) {
+				if (reader.isMapped() != way.equals(MAPPED))
+					throw new IllegalStateException("server.mmapThresholdMB does not match " + way);
+				int length;
+				for (long block = 1; (length = reader.readBlock(block, packet, Tftp.HEADER_LENGTH)) > 0; block++)
+					sum += packet[Tftp.HEADER_LENGTH] + length;
+			}
+		}
+		checksum += sum;
+		long allocatedAfter = allocatedBytes();
+		return allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+	}
+
+	/**
+	 * the server's original way of dividing a file into blocks, kept here as the baseline
+	 *
+	 * @param data the whole file
+	 * @return the blocks, the last one shorter than a full block
+	 */
+	private static byte[][] splitByteArray(byte[] data){
+		byte[][] result = new byte[data.length / BLOCK_SIZE + 1][];
+		for (int i = 0; i < result.length; i++) {
+			int start = i * BLOCK_SIZE;
+			result[i] = Arrays.copyOfRange(data, start, Math.min(data.length, start + BLOCK_SIZE));
+		}
+		return result;
+	}
+
+	/**
+	 * @return bytes of heap this thread has allocated, or -1 if the JVM cannot tell
+	 */
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,111 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * tests that the production profile accepts requests with no artificial delay, and that
+ * the pause which lets a class follow a transfer is only made in the demo profile. a
+ * server is started in each profile and sent a burst of read requests at once; the time
+ * from each request to the server's first answer is its acceptance time, and the number
+ * of requests accepted per second is the acceptance rate. both servers have a worker for
+ * every request, so nothing but the profile holds a request back.
+ *
+ * run from the project folder (see documentation/README.txt) with
+ *   java -cp build/test server.ProfileAcceptanceTest [requests]
+ * which defaults to 100 requests. the exit status is 1 if any check failed
+ *
+ * @author Luke Newton
+ */
+public class ProfileAcceptanceTest {
+	//milliseconds the demo profile holds each request
+	private static final double DEMO_PAUSE_MILLISECONDS = 1000;
+
+	//number of checks run and failed
+	private static int checks;
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+		Path directory = TestServer.createDirectory();
+		try {
+			TestServer.createFile(directory, "small.bin", 1024);
+			System.out.println("profile     accepted  median ms  slowest ms  accepted/s");
+			List<Double> production = accept(directory, "production", requests);
+			List<Double> demo = accept(directory, "demo", requests);
+
+			check(production.size() == requests, "production accepts every request");
+			//a burst can take a loaded machine hundreds of milliseconds to answer, but never a whole pause
+			check(!production.isEmpty() && production.get(production.size() - 1) < DEMO_PAUSE_MILLISECONDS,
+					"production accepts every request without a pause");
+			check(demo.size() == requests, "demo accepts every request");
+			check(!demo.isEmpty() && demo.get(0) >= DEMO_PAUSE_MILLISECONDS,
+					"demo holds every request for its pause");
+			check(!production.isEmpty() && !demo.isEmpty() && rate(production) > rate(demo),
+					"production accepts requests faster than demo");
+		} finally {
+			TestServer.deleteDirectory(directory);
+		}
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * starts a server in a profile, sends it a burst of read requests and prints how
+	 * quickly they were accepted
+	 *
+	 * @param directory directory the server works in
+	 * @param profile name of the profile
+	 * @param requests number of requests sent at once
+	 * @return acceptance times of the requests accepted in milliseconds, in ascending order
+	 * @throws IOException indicates the server could not be started or the requests sent
+	 */
+	private static List<Double> accept(Path directory, String profile, int requests) throws IOException {
+		List<Double> millis = new ArrayList<>();
+		//a client resends a request the demo has not answered within a second, so there are workers for those too
+		try (TestServer server = TestServer.start(directory, "server.profile=" + profile,
+				"server.poolSize=" + 2 * requests, "server.maxPoolSize=" + 2 * requests,
+				"server.maxTransfers=" + 2 * requests, "server.requestRingSize=" + 2 * requests)) {
+			for (TestClient.Read read : new TestClient(server.getAddress()).read("small.bin", requests)) {
+				//an ERROR (the server busy) is an answer, but the request was not accepted
+				if (read.complete)
+					millis.add(read.getAcceptMillis());
+			}
+		}
+		Collections.sort(millis);
+		System.out.printf("%-10s  %8d  %9.1f  %10.1f  %10.0f%n", profile, millis.size(),
+				millis.isEmpty() ? 0 : millis.get(millis.size() / 2),
+				millis.isEmpty() ? 0 : millis.get(millis.size() - 1), rate(millis));
+		return millis;
+	}
+
+	/**
+	 * @param millis acceptance times in milliseconds, in ascending order
+	 * @return number of requests accepted per second, from the burst being sent to the last accepted
+	 */
+	private static double rate(List<Double> millis) {
+		if (millis.isEmpty())
+			return 0;
+		return millis.size() / (millis.get(millis.size() - 1) / 1000);
+	}
+
+	/**
+	 * records the result of a check, printing it if it failed
+	 *
+	 * @param passed true if the check passed
+	 * @param name what was checked
+	 */
+	private static void check(boolean passed, String name) {
+		checks++;
+		if (!passed) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+}
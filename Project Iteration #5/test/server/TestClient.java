@@ -0,0 +1,348 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import protocol.PacketDecoder;
+import protocol.PacketEncoder;
+import protocol.Tftp;
+
+/**
+ * reads files from a server for the tests and benchmarks, any number at once on a
+ * single thread. every read has its own channel (and so its own TID), and all of them
+ * are driven by one selector, so thousands of reads can be in progress together without
+ * a thread each. a read asks for the block size and window size set, acknowledges a
+ * window of blocks at a time as the client does, and resends its last packet when the
+ * server has not answered for a second
+ *
+ * @author Luke Newton
+ */
+final class TestClient {
+	//milliseconds without an answer before the last packet is resent
+	private static final long RETRANSMIT_MILLISECONDS = 1000;
+	//number of times a packet is resent before the read is given up on
+	private static final int MAX_RETRANSMISSIONS = 5;
+
+	//address requests are sent to
+	private final InetSocketAddress server;
+	//block and window size asked for
+	private int blockSize = 512;
+	private int windowSize = 1;
+	//fraction of the packets received that are dropped, to act as a lossy network
+	private double loss;
+	//longest a call to read() may take before the reads still in progress are given up on
+	private long timeoutMillis = 120000;
+
+	/**
+	 * a file read from the server, and how long each step took
+	 */
+	static final class Read {
+		//System.nanoTime() when the request was sent, the server first answered and the read ended (-1 if not yet)
+		long started = -1;
+		long firstResponse = -1;
+		long finished = -1;
+		//bytes of the file received
+		long bytes;
+		//set once every block has been received
+		boolean complete;
+		//why the read failed, or null
+		String error;
+
+		//channel the read is made through, until it ends
+		private DatagramChannel channel;
+		//address the last packet was sent to: the server until it answers, then its TID
+		private SocketAddress peer;
+		//the last packet sent, resent if the server does not answer
+		private ByteBuffer lastSent;
+		//System.nanoTime() when the last packet was sent or the server last answered
+		private long lastActivity;
+		//number of times the last packet has been resent in a row
+		private int retransmissions;
+		//block size and window size in use, the defaults until an OACK agrees others
+		private int blockSize = 512;
+		private int windowSize = 1;
+		//number of the next block expected, not kept to 16 bits
+		private long expected = 1;
+		//blocks received in order since the last ACK
+		private int sinceAcknowledged;
+		//number of the block a gap was last reported after, so each gap is reported once
+		private long gapReported = -1;
+
+		/**
+		 * @return true if the read has ended, whether or not it completed
+		 */
+		boolean isEnded(){
+			return finished >= 0;
+		}
+
+		/**
+		 * @return milliseconds from sending the request to the server's first answer, or -1 if it never answered
+		 */
+		double getAcceptMillis(){
+			return firstResponse < 0 ? -1 : (firstResponse - started) / 1e6;
+		}
+
+		/**
+		 * @return milliseconds the read took, or -1 if it has not ended
+		 */
+		double getMillis(){
+			return finished < 0 ? -1 : (finished - started) / 1e6;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param server address requests are sent to
+	 */
+	TestClient(InetSocketAddress server){
+		this.server = server;
+	}
+
+	/**
+	 * @param blockSize block size to ask for (RFC 2348)
+	 * @return this client
+	 */
+	TestClient blockSize(int blockSize){
+		this.blockSize = blockSize;
+		return this;
+	}
+
+	/**
+	 * @param windowSize window size to ask for (RFC 7440)
+	 * @return this client
+	 */
+	TestClient windowSize(int windowSize){
+		this.windowSize = windowSize;
+		return this;
+	}
+
+	/**
+	 * @param loss fraction of the packets received to drop, 0 for none
+	 * @return this client
+	 */
+	TestClient loss(double loss){
+		this.loss = loss;
+		return this;
+	}
+
+	/**
+	 * @param timeoutMillis longest a call to read() may take
+	 * @return this client
+	 */
+	TestClient timeoutMillis(long timeoutMillis){
+		this.timeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	/**
+	 * reads a file the given number of times at once, returning once every read has
+	 * ended or the timeout has passed
+	 *
+	 * @param fileName name of the file to read
+	 * @param count number of reads to make at once
+	 * @return the reads, in the order their requests were sent
+	 * @throws IOException indicates a channel could not be opened or used
+	 */
+	List<Read> read(String fileName, int count) throws IOException {
+		List<Read> reads = new ArrayList<>(count);
+		ByteBuffer request = createRequest(fileName);
+		ByteBuffer received = ByteBuffer.allocate(65536);
+		try (Selector selector = Selector.open()) {
+			try {
+				for (int i = 0; i < count; i++) {
+					Read read = new Read();
+					read.channel = DatagramChannel.open();
+					read.channel.configureBlocking(false);
+					read.channel.register(selector, SelectionKey.OP_READ, read);
+					reads.add(read);
+				}
+				for (Read read : reads) {
+					read.started = System.nanoTime();
+					read.peer = server;
+					send(read, request.duplicate());
+				}
+
+				int inProgress = count;
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+				long nextRetransmitCheck = System.nanoTime();
+				while (inProgress > 0 && System.nanoTime() < deadline) {
+					selector.select(50);
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						Read read = (Read) keys.next().attachment();
+						keys.remove();
+						received.clear();
+						SocketAddress from;
+						while (!read.isEnded() && (from = read.channel.receive(received)) != null) {
+							received.flip();
+							if (loss <= 0 || ThreadLocalRandom.current().nextDouble() >= loss)
+								handle(read, received, from);
+							received.clear();
+						}
+						if (read.isEnded())
+							inProgress--;
+					}
+					if (System.nanoTime() - nextRetransmitCheck >= 0) {
+						inProgress -= retransmit(reads);
+						nextRetransmitCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+					}
+				}
+				for (Read read : reads) {
+					if (!read.isEnded())
+						end(read, "Did not finish within " + timeoutMillis + " milliseconds");
+				}
+			} finally {
+				for (Read read : reads) {
+					if (read.channel != null)
+						read.channel.close();
+				}
+			}
+		}
+		return reads;
+	}
+
+	/**
+	 * @param fileName name of the file to read
+	 * @return a RRQ for the file, with the options that differ from the defaults
+	 */
+	private ByteBuffer createRequest(String fileName){
+		ByteBuffer request = ByteBuffer.allocate(PacketEncoder.requestLength(fileName, "octet") + 64);
+		PacketEncoder.putRequest(request, Tftp.OP_RRQ, fileName, "octet");
+		if (blockSize != 512)
+			PacketEncoder.putOption(request, Tftp.BLOCK_SIZE_OPTION, blockSize);
+		if (windowSize != 1)
+			PacketEncoder.putOption(request, Tftp.WINDOW_SIZE_OPTION, windowSize);
+		request.flip();
+		return request;
+	}
+
+	/**
+	 * handles a packet received for a read
+	 *
+	 * @param read the read
+	 * @param packet the packet
+	 * @param from where the packet came from
+	 * @throws IOException indicates an ACK could not be sent
+	 */
+	private void handle(Read read, ByteBuffer packet, SocketAddress from) throws IOException {
+		long now = System.nanoTime();
+		if (read.firstResponse < 0) {
+			read.firstResponse = now;
+			//the rest of the read is with the port the server answered from
+			read.peer = from;
+		} else if (!from.equals(read.peer))
+			return;
+		read.lastActivity = now;
+		read.retransmissions = 0;
+
+		byte opcode = PacketDecoder.getOpcode(packet);
+		if (opcode == Tftp.OP_ERROR) {
+			end(read, "ERROR " + PacketDecoder.getErrorCode(packet) + ": " + PacketDecoder.getErrorMessage(packet));
+		} else if (opcode == Tftp.OP_OACK && read.expected == 1) {
+			read.blockSize = (int) option(packet, Tftp.BLOCK_SIZE_OPTION, 512);
+			read.windowSize = (int) option(packet, Tftp.WINDOW_SIZE_OPTION, 1);
+			acknowledge(read, 0);
+		} else if (opcode == Tftp.OP_DATA) {
+			int block = PacketDecoder.getBlockNumber(packet);
+			if (block == (read.expected & 0xFFFF)) {
+				int length = PacketDecoder.getDataLength(packet);
+				read.bytes += length;
+				read.expected++;
+				read.sinceAcknowledged++;
+				boolean last = length < read.blockSize;
+				if (last || read.sinceAcknowledged >= read.windowSize)
+					acknowledge(read, block);
+				if (last) {
+					read.complete = true;
+					end(read, null);
+				}
+			} else if (read.gapReported != read.expected) {
+				//a block was lost (or this is a duplicate): have the server resend from the last block received
+				read.gapReported = read.expected;
+				acknowledge(read, (int) ((read.expected - 1) & 0xFFFF));
+			}
+		}
+	}
+
+	/**
+	 * @param packet an OACK
+	 * @param name name of the option
+	 * @param defaultValue value if the server did not agree to the option
+	 * @return the value agreed
+	 */
+	private static long option(ByteBuffer packet, String name, long defaultValue){
+		int valueStart = PacketDecoder.findOption(packet, 2, name);
+		if (valueStart < 0)
+			return defaultValue;
+		long value = PacketDecoder.parseNumber(packet, valueStart, PacketDecoder.findTextEnd(packet, valueStart));
+		return value < 0 ? defaultValue : value;
+	}
+
+	/**
+	 * @param read the read
+	 * @param block number of the block to acknowledge
+	 * @throws IOException indicates the ACK could not be sent
+	 */
+	private static void acknowledge(Read read, int block) throws IOException {
+		ByteBuffer ack = ByteBuffer.allocate(Tftp.HEADER_LENGTH);
+		PacketEncoder.putAcknowledgement(ack, block);
+		ack.flip();
+		send(read, ack);
+		read.sinceAcknowledged = 0;
+	}
+
+	/**
+	 * @param read the read
+	 * @param packet the packet to send to the read's peer, kept to be resent
+	 * @throws IOException indicates the packet could not be sent
+	 */
+	private static void send(Read read, ByteBuffer packet) throws IOException {
+		read.lastSent = packet;
+		read.channel.send(packet.duplicate(), read.peer);
+		read.lastActivity = System.nanoTime();
+	}
+
+	/**
+	 * resends the last packet of every read the server has not answered for a while
+	 *
+	 * @param reads the reads
+	 * @return number of reads given up on
+	 * @throws IOException indicates a packet could not be resent
+	 */
+	private static int retransmit(List<Read> reads) throws IOException {
+		int ended = 0;
+		long now = System.nanoTime();
+		for (Read read : reads) {
+			if (read.isEnded() || now - read.lastActivity < TimeUnit.MILLISECONDS.toNanos(RETRANSMIT_MILLISECONDS))
+				continue;
+			if (++read.retransmissions > MAX_RETRANSMISSIONS) {
+				end(read, "Server stopped answering");
+				ended++;
+			} else
+				send(read, read.lastSent);
+		}
+		return ended;
+	}
+
+	/**
+	 * @param read the read
+	 * @param error why the read failed, or null if it completed
+	 * @throws IOException indicates the read's channel could not be closed
+	 */
+	private static void end(Read read, String error) throws IOException {
+		read.finished = System.nanoTime();
+		read.error = error;
+		read.channel.close();
+	}
+}
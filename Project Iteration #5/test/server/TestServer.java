@@ -0,0 +1,205 @@
+package server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import protocol.PacketEncoder;
+import protocol.Tftp;
+
+/**
+ * a server run in its own JVM for the tests and benchmarks, so each can choose the
+ * profile, engine and limits (which are read once, from system properties, when the
+ * server class is loaded) and run several servers one after another. the server works in
+ * a directory of its own, whose SERVERDATA folder holds the files it serves, and its
+ * output goes to server.log in that directory
+ *
+ * @author Luke Newton
+ */
+final class TestServer implements Closeable {
+	//longest wait for a server to start answering requests
+	private static final long START_TIMEOUT_MILLISECONDS = 15000;
+
+	//the server's JVM
+	private final Process process;
+	//file the server's output goes to
+	private final Path log;
+	//address requests are sent to
+	private final InetSocketAddress address;
+
+	/**
+	 * Constructor
+	 *
+	 * @param process the server's JVM
+	 * @param address address requests are sent to
+	 * @param log file the server's output goes to
+	 */
+	private TestServer(Process process, InetSocketAddress address, Path log){
+		this.process = process;
+		this.address = address;
+		this.log = log;
+	}
+
+	/**
+	 * creates a directory for a server to work in, with an empty SERVERDATA folder
+	 *
+	 * @return the directory
+	 * @throws IOException indicates the directory could not be created
+	 */
+	static Path createDirectory() throws IOException {
+		Path directory = Files.createTempDirectory("tftp-test");
+		Files.createDirectory(directory.resolve(ServerSpawnThread.DEFAULT_PATH));
+		return directory;
+	}
+
+	/**
+	 * creates a file of the given size in a server's SERVERDATA folder, filled with bytes
+	 * that differ from block to block
+	 *
+	 * @param directory directory the server works in
+	 * @param name name of the file
+	 * @param size number of bytes in the file
+	 * @throws IOException indicates the file could not be written
+	 */
+	static void createFile(Path directory, String name, long size) throws IOException {
+		byte[] chunk = new byte[1 << 16];
+		try (RandomAccessFile file = new RandomAccessFile(directory.resolve(ServerSpawnThread.DEFAULT_PATH + name).toFile(), "rw")) {
+			for (long written = 0; written < size; written += chunk.length) {
+				for (int i = 0; i < chunk.length; i++)
+					chunk[i] = (byte) ((written + i) * 31 / 512);
+				file.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+			}
+		}
+	}
+
+	/**
+	 * deletes a directory a server worked in, with everything in it
+	 *
+	 * @param directory the directory
+	 */
+	static void deleteDirectory(Path directory) {
+		File[] files = directory.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory())
+					deleteDirectory(file.toPath());
+				else
+					file.delete();
+			}
+		}
+		directory.toFile().delete();
+	}
+
+	/**
+	 * starts a server and waits until it answers requests
+	 *
+	 * @param directory directory the server works in
+	 * @param properties system properties to start the server with, as name=value
+	 * @return the server, to be closed once it is no longer needed
+	 * @throws IOException indicates the server could not be started or did not answer
+	 */
+	static TestServer start(Path directory, String... properties) throws IOException {
+		int port;
+		//a free port, very likely still free when the server binds it a moment later
+		try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+			port = socket.getLocalPort();
+		}
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		//the server runs in another directory, so the class path must not be relative
+		StringBuilder classPath = new StringBuilder();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator))
+			classPath.append(classPath.length() == 0 ? "" : File.pathSeparator).append(new File(entry).getAbsolutePath());
+		command.add(classPath.toString());
+		for (String property : properties)
+			command.add("-D" + property);
+		command.add(TestServer.class.getName());
+		command.add(Integer.toString(port));
+		Path log = directory.resolve("server.log");
+		Process process = new ProcessBuilder(command).directory(directory.toFile())
+				.redirectErrorStream(true).redirectOutput(log.toFile()).start();
+
+		TestServer server = new TestServer(process, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), log);
+		try {
+			server.awaitStarted();
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+		return server;
+	}
+
+	/**
+	 * waits until the server answers a request for a file that does not exist
+	 *
+	 * @throws IOException indicates the server did not answer in time
+	 */
+	private void awaitStarted() throws IOException {
+		String fileName = "no-such-file-" + System.nanoTime();
+		ByteBuffer request = ByteBuffer.allocate(PacketEncoder.requestLength(fileName, "octet"));
+		PacketEncoder.putRequest(request, Tftp.OP_RRQ, fileName, "octet");
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_TIMEOUT_MILLISECONDS);
+		try (DatagramSocket socket = new DatagramSocket()) {
+			//the demo profile holds every request for a second before answering it
+			socket.setSoTimeout(1500);
+			DatagramPacket response = new DatagramPacket(new byte[600], 600);
+			while (System.nanoTime() < deadline) {
+				if (!process.isAlive())
+					throw new IOException("Server exited with status " + process.exitValue() + ":\n"
+							+ new String(Files.readAllBytes(log)));
+				socket.send(new DatagramPacket(request.array(), request.limit(), address));
+				try {
+					socket.receive(response);
+					return;
+				} catch (SocketTimeoutException e) {
+					//not listening yet, ask again
+				}
+			}
+		}
+		throw new IOException("Server did not start within " + START_TIMEOUT_MILLISECONDS + " milliseconds");
+	}
+
+	/**
+	 * @return address requests are sent to
+	 */
+	InetSocketAddress getAddress(){
+		return address;
+	}
+
+	/**
+	 * stops the server
+	 */
+	@Override
+	public void close(){
+		process.destroy();
+		try {
+			if (!process.waitFor(5, TimeUnit.SECONDS))
+				process.destroyForcibly().waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * runs a server in this JVM until it is killed, with no console commands
+	 *
+	 * @param args the port to receive requests on
+	 * @throws IOException indicates the server could not be created
+	 */
+	public static void main(String[] args) throws IOException {
+		new Server(Integer.parseInt(args[0])).listen();
+	}
+}
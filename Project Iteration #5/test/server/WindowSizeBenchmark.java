@@ -0,0 +1,55 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * measures how the windowsize option (RFC 7440) raises the throughput of a single read
+ * as the network's delay grows. with a window of one block, every block waits a round
+ * trip for its ACK, so the throughput is about the block size divided by the round trip
+ * time; a window of N blocks sends N blocks per round trip. the client reads through a
+ * relay that holds every packet for the delay in either direction
+ *
+ * run from the project folder (see documentation/README.txt) with
+ *   java -cp build/test server.WindowSizeBenchmark [file KB] [block size]
+ * which defaults to a 256 KB file and 1024 byte blocks
+ *
+ * @author Luke Newton
+ */
+public class WindowSizeBenchmark {
+	//milliseconds each packet is delayed in either direction
+	private static final long[] DELAYS = {1, 10, 50};
+	//window sizes asked for
+	private static final int[] WINDOW_SIZES = {1, 8, 32};
+
+	public static void main(String[] args) throws IOException {
+		int fileKB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+		Path directory = TestServer.createDirectory();
+		try {
+			TestServer.createFile(directory, "bench.bin", fileKB * 1024L);
+			try (TestServer server = TestServer.start(directory)) {
+				System.out.println(fileKB + " KB file, " + blockSize + " byte blocks");
+				System.out.println("delay ms  window  completed  seconds    KB/s");
+				for (long delay : DELAYS) {
+					try (DelayRelay relay = new DelayRelay(server.getAddress(), delay)) {
+						for (int windowSize : WINDOW_SIZES) {
+							List<TestClient.Read> reads = new TestClient(relay.getAddress()).blockSize(blockSize)
+									.windowSize(windowSize).read("bench.bin", 1);
+							TestClient.Read read = reads.get(0);
+							double seconds = read.getMillis() / 1000;
+							System.out.printf("%8d  %6d  %9s  %7.2f  %6.0f%n", delay, windowSize,
+									read.complete ? "yes" : "no", seconds, read.bytes / 1024.0 / seconds);
+							if (!read.complete)
+								System.out.println("          " + read.error);
+						}
+					}
+				}
+			}
+		} finally {
+			TestServer.deleteDirectory(directory);
+		}
+	}
+}